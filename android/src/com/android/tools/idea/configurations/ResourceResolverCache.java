@@ -17,12 +17,14 @@ package com.android.tools.idea.configurations;
 
 import com.android.SdkConstants;
 import com.android.ide.common.rendering.api.ResourceValue;
+import com.android.ide.common.res2.ResourceItem;
 import com.android.ide.common.resources.ResourceValueMap;
 import com.android.ide.common.resources.ResourceRepository;
 import com.android.ide.common.resources.ResourceResolver;
 import com.android.ide.common.resources.configuration.DensityQualifier;
 import com.android.ide.common.resources.configuration.FolderConfiguration;
 import com.android.ide.common.resources.configuration.LocaleQualifier;
+import com.android.ide.common.resources.configuration.ResourceQualifier;
 import com.android.resources.Density;
 import com.android.resources.ResourceType;
 import com.android.sdklib.IAndroidTarget;
@@ -31,8 +33,11 @@ import com.android.tools.idea.res.LocalResourceRepository;
 import com.android.tools.idea.rendering.Locale;
 import com.android.tools.idea.res.ResourceHelper;
 import com.android.tools.idea.rendering.multi.CompatibilityRenderTarget;
-import com.android.utils.SparseArray;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.intellij.openapi.application.Application;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
@@ -47,38 +52,64 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.android.SdkConstants.*;
 
-/** Cache for resolved resources */
+/**
+ * Cache for resolved resources.
+ * <p/>
+ * The cache is safe to use from multiple threads (for example for parallel renders) and is bounded: resolvers are
+ * evicted least recently used first, and the configured resource maps are bounded by the total number of resource
+ * values they hold.
+ * <p/>
+ * Configured app resources are shared between configurations which only differ in qualifiers that no app resource
+ * uses; for example, when the app has no width or height specific resources, all the screen sizes of a device
+ * family share the same configured app resources.
+ */
 public class ResourceResolverCache {
   private static final Logger LOG = Logger.getInstance(ResourceResolverCache.class);
 
+  /** Maximum number of cached resource resolvers */
+  private static final int MAX_RESOLVERS = 32;
+
+  /** Maximum number of resource values held by the configured resource maps, for the app and the framework resources each */
+  private static final int MAX_CONFIGURED_RESOURCE_VALUES = 500_000;
+
   /** The configuration manager this cache corresponds to */
   private final ConfigurationManager myManager;
 
   /** Map from theme and full configuration to the corresponding resource resolver */
-  private final Map<String, ResourceResolver> myResolverMap;
+  private final Cache<String, ResourceResolver> myResolverMap;
 
   /**
    * Map of configured app resources. These are cached separately from the final resource
    * resolver since they can be shared between different layouts that only vary by theme.
-   * Note that they key here is only the full configuration, whereas the map for the
+   * Note that they key here is only the configuration, reduced to the qualifiers used by
+   * the app resources (see {@link #getAppConfigurationKey}), whereas the map for the
    * resolvers also includes the theme.
    */
-  private final Map<String, Map<ResourceType, ResourceValueMap>> myAppResourceMap;
+  private final Cache<String, Map<ResourceType, ResourceValueMap>> myAppResourceMap;
 
   /**
    * Map of configured framework resources. These are cached separately from the final resource
    * resolver since they can be shared between different layouts that only vary by theme
    */
-  private final Map<String, Map<ResourceType, ResourceValueMap>> myFrameworkResourceMap;
+  private final Cache<String, Map<ResourceType, ResourceValueMap>> myFrameworkResourceMap;
 
   /** The generation timestamp of our most recently cached app resources, used to invalidate on edits */
-  private long myCachedGeneration;
+  private final AtomicLong myCachedGeneration = new AtomicLong();
+
+  /**
+   * For each qualifier index of {@link FolderConfiguration}, whether any of the app resources (as of
+   * {@link #myCachedGeneration}) uses it, or null if not computed yet
+   */
+  private volatile boolean[] myUsedAppQualifiers;
 
   /** Map from API level to framework resources */
-  private SparseArray<AndroidTargetData> myFrameworkResources = new SparseArray<AndroidTargetData>();
+  private final Map<Integer, AndroidTargetData> myFrameworkResources = new ConcurrentHashMap<>();
 
   /**
    * Store map keys for the latest custom configuration cached, so that they can be removed from the cache
@@ -89,9 +120,80 @@ public class ResourceResolverCache {
 
   public ResourceResolverCache(ConfigurationManager manager) {
     myManager = manager;
-    myResolverMap = Maps.newHashMap();
-    myAppResourceMap = Maps.newHashMap();
-    myFrameworkResourceMap = Maps.newHashMap();
+    myResolverMap = CacheBuilder.newBuilder().maximumSize(MAX_RESOLVERS).build();
+    myAppResourceMap = CacheBuilder.newBuilder()
+      .maximumWeight(MAX_CONFIGURED_RESOURCE_VALUES)
+      .weigher(ResourceResolverCache::countValues)
+      .build();
+    myFrameworkResourceMap = CacheBuilder.newBuilder()
+      .maximumWeight(MAX_CONFIGURED_RESOURCE_VALUES)
+      .weigher(ResourceResolverCache::countValues)
+      .build();
+  }
+
+  private static int countValues(@NotNull String key, @NotNull Map<ResourceType, ResourceValueMap> resources) {
+    int count = 1;
+    for (ResourceValueMap map : resources.values()) {
+      count += map.size();
+    }
+    return count;
+  }
+
+  /**
+   * Drops everything derived from the app resources if they have changed since they were cached. The framework
+   * resources do not depend on the app resources and are kept.
+   */
+  private void invalidateIfModified(@NotNull LocalResourceRepository resources) {
+    long generation = resources.getModificationCount();
+    long cachedGeneration = myCachedGeneration.get();
+    // Store the modification count as soon as possible. This ensures that if there is any modification of resources while the
+    // resolver is being created, it will be cleared subsequently.
+    if (cachedGeneration != generation && myCachedGeneration.compareAndSet(cachedGeneration, generation)) {
+      myResolverMap.invalidateAll();
+      myAppResourceMap.invalidateAll();
+      myUsedAppQualifiers = null;
+    }
+  }
+
+  /**
+   * Returns the key for the configured app resources for the given configuration. Only the qualifiers used by at
+   * least one app resource take part in the key, since the others can not affect which resources match.
+   */
+  @NotNull
+  private String getAppConfigurationKey(@NotNull final LocalResourceRepository resources, @NotNull FolderConfiguration configuration) {
+    boolean[] used = myUsedAppQualifiers;
+    if (used == null) {
+      used = ApplicationManager.getApplication().runReadAction((Computable<boolean[]>)() -> computeUsedQualifiers(resources));
+      myUsedAppQualifiers = used;
+    }
+
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < used.length; i++) {
+      if (used[i]) {
+        ResourceQualifier qualifier = configuration.getQualifier(i);
+        sb.append(RES_QUALIFIER_SEP).append(qualifier != null ? qualifier.getFolderSegment() : "");
+      }
+    }
+    return sb.toString();
+  }
+
+  @NotNull
+  private static boolean[] computeUsedQualifiers(@NotNull LocalResourceRepository resources) {
+    boolean[] used = new boolean[FolderConfiguration.getQualifierCount()];
+    Set<FolderConfiguration> seen = Sets.newHashSet();
+    for (ListMultimap<String, ResourceItem> items : resources.getItems().values()) {
+      for (ResourceItem item : items.values()) {
+        FolderConfiguration configuration = item.getConfiguration();
+        if (seen.add(configuration)) {
+          for (int i = 0; i < used.length; i++) {
+            if (configuration.getQualifier(i) != null) {
+              used[i] = true;
+            }
+          }
+        }
+      }
+    }
+    return used;
   }
 
   @NotNull
@@ -101,14 +203,7 @@ public class ResourceResolverCache {
     // Are caches up to date?
     final LocalResourceRepository resources = AppResourceRepository.getAppResources(myManager.getModule(), true);
     assert resources != null;
-    if (myCachedGeneration != resources.getModificationCount()) {
-      myResolverMap.clear();
-      myAppResourceMap.clear();
-    }
-
-    // Store the modification count as soon as possible. This ensures that if there is any modification of resources while the
-    // resolver is being created, it will be cleared subsequently.
-    myCachedGeneration = resources.getModificationCount();
+    invalidateIfModified(resources);
 
     // When looking up the configured project and framework resources, the theme doesn't matter, so we look up only
     // by the configuration qualifiers; for example, here's a sample key:
@@ -120,7 +215,7 @@ public class ResourceResolverCache {
     // @style/MyTheme-ldltr-sw384dp-w384dp-h640dp-normal-notlong-port-notnight-xhdpi-finger-keyssoft-nokeys-navhidden-nonav-1280x768-v17
     String configurationKey = fullConfiguration.getUniqueKey();
     String resolverKey = themeStyle + configurationKey;
-    ResourceResolver resolver = myResolverMap.get(resolverKey);
+    ResourceResolver resolver = myResolverMap.getIfPresent(resolverKey);
     if (resolver == null) {
       Map<ResourceType, ResourceValueMap> configuredAppRes;
       Map<ResourceType, ResourceValueMap> frameworkResources;
@@ -138,7 +233,7 @@ public class ResourceResolverCache {
         }
         else {
           // get the framework resource values based on the current config
-          frameworkResources = myFrameworkResourceMap.get(configurationKey);
+          frameworkResources = myFrameworkResourceMap.getIfPresent(configurationKey);
           if (frameworkResources == null) {
             frameworkResources = frameworkRes.getConfiguredResources(fullConfiguration);
 
@@ -157,7 +252,8 @@ public class ResourceResolverCache {
       }
 
       // App resources
-      configuredAppRes = myAppResourceMap.get(configurationKey);
+      String appConfigurationKey = getAppConfigurationKey(resources, fullConfiguration);
+      configuredAppRes = myAppResourceMap.getIfPresent(appConfigurationKey);
       if (configuredAppRes == null) {
         // get the project resource values based on the current config
         Application application = ApplicationManager.getApplication();
@@ -167,7 +263,7 @@ public class ResourceResolverCache {
             return resources.getConfiguredResources(fullConfiguration);
           }
         });
-        myAppResourceMap.put(configurationKey, configuredAppRes);
+        myAppResourceMap.put(appConfigurationKey, configuredAppRes);
       }
 
       // Resource Resolver
@@ -310,18 +406,20 @@ public class ResourceResolverCache {
   }
 
   public void reset() {
-    myCachedGeneration = 0;
-    myAppResourceMap.clear();
-    myResolverMap.clear();
+    myCachedGeneration.set(0);
+    myUsedAppQualifiers = null;
+    myAppResourceMap.invalidateAll();
+    myResolverMap.invalidateAll();
   }
 
-  public void replaceCustomConfig(@NotNull String themeStyle, @NotNull final FolderConfiguration fullConfiguration) {
+  public synchronized void replaceCustomConfig(@NotNull String themeStyle, @NotNull final FolderConfiguration fullConfiguration) {
+    // The configured app resources are shared with other configurations (see getAppConfigurationKey) so they are
+    // left to the cache eviction
     if (myCustomConfigurationKey != null) {
-      myFrameworkResourceMap.remove(myCustomConfigurationKey);
-      myAppResourceMap.remove(myCustomConfigurationKey);
+      myFrameworkResourceMap.invalidate(myCustomConfigurationKey);
     }
     if (myCustomResolverKey != null) {
-      myResolverMap.remove(myCustomResolverKey);
+      myResolverMap.invalidate(myCustomResolverKey);
     }
     myCustomConfigurationKey = fullConfiguration.getUniqueKey();
     myCustomResolverKey = themeStyle + myCustomConfigurationKey;
@@ -20,6 +20,7 @@ import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGClass;
 import com.android.tools.idea.experimental.codeanalysis.utils.PsiCFGAnalysisUtil;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.intellij.analysis.AnalysisScope;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.*;
@@ -27,6 +28,7 @@ import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.Set;
 
 public class CodeAnalysisMain {
 
@@ -36,6 +38,9 @@ public class CodeAnalysisMain {
 
   private PsiCFGScene mScene;
 
+  //The files analyzed to build mScene
+  private Set<PsiFile> mAnalyzedFiles;
+
   private CodeAnalysisMain(Project project) {
     mProject = project;
   }
@@ -55,17 +60,27 @@ public class CodeAnalysisMain {
   public void analyze(@NotNull AnalysisScope scope) {
 
 //    PsiDocumentManager.getInstance(mProject).commitAllDocuments();
-    //Create a mScene for this project.
-    //Each project has its own mScene.
-    mScene = PsiCFGScene.createFreshInstance(mProject);
-    PsiCFGAnalysisUtil AnalysisUtil = mScene.analysisUtil;
-
     //Get list of java files available in this project
     int fileCount = scope.getFileCount();
     //LOG.info("File count in scope " + fileCount);
     PsiFile[] allFilesInScope = findAllJavaFiles(mProject, scope);
     //LOG.info("File count in visitor " + allFilesInScope.length);
     //outputFileNames(allFilesInScope);
+    Set<PsiFile> analyzedFiles = Sets.newHashSet(allFilesInScope);
+
+    //Reuse the scene of the previous analysis of the same files if only
+    //method bodies changed since then.
+    if (mScene != null && mScene == PsiCFGScene.getInstance(mProject) && analyzedFiles.equals(mAnalyzedFiles)
+        && mScene.analysisUtil.performIncrementalUpdate()) {
+      mScene.analysisUtil.performStage6();
+      return;
+    }
+
+    //Create a mScene for this project.
+    //Each project has its own mScene.
+    mScene = PsiCFGScene.createFreshInstance(mProject);
+    mAnalyzedFiles = analyzedFiles;
+    PsiCFGAnalysisUtil AnalysisUtil = mScene.analysisUtil;
 
     //Extract all java classes from java files.
     //Consider these classes are application classes.
@@ -16,31 +16,52 @@
 package com.android.tools.idea.experimental.codeanalysis;
 
 import com.android.tools.idea.experimental.codeanalysis.callgraph.Callgraph;
+import com.android.tools.idea.experimental.codeanalysis.callgraph.CallgraphIndex;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGClass;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGMethod;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.BlockGraph;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.Graph;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.MethodGraph;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.node.GraphNode;
 import com.android.tools.idea.experimental.codeanalysis.utils.CFGUtil;
 import com.android.tools.idea.experimental.codeanalysis.utils.PsiCFGAnalysisUtil;
 import com.android.tools.idea.experimental.codeanalysis.utils.PsiCFGDebugUtil;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Queues;
 import com.google.common.collect.Sets;
+import com.intellij.openapi.Disposable;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectUtil;
+import com.intellij.openapi.util.Disposer;
 import com.intellij.psi.*;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.psi.util.PsiUtil;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.android.util.AndroidUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentMap;
 
 /**
  * A class that saves all information of the interprocedural control
  * flow analysis
+ *
+ * The control flow graphs of the methods are built in parallel, so the
+ * class registry and the invocation nodes can be updated from several
+ * threads. The scene also tracks the PSI changes made after it was built,
+ * so that only the methods whose body changed need to be built again,
+ * see {@link PsiCFGAnalysisUtil#performIncrementalUpdate()}.
  */
-public class PsiCFGScene {
+public class PsiCFGScene implements Disposable {
   private static ConcurrentMap<Project, PsiCFGScene> instanceMap = Maps.newConcurrentMap();
 
+  private static final String CALLGRAPH_DIRECTORY = "codeanalysis";
+  private static final String CALLGRAPH_FILE = "callgraph.bin";
+
   private Map<String, PsiCFGClass> mAppClassNamePsiMap;
   private Map<String, PsiCFGClass> mLibraryClassNamePsiMap;
 
@@ -51,14 +72,25 @@ public class PsiCFGScene {
 
   private Project mProject;
 
-  protected ArrayList<GraphNode> mInvocationNodes;
+  protected List<GraphNode> mInvocationNodes;
 
   public PsiCFGAnalysisUtil analysisUtil;
 
   protected Callgraph mCallGraph;
 
+  private CallgraphIndex mCallgraphIndex;
+
   public Deque<PsiCFGClass> workingList;
 
+  //Methods that declare local or anonymous classes
+  private Set<PsiCFGMethod> mMethodsWithNestedClasses;
+
+  //Methods whose body changed since the scene was built
+  private final Set<PsiMethod> mChangedMethods = ContainerUtil.newConcurrentSet();
+
+  //Whether there was a change outside of method bodies since the scene was built
+  private volatile boolean mStructureChanged;
+
 
   //private Map<PsiClass, PsiCFGClassBase> mPsiClassPsiMap;
 
@@ -79,8 +111,15 @@ public class PsiCFGScene {
     mAppPsiClassPsiCFGClassMap = Maps.newHashMap();
     mLibraryPsiClassPsiCFGClassMap = Maps.newHashMap();
     mLambdaPsiCFGClassMap = Maps.newHashMap();
-    mInvocationNodes = Lists.newArrayList();
-    workingList = Queues.newArrayDeque();
+    mInvocationNodes = Collections.synchronizedList(Lists.newArrayList());
+    workingList = new ConcurrentLinkedDeque<>();
+    mMethodsWithNestedClasses = Sets.newHashSet();
+    PsiManager.getInstance(proj).addPsiTreeChangeListener(new ChangeListener(), this);
+  }
+
+  @Override
+  public void dispose() {
+    instanceMap.remove(mProject, this);
   }
 
   public void setCallGraph(Callgraph callGraph) {
@@ -91,12 +130,145 @@ public class PsiCFGScene {
     return mCallGraph;
   }
 
+  /**
+   * Update the compact index of the call graph and save it,
+   * so that it is available when the project is opened again.
+   */
+  public void updateCallgraphIndex() {
+    if (mCallGraph == null) {
+      return;
+    }
+    CallgraphIndex index = CallgraphIndex.create(mCallGraph);
+    synchronized (this) {
+      mCallgraphIndex = index;
+    }
+    File file = getCallgraphIndexFile();
+    if (file != null) {
+      index.save(file);
+    }
+  }
+
+  /**
+   * Get the compact index of the call graph. If the call graph was not
+   * built since the project was opened, the index saved by the last
+   * analysis is returned.
+   * @return The index, or null if the call graph was never built
+   */
+  @Nullable
+  public synchronized CallgraphIndex getCallgraphIndex() {
+    if (mCallgraphIndex == null) {
+      File file = getCallgraphIndexFile();
+      if (file != null) {
+        mCallgraphIndex = CallgraphIndex.load(file);
+      }
+    }
+    return mCallgraphIndex;
+  }
+
+  @Nullable
+  private File getCallgraphIndexFile() {
+    if (mProject.isDefault()) {
+      return null;
+    }
+    File root = new File(AndroidUtils.getAndroidSystemDirectoryOsPath(), CALLGRAPH_DIRECTORY);
+    return ProjectUtil.getProjectCachePath(mProject, root.toPath()).resolve(CALLGRAPH_FILE).toFile();
+  }
+
   public void addInvocationNode(GraphNode node) {
     mInvocationNodes.add(node);
   }
 
   public GraphNode[] getAllInvocationNode() {
-    return mInvocationNodes.toArray(GraphNode.EMPTY_ARRAY);
+    synchronized (mInvocationNodes) {
+      return mInvocationNodes.toArray(GraphNode.EMPTY_ARRAY);
+    }
+  }
+
+  /**
+   * Get the invocation nodes of the control flow graphs of the given methods
+   * @param methods The methods
+   * @return The invocation nodes of each method that has some
+   */
+  @NotNull
+  public Map<PsiCFGMethod, List<GraphNode>> getInvocationNodes(@NotNull Set<PsiCFGMethod> methods) {
+    Map<PsiCFGMethod, List<GraphNode>> retMap = Maps.newHashMap();
+    synchronized (mInvocationNodes) {
+      for (GraphNode node : mInvocationNodes) {
+        PsiCFGMethod method = getParentMethod(node);
+        if (method != null && methods.contains(method)) {
+          retMap.computeIfAbsent(method, k -> Lists.newArrayList()).add(node);
+        }
+      }
+    }
+    return retMap;
+  }
+
+  /**
+   * Remove the invocation nodes of the given methods, before their control
+   * flow graphs are built again.
+   * @param methods The methods
+   * @return The removed invocation nodes of each method
+   */
+  @NotNull
+  public Map<PsiCFGMethod, List<GraphNode>> removeInvocationNodes(@NotNull Set<PsiCFGMethod> methods) {
+    synchronized (mInvocationNodes) {
+      Map<PsiCFGMethod, List<GraphNode>> retMap = getInvocationNodes(methods);
+      for (List<GraphNode> nodes : retMap.values()) {
+        mInvocationNodes.removeAll(Sets.newHashSet(nodes));
+      }
+      return retMap;
+    }
+  }
+
+  @Nullable
+  private static PsiCFGMethod getParentMethod(@NotNull GraphNode node) {
+    Graph parentGraph = node.getParentGraph();
+    while (parentGraph != null && (!(parentGraph instanceof MethodGraph))) {
+      parentGraph = parentGraph.getParentGraph();
+    }
+    return parentGraph == null ? null : ((MethodGraph)parentGraph).getPsiCFGMethod();
+  }
+
+  /**
+   * Get the methods whose body changed since the scene was built
+   * @return A new set of the changed methods
+   */
+  @NotNull
+  public Set<PsiMethod> getChangedMethods() {
+    return Sets.newHashSet(mChangedMethods);
+  }
+
+  /**
+   * Forget the given changes, once the graphs of these methods are built again
+   */
+  public void clearChangedMethods(@NotNull Collection<PsiMethod> methods) {
+    mChangedMethods.removeAll(methods);
+  }
+
+  /**
+   * Whether the classes, their members or any code outside of method bodies
+   * changed since the scene was built. These changes need a full rebuild.
+   */
+  public boolean isStructureChanged() {
+    return mStructureChanged;
+  }
+
+  /**
+   * Whether the control flow graph of this method declares local or anonymous
+   * classes or lambdas. Those are registered in the scene and named after their
+   * declaration order, so the method cannot be built again on its own.
+   */
+  public synchronized boolean hasNestedDeclarations(@NotNull PsiCFGMethod method) {
+    if (mMethodsWithNestedClasses.contains(method)) {
+      return true;
+    }
+    PsiMethod methodRef = method.getMethodRef();
+    for (PsiLambdaExpression lambda : mLambdaPsiCFGClassMap.keySet()) {
+      if (!lambda.isValid() || (methodRef != null && PsiTreeUtil.isAncestor(methodRef, lambda, true))) {
+        return true;
+      }
+    }
+    return false;
   }
 
   /**
@@ -104,10 +276,10 @@ public class PsiCFGScene {
    * The original idea is that the CFG does not need be recreated each time it is used.
    * So the the instance of the PsiCFGScene is saved into a Project, PsiCFGSCene map.
    *
-   * However, in the entry of the analysis, the CFG and call graph is still recreated each
-   * time the analysis is invoked.
+   * The entry of the analysis reuses it when only method bodies changed since the last
+   * analysis, and only builds the graphs of these methods again.
    *
-   * This may raise a memory leak issue.
+   * The scene is disposed, and removed from the map, when the project is closed.
    * @param proj The current project instance
    * @return The PsiCFGScene associated with this project.
    */
@@ -120,6 +292,7 @@ public class PsiCFGScene {
       //Not exist, create one.
       PsiCFGScene instance = new PsiCFGScene(proj);
       instanceMap.put(proj, instance);
+      Disposer.register(proj, instance);
       return instance;
     }
   }
@@ -130,12 +303,14 @@ public class PsiCFGScene {
    * @return The PsiCFGScene associated with this project.
    */
   public static PsiCFGScene createFreshInstance(Project proj) {
-    if (instanceMap.containsKey(proj)) {
+    PsiCFGScene oldInstance = instanceMap.remove(proj);
+    if (oldInstance != null) {
       //A instance of Static Analysis Scene is already existed
-      instanceMap.remove(proj);
+      Disposer.dispose(oldInstance);
     }
     PsiCFGScene instance = new PsiCFGScene(proj);
     instanceMap.put(proj, instance);
+    Disposer.register(proj, instance);
     return instance;
   }
 
@@ -143,7 +318,7 @@ public class PsiCFGScene {
    * Get all PsiClass instances found by visiting all java files in the project.
    * @return A new array of PsiClass instances which are application classes.
    */
-  public PsiClass[] getAllApplicationPsiClasses() {
+  public synchronized PsiClass[] getAllApplicationPsiClasses() {
     PsiClass[] retArray = new PsiClass[mAppClassNamePsiMap.size()];
     int i = 0;
     for (String className : mAppClassNamePsiMap.keySet()) {
@@ -158,7 +333,7 @@ public class PsiCFGScene {
    * Get all PsiCFGClass instances constructed from the application classses.
    * @return A new array of PsiCFGClass instances which are application classes will be returned.
    */
-  public PsiCFGClass[] getAllApplicationClasses() {
+  public synchronized PsiCFGClass[] getAllApplicationClasses() {
     PsiCFGClass[] retArray = new PsiCFGClass[mAppClassNamePsiMap.size()];
     int i = 0;
     for (String className : mAppClassNamePsiMap.keySet()) {
@@ -172,7 +347,7 @@ public class PsiCFGScene {
    * Get the set of PsiCFGClass instances which are application classes.
    * @return A new set of PsiCFGClass instances which are application classes will be returned.
    */
-  public Set<PsiClass> getAllLibraryClassPsiSet() {
+  public synchronized Set<PsiClass> getAllLibraryClassPsiSet() {
     return Sets.newHashSet(this.mLibraryPsiClassPsiCFGClassMap.keySet());
   }
 
@@ -180,7 +355,7 @@ public class PsiCFGScene {
    * Get all PsiCFGClass instances constructed from the library classses.
    * @return A new array of PsiCFGClass instances which are library classes will be returned.
    */
-  public PsiCFGClass[] getAllLibraryClasses() {
+  public synchronized PsiCFGClass[] getAllLibraryClasses() {
     PsiCFGClass[] retArray = new PsiCFGClass[mLibraryClassNamePsiMap.size()];
     int i = 0;
     for (String className : mLibraryClassNamePsiMap.keySet()) {
@@ -195,7 +370,7 @@ public class PsiCFGScene {
    * @return A new array of PsiCFGClass instances which are lambda anonymous classes will be
    * returned.
    */
-  public PsiCFGClass[] getAllLambdaClass() {
+  public synchronized PsiCFGClass[] getAllLambdaClass() {
     PsiCFGClass[] retArray = new PsiCFGClass[mLambdaPsiCFGClassMap.size()];
     int i = 0;
     for (PsiLambdaExpression lbdExpr : mLambdaPsiCFGClassMap.keySet()) {
@@ -211,7 +386,7 @@ public class PsiCFGScene {
    * @param name The qualified name of the class
    * @return The PsiCFGClass instance.
    */
-  public PsiCFGClass getPsiCFGClass(String name) {
+  public synchronized PsiCFGClass getPsiCFGClass(String name) {
     if (mAppClassNamePsiMap.containsKey(name)) {
       return mAppClassNamePsiMap.get(name);
     }
@@ -230,7 +405,7 @@ public class PsiCFGScene {
    * @param name The PsiClass
    * @return The PsiCFGClass instance.
    */
-  public PsiCFGClass getPsiCFGClass(PsiClass psiClazz) {
+  public synchronized PsiCFGClass getPsiCFGClass(PsiClass psiClazz) {
     if (mAppPsiClassPsiCFGClassMap.containsKey(psiClazz)) {
       return mAppPsiClassPsiCFGClassMap.get(psiClazz);
     }
@@ -243,7 +418,7 @@ public class PsiCFGScene {
     }
   }
 
-  public PsiCFGClass getOrCreateCFGClass(PsiClass psiClazz) {
+  public synchronized PsiCFGClass getOrCreateCFGClass(PsiClass psiClazz) {
     PsiCFGClass retClass = getPsiCFGClass(psiClazz);
     if (retClass == null) {
       retClass = createAndParsePsiCFGClassOnTheFly(psiClazz);
@@ -251,9 +426,9 @@ public class PsiCFGScene {
     return retClass;
   }
 
-  public PsiCFGClass createPsiCFGClass(PsiClass psiClass,
-                                       PsiFile declaringFile,
-                                       boolean bAppClass) {
+  public synchronized PsiCFGClass createPsiCFGClass(PsiClass psiClass,
+                                                    PsiFile declaringFile,
+                                                    boolean bAppClass) {
     String fullClassName = psiClass.getQualifiedName();
     if (fullClassName == null) {
       //TODO: Local or anonymous class
@@ -304,7 +479,7 @@ public class PsiCFGScene {
    * @param psiClass
    * @return
    */
-  public PsiCFGClass createAndParsePsiCFGClassOnTheFly(PsiClass psiClass) {
+  public synchronized PsiCFGClass createAndParsePsiCFGClassOnTheFly(PsiClass psiClass) {
     //Sanity check. Make sure the psiClass param is really not in side the App classes.
     if (mAppPsiClassPsiCFGClassMap.containsKey(psiClass)) {
       //Not expected. Print a log
@@ -329,7 +504,7 @@ public class PsiCFGScene {
    * @param clazz
    * @return
    */
-  public PsiCFGClass createLibraryCFGClassesWInnerClasses(PsiClass clazz) {
+  public synchronized PsiCFGClass createLibraryCFGClassesWInnerClasses(PsiClass clazz) {
     ArrayList<PsiClass> classList = Lists.newArrayList();
     retriveClassAndInnerClass(classList, clazz);
     classList.remove(clazz);
@@ -358,10 +533,10 @@ public class PsiCFGScene {
   }
 
 
-  public PsiCFGClass getOrCreateNestedClass(PsiClass nestedClass,
-                                            PsiCFGClass parentCFGClass,
-                                            PsiCFGMethod declaringMethod,
-                                            BlockGraph declaringBlock) {
+  public synchronized PsiCFGClass getOrCreateNestedClass(PsiClass nestedClass,
+                                                         PsiCFGClass parentCFGClass,
+                                                         PsiCFGMethod declaringMethod,
+                                                         BlockGraph declaringBlock) {
     PsiCFGClass currentNestedCFGClass =
       new PsiCFGClass(nestedClass, parentCFGClass.getDeclearingFile());
 
@@ -379,6 +554,7 @@ public class PsiCFGScene {
     }
 
     parentCFGClass.addNestedInnerClass(currentNestedCFGClass, className);
+    mMethodsWithNestedClasses.add(declaringMethod);
 
     workingList.addLast(currentNestedCFGClass);
 
@@ -404,12 +580,15 @@ public class PsiCFGScene {
     wrapperClass.setAnonlymous();
     wrapperClass.setLambdaRef(lambdaExpress);
     //parentInterfaceCFGClass.addLambda(wrapperClass);
-    declearingClass.addLambda(wrapperClass);
     wrapperClass.setDirectOverride(parentInterfaceCFGClass);
 
     PsiCFGMethod wrapperMethod = new PsiCFGMethod(lambdaExpress, overridedMethod, wrapperClass);
     wrapperClass.addMethod(wrapperMethod);
-    mLambdaPsiCFGClassMap.put(lambdaExpress, wrapperClass);
+    synchronized (this) {
+      declearingClass.addLambda(wrapperClass);
+      mLambdaPsiCFGClassMap.put(lambdaExpress, wrapperClass);
+    }
+    //Not synchronized, the graph of the lambda is built like the graph of its declaring method
     CFGUtil.constructMethodGraphForLambda(this, wrapperMethod);
     return wrapperClass;
   }
@@ -431,4 +610,58 @@ public class PsiCFGScene {
     }
     return retMethod;
   }
+
+  /**
+   * Records the methods whose body is modified, and whether anything else in
+   * the Java files is modified.
+   */
+  private class ChangeListener extends PsiTreeChangeAdapter {
+    @Override
+    public void childAdded(@NotNull PsiTreeChangeEvent event) {
+      psiChanged(event);
+    }
+
+    @Override
+    public void childRemoved(@NotNull PsiTreeChangeEvent event) {
+      psiChanged(event);
+    }
+
+    @Override
+    public void childReplaced(@NotNull PsiTreeChangeEvent event) {
+      psiChanged(event);
+    }
+
+    @Override
+    public void childrenChanged(@NotNull PsiTreeChangeEvent event) {
+      psiChanged(event);
+    }
+
+    @Override
+    public void childMoved(@NotNull PsiTreeChangeEvent event) {
+      psiChanged(event);
+    }
+
+    @Override
+    public void propertyChanged(@NotNull PsiTreeChangeEvent event) {
+      psiChanged(event);
+    }
+
+    private void psiChanged(@NotNull PsiTreeChangeEvent event) {
+      PsiFile file = event.getFile();
+      if (file != null && !(file instanceof PsiJavaFile)) {
+        return;
+      }
+      PsiElement parent = event.getParent();
+      PsiMethod method = parent == null ? null : PsiTreeUtil.getParentOfType(parent, PsiMethod.class, false);
+      PsiCodeBlock body = method == null ? null : method.getBody();
+      PsiClass containingClass = method == null ? null : method.getContainingClass();
+      if (body != null && containingClass != null && !PsiUtil.isLocalOrAnonymousClass(containingClass)
+          && PsiTreeUtil.isAncestor(body, parent, false)) {
+        mChangedMethods.add(method);
+      }
+      else {
+        mStructureChanged = true;
+      }
+    }
+  }
 }
@@ -24,6 +24,8 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.Sets;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.Collection;
 import java.util.Set;
@@ -102,6 +104,63 @@ public class Callgraph {
 
   public Set<PsiCFGMethod> allMethodsInGraph;
 
+  /**
+   * Remove the edges of the given invocation nodes. Used before the control flow
+   * graph of their method is built again.
+   * @param callerMethod The method that contains the nodes
+   * @param nodes The invocation nodes of the method
+   */
+  void removeInvocationNodes(@NotNull PsiCFGMethod callerMethod, @NotNull Collection<GraphNode> nodes) {
+    for (GraphNode node : nodes) {
+      for (PsiCFGMethod callee : callerNodeToMethodsMap.removeAll(node)) {
+        calleeMethodToCallerGraphNodeMap.remove(callee, node);
+      }
+      for (GraphNode calleeEntry : callerNodeToCalleeNodeMap.removeAll(node)) {
+        MethodGraph calleeGraph = getMethodGraph(calleeEntry);
+        if (calleeGraph != null) {
+          calleeNodeToCallerNodeMap.remove(calleeGraph.getExitNode(), node);
+        }
+      }
+    }
+    for (PsiCFGMethod callee : callerMethodToCalleeMethodMap.removeAll(callerMethod)) {
+      calleeMethodToCallerMethodReturnMap.remove(callee, callerMethod);
+      if (!callerMethodToCalleeMethodMap.containsKey(callee) && !calleeMethodToCallerMethodReturnMap.containsKey(callee)) {
+        allMethodsInGraph.remove(callee);
+      }
+    }
+    if (!calleeMethodToCallerMethodReturnMap.containsKey(callerMethod)) {
+      allMethodsInGraph.remove(callerMethod);
+    }
+  }
+
+  /**
+   * Link the callers of the method to its new control flow graph
+   * @param method The method whose control flow graph was built again
+   * @param oldGraph The previous control flow graph of the method
+   */
+  void replaceMethodGraph(@NotNull PsiCFGMethod method, @Nullable MethodGraph oldGraph) {
+    MethodGraph newGraph = method.getControlFlowGraph();
+    for (GraphNode callerNode : calleeMethodToCallerGraphNodeMap.get(method)) {
+      if (oldGraph != null) {
+        callerNodeToCalleeNodeMap.remove(callerNode, oldGraph.getEntryNode());
+        calleeNodeToCallerNodeMap.remove(oldGraph.getExitNode(), callerNode);
+      }
+      if (newGraph != null) {
+        callerNodeToCalleeNodeMap.put(callerNode, newGraph.getEntryNode());
+        calleeNodeToCallerNodeMap.put(newGraph.getExitNode(), callerNode);
+      }
+    }
+  }
+
+  @Nullable
+  private static MethodGraph getMethodGraph(@NotNull GraphNode node) {
+    Graph parentGraph = node.getParentGraph();
+    while (parentGraph != null && (!(parentGraph instanceof MethodGraph))) {
+      parentGraph = parentGraph.getParentGraph();
+    }
+    return (MethodGraph)parentGraph;
+  }
+
   protected Callgraph() {
     this.callerNodeToMethodsMap = Multimaps.newSetMultimap(
       Maps.newHashMap(), new Supplier<Set<PsiCFGMethod>>() {
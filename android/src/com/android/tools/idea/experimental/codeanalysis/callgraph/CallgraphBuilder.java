@@ -37,6 +37,7 @@ import com.intellij.psi.PsiType;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -64,6 +65,17 @@ public class CallgraphBuilder {
     JAVA_LANG_OBJECT = mScene.getPsiCFGClass("java.lang.Object");
   }
 
+  /**
+   * Create a builder that updates an existing call graph,
+   * see {@link #update(Map, Map)}
+   */
+  public CallgraphBuilder(@NotNull PsiCFGScene scene,
+                          @NotNull PsiCFGAnalysisUtil analysisUtil,
+                          @NotNull Callgraph callGraph) {
+    this(scene, analysisUtil);
+    this.mCallGraphInstance = callGraph;
+  }
+
   public void build() {
     //Initiate
 
@@ -78,6 +90,30 @@ public class CallgraphBuilder {
     }
   }
 
+  /**
+   * Update the call graph after the control flow graphs of some methods were
+   * built again, e.g. after their body was edited. The class hierarchy must be
+   * unchanged, so the edges of the other invocation sites are still valid.
+   *
+   * @param oldGraphs            The methods whose graph was built again, with their
+   *                             previous graph
+   * @param oldInvocationNodes   The invocation nodes of the previous graphs
+   */
+  public void update(@NotNull Map<PsiCFGMethod, MethodGraph> oldGraphs,
+                     @NotNull Map<PsiCFGMethod, List<GraphNode>> oldInvocationNodes) {
+    for (Map.Entry<PsiCFGMethod, List<GraphNode>> entry : oldInvocationNodes.entrySet()) {
+      mCallGraphInstance.removeInvocationNodes(entry.getKey(), entry.getValue());
+    }
+    for (Map.Entry<PsiCFGMethod, MethodGraph> entry : oldGraphs.entrySet()) {
+      mCallGraphInstance.replaceMethodGraph(entry.getKey(), entry.getValue());
+    }
+    for (List<GraphNode> nodes : mScene.getInvocationNodes(oldGraphs.keySet()).values()) {
+      for (GraphNode node : nodes) {
+        processSingleInvocation(node);
+      }
+    }
+  }
+
   /**
    * Create call graph edges for a single invocation site
    *
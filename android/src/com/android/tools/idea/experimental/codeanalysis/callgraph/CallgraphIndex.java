@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.experimental.codeanalysis.callgraph;
+
+import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGMethod;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGPartialMethodSignature;
+import com.android.tools.idea.experimental.codeanalysis.utils.PsiCFGDebugUtil;
+import com.google.common.collect.Maps;
+import com.intellij.psi.PsiType;
+import gnu.trove.TObjectIntHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A compact, method level view of a {@link Callgraph}.
+ *
+ * Methods are numbered from 0 and identified by a key made of the declaring class name, the method
+ * name and the parameter types, which does not depend on the PSI. The edges are stored in two
+ * int arrays per direction: the callees of method i are
+ * callees[calleeOffsets[i]] .. callees[calleeOffsets[i + 1] - 1], and the same for the callers.
+ *
+ * As it does not reference the PSI, the index can be saved to disk and loaded when the project is
+ * opened again, before the control flow graphs are built.
+ */
+public class CallgraphIndex {
+  private static final int VERSION = 1;
+
+  private final String[] mMethodKeys;
+  private final TObjectIntHashMap<String> mMethodIndices;
+
+  private final int[] mCalleeOffsets;
+  private final int[] mCallees;
+  private final int[] mCallerOffsets;
+  private final int[] mCallers;
+
+  private CallgraphIndex(@NotNull String[] methodKeys,
+                         @NotNull int[] calleeOffsets,
+                         @NotNull int[] callees,
+                         @NotNull int[] callerOffsets,
+                         @NotNull int[] callers) {
+    mMethodKeys = methodKeys;
+    mCalleeOffsets = calleeOffsets;
+    mCallees = callees;
+    mCallerOffsets = callerOffsets;
+    mCallers = callers;
+    mMethodIndices = new TObjectIntHashMap<>(methodKeys.length);
+    for (int i = 0; i < methodKeys.length; i++) {
+      mMethodIndices.put(methodKeys[i], i);
+    }
+  }
+
+  /**
+   * Create the index of the method level edges of the call graph
+   * @param callgraph The call graph built by the CallgraphBuilder
+   * @return The index
+   */
+  @NotNull
+  public static CallgraphIndex create(@NotNull Callgraph callgraph) {
+    // Methods with the same key (e.g. from classes with the same name in two modules) share an index
+    Map<String, Integer> indices = Maps.newLinkedHashMap();
+    Map<PsiCFGMethod, Integer> methodIndices = Maps.newHashMap();
+    for (PsiCFGMethod method : callgraph.allMethodsInGraph) {
+      String key = getMethodKey(method);
+      Integer index = indices.get(key);
+      if (index == null) {
+        index = indices.size();
+        indices.put(key, index);
+      }
+      methodIndices.put(method, index);
+    }
+
+    int count = indices.size();
+    int[][] callees = new int[count][];
+    int[][] callers = new int[count][];
+    for (Map.Entry<PsiCFGMethod, Integer> entry : methodIndices.entrySet()) {
+      int index = entry.getValue();
+      callees[index] = merge(callees[index], callgraph.callerMethodToCalleeMethodMap.get(entry.getKey()), methodIndices);
+      callers[index] = merge(callers[index], callgraph.calleeMethodToCallerMethodReturnMap.get(entry.getKey()), methodIndices);
+    }
+
+    int[] calleeOffsets = new int[count + 1];
+    int[] callerOffsets = new int[count + 1];
+    return new CallgraphIndex(indices.keySet().toArray(new String[count]),
+                              calleeOffsets, flatten(callees, calleeOffsets),
+                              callerOffsets, flatten(callers, callerOffsets));
+  }
+
+  @NotNull
+  private static int[] merge(@Nullable int[] existing,
+                             @NotNull Collection<PsiCFGMethod> methods,
+                             @NotNull Map<PsiCFGMethod, Integer> methodIndices) {
+    int[] result = existing == null ? new int[methods.size()] : Arrays.copyOf(existing, existing.length + methods.size());
+    int size = existing == null ? 0 : existing.length;
+    for (PsiCFGMethod method : methods) {
+      Integer index = methodIndices.get(method);
+      if (index != null) {
+        result[size++] = index;
+      }
+    }
+    result = Arrays.copyOf(result, size);
+    Arrays.sort(result);
+    // Remove the duplicates
+    int unique = 0;
+    for (int i = 0; i < result.length; i++) {
+      if (i == 0 || result[i] != result[i - 1]) {
+        result[unique++] = result[i];
+      }
+    }
+    return Arrays.copyOf(result, unique);
+  }
+
+  @NotNull
+  private static int[] flatten(@NotNull int[][] edges, @NotNull int[] offsets) {
+    int total = 0;
+    for (int i = 0; i < edges.length; i++) {
+      offsets[i] = total;
+      total += edges[i] == null ? 0 : edges[i].length;
+    }
+    offsets[edges.length] = total;
+
+    int[] result = new int[total];
+    for (int i = 0; i < edges.length; i++) {
+      if (edges[i] != null) {
+        System.arraycopy(edges[i], 0, result, offsets[i], edges[i].length);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Get the key identifying the method in the index
+   * E.g. com.example.A#foo(int,java.lang.String)
+   * @param method The method
+   * @return The key
+   */
+  @NotNull
+  public static String getMethodKey(@NotNull PsiCFGMethod method) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(method.getDeclaringClass().getQualifiedClassName()).append('#').append(method.getName()).append('(');
+    PsiCFGPartialMethodSignature signature = method.getSignature();
+    if (signature != null && signature.parameterTypes != null) {
+      PsiType[] types = signature.parameterTypes;
+      for (int i = 0; i < types.length; i++) {
+        if (i > 0) {
+          sb.append(',');
+        }
+        sb.append(types[i].getCanonicalText());
+      }
+    }
+    return sb.append(')').toString();
+  }
+
+  public int getMethodCount() {
+    return mMethodKeys.length;
+  }
+
+  /**
+   * @return The index of the method with the given key, or -1 if it is not in the call graph
+   */
+  public int getMethodIndex(@NotNull String methodKey) {
+    return mMethodIndices.containsKey(methodKey) ? mMethodIndices.get(methodKey) : -1;
+  }
+
+  @NotNull
+  public String getMethodKey(int index) {
+    return mMethodKeys[index];
+  }
+
+  /**
+   * @return The indices of the methods the given method may call, sorted
+   */
+  @NotNull
+  public int[] getCallees(int index) {
+    return Arrays.copyOfRange(mCallees, mCalleeOffsets[index], mCalleeOffsets[index + 1]);
+  }
+
+  /**
+   * @return The indices of the methods that may call the given method, sorted
+   */
+  @NotNull
+  public int[] getCallers(int index) {
+    return Arrays.copyOfRange(mCallers, mCallerOffsets[index], mCallerOffsets[index + 1]);
+  }
+
+  public void save(@NotNull File file) {
+    File parent = file.getParentFile();
+    if (parent != null && !parent.exists() && !parent.mkdirs()) {
+      PsiCFGDebugUtil.LOG.warning("Cannot create " + parent);
+      return;
+    }
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeInt(VERSION);
+      out.writeInt(mMethodKeys.length);
+      for (String key : mMethodKeys) {
+        out.writeUTF(key);
+      }
+      writeArray(out, mCalleeOffsets);
+      writeArray(out, mCallees);
+      writeArray(out, mCallerOffsets);
+      writeArray(out, mCallers);
+    }
+    catch (IOException e) {
+      PsiCFGDebugUtil.LOG.warning("Cannot save the call graph to " + file + ": " + e);
+    }
+  }
+
+  /**
+   * Load an index saved with {@link #save(File)}
+   * @return The index, or null if the file does not exist, cannot be read, or was saved by another version
+   */
+  @Nullable
+  public static CallgraphIndex load(@NotNull File file) {
+    if (!file.isFile()) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != VERSION) {
+        return null;
+      }
+      // Each key takes at least 2 bytes and each int 4, which bounds the lengths of a corrupt file
+      String[] keys = new String[checkLength(in.readInt(), file.length() / 2)];
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = in.readUTF();
+      }
+      long maxArrayLength = file.length() / 4;
+      int[] calleeOffsets = readArray(in, maxArrayLength);
+      int[] callees = readArray(in, maxArrayLength);
+      int[] callerOffsets = readArray(in, maxArrayLength);
+      int[] callers = readArray(in, maxArrayLength);
+      if (!isValid(calleeOffsets, callees, keys.length) || !isValid(callerOffsets, callers, keys.length)) {
+        PsiCFGDebugUtil.LOG.warning("Ignoring the corrupt call graph in " + file);
+        return null;
+      }
+      return new CallgraphIndex(keys, calleeOffsets, callees, callerOffsets, callers);
+    }
+    catch (IOException e) {
+      PsiCFGDebugUtil.LOG.warning("Cannot load the call graph from " + file + ": " + e);
+      return null;
+    }
+  }
+
+  private static void writeArray(@NotNull DataOutputStream out, @NotNull int[] array) throws IOException {
+    out.writeInt(array.length);
+    for (int value : array) {
+      out.writeInt(value);
+    }
+  }
+
+  /**
+   * @return Whether the offsets split the edges into one range per method, and the edges are method indices
+   */
+  private static boolean isValid(@NotNull int[] offsets, @NotNull int[] edges, int methodCount) {
+    if (offsets.length != methodCount + 1 || offsets[0] != 0 || offsets[methodCount] != edges.length) {
+      return false;
+    }
+    for (int i = 0; i < methodCount; i++) {
+      if (offsets[i] > offsets[i + 1]) {
+        return false;
+      }
+    }
+    for (int edge : edges) {
+      if (edge < 0 || edge >= methodCount) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int checkLength(int length, long maxLength) throws IOException {
+    if (length < 0 || length > maxLength) {
+      throw new IOException("Invalid length " + length);
+    }
+    return length;
+  }
+
+  @NotNull
+  private static int[] readArray(@NotNull DataInputStream in, long maxLength) throws IOException {
+    int[] array = new int[checkLength(in.readInt(), maxLength)];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = in.readInt();
+    }
+    return array;
+  }
+}
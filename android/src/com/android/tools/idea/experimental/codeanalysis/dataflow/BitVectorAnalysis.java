@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.experimental.codeanalysis.dataflow;
+
+import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGMethod;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.node.GraphNode;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Base of the gen/kill analyses run by the {@link DataflowSolver}.
+ *
+ * The facts are bits, whose meaning is defined by the analysis and must be
+ * the same in all methods, as the effect of a method is applied at its call
+ * sites. An analysis only describes the effect of each node and of the calls
+ * to methods without a control flow graph; the solver computes the effect of
+ * the methods and the facts at each node.
+ *
+ * The transfer functions may read the PSI, they are called in a read action.
+ */
+public abstract class BitVectorAnalysis {
+  private final boolean mForward;
+  private final boolean mMay;
+
+  /**
+   * @param forward True if the facts flow from the entry of the methods to their exit
+   * @param may True if a fact holds when it holds on any path, false if it must hold on all paths
+   */
+  protected BitVectorAnalysis(boolean forward, boolean may) {
+    mForward = forward;
+    mMay = may;
+  }
+
+  public boolean isForward() {
+    return mForward;
+  }
+
+  public boolean isMay() {
+    return mMay;
+  }
+
+  /**
+   * Get the effect of the statements of the node, not including the calls
+   * they make, which are handled by the solver.
+   * @param node The node of the control flow graph
+   * @return The transfer function of the node
+   */
+  @NotNull
+  public abstract GenKill getTransfer(@NotNull GraphNode node);
+
+  /**
+   * Get the effect of a call to the given method. By default this is the summary
+   * of the method, or nothing if the method has no control flow graph (e.g. it
+   * is a library method).
+   * @param callee The called method
+   * @param summary The effect of the callee computed by the solver, or null if the
+   *                callee has no control flow graph
+   * @return The transfer function of the call
+   */
+  @NotNull
+  public GenKill getCallTransfer(@NotNull PsiCFGMethod callee, @Nullable GenKill summary) {
+    return summary != null ? summary : GenKill.IDENTITY;
+  }
+}
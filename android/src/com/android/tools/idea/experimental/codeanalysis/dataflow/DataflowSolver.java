@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.experimental.codeanalysis.dataflow;
+
+import com.android.tools.idea.experimental.codeanalysis.PsiCFGScene;
+import com.android.tools.idea.experimental.codeanalysis.callgraph.Callgraph;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGClass;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGMethod;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.MethodGraph;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.node.GraphNode;
+import com.android.tools.idea.experimental.codeanalysis.utils.PsiCFGAnalysisUtil;
+import com.android.tools.idea.experimental.codeanalysis.utils.PsiCFGDebugUtil;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.intellij.openapi.util.Pair;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a {@link BitVectorAnalysis} over all the methods of a {@link PsiCFGScene}.
+ *
+ * The effect of each method is summarized by a {@link GenKill}, which is applied at its
+ * call sites. The methods are processed by strongly connected components of the call
+ * graph, callees first; the methods of a component (mutually recursive methods) are
+ * solved again until their summaries are stable. The components that do not depend
+ * on each other are processed in parallel.
+ *
+ * The solutions are kept per method, so solving again after the scene was updated
+ * only processes the methods whose control flow graph was built again, and their
+ * callers if their summary changed.
+ */
+public class DataflowSolver {
+  private final PsiCFGScene mScene;
+  private final BitVectorAnalysis mAnalysis;
+
+  private final ConcurrentMap<PsiCFGMethod, MethodSolution> mSolutions = new ConcurrentHashMap<>();
+
+  // Statistics of the last run
+  private final AtomicInteger mSolvedCount = new AtomicInteger();
+  private final AtomicInteger mReusedCount = new AtomicInteger();
+  private int mComponentCount;
+  private int mLevelCount;
+  private long mSolveTimeMs;
+
+  public DataflowSolver(@NotNull PsiCFGScene scene, @NotNull BitVectorAnalysis analysis) {
+    mScene = scene;
+    mAnalysis = analysis;
+  }
+
+  /**
+   * Solve the analysis in all the methods that have a control flow graph.
+   * Must be called after the call graph is built.
+   */
+  public void solve() {
+    long start = System.currentTimeMillis();
+    mSolvedCount.set(0);
+    mReusedCount.set(0);
+
+    Set<PsiCFGMethod> methods = collectMethods();
+    mSolutions.keySet().retainAll(methods);
+
+    Callgraph callGraph = mScene.getCallGraph();
+    Map<PsiCFGMethod, List<PsiCFGMethod>> callees = Maps.newHashMap();
+    Map<PsiCFGMethod, List<PsiCFGMethod>> callers = Maps.newHashMap();
+    for (PsiCFGMethod method : methods) {
+      callees.put(method, Lists.newArrayList());
+      callers.put(method, Lists.newArrayList());
+    }
+    if (callGraph != null) {
+      for (PsiCFGMethod method : methods) {
+        for (PsiCFGMethod callee : callGraph.callerMethodToCalleeMethodMap.get(method)) {
+          if (methods.contains(callee)) {
+            callees.get(method).add(callee);
+            callers.get(callee).add(method);
+          }
+        }
+      }
+    }
+
+    // Group the components by their height in the condensed call graph: the components
+    // of a level only call components of the lower levels, and are processed in parallel
+    List<List<PsiCFGMethod>> components = computeComponents(methods, callees);
+    Map<PsiCFGMethod, Integer> componentLevels = Maps.newHashMap();
+    List<List<List<PsiCFGMethod>>> levels = Lists.newArrayList();
+    for (List<PsiCFGMethod> component : components) {
+      int level = 0;
+      for (PsiCFGMethod method : component) {
+        for (PsiCFGMethod callee : callees.get(method)) {
+          Integer calleeLevel = componentLevels.get(callee);
+          if (calleeLevel != null) {
+            level = Math.max(level, calleeLevel + 1);
+          }
+        }
+      }
+      for (PsiCFGMethod method : component) {
+        componentLevels.put(method, level);
+      }
+      while (levels.size() <= level) {
+        levels.add(Lists.newArrayList());
+      }
+      levels.get(level).add(component);
+    }
+
+    Set<PsiCFGMethod> changedSummaries = ContainerUtil.newConcurrentSet();
+    for (List<List<PsiCFGMethod>> level : levels) {
+      PsiCFGAnalysisUtil.processConcurrently(level, component -> solveComponent(component, callees, callers, changedSummaries));
+    }
+
+    mComponentCount = components.size();
+    mLevelCount = levels.size();
+    mSolveTimeMs = System.currentTimeMillis() - start;
+    PsiCFGDebugUtil.LOG.info(String.format("Dataflow analysis %1$s: %2$d methods solved, %3$d reused, " +
+                                           "%4$d components in %5$d levels, %6$dms",
+                                           mAnalysis.getClass().getSimpleName(), mSolvedCount.get(), mReusedCount.get(),
+                                           mComponentCount, mLevelCount, mSolveTimeMs));
+  }
+
+  @NotNull
+  private Set<PsiCFGMethod> collectMethods() {
+    Set<PsiCFGMethod> methods = Sets.newHashSet();
+    List<PsiCFGClass> classes = Lists.newArrayList(mScene.getAllApplicationClasses());
+    Collections.addAll(classes, mScene.getAllLambdaClass());
+    for (PsiCFGClass clazz : classes) {
+      for (PsiCFGMethod method : clazz.getAllMethods()) {
+        if (method.getControlFlowGraph() != null) {
+          methods.add(method);
+        }
+      }
+    }
+    return methods;
+  }
+
+  /**
+   * Compute the strongly connected components of the call graph with Tarjan's algorithm.
+   * @return The components, each one after all the components it calls
+   */
+  @NotNull
+  private static List<List<PsiCFGMethod>> computeComponents(@NotNull Set<PsiCFGMethod> methods,
+                                                            @NotNull Map<PsiCFGMethod, List<PsiCFGMethod>> callees) {
+    List<List<PsiCFGMethod>> components = Lists.newArrayList();
+    Map<PsiCFGMethod, Integer> indices = Maps.newHashMap();
+    Map<PsiCFGMethod, Integer> lowLinks = Maps.newHashMap();
+    Deque<PsiCFGMethod> stack = new ArrayDeque<>();
+    Set<PsiCFGMethod> onStack = Sets.newHashSet();
+
+    for (PsiCFGMethod root : methods) {
+      if (indices.containsKey(root)) {
+        continue;
+      }
+      // Iterative, the call chains can be too long for a recursive implementation
+      Deque<Pair<PsiCFGMethod, Iterator<PsiCFGMethod>>> calls = new ArrayDeque<>();
+      visit(root, indices, lowLinks, stack, onStack);
+      calls.push(Pair.create(root, callees.get(root).iterator()));
+      while (!calls.isEmpty()) {
+        PsiCFGMethod method = calls.peek().first;
+        Iterator<PsiCFGMethod> calleeIterator = calls.peek().second;
+        if (calleeIterator.hasNext()) {
+          PsiCFGMethod callee = calleeIterator.next();
+          if (!indices.containsKey(callee)) {
+            visit(callee, indices, lowLinks, stack, onStack);
+            calls.push(Pair.create(callee, callees.get(callee).iterator()));
+          }
+          else if (onStack.contains(callee)) {
+            lowLinks.put(method, Math.min(lowLinks.get(method), indices.get(callee)));
+          }
+          continue;
+        }
+
+        calls.pop();
+        if (!calls.isEmpty()) {
+          PsiCFGMethod caller = calls.peek().first;
+          lowLinks.put(caller, Math.min(lowLinks.get(caller), lowLinks.get(method)));
+        }
+        if (lowLinks.get(method).equals(indices.get(method))) {
+          List<PsiCFGMethod> component = Lists.newArrayList();
+          PsiCFGMethod member;
+          do {
+            member = stack.pop();
+            onStack.remove(member);
+            component.add(member);
+          }
+          while (member != method);
+          components.add(component);
+        }
+      }
+    }
+    return components;
+  }
+
+  private static void visit(@NotNull PsiCFGMethod method,
+                            @NotNull Map<PsiCFGMethod, Integer> indices,
+                            @NotNull Map<PsiCFGMethod, Integer> lowLinks,
+                            @NotNull Deque<PsiCFGMethod> stack,
+                            @NotNull Set<PsiCFGMethod> onStack) {
+    int index = indices.size();
+    indices.put(method, index);
+    lowLinks.put(method, index);
+    stack.push(method);
+    onStack.add(method);
+  }
+
+  private void solveComponent(@NotNull List<PsiCFGMethod> component,
+                              @NotNull Map<PsiCFGMethod, List<PsiCFGMethod>> callees,
+                              @NotNull Map<PsiCFGMethod, List<PsiCFGMethod>> callers,
+                              @NotNull Set<PsiCFGMethod> changedSummaries) {
+    Set<PsiCFGMethod> members = Sets.newHashSet(component);
+    if (!needsSolving(members, callees, changedSummaries)) {
+      mReusedCount.addAndGet(members.size());
+      return;
+    }
+
+    // The solutions of this run. The summary of a member which is not solved yet is unknown,
+    // and its call sites are not reachable until it is.
+    Map<PsiCFGMethod, MethodSolution> solutions = Maps.newHashMap();
+    // The transfer functions of the nodes, without their calls
+    Map<GraphNode, GenKill> nodeTransfers = Maps.newHashMap();
+    Deque<PsiCFGMethod> workList = new ArrayDeque<>(component);
+    Set<PsiCFGMethod> inWorkList = Sets.newHashSet(component);
+    while (!workList.isEmpty()) {
+      PsiCFGMethod method = workList.removeFirst();
+      inWorkList.remove(method);
+      MethodGraph graph = method.getControlFlowGraph();
+      MethodSolution solution = MethodSolution.solve(graph, mAnalysis.isForward(), mAnalysis.isMay(), node -> {
+        GenKill transfer = nodeTransfers.computeIfAbsent(node, mAnalysis::getTransfer);
+        if (!node.containsInvocation()) {
+          return transfer;
+        }
+        GenKill call = getCallTransfer(node, members, solutions);
+        if (call == null) {
+          return null;
+        }
+        return mAnalysis.isForward() ? call.then(transfer) : transfer.then(call);
+      });
+      mSolvedCount.incrementAndGet();
+
+      MethodSolution previous = solutions.put(method, solution);
+      if (previous == null || !previous.getSummary().equals(solution.getSummary())) {
+        for (PsiCFGMethod caller : callers.get(method)) {
+          if (members.contains(caller) && inWorkList.add(caller)) {
+            workList.addLast(caller);
+          }
+        }
+      }
+    }
+
+    for (PsiCFGMethod method : component) {
+      MethodSolution solution = solutions.get(method);
+      MethodSolution previous = mSolutions.put(method, solution);
+      if (previous == null || !previous.getSummary().equals(solution.getSummary())) {
+        changedSummaries.add(method);
+      }
+    }
+  }
+
+  /**
+   * A component needs to be solved if the graph of a member changed since the last run,
+   * or if the summary of a method it calls changed.
+   */
+  private boolean needsSolving(@NotNull Set<PsiCFGMethod> members,
+                               @NotNull Map<PsiCFGMethod, List<PsiCFGMethod>> callees,
+                               @NotNull Set<PsiCFGMethod> changedSummaries) {
+    for (PsiCFGMethod method : members) {
+      MethodSolution solution = mSolutions.get(method);
+      if (solution == null || solution.getGraph() != method.getControlFlowGraph()) {
+        return true;
+      }
+      for (PsiCFGMethod callee : callees.get(method)) {
+        if (!members.contains(callee) && changedSummaries.contains(callee)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Merge the effects of the possible targets of the call made by the node
+   * @return The effect of the call, or null if none of the targets returns yet
+   */
+  @Nullable
+  private GenKill getCallTransfer(@NotNull GraphNode node,
+                                  @NotNull Set<PsiCFGMethod> members,
+                                  @NotNull Map<PsiCFGMethod, MethodSolution> solutions) {
+    Callgraph callGraph = mScene.getCallGraph();
+    PsiCFGMethod[] targets = callGraph == null ? PsiCFGMethod.EMPTY_ARRAY : callGraph.findCalleeMethodForGraphNode(node);
+    if (targets.length == 0) {
+      return GenKill.IDENTITY;
+    }
+    GenKill result = null;
+    for (PsiCFGMethod target : targets) {
+      MethodSolution solution;
+      if (members.contains(target)) {
+        solution = solutions.get(target);
+        if (solution == null) {
+          continue;
+        }
+      }
+      else {
+        // Solved in a lower level, or without a control flow graph
+        solution = mSolutions.get(target);
+      }
+      GenKill summary = solution != null ? solution.getSummary() : null;
+      result = GenKill.merge(result, mAnalysis.getCallTransfer(target, summary), mAnalysis.isMay());
+    }
+    return result;
+  }
+
+  @NotNull
+  public BitVectorAnalysis getAnalysis() {
+    return mAnalysis;
+  }
+
+  /**
+   * @return The methods solved by the last run
+   */
+  @NotNull
+  public Set<PsiCFGMethod> getMethods() {
+    return Collections.unmodifiableSet(mSolutions.keySet());
+  }
+
+  @Nullable
+  public MethodSolution getSolution(@NotNull PsiCFGMethod method) {
+    return mSolutions.get(method);
+  }
+
+  /**
+   * @return The number of methods solved by the last run. A method is solved more than
+   * once if it is recursive and its summary changed.
+   */
+  public int getSolvedCount() {
+    return mSolvedCount.get();
+  }
+
+  /**
+   * @return The number of methods whose solution was reused from the previous run
+   */
+  public int getReusedCount() {
+    return mReusedCount.get();
+  }
+
+  public int getComponentCount() {
+    return mComponentCount;
+  }
+
+  public int getLevelCount() {
+    return mLevelCount;
+  }
+
+  public long getSolveTimeMs() {
+    return mSolveTimeMs;
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.experimental.codeanalysis.dataflow;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.BitSet;
+
+/**
+ * The transfer function of a bit vector analysis: out = (in - kill) + gen.
+ *
+ * Such functions are closed under composition and merge, so the effect of a
+ * whole method on the facts is also a GenKill, which is used as the summary
+ * of the method at its call sites.
+ *
+ * The gen bits are always included in the kill bits, so that each bit is
+ * either kept (not in kill), cleared (in kill, not in gen) or set (in gen).
+ * Instances are immutable.
+ */
+public final class GenKill {
+  public static final GenKill IDENTITY = new GenKill(new BitSet(), new BitSet());
+
+  private final BitSet mGen;
+  private final BitSet mKill;
+
+  private GenKill(@NotNull BitSet gen, @NotNull BitSet kill) {
+    mGen = gen;
+    mKill = kill;
+  }
+
+  /**
+   * Create a transfer function
+   * @param gen The bits set by the function
+   * @param kill The bits cleared by the function, unless also in gen
+   * @return The function
+   */
+  @NotNull
+  public static GenKill create(@NotNull BitSet gen, @NotNull BitSet kill) {
+    BitSet newKill = (BitSet)kill.clone();
+    newKill.or(gen);
+    return new GenKill((BitSet)gen.clone(), newKill);
+  }
+
+  @NotNull
+  public static GenKill gen(int bit) {
+    BitSet bits = new BitSet();
+    bits.set(bit);
+    return new GenKill(bits, (BitSet)bits.clone());
+  }
+
+  @NotNull
+  public static GenKill kill(int bit) {
+    BitSet bits = new BitSet();
+    bits.set(bit);
+    return new GenKill(new BitSet(), bits);
+  }
+
+  /**
+   * Apply the function to the given facts
+   * @return A new set of facts
+   */
+  @NotNull
+  public BitSet apply(@NotNull BitSet in) {
+    BitSet out = (BitSet)in.clone();
+    out.andNot(mKill);
+    out.or(mGen);
+    return out;
+  }
+
+  /**
+   * Compose the two functions
+   * @param next The function applied after this one
+   * @return The function equivalent to applying this one, then next
+   */
+  @NotNull
+  public GenKill then(@NotNull GenKill next) {
+    if (this == IDENTITY) {
+      return next;
+    }
+    if (next == IDENTITY) {
+      return this;
+    }
+    BitSet gen = (BitSet)mGen.clone();
+    gen.andNot(next.mKill);
+    gen.or(next.mGen);
+    BitSet kill = (BitSet)mKill.clone();
+    kill.or(next.mKill);
+    return new GenKill(gen, kill);
+  }
+
+  /**
+   * Merge the functions of two paths. A null function stands for a path that is
+   * not (yet) known to be reachable.
+   * @param a The first function
+   * @param b The second function
+   * @param may True to merge with a union (a fact holds if it holds on any path),
+   *            false with an intersection (it holds if it holds on all paths)
+   * @return The merged function
+   */
+  @Nullable
+  public static GenKill merge(@Nullable GenKill a, @Nullable GenKill b, boolean may) {
+    if (a == null || a.equals(b)) {
+      return b;
+    }
+    if (b == null) {
+      return a;
+    }
+    BitSet gen;
+    BitSet kill = (BitSet)a.mKill.clone();
+    kill.and(b.mKill);
+    if (may) {
+      // A bit is set if it is set on any path, kept if kept on a path and not set on the other one
+      gen = (BitSet)a.mGen.clone();
+      gen.or(b.mGen);
+      kill.or(gen);
+    }
+    else {
+      // A bit is set if it is set on both paths, cleared if cleared on any path
+      gen = (BitSet)a.mGen.clone();
+      gen.and(b.mGen);
+      BitSet clearedA = (BitSet)a.mKill.clone();
+      clearedA.andNot(a.mGen);
+      BitSet clearedB = (BitSet)b.mKill.clone();
+      clearedB.andNot(b.mGen);
+      kill.or(clearedA);
+      kill.or(clearedB);
+    }
+    return new GenKill(gen, kill);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof GenKill)) {
+      return false;
+    }
+    GenKill other = (GenKill)o;
+    return mGen.equals(other.mGen) && mKill.equals(other.mKill);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * mGen.hashCode() + mKill.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return "GenKill{gen=" + mGen + ", kill=" + mKill + "}";
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.experimental.codeanalysis.dataflow;
+
+import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.MethodGraph;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.node.GraphNode;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * The result of a bit vector analysis in one method: the transfer function
+ * from the boundary of the method (its entry for a forward analysis, its exit
+ * for a backward one) to each node, and the summary of the whole method.
+ *
+ * The facts at a node are obtained by applying these functions to the facts
+ * at the boundary, see {@link #getFactsIn(GraphNode, BitSet)}.
+ */
+public class MethodSolution {
+  private final MethodGraph mGraph;
+  private final Map<GraphNode, Integer> mIndices;
+  // Indexed like the nodes, in the order of execution (not of the flow)
+  private final GenKill[] mIn;
+  private final GenKill[] mOut;
+  private final GenKill mSummary;
+
+  private MethodSolution(@NotNull MethodGraph graph,
+                         @NotNull Map<GraphNode, Integer> indices,
+                         @NotNull GenKill[] in,
+                         @NotNull GenKill[] out,
+                         @Nullable GenKill summary) {
+    mGraph = graph;
+    mIndices = indices;
+    mIn = in;
+    mOut = out;
+    // The exit is not reachable, e.g. the method always throws. Assume it has no effect.
+    mSummary = summary != null ? summary : GenKill.IDENTITY;
+  }
+
+  /**
+   * Solve the analysis in the given graph
+   * @param graph The control flow graph of the method
+   * @param forward Whether the facts flow from the entry to the exit
+   * @param may Whether the paths are merged with a union or an intersection
+   * @param transfers The transfer function of each node, including its calls. It
+   *                  returns null if the node does not return (yet), e.g. if it calls
+   *                  a recursive method whose summary is not computed yet.
+   * @return The solution
+   */
+  @NotNull
+  public static MethodSolution solve(@NotNull MethodGraph graph,
+                                     boolean forward,
+                                     boolean may,
+                                     @NotNull Function<GraphNode, GenKill> transfers) {
+    // Number the nodes in reverse post order, so that most nodes are processed after their predecessors
+    List<GraphNode> postOrder = computePostOrder(graph.getEntryNode());
+    int count = postOrder.size();
+    GraphNode[] nodes = new GraphNode[count];
+    Map<GraphNode, Integer> indices = Maps.newHashMapWithExpectedSize(count);
+    for (int i = 0; i < count; i++) {
+      GraphNode node = forward ? postOrder.get(count - 1 - i) : postOrder.get(i);
+      nodes[i] = node;
+      indices.put(node, i);
+    }
+
+    // Edges in the direction of the flow
+    int[][] flowPreds = new int[count][];
+    int[][] flowSuccs = new int[count][];
+    GenKill[] nodeTransfers = new GenKill[count];
+    for (int i = 0; i < count; i++) {
+      flowPreds[i] = toIndices(forward ? nodes[i].getIn() : nodes[i].getOut(), indices);
+      flowSuccs[i] = toIndices(forward ? nodes[i].getOut() : nodes[i].getIn(), indices);
+      nodeTransfers[i] = transfers.apply(nodes[i]);
+    }
+
+    Integer boundary = indices.get(forward ? graph.getEntryNode() : graph.getExitNode());
+    GenKill[] flowIn = new GenKill[count];
+    GenKill[] flowOut = new GenKill[count];
+    if (boundary != null) {
+      BitSet workList = new BitSet(count);
+      workList.set(0, count);
+      int i;
+      while ((i = workList.nextSetBit(0)) >= 0) {
+        workList.clear(i);
+        GenKill in = i == boundary ? GenKill.IDENTITY : null;
+        for (int pred : flowPreds[i]) {
+          in = GenKill.merge(in, flowOut[pred], may);
+        }
+        flowIn[i] = in;
+        GenKill out = in == null || nodeTransfers[i] == null ? null : in.then(nodeTransfers[i]);
+        if (!Objects.equals(out, flowOut[i])) {
+          flowOut[i] = out;
+          for (int succ : flowSuccs[i]) {
+            workList.set(succ);
+          }
+        }
+      }
+    }
+
+    Integer end = indices.get(forward ? graph.getExitNode() : graph.getEntryNode());
+    GenKill summary = end == null ? null : flowOut[end];
+    return forward
+           ? new MethodSolution(graph, indices, flowIn, flowOut, summary)
+           : new MethodSolution(graph, indices, flowOut, flowIn, summary);
+  }
+
+  @NotNull
+  private static List<GraphNode> computePostOrder(@NotNull GraphNode entry) {
+    List<GraphNode> postOrder = Lists.newArrayList();
+    Set<GraphNode> visited = new HashSet<>();
+    // Iterative DFS, the graphs of long methods are too deep for a recursive one
+    Deque<GraphNode> nodeStack = new ArrayDeque<>();
+    Deque<Iterator<GraphNode>> successorStack = new ArrayDeque<>();
+    visited.add(entry);
+    nodeStack.push(entry);
+    successorStack.push(Arrays.asList(entry.getOut()).iterator());
+    while (!nodeStack.isEmpty()) {
+      Iterator<GraphNode> successors = successorStack.peek();
+      if (successors.hasNext()) {
+        GraphNode next = successors.next();
+        if (visited.add(next)) {
+          nodeStack.push(next);
+          successorStack.push(Arrays.asList(next.getOut()).iterator());
+        }
+      }
+      else {
+        postOrder.add(nodeStack.pop());
+        successorStack.pop();
+      }
+    }
+    return postOrder;
+  }
+
+  @NotNull
+  private static int[] toIndices(@NotNull GraphNode[] nodes, @NotNull Map<GraphNode, Integer> indices) {
+    int[] result = new int[nodes.length];
+    int size = 0;
+    for (GraphNode node : nodes) {
+      // Ignore the nodes that are not reachable from the entry
+      Integer index = indices.get(node);
+      if (index != null) {
+        result[size++] = index;
+      }
+    }
+    return size == result.length ? result : Arrays.copyOf(result, size);
+  }
+
+  /**
+   * @return The graph this solution was computed on
+   */
+  @NotNull
+  public MethodGraph getGraph() {
+    return mGraph;
+  }
+
+  /**
+   * Get the effect of the method on the facts, from its entry to its exit for a
+   * forward analysis, from its exit to its entry for a backward one.
+   * @return The summary of the method
+   */
+  @NotNull
+  public GenKill getSummary() {
+    return mSummary;
+  }
+
+  /**
+   * Get the facts holding before the node is executed
+   * @param node The node
+   * @param boundaryFacts The facts at the entry of the method (forward analysis) or its exit (backward analysis)
+   * @return The facts, or null if the node is not reachable
+   */
+  @Nullable
+  public BitSet getFactsIn(@NotNull GraphNode node, @NotNull BitSet boundaryFacts) {
+    Integer index = mIndices.get(node);
+    GenKill in = index == null ? null : mIn[index];
+    return in == null ? null : in.apply(boundaryFacts);
+  }
+
+  /**
+   * Get the facts holding after the node is executed
+   * @param node The node
+   * @param boundaryFacts The facts at the entry of the method (forward analysis) or its exit (backward analysis)
+   * @return The facts, or null if the node is not reachable
+   */
+  @Nullable
+  public BitSet getFactsOut(@NotNull GraphNode node, @NotNull BitSet boundaryFacts) {
+    Integer index = mIndices.get(node);
+    GenKill out = index == null ? null : mOut[index];
+    return out == null ? null : out.apply(boundaryFacts);
+  }
+}
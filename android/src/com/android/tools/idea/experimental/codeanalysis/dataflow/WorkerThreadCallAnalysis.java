@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.experimental.codeanalysis.dataflow;
+
+import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGMethod;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.node.GraphNode;
+import com.google.common.collect.Lists;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiModifierList;
+import com.intellij.psi.PsiModifierListOwner;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.BitSet;
+import java.util.List;
+
+import static com.android.tools.lint.checks.SupportAnnotationDetector.*;
+
+/**
+ * Finds the methods that must run on the UI thread and may, directly or through other
+ * methods, call a method that must run on a worker thread.
+ *
+ * A forward may analysis with a single fact: a worker thread method was called.
+ */
+public class WorkerThreadCallAnalysis extends BitVectorAnalysis {
+  public static final int WORKER_THREAD_CALLED = 0;
+
+  public WorkerThreadCallAnalysis() {
+    super(true, true);
+  }
+
+  @NotNull
+  @Override
+  public GenKill getTransfer(@NotNull GraphNode node) {
+    return GenKill.IDENTITY;
+  }
+
+  @NotNull
+  @Override
+  public GenKill getCallTransfer(@NotNull PsiCFGMethod callee, @Nullable GenKill summary) {
+    GenKill transfer = super.getCallTransfer(callee, summary);
+    if (isAnnotated(callee, WORKER_THREAD_ANNOTATION)) {
+      transfer = transfer.then(GenKill.gen(WORKER_THREAD_CALLED));
+    }
+    return transfer;
+  }
+
+  /**
+   * Get the UI thread methods that may call a worker thread method
+   * @param solver A solver of this analysis, after it was run
+   * @return The methods
+   */
+  @NotNull
+  public static List<PsiCFGMethod> findViolations(@NotNull DataflowSolver solver) {
+    List<PsiCFGMethod> violations = Lists.newArrayList();
+    for (PsiCFGMethod method : solver.getMethods()) {
+      if (!isAnnotated(method, UI_THREAD_ANNOTATION) && !isAnnotated(method, MAIN_THREAD_ANNOTATION)) {
+        continue;
+      }
+      MethodSolution solution = solver.getSolution(method);
+      if (solution != null && solution.getSummary().apply(new BitSet()).get(WORKER_THREAD_CALLED)) {
+        violations.add(method);
+      }
+    }
+    return violations;
+  }
+
+  private static boolean isAnnotated(@NotNull PsiCFGMethod method, @NotNull String annotation) {
+    PsiMethod methodRef = method.getMethodRef();
+    if (methodRef == null) {
+      return false;
+    }
+    if (hasAnnotation(methodRef, annotation)) {
+      return true;
+    }
+    // The threading annotations also apply to all the methods of an annotated class
+    PsiClass containingClass = methodRef.getContainingClass();
+    return containingClass != null && hasAnnotation(containingClass, annotation);
+  }
+
+  private static boolean hasAnnotation(@NotNull PsiModifierListOwner owner, @NotNull String annotation) {
+    PsiModifierList modifierList = owner.getModifierList();
+    return modifierList != null && modifierList.findAnnotation(annotation) != null;
+  }
+}
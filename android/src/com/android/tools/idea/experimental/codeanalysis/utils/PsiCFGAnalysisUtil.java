@@ -23,14 +23,29 @@ import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGField;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGMethod;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.MethodGraph;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.node.GraphNode;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.intellij.concurrency.JobLauncher;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.psi.*;
 import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.PsiTreeUtil;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
 public class PsiCFGAnalysisUtil {
+  /**
+   * Build the control flow graphs on the calling thread only, e.g. to debug the construction.
+   */
+  private static final boolean SERIAL = Boolean.getBoolean("android.codeanalysis.serial");
+
   private PsiCFGScene mScene;
   private PsiClass mLangOjectClass;
 
@@ -79,6 +94,12 @@ public class PsiCFGAnalysisUtil {
    * The purpose of the Stage3 is create IntraProcedural
    * CFG for the methods and lambdas inside the app
    * class, including the constructor and the init code
+   *
+   * The classes are processed in parallel. The methods of a class are
+   * processed in order by the same thread, as the local classes and lambdas
+   * they declare are named after their declaration order in the class.
+   * The nested classes found while building the graphs are added to the
+   * working list and processed in the next round.
    */
   public void performStage3() {
     PsiCFGClass[] appClasses = mScene.getAllApplicationClasses();
@@ -88,32 +109,112 @@ public class PsiCFGAnalysisUtil {
 
     while (!mScene.workingList.isEmpty()) {
       //While the working list is not empty
-      //Process the working list
-      PsiCFGClass currentClass = mScene.workingList.removeFirst();
-      PsiCFGMethod[] allMethods = currentClass.getAllMethods();
-
-      for (PsiCFGMethod currentMethod : allMethods) {
-        //Abstract method does not have a body
-        //Lambda methods' CFG is created by the time it is decleared
-        if (currentMethod.isAbstract() || currentMethod.isLambda()) {
-          continue;
+      //Process the classes currently in the working list
+      List<PsiCFGClass> currentRound = Lists.newArrayList();
+      PsiCFGClass currentClass;
+      while ((currentClass = mScene.workingList.pollFirst()) != null) {
+        currentRound.add(currentClass);
+      }
+      processConcurrently(currentRound, clazz -> {
+        for (PsiCFGMethod currentMethod : clazz.getAllMethods()) {
+          constructMethodGraph(currentMethod);
         }
+      });
+    }
+  }
 
-        PsiMethod methodRef = currentMethod.getMethodRef();
-        if (methodRef != null) {
-          PsiCodeBlock codeBlock = methodRef.getBody();
+  private void constructMethodGraph(@NotNull PsiCFGMethod currentMethod) {
+    //Abstract method does not have a body
+    //Lambda methods' CFG is created by the time it is decleared
+    if (currentMethod.isAbstract() || currentMethod.isLambda()) {
+      return;
+    }
 
-          if (codeBlock == null) {
-            PsiCFGDebugUtil.LOG.info("In " + currentClass.getQualifiedClassName() + "."
-                                     + currentMethod.getName() + "Code block is null");
-            continue;
-          }
+    PsiMethod methodRef = currentMethod.getMethodRef();
+    if (methodRef != null) {
+      PsiCodeBlock codeBlock = methodRef.getBody();
 
-          MethodGraph cfg = CFGUtil.constructMethodGraph(mScene, codeBlock, currentMethod);
-          currentMethod.setControlFlowGraph(cfg);
-        }
+      if (codeBlock == null) {
+        PsiCFGDebugUtil.LOG.info("In " + currentMethod.getDeclaringClass().getQualifiedClassName() + "."
+                                 + currentMethod.getName() + "Code block is null");
+        return;
       }
+
+      MethodGraph cfg = CFGUtil.constructMethodGraph(mScene, codeBlock, currentMethod);
+      currentMethod.setControlFlowGraph(cfg);
+    }
+  }
+
+  /**
+   * Process the items in parallel, each in a read action, unless the
+   * android.codeanalysis.serial system property is set.
+   */
+  public static <T> void processConcurrently(@NotNull List<T> items, @NotNull Consumer<T> task) {
+    if (SERIAL || items.size() < 2) {
+      for (T item : items) {
+        task.accept(item);
+      }
+      return;
     }
+    JobLauncher.getInstance().invokeConcurrentlyUnderProgress(
+      items, ProgressManager.getInstance().getProgressIndicator(), false, item -> {
+        ApplicationManager.getApplication().runReadAction(() -> task.accept(item));
+        return true;
+      });
+  }
+
+  /**
+   * Build again the control flow graphs of the methods whose body changed
+   * since the last analysis, and update the call graph. This is only possible
+   * if nothing changed outside of the method bodies, and if the changed methods
+   * do not declare local or anonymous classes or lambdas.
+   *
+   * @return true if the scene was updated, false if it needs a full rebuild
+   */
+  public boolean performIncrementalUpdate() {
+    if (mScene.isStructureChanged() || mScene.getCallGraph() == null) {
+      return false;
+    }
+
+    Set<PsiMethod> changedMethods = mScene.getChangedMethods();
+    List<PsiCFGMethod> methods = Lists.newArrayList();
+    for (PsiMethod psiMethod : changedMethods) {
+      if (!psiMethod.isValid()) {
+        return false;
+      }
+      PsiClass psiClass = psiMethod.getContainingClass();
+      PsiCFGClass cfgClass = psiClass == null ? null : mScene.getPsiCFGClass(psiClass);
+      if (cfgClass == null || cfgClass.isLibraryClass()) {
+        //Not part of the analyzed code
+        continue;
+      }
+      PsiCFGMethod cfgMethod = cfgClass.getMethod(psiMethod);
+      PsiCodeBlock body = psiMethod.getBody();
+      if (cfgMethod == null || body == null || mScene.hasNestedDeclarations(cfgMethod)
+          || PsiTreeUtil.findChildOfAnyType(body, PsiClass.class, PsiLambdaExpression.class) != null) {
+        return false;
+      }
+      methods.add(cfgMethod);
+    }
+    mScene.clearChangedMethods(changedMethods);
+    if (methods.isEmpty()) {
+      return true;
+    }
+
+    Map<PsiCFGMethod, MethodGraph> oldGraphs = Maps.newHashMap();
+    for (PsiCFGMethod method : methods) {
+      oldGraphs.put(method, method.getControlFlowGraph());
+    }
+    Map<PsiCFGMethod, List<GraphNode>> oldInvocationNodes = mScene.removeInvocationNodes(Sets.newHashSet(methods));
+    processConcurrently(methods, this::constructMethodGraph);
+
+    //The new graphs may refer to library classes that were not used before
+    performStage4();
+
+    CallgraphBuilder cgBuilder = new CallgraphBuilder(mScene, this, mScene.getCallGraph());
+    cgBuilder.update(oldGraphs, oldInvocationNodes);
+    mScene.updateCallgraphIndex();
+    return true;
   }
 
   /**
@@ -153,6 +254,7 @@ public class PsiCFGAnalysisUtil {
     Callgraph cg = cgBuilder.getCallGraph();
 
     mScene.setCallGraph(cg);
+    mScene.updateCallgraphIndex();
     CFGUtil.outputCallGraphDotFile(cg);
   }
 
@@ -374,7 +374,9 @@ class DomPsiConverter {
     @Nullable protected final Document myOwner;
     @Nullable protected final DomNode myParent;
     @NotNull protected final XmlElement myElement;
-    @Nullable protected DomNodeList myChildren;
+    // The nodes are lazily populated and shared between the lint passes analyzing the same file version, see LintPsiConversionCache,
+    // so they are only published once fully built
+    @Nullable protected volatile DomNodeList myChildren;
     @Nullable protected DomNode myNext;
     @Nullable protected DomNode myPrevious;
 
@@ -393,31 +395,42 @@ class DomPsiConverter {
     @NotNull
     @Override
     public DomNodeList getChildNodes() {
-      if (myChildren == null) {
-        PsiElement[] children = myElement.getChildren();
-        if (children.length > 0) {
-          DomNodeList list = new DomNodeList();
-          myChildren = list;
-          // True except for in DomDocument, which has custom getChildNodes
-          assert myOwner != null;
-
-          for (PsiElement child : children) {
-            if (child instanceof XmlTag) {
-              list.add(new DomElement(myOwner, this, (XmlTag) child));
-            } else if (child instanceof XmlText) {
-              list.add(new DomText(myOwner, this, (XmlText) child));
-            } else if (child instanceof XmlComment) {
-              list.add(new DomComment(myOwner, this, (XmlComment) child));
-            } else {
-              // Skipping other types for now; lint doesn't care about them.
-              // TODO: Consider whether we need CDATA.
-            }
+      DomNodeList children = myChildren;
+      if (children == null) {
+        synchronized (this) {
+          children = myChildren;
+          if (children == null) {
+            children = createChildNodes();
+            myChildren = children;
           }
+        }
+      }
+      return children;
+    }
+
+    @NotNull
+    protected DomNodeList createChildNodes() {
+      PsiElement[] children = myElement.getChildren();
+      if (children.length == 0) {
+        return EMPTY;
+      }
+      DomNodeList list = new DomNodeList();
+      // True except for in DomDocument, which has custom createChildNodes
+      assert myOwner != null;
+
+      for (PsiElement child : children) {
+        if (child instanceof XmlTag) {
+          list.add(new DomElement(myOwner, this, (XmlTag) child));
+        } else if (child instanceof XmlText) {
+          list.add(new DomText(myOwner, this, (XmlText) child));
+        } else if (child instanceof XmlComment) {
+          list.add(new DomComment(myOwner, this, (XmlComment) child));
         } else {
-          myChildren = EMPTY;
+          // Skipping other types for now; lint doesn't care about them.
+          // TODO: Consider whether we need CDATA.
         }
       }
-      return myChildren;
+      return list;
     }
 
     @Nullable
@@ -650,7 +663,7 @@ class DomPsiConverter {
 
   private static class DomDocument extends DomNode implements Document {
     @NotNull private final XmlDocument myPsiDocument;
-    @Nullable private DomElement myRoot;
+    @Nullable private volatile DomElement myRoot;
 
     private DomDocument(@NotNull XmlDocument document) {
       super(null, null, document);
@@ -678,17 +691,13 @@ class DomPsiConverter {
 
     @NotNull
     @Override
-    public DomNodeList getChildNodes() {
-      if (myChildren == null) {
-        DomNodeList list = new DomNodeList();
-        myChildren = list;
-        DomNode documentElement = (DomNode)getDocumentElement();
-        if (documentElement != null) {
-          list.add(documentElement);
-        }
+    protected DomNodeList createChildNodes() {
+      DomNodeList list = new DomNodeList();
+      DomNode documentElement = (DomNode)getDocumentElement();
+      if (documentElement != null) {
+        list.add(documentElement);
       }
-
-      return myChildren;
+      return list;
     }
 
     // From org.w3c.dom.Document:
@@ -708,15 +717,22 @@ class DomPsiConverter {
     @Nullable
     @Override
     public Element getDocumentElement() {
-      if (myRoot == null) {
-        XmlTag rootTag = myPsiDocument.getRootTag();
-        if (rootTag == null) {
-          return null;
+      DomElement root = myRoot;
+      if (root == null) {
+        synchronized (this) {
+          root = myRoot;
+          if (root == null) {
+            XmlTag rootTag = myPsiDocument.getRootTag();
+            if (rootTag == null) {
+              return null;
+            }
+            root = new DomElement(this, this, rootTag);
+            myRoot = root;
+          }
         }
-        myRoot = new DomElement(this, this, rootTag);
       }
 
-      return myRoot;
+      return root;
     }
 
     @NotNull
@@ -886,7 +902,7 @@ class DomPsiConverter {
 
   private static class DomElement extends DomNode implements Element {
     private final XmlTag myTag;
-    @Nullable private NamedNodeMap myAttributes;
+    @Nullable private volatile NamedNodeMap myAttributes;
 
     private DomElement(@NotNull Document owner, @NotNull DomNode parent, @NotNull XmlTag tag) {
       super(owner, parent, tag);
@@ -930,16 +946,19 @@ class DomPsiConverter {
         return application.runReadAction((Computable<NamedNodeMap>)this::getAttributes);
       }
 
-      if (myAttributes == null) {
-        XmlAttribute[] attributes = myTag.getAttributes();
-        if (attributes.length == 0) {
-         myAttributes = EMPTY_ATTRIBUTES;
-        } else {
-          myAttributes = new DomNamedNodeMap(this, attributes);
+      NamedNodeMap attributes = myAttributes;
+      if (attributes == null) {
+        synchronized (this) {
+          attributes = myAttributes;
+          if (attributes == null) {
+            XmlAttribute[] psiAttributes = myTag.getAttributes();
+            attributes = psiAttributes.length == 0 ? EMPTY_ATTRIBUTES : new DomNamedNodeMap(this, psiAttributes);
+            myAttributes = attributes;
+          }
         }
       }
 
-      return myAttributes;
+      return attributes;
     }
 
     // From org.w3c.dom.Element:
@@ -99,7 +99,7 @@ class DomPsiParser extends XmlParser {
     XmlFile xmlFile = (XmlFile)psiFile;
 
     try {
-      return DomPsiConverter.convert(xmlFile);
+      return LintPsiConversionCache.getDocument(xmlFile);
     } catch (Throwable t) {
       myClient.log(t, "Failed converting PSI parse tree to DOM for file %1$s",
                    context.file.getPath());
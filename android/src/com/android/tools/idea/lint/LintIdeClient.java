@@ -74,6 +74,7 @@ import org.jetbrains.android.sdk.AndroidSdkData;
 import org.jetbrains.android.sdk.AndroidSdkType;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
 
 import java.io.File;
 import java.io.IOException;
@@ -95,6 +96,8 @@ import static com.android.tools.lint.detector.api.TextFormat.RAW;
 public class LintIdeClient extends LintClient implements Disposable {
   protected static final Logger LOG = Logger.getInstance("#org.jetbrains.android.inspections.LintIdeClient");
 
+  @Nullable private static volatile List<File> ourTestRuleJars;
+
   @NonNull protected Project myProject;
   @Nullable protected Map<com.android.tools.lint.detector.api.Project, Module> myModuleMap;
 
@@ -108,7 +111,19 @@ public class LintIdeClient extends LintClient implements Disposable {
                                        @NotNull Map<Issue, Map<File, List<ProblemData>>> problemMap,
                                        @NotNull AnalysisScope scope,
                                        @NotNull List<Issue> issues) {
-    return new BatchLintClient(project, problemMap, scope, issues);
+    return forBatch(project, problemMap, scope, issues, true);
+  }
+
+  /**
+   * Creates a lint client for batch inspections, which only checks the issues of custom rule jars if {@code customIssues} is set (e.g.
+   * when several clients check parts of the same project, only one of them should report them)
+   */
+  public static LintIdeClient forBatch(@NotNull Project project,
+                                       @NotNull Map<Issue, Map<File, List<ProblemData>>> problemMap,
+                                       @NotNull AnalysisScope scope,
+                                       @NotNull List<Issue> issues,
+                                       boolean customIssues) {
+    return new BatchLintClient(project, problemMap, scope, issues, customIssues);
   }
 
   /**
@@ -184,7 +199,7 @@ public class LintIdeClient extends LintClient implements Disposable {
                 }
 
                 // This is a LIST lookup. I should make this faster!
-                if (!getIssues().contains(issue) && (driver == null || !driver.isCustomIssue(issue))) {
+                if (!getIssues().contains(issue) && !isCheckedCustomIssue(driver, issue)) {
                   return Severity.IGNORE;
                 }
 
@@ -204,11 +219,22 @@ public class LintIdeClient extends LintClient implements Disposable {
           return true;
         }
 
-        return driver != null && driver.isCustomIssue(issue) || issue == IssueRegistry.BASELINE || issue == IssueRegistry.CANCELLED;
+        return isCheckedCustomIssue(driver, issue) || issue == IssueRegistry.BASELINE || issue == IssueRegistry.CANCELLED;
       }
     };
   }
 
+  private boolean isCheckedCustomIssue(@Nullable LintDriver driver, @NonNull Issue issue) {
+    return driver != null && driver.isCustomIssue(issue) && checksCustomIssues();
+  }
+
+  /**
+   * Returns true if the issues of the custom rule jars are checked by this client
+   */
+  protected boolean checksCustomIssues() {
+    return true;
+  }
+
   @Override
   public void report(@NonNull Context context,
                      @NonNull Issue issue,
@@ -678,15 +704,23 @@ public class LintIdeClient extends LintClient implements Disposable {
     private final Map<Issue, Map<File, List<ProblemData>>> myProblemMap;
     private final AnalysisScope myScope;
     private final List<Issue> myIssues;
+    private final boolean myCustomIssues;
 
     public BatchLintClient(@NotNull Project project,
                            @NotNull Map<Issue, Map<File, List<ProblemData>>> problemMap,
                            @NotNull AnalysisScope scope,
-                           @NotNull List<Issue> issues) {
+                           @NotNull List<Issue> issues,
+                           boolean customIssues) {
       super(project);
       myProblemMap = problemMap;
       myScope = scope;
       myIssues = issues;
+      myCustomIssues = customIssues;
+    }
+
+    @Override
+    protected boolean checksCustomIssues() {
+      return myCustomIssues;
     }
 
     @Nullable
@@ -862,6 +896,26 @@ public class LintIdeClient extends LintClient implements Disposable {
     return UrlClassLoader.build().parent(parent).urls(urls).get();
   }
 
+  @NonNull
+  @Override
+  public List<File> findGlobalRuleJars() {
+    List<File> jars = super.findGlobalRuleJars();
+    List<File> testJars = ourTestRuleJars;
+    if (testJars != null) {
+      jars = new ArrayList<File>(jars);
+      jars.addAll(testJars);
+    }
+    return jars;
+  }
+
+  /**
+   * Sets custom rule jars to load in addition to the ones lint finds, as if they were installed in the user's lint folder
+   */
+  @TestOnly
+  public static void setTestRuleJars(@Nullable List<File> jars) {
+    ourTestRuleJars = jars;
+  }
+
   @NonNull
   @Override
   public Location.Handle createResourceItemHandle(@NonNull ResourceItem item) {
@@ -53,7 +53,11 @@ public class LintIdeIssueRegistry extends BuiltinIssueRegistry {
   public static final Issue CUSTOM_ERROR = Issue.create(
     "CustomError", "Error from Custom Rule", CUSTOM_EXPLANATION, Category.CORRECTNESS, 5, Severity.ERROR, DUMMY_IMPLEMENTATION);
 
-  private static List<Issue> ourFilteredIssues;
+  /**
+   * The registry is shared by the lint drivers of the editor sessions and of the parallel batch runs, so the filtered issues are only
+   * published once fully computed
+   */
+  private static volatile List<Issue> ourFilteredIssues;
 
   public LintIdeIssueRegistry() {
   }
@@ -61,50 +65,86 @@ public class LintIdeIssueRegistry extends BuiltinIssueRegistry {
   @NonNull
   @Override
   public List<Issue> getIssues() {
-    if (ourFilteredIssues == null) {
-      List<Issue> sIssues = super.getIssues();
-      List<Issue> result = new ArrayList<Issue>(sIssues.size());
-      for (Issue issue : sIssues) {
-        Implementation implementation = issue.getImplementation();
-        EnumSet<Scope> scope = implementation.getScope();
-        Class<? extends Detector> detectorClass = implementation.getDetectorClass();
-        if (detectorClass == ApiDetector.class) {
-          // We're okay to include the class file check here
-          result.add(issue);
-          continue;
-        } else if (detectorClass == GradleDetector.class) {
-          issue.setImplementation(LintIdeGradleDetector.IMPLEMENTATION);
-        } else if (detectorClass == ViewTypeDetector.class) {
-          issue.setImplementation(LintIdeViewTypeDetector.IMPLEMENTATION);
-        } else if (detectorClass == SupportAnnotationDetector.class) {
-          // Handled by the ResourceTypeInspection
-          continue;
-        } else if (scope.contains(Scope.CLASS_FILE) ||
-            scope.contains(Scope.ALL_CLASS_FILES) ||
-            scope.contains(Scope.JAVA_LIBRARIES)) {
-          //noinspection ConstantConditions
-          assert !SUPPORT_CLASS_FILES; // When enabled, adjust this to include class detector based issues
+    List<Issue> issues = ourFilteredIssues;
+    if (issues == null) {
+      synchronized (LintIdeIssueRegistry.class) {
+        issues = ourFilteredIssues;
+        if (issues == null) {
+          issues = computeFilteredIssues();
+          //noinspection AssignmentToStaticFieldFromInstanceMethod
+          ourFilteredIssues = issues;
+        }
+      }
+    }
+    return issues;
+  }
 
-          boolean isOk = false;
-          for (EnumSet<Scope> analysisScope : implementation.getAnalysisScopes()) {
-            if (!analysisScope.contains(Scope.CLASS_FILE) &&
-                !analysisScope.contains(Scope.ALL_CLASS_FILES) &&
-                !analysisScope.contains(Scope.JAVA_LIBRARIES)) {
-              isOk = true;
-              break;
-            }
-          }
-          if (!isOk) {
-            // Skip issue: not included inside the IDE
-            continue;
+  /**
+   * The issues per scope are cached by {@link IssueRegistry} in an unsynchronized static map, filled lazily as drivers ask for scopes
+   */
+  @NonNull
+  @Override
+  protected List<Issue> getIssuesForScope(@NonNull EnumSet<Scope> scope) {
+    synchronized (LintIdeIssueRegistry.class) {
+      return super.getIssuesForScope(scope);
+    }
+  }
+
+  /**
+   * Builds the other lazily computed caches of {@link IssueRegistry} (the issues by id and the categories), which aren't safe to build
+   * concurrently. Must be called before the registry is used by several lint drivers at a time.
+   */
+  public void initializeCaches() {
+    List<Issue> issues = getIssues();
+    synchronized (LintIdeIssueRegistry.class) {
+      if (!issues.isEmpty()) {
+        getIssue(issues.get(0).getId());
+      }
+      getCategories();
+    }
+  }
+
+  @NonNull
+  private List<Issue> computeFilteredIssues() {
+    List<Issue> sIssues = super.getIssues();
+    List<Issue> result = new ArrayList<Issue>(sIssues.size());
+    for (Issue issue : sIssues) {
+      Implementation implementation = issue.getImplementation();
+      EnumSet<Scope> scope = implementation.getScope();
+      Class<? extends Detector> detectorClass = implementation.getDetectorClass();
+      if (detectorClass == ApiDetector.class) {
+        // We're okay to include the class file check here
+        result.add(issue);
+        continue;
+      } else if (detectorClass == GradleDetector.class) {
+        issue.setImplementation(LintIdeGradleDetector.IMPLEMENTATION);
+      } else if (detectorClass == ViewTypeDetector.class) {
+        issue.setImplementation(LintIdeViewTypeDetector.IMPLEMENTATION);
+      } else if (detectorClass == SupportAnnotationDetector.class) {
+        // Handled by the ResourceTypeInspection
+        continue;
+      } else if (scope.contains(Scope.CLASS_FILE) ||
+          scope.contains(Scope.ALL_CLASS_FILES) ||
+          scope.contains(Scope.JAVA_LIBRARIES)) {
+        //noinspection ConstantConditions
+        assert !SUPPORT_CLASS_FILES; // When enabled, adjust this to include class detector based issues
+
+        boolean isOk = false;
+        for (EnumSet<Scope> analysisScope : implementation.getAnalysisScopes()) {
+          if (!analysisScope.contains(Scope.CLASS_FILE) &&
+              !analysisScope.contains(Scope.ALL_CLASS_FILES) &&
+              !analysisScope.contains(Scope.JAVA_LIBRARIES)) {
+            isOk = true;
+            break;
           }
         }
-        result.add(issue);
+        if (!isOk) {
+          // Skip issue: not included inside the IDE
+          continue;
+        }
       }
-      //noinspection AssignmentToStaticFieldFromInstanceMethod
-      ourFilteredIssues = result;
+      result.add(issue);
     }
-
-    return ourFilteredIssues;
+    return result;
   }
 }
@@ -129,7 +129,7 @@ public class LintIdeJavaParser extends JavaParser {
     PsiJavaFile javaFile = (PsiJavaFile)psiFile;
 
     try {
-      return LombokPsiConverter.convert(javaFile);
+      return LintPsiConversionCache.getCompilationUnit(javaFile);
     } catch (ProcessCanceledException ignore) {
       context.getDriver().cancel();
       return null;
@@ -873,7 +873,7 @@ public class LintIdeJavaParser extends JavaParser {
     @Nullable
     @Override
     public Node findAstNode() {
-      return LombokPsiConverter.toNode(myMethod);
+      return LintPsiConversionCache.getNode(myMethod);
     }
 
     @Override
@@ -926,7 +926,7 @@ public class LintIdeJavaParser extends JavaParser {
     @Nullable
     @Override
     public Node findAstNode() {
-      return LombokPsiConverter.toNode(myVariable);
+      return LintPsiConversionCache.getNode(myVariable);
     }
 
     @Override
@@ -1008,7 +1008,7 @@ public class LintIdeJavaParser extends JavaParser {
     @Nullable
     @Override
     public Node findAstNode() {
-      return LombokPsiConverter.toNode(myField);
+      return LintPsiConversionCache.getNode(myField);
     }
     @Override
     public boolean equals(Object o) {
@@ -1410,7 +1410,7 @@ public class LintIdeJavaParser extends JavaParser {
     @Nullable
     @Override
     public Node findAstNode() {
-      return myClass != null ? LombokPsiConverter.toNode(myClass) : null;
+      return myClass != null ? LintPsiConversionCache.getNode(myClass) : null;
     }
 
     @NonNull
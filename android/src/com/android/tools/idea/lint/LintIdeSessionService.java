@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.lint;
+
+import com.android.tools.lint.checks.ApiLookup;
+import com.android.tools.lint.client.api.IssueRegistry;
+import com.android.tools.lint.client.api.LintDriver;
+import com.android.tools.lint.detector.api.Detector;
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.Scope;
+import com.intellij.codeInsight.daemon.HighlightDisplayKey;
+import com.intellij.codeInspection.InspectionProfile;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.project.Project;
+import com.intellij.profile.codeInspection.InspectionProjectProfileManager;
+import com.intellij.psi.PsiElement;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.android.inspections.lint.AndroidLintInspectionBase;
+import org.jetbrains.android.inspections.lint.ProblemData;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the state of the on-the-fly (editor) lint analysis between passes, so that each pass only pays for the analysis itself:
+ * <ul>
+ *   <li>the issue registry, and the lint issues resolved to their inspections, so the issues enabled in the inspection profile can be
+ *   found without going through the whole registry again; the resolution is redone when another profile becomes current</li>
+ *   <li>per module, the {@link ApiLookup} database, which lint would otherwise release and reload between passes</li>
+ *   <li>per module, timings of the passes per analysis scope, and the number of problems reported by each detector, to see which
+ *   checks dominate the editor latency</li>
+ * </ul>
+ * The {@link LintDriver} and the lint projects hold the state of a single analysis (the request, the client and the file being checked),
+ * so they are still created for each pass, from the warm registry.
+ */
+public class LintIdeSessionService {
+  private static final Logger LOG = Logger.getInstance(LintIdeSessionService.class);
+
+  @NotNull private final Project myProject;
+  @NotNull private final IssueRegistry myRegistry = new LintIdeIssueRegistry();
+  private final ConcurrentMap<Module, ModuleSession> mySessions = ContainerUtil.createConcurrentWeakMap();
+
+  private final Object myIssuesLock = new Object();
+  /**
+   * The profile {@link #myInspectionIssues} were resolved with
+   */
+  @Nullable private InspectionProfile myIssuesProfile;
+  @Nullable private Map<Issue, HighlightDisplayKey> myInspectionIssues;
+
+  @NotNull
+  public static LintIdeSessionService getInstance(@NotNull Project project) {
+    return ServiceManager.getService(project, LintIdeSessionService.class);
+  }
+
+  public LintIdeSessionService(@NotNull Project project) {
+    myProject = project;
+  }
+
+  @NotNull
+  public IssueRegistry getRegistry() {
+    return myRegistry;
+  }
+
+  /**
+   * Returns the lint issues whose inspection is enabled in the current inspection profile
+   *
+   * @param context the element to check the inspections for, or null to only consider the profile wide settings
+   */
+  @NotNull
+  public List<Issue> getEnabledIssues(@Nullable PsiElement context) {
+    InspectionProfile profile = InspectionProjectProfileManager.getInstance(myProject).getCurrentProfile();
+    Map<Issue, HighlightDisplayKey> inspectionIssues = getInspectionIssues(profile);
+
+    List<Issue> result = new ArrayList<>(inspectionIssues.size());
+    for (Map.Entry<Issue, HighlightDisplayKey> entry : inspectionIssues.entrySet()) {
+      Issue issue = entry.getKey();
+      HighlightDisplayKey key = entry.getValue();
+      boolean enabled = context != null ? profile.isToolEnabled(key, context) : profile.isToolEnabled(key);
+      if (!enabled) {
+        continue;
+      }
+      else if (!issue.isEnabledByDefault()) {
+        // If an issue is marked as not enabled by default, lint won't run it, even if it's in the set
+        // of issues provided by an issue registry. Since in the IDE we're enforcing the enabled-state via
+        // inspection profiles, mark the issue as enabled to allow users to turn on a lint check directly
+        // via the inspections UI.
+        issue.setEnabledByDefault(true);
+      }
+      result.add(issue);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the issues of the registry that have an inspection, with the key of their inspection
+   */
+  @NotNull
+  private Map<Issue, HighlightDisplayKey> getInspectionIssues(@NotNull InspectionProfile profile) {
+    synchronized (myIssuesLock) {
+      if (myInspectionIssues == null || myIssuesProfile != profile) {
+        Map<Issue, HighlightDisplayKey> inspectionIssues = new LinkedHashMap<>();
+        for (Issue issue : myRegistry.getIssues()) {
+          String inspectionShortName = AndroidLintInspectionBase.getInspectionShortNameByIssue(myProject, issue);
+          if (inspectionShortName == null) {
+            continue;
+          }
+          HighlightDisplayKey key = HighlightDisplayKey.find(inspectionShortName);
+          if (key != null) {
+            inspectionIssues.put(issue, key);
+          }
+        }
+        myInspectionIssues = inspectionIssues;
+        myIssuesProfile = profile;
+      }
+      return myInspectionIssues;
+    }
+  }
+
+  @NotNull
+  public ModuleSession getSession(@NotNull Module module) {
+    return mySessions.computeIfAbsent(module, m -> new ModuleSession(myRegistry));
+  }
+
+  /**
+   * Lint state and statistics of the editor passes of a module
+   */
+  public static class ModuleSession {
+    @NotNull private final IssueRegistry myRegistry;
+    /**
+     * Strong reference to the API database: lint only keeps it softly reachable between analyses
+     */
+    @Nullable private volatile ApiLookup myApiLookup;
+    private final Map<String, PassStatistics> myScopeStatistics = new TreeMap<>();
+    private final Map<String, Integer> myDetectorReports = new TreeMap<>();
+
+    private ModuleSession(@NotNull IssueRegistry registry) {
+      myRegistry = registry;
+    }
+
+    /**
+     * Creates the driver for a pass of the given client
+     */
+    @NotNull
+    public LintDriver createDriver(@NotNull LintIdeClient client) {
+      if (myApiLookup == null) {
+        myApiLookup = ApiLookup.get(client);
+      }
+      return new LintDriver(myRegistry, client);
+    }
+
+    /**
+     * Records a pass analyzing the given scope, and the problems it reported
+     */
+    public void recordPass(@NotNull EnumSet<Scope> scope, long nanos, @NotNull List<ProblemData> problems) {
+      String scopeName = scope.toString();
+      synchronized (this) {
+        PassStatistics statistics = myScopeStatistics.get(scopeName);
+        if (statistics == null) {
+          statistics = new PassStatistics();
+          myScopeStatistics.put(scopeName, statistics);
+        }
+        statistics.add(nanos);
+        for (ProblemData problem : problems) {
+          Class<? extends Detector> detector = problem.getIssue().getImplementation().getDetectorClass();
+          String name = detector.getSimpleName();
+          Integer count = myDetectorReports.get(name);
+          myDetectorReports.put(name, count != null ? count + 1 : 1);
+        }
+      }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug(String.format("Lint pass %1$s: %2$.1f ms, %3$d problems", scopeName, nanos / 1e6, problems.size()));
+      }
+    }
+
+    /**
+     * Returns the number of problems reported by each detector since the last {@link #resetStatistics()}, by detector class name
+     */
+    @NotNull
+    public synchronized Map<String, Integer> getDetectorReports() {
+      return new TreeMap<>(myDetectorReports);
+    }
+
+    /**
+     * Returns the statistics of the passes since the last {@link #resetStatistics()}, by analysis scope
+     */
+    @NotNull
+    public synchronized Map<String, PassStatistics> getScopeStatistics() {
+      Map<String, PassStatistics> copy = new TreeMap<>();
+      for (Map.Entry<String, PassStatistics> entry : myScopeStatistics.entrySet()) {
+        copy.put(entry.getKey(), entry.getValue().copy());
+      }
+      return copy;
+    }
+
+    public synchronized void resetStatistics() {
+      myScopeStatistics.clear();
+      myDetectorReports.clear();
+    }
+  }
+
+  /**
+   * Number and duration of lint passes
+   */
+  public static class PassStatistics {
+    private int myCount;
+    private long myTotalNanos;
+    private long myMaxNanos;
+
+    private void add(long nanos) {
+      myCount++;
+      myTotalNanos += nanos;
+      myMaxNanos = Math.max(myMaxNanos, nanos);
+    }
+
+    @NotNull
+    private PassStatistics copy() {
+      PassStatistics copy = new PassStatistics();
+      copy.myCount = myCount;
+      copy.myTotalNanos = myTotalNanos;
+      copy.myMaxNanos = myMaxNanos;
+      return copy;
+    }
+
+    public int getCount() {
+      return myCount;
+    }
+
+    public double getAverageTimeMs() {
+      return myCount == 0 ? 0 : myTotalNanos / 1e6 / myCount;
+    }
+
+    public double getMaxTimeMs() {
+      return myMaxNanos / 1e6;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%1$d passes, avg %2$.1f ms, max %3$.1f ms", myCount, getAverageTimeMs(), getMaxTimeMs());
+    }
+  }
+}
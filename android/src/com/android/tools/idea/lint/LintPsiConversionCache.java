@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.lint;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.UserDataHolder;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.xml.XmlFile;
+import lombok.ast.CompilationUnit;
+import lombok.ast.Node;
+import org.w3c.dom.Document;
+
+import java.lang.ref.SoftReference;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Caches the Lombok AST and DOM trees that lint builds from PSI, so that analyzing the same unchanged file again (from the editor,
+ * then from a batch run, or in several batch shards) does not convert it again.
+ * <p/>
+ * A conversion is stored in the user data of the element it was made from, together with the modification stamp of the containing
+ * file, and is only reused while the stamp is unchanged. The cache is thus released with the PSI, and the converted tree itself is only
+ * softly reachable so that it can be reclaimed under memory pressure.
+ * <p/>
+ * The converted trees are shared between the lint passes using them, which may run concurrently (an editor pass and the batch shards).
+ * The detectors do not modify the Lombok AST, which is fully built by the conversion. The DOM is a read-only bridge over the PSI whose
+ * child lists, root element and attribute maps are built lazily on first access; {@link DomPsiConverter} builds each of them completely
+ * under the lock of its node before publishing it, so that concurrent passes always see complete and identical nodes.
+ */
+public class LintPsiConversionCache {
+  private static final Key<CachedConversion<CompilationUnit>> COMPILATION_UNIT = Key.create("lint.lombok.compilationUnit");
+  private static final Key<CachedConversion<Document>> DOCUMENT = Key.create("lint.dom.document");
+  private static final Key<CachedConversion<Node>> NODE = Key.create("lint.lombok.node");
+
+  private static final AtomicLong ourHitCount = new AtomicLong();
+  private static final AtomicLong ourMissCount = new AtomicLong();
+
+  private LintPsiConversionCache() {
+  }
+
+  /**
+   * Returns the Lombok AST of the given file, see {@link LombokPsiConverter#convert(PsiJavaFile)}. Must be called from a read action.
+   */
+  @Nullable
+  public static CompilationUnit getCompilationUnit(@NonNull PsiJavaFile file) {
+    return get(file, file, COMPILATION_UNIT, LombokPsiConverter::convert);
+  }
+
+  /**
+   * Returns the DOM of the given file, see {@link DomPsiConverter#convert(XmlFile)}. Must be called from a read action.
+   */
+  @Nullable
+  public static Document getDocument(@NonNull XmlFile file) {
+    return get(file, file, DOCUMENT, DomPsiConverter::convert);
+  }
+
+  /**
+   * Returns the Lombok AST of the given element, see {@link LombokPsiConverter#toNode(PsiElement)}. Used for the declarations lint
+   * resolves to, which are only converted when a detector asks for their AST. Must be called from a read action.
+   */
+  @Nullable
+  public static Node getNode(@NonNull PsiElement element) {
+    PsiFile file = element.getContainingFile();
+    if (file == null) {
+      return LombokPsiConverter.toNode(element);
+    }
+    return get(element, file, NODE, LombokPsiConverter::toNode);
+  }
+
+  @Nullable
+  private static <S extends UserDataHolder, T> T get(@NonNull S source,
+                                                     @NonNull PsiFile file,
+                                                     @NonNull Key<CachedConversion<T>> key,
+                                                     @NonNull Function<S, T> converter) {
+    long stamp = file.getModificationStamp();
+    CachedConversion<T> cached = source.getUserData(key);
+    if (cached != null && cached.myStamp == stamp) {
+      T value = cached.myValue.get();
+      if (value != null) {
+        ourHitCount.incrementAndGet();
+        return value;
+      }
+    }
+
+    ourMissCount.incrementAndGet();
+    T value = converter.apply(source);
+    // A null result means the conversion was cancelled or failed, don't cache it
+    if (value != null && file.getModificationStamp() == stamp) {
+      source.putUserData(key, new CachedConversion<>(stamp, value));
+    }
+    return value;
+  }
+
+  public static long getHitCount() {
+    return ourHitCount.get();
+  }
+
+  public static long getMissCount() {
+    return ourMissCount.get();
+  }
+
+  private static class CachedConversion<T> {
+    private final long myStamp;
+    @NonNull private final SoftReference<T> myValue;
+
+    private CachedConversion(long stamp, @NonNull T value) {
+      myStamp = stamp;
+      myValue = new SoftReference<>(value);
+    }
+  }
+}
@@ -0,0 +1,438 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.lint;
+
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.Scope;
+import com.android.tools.lint.detector.api.Severity;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.intellij.openapi.application.ApplicationInfo;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectUtil;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileVisitor;
+import org.jetbrains.android.facet.AndroidFacet;
+import org.jetbrains.android.facet.AndroidRootUtil;
+import org.jetbrains.android.inspections.lint.ProblemData;
+import org.jetbrains.android.util.AndroidUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persistent store of the batch lint results of single-file checks, so that files which did not change since the last run don't need
+ * to be analyzed again.
+ * <p/>
+ * The results of a file are stored with the hash of its content and the fingerprint of the module configuration they were computed
+ * with. The fingerprint covers what single-file detectors read besides the file itself: the manifest, the build and lint configuration
+ * files, and the resources of the module and of its Android dependencies. Any change to those invalidates all the results of the module.
+ * Detectors whose scope spans several files (e.g. all resources of the project) are never cached, see {@link #isCacheable(Issue)}.
+ * Neither are the Java detectors: they resolve calls and references into other source files and library jars (e.g. the threading,
+ * range and permission annotations of the called methods), which the fingerprint does not cover.
+ * Nor are the Gradle detectors, whose results depend on the SDK and on the remote repositories.
+ */
+public class LintResultCache {
+  private static final Logger LOG = Logger.getInstance(LintResultCache.class);
+
+  private static final int CACHE_VERSION = 1;
+  private static final String CACHE_DIRECTORY = "lint-results";
+  private static final String CACHE_FILE = "results.bin";
+  /**
+   * Maximum number of files kept in the cache, the entries of the least recently checked files are dropped beyond it
+   */
+  private static final int MAX_ENTRIES = 100000;
+
+  /**
+   * Scopes of the detectors which look at one file at a time, and only depend on files covered by the fingerprint. Not
+   * {@link Scope#JAVA_FILE}, whose detectors resolve into other source files and the classpath, nor {@link Scope#GRADLE_FILE},
+   * whose detectors compare the build file with the installed SDK components and the latest versions in the repositories.
+   */
+  private static final EnumSet<Scope> SINGLE_FILE_SCOPES = EnumSet.of(Scope.RESOURCE_FILE, Scope.BINARY_RESOURCE_FILE, Scope.MANIFEST,
+                                                                      Scope.PROGUARD_FILE, Scope.PROPERTY_FILE);
+
+  @NotNull private final Project myProject;
+  @Nullable private final File myCacheFile;
+  private final Object myLoadLock = new Object();
+  @Nullable private ConcurrentMap<String, Entry> myEntries;
+
+  private final AtomicInteger myHitCount = new AtomicInteger();
+  private final AtomicInteger myMissCount = new AtomicInteger();
+
+  @NotNull
+  public static LintResultCache getInstance(@NotNull Project project) {
+    return ServiceManager.getService(project, LintResultCache.class);
+  }
+
+  public LintResultCache(@NotNull Project project) {
+    this(project, getDefaultCacheFile(project));
+  }
+
+  @VisibleForTesting
+  LintResultCache(@NotNull Project project, @Nullable File cacheFile) {
+    myProject = project;
+    myCacheFile = cacheFile;
+  }
+
+  @Nullable
+  private static File getDefaultCacheFile(@NotNull Project project) {
+    if (project.isDefault()) {
+      return null;
+    }
+    File root = new File(AndroidUtils.getAndroidSystemDirectoryOsPath(), CACHE_DIRECTORY);
+    return ProjectUtil.getProjectCachePath(project, root.toPath()).resolve(CACHE_FILE).toFile();
+  }
+
+  /**
+   * Returns true if the results of the given issue in a file only depend on the file and the module configuration
+   */
+  public static boolean isCacheable(@NotNull Issue issue) {
+    EnumSet<Scope> scope = issue.getImplementation().getScope();
+    return scope.size() == 1 && SINGLE_FILE_SCOPES.contains(scope.iterator().next());
+  }
+
+  /**
+   * Returns the hash of the current content of the given file, including unsaved changes. Must be called from a read action.
+   */
+  @NotNull
+  public static String computeContentHash(@NotNull VirtualFile file) throws IOException {
+    Document document = FileDocumentManager.getInstance().getCachedDocument(file);
+    byte[] content = document != null
+                     ? document.getImmutableCharSequence().toString().getBytes(StandardCharsets.UTF_8)
+                     : file.contentsToByteArray();
+    return Hashing.murmur3_128().hashBytes(content).toString();
+  }
+
+  /**
+   * Computes the fingerprint of the configuration the single-file results of the module depend on. Must be called from a read action.
+   */
+  @NotNull
+  public static String computeFingerprint(@NotNull Module module) {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    hasher.putInt(CACHE_VERSION);
+    hasher.putString(ApplicationInfo.getInstance().getBuild().asString(), StandardCharsets.UTF_8);
+
+    AndroidFacet facet = AndroidFacet.getInstance(module);
+    File moduleDir = LintIdeProject.getLintProjectDirectory(module, facet);
+    if (moduleDir != null) {
+      // Build files, lint.xml and the other configuration files next to them
+      File[] files = moduleDir.listFiles();
+      if (files != null) {
+        Arrays.sort(files);
+        for (File file : files) {
+          if (file.isFile() && isConfigurationFile(file.getName())) {
+            putFile(hasher, file.getPath(), file.lastModified(), file.length());
+          }
+        }
+      }
+    }
+    if (facet != null) {
+      VirtualFile manifest = AndroidRootUtil.getPrimaryManifestFile(facet);
+      if (manifest != null) {
+        putFile(hasher, manifest.getPath(), manifest.getTimeStamp(), manifest.getLength());
+      }
+      List<AndroidFacet> facets = new ArrayList<>();
+      facets.add(facet);
+      facets.addAll(AndroidUtils.getAllAndroidDependencies(module, true));
+      for (AndroidFacet resourceFacet : facets) {
+        for (VirtualFile folder : resourceFacet.getResourceFolderManager().getFolders()) {
+          VfsUtilCore.visitChildrenRecursively(folder, new VirtualFileVisitor() {
+            @Override
+            public boolean visitFile(@NotNull VirtualFile file) {
+              if (!file.isDirectory()) {
+                putFile(hasher, file.getPath(), file.getTimeStamp(), file.getLength());
+              }
+              return true;
+            }
+          });
+        }
+      }
+    }
+    return hasher.hash().toString();
+  }
+
+  private static boolean isConfigurationFile(@NotNull String name) {
+    return name.endsWith(".gradle") || name.endsWith(".properties") || name.equals("lint.xml") || name.startsWith("proguard");
+  }
+
+  private static void putFile(@NotNull Hasher hasher, @NotNull String path, long timeStamp, long length) {
+    hasher.putString(path, StandardCharsets.UTF_8).putLong(timeStamp).putLong(length);
+  }
+
+  /**
+   * Returns the cached problems of the given issues in the file, or null if the file has to be checked again
+   *
+   * @param file        the canonical file
+   * @param contentHash the hash of the current content of the file, see {@link #computeContentHash}
+   * @param fingerprint the current fingerprint of the module of the file, see {@link #computeFingerprint}
+   * @param issues      the issues to check
+   */
+  @Nullable
+  public Map<Issue, List<ProblemData>> get(@NotNull File file,
+                                           @NotNull String contentHash,
+                                           @NotNull String fingerprint,
+                                           @NotNull Collection<Issue> issues) {
+    Entry entry = getEntries().get(file.getPath());
+    if (entry == null || !entry.myContentHash.equals(contentHash) || !entry.myFingerprint.equals(fingerprint)) {
+      myMissCount.incrementAndGet();
+      return null;
+    }
+    for (Issue issue : issues) {
+      if (!entry.myIssueIds.contains(issue.getId())) {
+        // Checked with fewer issues than requested now
+        myMissCount.incrementAndGet();
+        return null;
+      }
+    }
+
+    Map<Issue, List<ProblemData>> result = new HashMap<>();
+    for (Issue issue : issues) {
+      List<StoredProblem> stored = entry.myProblems.get(issue.getId());
+      if (stored == null) {
+        continue;
+      }
+      List<ProblemData> problems = new ArrayList<>(stored.size());
+      for (StoredProblem problem : stored) {
+        problems.add(problem.toProblemData(issue));
+      }
+      result.put(issue, problems);
+    }
+    entry.myLastUsed = System.currentTimeMillis();
+    myHitCount.incrementAndGet();
+    return result;
+  }
+
+  /**
+   * Stores the problems found in a file for the given issues. Issues without problems in the file are stored as such.
+   */
+  public void put(@NotNull File file,
+                  @NotNull String contentHash,
+                  @NotNull String fingerprint,
+                  @NotNull Collection<Issue> issues,
+                  @NotNull Map<Issue, List<ProblemData>> problems) {
+    Set<String> issueIds = new HashSet<>();
+    for (Issue issue : issues) {
+      issueIds.add(issue.getId());
+    }
+    Map<String, List<StoredProblem>> storedProblems = new HashMap<>();
+    for (Map.Entry<Issue, List<ProblemData>> entry : problems.entrySet()) {
+      List<StoredProblem> stored = new ArrayList<>(entry.getValue().size());
+      for (ProblemData problem : entry.getValue()) {
+        stored.add(new StoredProblem(problem));
+      }
+      storedProblems.put(entry.getKey().getId(), stored);
+      issueIds.add(entry.getKey().getId());
+    }
+    getEntries().put(file.getPath(), new Entry(contentHash, fingerprint, issueIds, storedProblems, System.currentTimeMillis()));
+  }
+
+  public int getHitCount() {
+    return myHitCount.get();
+  }
+
+  public int getMissCount() {
+    return myMissCount.get();
+  }
+
+  public void resetStatistics() {
+    myHitCount.set(0);
+    myMissCount.set(0);
+  }
+
+  public void clear() {
+    getEntries().clear();
+    if (myCacheFile != null) {
+      //noinspection ResultOfMethodCallIgnored
+      myCacheFile.delete();
+    }
+  }
+
+  @NotNull
+  private ConcurrentMap<String, Entry> getEntries() {
+    synchronized (myLoadLock) {
+      if (myEntries == null) {
+        myEntries = new ConcurrentHashMap<>();
+        if (myCacheFile != null && myCacheFile.isFile()) {
+          try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(myCacheFile)))) {
+            read(in, myEntries);
+          }
+          catch (IOException e) {
+            LOG.warn("Discarding the lint result cache of " + myProject.getName(), e);
+            myEntries.clear();
+          }
+        }
+      }
+      return myEntries;
+    }
+  }
+
+  /**
+   * Writes the cache to disk
+   */
+  public void save() {
+    if (myCacheFile == null) {
+      return;
+    }
+    synchronized (myLoadLock) {
+      if (myEntries == null) {
+        return;
+      }
+      List<Map.Entry<String, Entry>> entries = new ArrayList<>(myEntries.entrySet());
+      if (entries.size() > MAX_ENTRIES) {
+        entries.sort((e1, e2) -> Long.compare(e2.getValue().myLastUsed, e1.getValue().myLastUsed));
+        for (Map.Entry<String, Entry> dropped : entries.subList(MAX_ENTRIES, entries.size())) {
+          myEntries.remove(dropped.getKey());
+        }
+        entries = entries.subList(0, MAX_ENTRIES);
+      }
+      File parent = myCacheFile.getParentFile();
+      if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+        LOG.warn("Could not create " + parent);
+        return;
+      }
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myCacheFile)))) {
+        write(out, entries);
+      }
+      catch (IOException e) {
+        LOG.warn("Could not write the lint result cache of " + myProject.getName(), e);
+        //noinspection ResultOfMethodCallIgnored
+        myCacheFile.delete();
+      }
+    }
+  }
+
+  private static void write(@NotNull DataOutputStream out, @NotNull List<Map.Entry<String, Entry>> entries) throws IOException {
+    out.writeInt(CACHE_VERSION);
+    out.writeInt(entries.size());
+    for (Map.Entry<String, Entry> mapEntry : entries) {
+      Entry entry = mapEntry.getValue();
+      out.writeUTF(mapEntry.getKey());
+      out.writeUTF(entry.myContentHash);
+      out.writeUTF(entry.myFingerprint);
+      out.writeLong(entry.myLastUsed);
+      out.writeInt(entry.myIssueIds.size());
+      for (String issueId : entry.myIssueIds) {
+        out.writeUTF(issueId);
+      }
+      out.writeInt(entry.myProblems.size());
+      for (Map.Entry<String, List<StoredProblem>> problems : entry.myProblems.entrySet()) {
+        out.writeUTF(problems.getKey());
+        out.writeInt(problems.getValue().size());
+        for (StoredProblem problem : problems.getValue()) {
+          out.writeUTF(problem.myMessage);
+          out.writeInt(problem.myStartOffset);
+          out.writeInt(problem.myEndOffset);
+          out.writeUTF(problem.mySeverity != null ? problem.mySeverity.name() : "");
+        }
+      }
+    }
+  }
+
+  private static void read(@NotNull DataInputStream in, @NotNull Map<String, Entry> entries) throws IOException {
+    if (in.readInt() != CACHE_VERSION) {
+      return;
+    }
+    int entryCount = in.readInt();
+    for (int i = 0; i < entryCount; i++) {
+      String path = in.readUTF();
+      String contentHash = in.readUTF();
+      String fingerprint = in.readUTF();
+      long lastUsed = in.readLong();
+      int issueCount = in.readInt();
+      Set<String> issueIds = new HashSet<>(issueCount);
+      for (int j = 0; j < issueCount; j++) {
+        issueIds.add(in.readUTF());
+      }
+      int problemIssueCount = in.readInt();
+      Map<String, List<StoredProblem>> problems = new HashMap<>(problemIssueCount);
+      for (int j = 0; j < problemIssueCount; j++) {
+        String issueId = in.readUTF();
+        int problemCount = in.readInt();
+        List<StoredProblem> stored = new ArrayList<>(problemCount);
+        for (int k = 0; k < problemCount; k++) {
+          String message = in.readUTF();
+          int start = in.readInt();
+          int end = in.readInt();
+          String severity = in.readUTF();
+          stored.add(new StoredProblem(message, start, end, severity.isEmpty() ? null : Severity.valueOf(severity)));
+        }
+        problems.put(issueId, stored);
+      }
+      entries.put(path, new Entry(contentHash, fingerprint, issueIds, problems, lastUsed));
+    }
+  }
+
+  private static class Entry {
+    @NotNull private final String myContentHash;
+    @NotNull private final String myFingerprint;
+    /**
+     * Issues the file was checked for
+     */
+    @NotNull private final Set<String> myIssueIds;
+    @NotNull private final Map<String, List<StoredProblem>> myProblems;
+    private volatile long myLastUsed;
+
+    private Entry(@NotNull String contentHash,
+                  @NotNull String fingerprint,
+                  @NotNull Set<String> issueIds,
+                  @NotNull Map<String, List<StoredProblem>> problems,
+                  long lastUsed) {
+      myContentHash = contentHash;
+      myFingerprint = fingerprint;
+      myIssueIds = issueIds;
+      myProblems = problems;
+      myLastUsed = lastUsed;
+    }
+  }
+
+  private static class StoredProblem {
+    @NotNull private final String myMessage;
+    private final int myStartOffset;
+    private final int myEndOffset;
+    @Nullable private final Severity mySeverity;
+
+    private StoredProblem(@NotNull ProblemData problem) {
+      this(problem.getMessage(), problem.getTextRange().getStartOffset(), problem.getTextRange().getEndOffset(),
+           problem.getConfiguredSeverity());
+    }
+
+    private StoredProblem(@NotNull String message, int startOffset, int endOffset, @Nullable Severity severity) {
+      myMessage = message;
+      myStartOffset = startOffset;
+      myEndOffset = endOffset;
+      mySeverity = severity;
+    }
+
+    @NotNull
+    private ProblemData toProblemData(@NotNull Issue issue) {
+      return new ProblemData(issue, myMessage, new TextRange(myStartOffset, myEndOffset), mySeverity);
+    }
+  }
+}
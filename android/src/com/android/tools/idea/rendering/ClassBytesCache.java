@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.annotation.concurrent.GuardedBy;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of class file contents, after they have been rewritten by {@link ClassConverter}, shared by all the
+ * {@link RenderClassLoader}s.
+ * <p>
+ * A new {@link org.jetbrains.android.uipreview.ModuleClassLoader} is created every time the project classes or resources
+ * change, and without this cache every one of them reads and rewrites the bytecode of every custom view again. Entries are
+ * keyed by the class file location and the layoutlib API level the bytes were rewritten for, and are only returned when the
+ * timestamp and length of the class file still match. The cache is bounded by the total size of the cached bytes (least
+ * recently used entries are evicted first) and the bytes are softly referenced so they can be reclaimed under memory pressure.
+ */
+public class ClassBytesCache {
+  private static final long DEFAULT_MAX_SIZE_BYTES = 32 * 1024 * 1024;
+
+  private static final ClassBytesCache ourInstance = new ClassBytesCache(DEFAULT_MAX_SIZE_BYTES);
+
+  private final long myMaxSizeBytes;
+
+  @GuardedBy("this")
+  private final LinkedHashMap<String, Entry> myEntries = new LinkedHashMap<>(256, 0.75f, true);
+  @GuardedBy("this")
+  private long mySizeBytes;
+
+  private final AtomicLong myHits = new AtomicLong();
+  private final AtomicLong myMisses = new AtomicLong();
+  private final AtomicLong myEvictions = new AtomicLong();
+
+  private static class Entry {
+    final long timestamp;
+    final long length;
+    final int size;
+    @NotNull final SoftReference<byte[]> data;
+
+    Entry(long timestamp, long length, @NotNull byte[] data) {
+      this.timestamp = timestamp;
+      this.length = length;
+      this.size = data.length;
+      this.data = new SoftReference<>(data);
+    }
+  }
+
+  @VisibleForTesting
+  ClassBytesCache(long maxSizeBytes) {
+    myMaxSizeBytes = maxSizeBytes;
+  }
+
+  @NotNull
+  public static ClassBytesCache getInstance() {
+    return ourInstance;
+  }
+
+  @NotNull
+  private static String getKey(@NotNull String path, int apiLevel) {
+    return apiLevel + ":" + path;
+  }
+
+  /**
+   * Returns the cached, already rewritten, bytes for the class file at the given location or null if they are not cached
+   * or the file has changed since they were cached.
+   *
+   * @param path      the path or URL of the class file
+   * @param timestamp the current timestamp of the class file (or the jar file containing it)
+   * @param length    the current length of the class file (or the jar file containing it)
+   * @param apiLevel  the layoutlib API level the bytes were rewritten for
+   */
+  @Nullable
+  public byte[] get(@NotNull String path, long timestamp, long length, int apiLevel) {
+    String key = getKey(path, apiLevel);
+    synchronized (this) {
+      Entry entry = myEntries.get(key);
+      if (entry != null) {
+        byte[] data = entry.data.get();
+        if (data != null && entry.timestamp == timestamp && entry.length == length) {
+          myHits.incrementAndGet();
+          return data;
+        }
+
+        // Stale or reclaimed by the GC
+        myEntries.remove(key);
+        mySizeBytes -= entry.size;
+      }
+    }
+
+    myMisses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Adds the rewritten bytes of the class file at the given location to the cache.
+   *
+   * @see #get(String, long, long, int)
+   */
+  public void put(@NotNull String path, long timestamp, long length, int apiLevel, @NotNull byte[] data) {
+    if (data.length > myMaxSizeBytes) {
+      return;
+    }
+
+    Entry entry = new Entry(timestamp, length, data);
+    synchronized (this) {
+      Entry previous = myEntries.put(getKey(path, apiLevel), entry);
+      if (previous != null) {
+        mySizeBytes -= previous.size;
+      }
+      mySizeBytes += entry.size;
+
+      Iterator<Map.Entry<String, Entry>> iterator = myEntries.entrySet().iterator();
+      while (mySizeBytes > myMaxSizeBytes && iterator.hasNext()) {
+        Entry eldest = iterator.next().getValue();
+        iterator.remove();
+        mySizeBytes -= eldest.size;
+        myEvictions.incrementAndGet();
+      }
+    }
+  }
+
+  /** Removes all the entries from the cache */
+  public synchronized void clear() {
+    myEntries.clear();
+    mySizeBytes = 0;
+  }
+
+  public long getHitCount() {
+    return myHits.get();
+  }
+
+  public long getMissCount() {
+    return myMisses.get();
+  }
+
+  public long getEvictionCount() {
+    return myEvictions.get();
+  }
+
+  /** Returns the ratio of lookups that were served from the cache, between 0 and 1 */
+  public double getHitRate() {
+    long hits = myHits.get();
+    long total = hits + myMisses.get();
+    return total == 0 ? 0 : (double)hits / total;
+  }
+
+  public synchronized long getSizeBytes() {
+    return mySizeBytes;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ClassBytesCache{hits=%d, misses=%d, evictions=%d, hitRate=%.2f, size=%d bytes}",
+                         getHitCount(), getMissCount(), getEvictionCount(), getHitRate(), getSizeBytes());
+  }
+}
@@ -22,78 +22,185 @@ import com.android.ide.common.resources.ResourceUrl;
 import com.android.ide.common.vectordrawable.VdPreview;
 import com.android.utils.XmlUtils;
 import com.google.common.base.Charsets;
-import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
 import com.intellij.ui.Gray;
 import com.intellij.util.RetinaImage;
+import com.intellij.util.concurrency.BoundedTaskExecutor;
 import com.intellij.util.ui.JBUI;
 import com.intellij.util.ui.UIUtil;
-import icons.AndroidIcons;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.ide.PooledThreadExecutor;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
+import javax.annotation.concurrent.GuardedBy;
 import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import static com.android.SdkConstants.*;
 
-public class GutterIconCache {
+/**
+ * Cache of the thumbnails shown in the editor gutter for drawable references.
+ * <p>
+ * Thumbnails are decoded and downsampled on a background thread; until a thumbnail is ready, {@link #getIcon} returns an
+ * icon which paints nothing and repaints its component once the thumbnail is available, at which point {@link #getIcon}
+ * returns null if the file could not be rendered. The cache holds up to
+ * {@link #MAX_CACHED_ICONS} thumbnails, least recently used first out, and an entry is dropped when the VFS reports a
+ * change to its file, so painting never touches the file system. Bitmap thumbnails are also stored on disk, keyed by the
+ * timestamp and size of their file, so they do not need to be decoded again after a restart (vector drawable thumbnails
+ * depend on the resource resolver so they are not persisted).
+ */
+public class GutterIconCache implements Disposable {
   private static final Logger LOG = Logger.getInstance(GutterIconCache.class);
   private static final int MAX_WIDTH = JBUI.scale(16);
   private static final int MAX_HEIGHT = JBUI.scale(16);
-  private static final Icon NONE = AndroidIcons.Android; // placeholder
+  private static final int MAX_CACHED_ICONS = 1000;
+  private static final int MAX_PERSISTED_THUMBNAILS = 5000;
+  /** Set the system property to false to disable the on-disk thumbnail cache */
+  private static final boolean PERSIST_THUMBNAILS = Boolean.parseBoolean(System.getProperty("android.gutter.icons.persist", "true"));
 
-  private static final GutterIconCache ourInstance = new GutterIconCache();
-  // TODO: Timestamps?
-  private Map<String,Icon> myThumbnailCache = Maps.newHashMap();
+  private final Object myLock = new Object();
+  /** Thumbnails by system independent path */
+  @GuardedBy("myLock")
+  private final LinkedHashMap<String, ThumbnailIcon> myThumbnailCache = new LinkedHashMap<String, ThumbnailIcon>(64, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, ThumbnailIcon> eldest) {
+      return size() > MAX_CACHED_ICONS;
+    }
+  };
+  @GuardedBy("myLock")
   private boolean myRetina;
+  private final Executor myExecutor = new BoundedTaskExecutor(PooledThreadExecutor.INSTANCE, 2);
+  @Nullable private File myThumbnailDir;
   private static boolean ourRetinaEnabled = true;
 
   public GutterIconCache() {
+    Application application = ApplicationManager.getApplication();
+    if (application != null) {
+      application.getMessageBus().connect(this).subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener.Adapter() {
+        @Override
+        public void before(@NotNull List<? extends VFileEvent> events) {
+          // The paths of moved, renamed and deleted files are only known before the change
+          invalidate(events);
+        }
+
+        @Override
+        public void after(@NotNull List<? extends VFileEvent> events) {
+          // A thumbnail of the old content may have been loaded since the change was announced
+          invalidate(events);
+        }
+      });
+    }
   }
 
   @NotNull
   public static GutterIconCache getInstance() {
-    return ourInstance;
+    return ServiceManager.getService(GutterIconCache.class);
+  }
+
+  @Override
+  public void dispose() {
+    synchronized (myLock) {
+      myThumbnailCache.clear();
+    }
   }
 
+  /**
+   * Returns the gutter icon for the drawable at the given path, or null if it could not be rendered. The returned icon
+   * may still be loading; see the class documentation.
+   */
   @Nullable
   public Icon getIcon(@NotNull String path, @Nullable ResourceResolver resolver) {
     boolean isRetina = UIUtil.isRetina();
-    if (myRetina != isRetina) {
-      myRetina = isRetina;
-      myThumbnailCache.clear();
+    String key = FileUtil.toSystemIndependentName(path);
+
+    ThumbnailIcon icon;
+    boolean load = false;
+    synchronized (myLock) {
+      if (myRetina != isRetina) {
+        myRetina = isRetina;
+        myThumbnailCache.clear();
+      }
+      icon = myThumbnailCache.get(key);
+      if (icon == null) {
+        icon = new ThumbnailIcon();
+        myThumbnailCache.put(key, icon);
+        load = true;
+      }
     }
-    Icon myIcon = myThumbnailCache.get(path);
-    if (myIcon == null) {
-      myIcon = createIcon(path, resolver);
 
-      if (myIcon == null) {
-        myIcon = NONE;
+    if (load) {
+      ThumbnailIcon loading = icon;
+      Runnable task = () -> loading.setIcon(createIcon(path, resolver));
+      if (ApplicationManager.getApplication() == null || ApplicationManager.getApplication().isUnitTestMode()) {
+        task.run();
+      }
+      else {
+        myExecutor.execute(task);
       }
+    }
+
+    return icon.isFailed() ? null : icon;
+  }
 
-      myThumbnailCache.put(path, myIcon);
+  /**
+   * Drops the cached thumbnail for the given path, if any
+   */
+  public void invalidate(@NotNull String path) {
+    synchronized (myLock) {
+      myThumbnailCache.remove(FileUtil.toSystemIndependentName(path));
     }
+  }
 
-    return myIcon != NONE ? myIcon : null;
+  private void invalidate(@NotNull List<? extends VFileEvent> events) {
+    synchronized (myLock) {
+      if (myThumbnailCache.isEmpty()) {
+        return;
+      }
+      for (VFileEvent event : events) {
+        String path = event.getPath();
+        myThumbnailCache.remove(path);
+        VirtualFile file = event.getFile();
+        if (file != null && file.isDirectory()) {
+          // Moving or deleting a folder only reports the folder
+          String prefix = path + '/';
+          myThumbnailCache.keySet().removeIf(key -> key.startsWith(prefix));
+        }
+      }
+    }
   }
 
-  // TODO: Make method which passes in the image here!
   @Nullable
-  private static Icon createIcon(@NotNull String path, @Nullable ResourceResolver resolver) {
+  private Icon createIcon(@NotNull String path, @Nullable ResourceResolver resolver) {
     if (path.endsWith(DOT_XML)) {
       return createXmlIcon(path, resolver);
     } else {
-      return createBitmapIcon(path);
+      File file = new File(path);
+      return createBitmapIcon(path, file.lastModified(), file.length());
     }
   }
 
@@ -199,57 +306,45 @@ public class GutterIconCache {
   }
 
   @Nullable
-  private static Icon createBitmapIcon(@NotNull String path) {
+  private Icon createBitmapIcon(@NotNull String path, long timestamp, long length) {
+    boolean isRetina = ourRetinaEnabled && UIUtil.isRetina();
+    File persisted = getPersistedThumbnail(path, timestamp, length, isRetina);
     try {
-      BufferedImage image = ImageIO.read(new File(path));
-      if (image != null) {
-        int imageWidth = image.getWidth();
-        int imageHeight = image.getHeight();
-        if (ourRetinaEnabled && UIUtil.isRetina()) {
-          BufferedImage scaled = image;
-          if (imageWidth > 2 * MAX_WIDTH || imageHeight > 2 * MAX_HEIGHT) {
-            double scale = 2 * Math.min(MAX_WIDTH / (double)imageWidth, MAX_HEIGHT / (double)imageHeight);
-            scaled = ImageUtils.scale(image, scale, scale);
-          }
-
-          // The Retina image uses a scale of 2, and the RetinaImage class creates an
-          // image of size w/scale, h/scale. If the width or height is less than the scale,
-          // this rounds to width or height 0, which will cause exceptions to be thrown.
-          // Don't attempt to create a Retina image for images like that. See issue 65676.
-          final int scale = 2;
-          if (scaled.getWidth() >= scale && scaled.getHeight() >= scale) {
-            try {
-              @SuppressWarnings("ConstantConditions")
-              Image hdpiImage = RetinaImage.createFrom(scaled, scale, null);
-              return new RetinaImageIcon(hdpiImage);
-            } catch (Throwable t) {
-              // Can't always create Retina images (see issue 65609); fall through to non-Retina code path
-              ourRetinaEnabled = false;
-            }
-          }
+      BufferedImage thumbnail = null;
+      if (persisted != null && persisted.isFile()) {
+        thumbnail = ImageIO.read(persisted);
+      }
+      if (thumbnail == null) {
+        thumbnail = createBitmapThumbnail(new File(path), isRetina);
+        if (thumbnail == null) {
+          return null;
         }
+        if (persisted != null) {
+          persistThumbnail(thumbnail, persisted);
+        }
+      }
 
-        if (imageWidth > MAX_WIDTH || imageHeight > MAX_HEIGHT) {
-          double scale = Math.min(MAX_WIDTH / (double)imageWidth, MAX_HEIGHT / (double)imageHeight);
-
-          if (image.getType() == BufferedImage.TYPE_BYTE_INDEXED) {
-            // Indexed images look terrible if they are scaled directly; instead, paint into an ARGB blank image
-            BufferedImage bg = UIUtil.createImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB);
-            Graphics g = bg.getGraphics();
-            //noinspection UseJBColor
-            g.setColor(Gray.TRANSPARENT);
-            g.fillRect(0, 0, bg.getWidth(), bg.getHeight());
-            //noinspection ConstantConditions
-            UIUtil.drawImage(g, image, 0, 0, null);
-            g.dispose();
-            image = bg;
+      if (isRetina) {
+        // The Retina image uses a scale of 2, and the RetinaImage class creates an
+        // image of size w/scale, h/scale. If the width or height is less than the scale,
+        // this rounds to width or height 0, which will cause exceptions to be thrown.
+        // Don't attempt to create a Retina image for images like that. See issue 65676.
+        final int scale = 2;
+        if (thumbnail.getWidth() >= scale && thumbnail.getHeight() >= scale) {
+          try {
+            @SuppressWarnings("ConstantConditions")
+            Image hdpiImage = RetinaImage.createFrom(thumbnail, scale, null);
+            return new RetinaImageIcon(hdpiImage);
+          } catch (Throwable t) {
+            // Can't always create Retina images (see issue 65609); fall through to non-Retina code path
+            ourRetinaEnabled = false;
           }
-
-          image = ImageUtils.scale(image, scale, scale);
         }
 
-        return new ImageIcon(image);
+        thumbnail = downsample(thumbnail, MAX_WIDTH, MAX_HEIGHT);
       }
+
+      return new ImageIcon(thumbnail);
     }
     catch (Throwable e) {
       // Not just IOExceptions here; for example, we've seen
@@ -260,6 +355,145 @@ public class GutterIconCache {
     return null;
   }
 
+  /**
+   * Reads the given image and downsamples it to the gutter icon size (twice that size on Retina)
+   */
+  @Nullable
+  private static BufferedImage createBitmapThumbnail(@NotNull File file, boolean retina) throws IOException {
+    BufferedImage image = ImageIO.read(file);
+    if (image == null) {
+      return null;
+    }
+
+    return retina ? downsample(image, 2 * MAX_WIDTH, 2 * MAX_HEIGHT) : downsample(image, MAX_WIDTH, MAX_HEIGHT);
+  }
+
+  @NotNull
+  private static BufferedImage downsample(@NotNull BufferedImage image, int maxWidth, int maxHeight) {
+    int imageWidth = image.getWidth();
+    int imageHeight = image.getHeight();
+    if (imageWidth <= maxWidth && imageHeight <= maxHeight) {
+      return image;
+    }
+
+    double scale = Math.min(maxWidth / (double)imageWidth, maxHeight / (double)imageHeight);
+    if (image.getType() == BufferedImage.TYPE_BYTE_INDEXED) {
+      // Indexed images look terrible if they are scaled directly; instead, paint into an ARGB blank image
+      BufferedImage bg = UIUtil.createImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB);
+      Graphics g = bg.getGraphics();
+      //noinspection UseJBColor
+      g.setColor(Gray.TRANSPARENT);
+      g.fillRect(0, 0, bg.getWidth(), bg.getHeight());
+      //noinspection ConstantConditions
+      UIUtil.drawImage(g, image, 0, 0, null);
+      g.dispose();
+      image = bg;
+    }
+
+    return ImageUtils.scale(image, scale, scale);
+  }
+
+  /**
+   * Returns the file the thumbnail for the given image is stored in, or null if thumbnails are not persisted
+   */
+  @Nullable
+  private File getPersistedThumbnail(@NotNull String path, long timestamp, long length, boolean retina) {
+    if (!PERSIST_THUMBNAILS) {
+      return null;
+    }
+
+    File dir = getThumbnailDir();
+    if (dir == null) {
+      return null;
+    }
+    String key = path + '|' + timestamp + '|' + length + '|' + (retina ? 2 * MAX_WIDTH : MAX_WIDTH);
+    return new File(dir, Hashing.md5().hashString(key, Charsets.UTF_8).toString() + DOT_PNG);
+  }
+
+  @Nullable
+  private synchronized File getThumbnailDir() {
+    if (myThumbnailDir == null) {
+      File dir = new File(PathManager.getSystemPath(), "android" + File.separator + "gutter-icons");
+      String[] existing = dir.list();
+      if (existing != null && existing.length > MAX_PERSISTED_THUMBNAILS) {
+        // Thumbnails of old file versions are never reused; start over rather than tracking usage
+        FileUtil.delete(dir);
+      }
+      if (!dir.isDirectory() && !dir.mkdirs()) {
+        return null;
+      }
+      myThumbnailDir = dir;
+    }
+    return myThumbnailDir;
+  }
+
+  private static void persistThumbnail(@NotNull BufferedImage thumbnail, @NotNull File file) {
+    try {
+      File temp = new File(file.getPath() + ".tmp");
+      if (ImageIO.write(thumbnail, "PNG", temp)) {
+        FileUtil.rename(temp, file);
+      }
+      else {
+        FileUtil.delete(temp);
+      }
+    }
+    catch (IOException e) {
+      LOG.debug(e);
+    }
+  }
+
+  /**
+   * Icon returned to the gutter while the thumbnail is loaded in the background. Once the thumbnail is available,
+   * the component the icon was last painted on is repainted. If it could not be rendered, the icon keeps painting
+   * nothing and the callers get null from {@link #getIcon} on the next paint.
+   */
+  private static class ThumbnailIcon implements Icon {
+    private volatile Icon myIcon;
+    private volatile boolean myLoaded;
+    private volatile WeakReference<Component> myComponent;
+
+    void setIcon(@Nullable Icon icon) {
+      myIcon = icon;
+      myLoaded = true;
+      WeakReference<Component> reference = myComponent;
+      Component component = reference != null ? reference.get() : null;
+      if (component != null) {
+        // Icons shown in tables and lists are painted on a renderer component; repaint the real component instead
+        Container parent = component.getParent();
+        Component target = parent instanceof CellRendererPane && parent.getParent() != null ? parent.getParent() : component;
+        UIUtil.invokeLaterIfNeeded(target::repaint);
+      }
+    }
+
+    boolean isFailed() {
+      return myLoaded && myIcon == null;
+    }
+
+    @Override
+    public void paintIcon(Component c, Graphics g, int x, int y) {
+      if (!myLoaded) {
+        myComponent = new WeakReference<>(c);
+        return;
+      }
+
+      Icon icon = myIcon;
+      if (icon == null) {
+        return;
+      }
+      icon.paintIcon(c, g, x + (getIconWidth() - icon.getIconWidth()) / 2, y + (getIconHeight() - icon.getIconHeight()) / 2);
+    }
+
+    @Override
+    public int getIconWidth() {
+      return MAX_WIDTH;
+    }
+
+    @Override
+    public int getIconHeight() {
+      return MAX_HEIGHT;
+    }
+  }
+
   private static class RetinaImageIcon extends ImageIcon {
     private RetinaImageIcon(Image image) {
       super(image, "");
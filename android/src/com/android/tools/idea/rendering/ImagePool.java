@@ -3,20 +3,23 @@ package com.android.tools.idea.rendering;
 import com.android.annotations.VisibleForTesting;
 import com.google.common.base.FinalizablePhantomReference;
 import com.google.common.base.FinalizableReferenceQueue;
-import com.google.common.collect.EvictingQueue;
 import com.google.common.collect.Sets;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import javax.annotation.concurrent.GuardedBy;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
 import java.awt.image.ImageObserver;
 import java.awt.image.WritableRaster;
 import java.lang.ref.Reference;
-import java.lang.ref.SoftReference;
+import java.util.ArrayDeque;
 import java.util.HashMap;
-import java.util.NoSuchElementException;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -25,6 +28,12 @@ import java.util.function.Function;
  * Class that offers a pool of {@link BufferedImage}s. The returned {@link Image} do not offer a direct access
  * to the underlying {@link BufferedImage} to avoid clients holding references to it.
  * Once the {@link Image} is not being referenced anymore, it will be automatically returned to the pool.
+ * <p/>
+ * Images are pooled in buckets of rounded dimensions (see {@link #BUCKET_GRANULARITY}) so an image freed after rendering
+ * a layout can be reused for a slightly different size, as happens constantly while resizing the canvas. The total size
+ * of the images kept in the pool (not counting the images in use) is capped; when the cap is exceeded, the least recently
+ * returned images are evicted first. The cap applies to one pool, so the renderers share a single pool (see
+ * {@link RenderService#getImagePool()}) instead of creating their own.
  */
 public class ImagePool {
   public static final Image NULL_POOLED_IMAGE = new Image() {
@@ -51,99 +60,190 @@ public class ImagePool {
   };
 
   private static final boolean DEBUG = false;
-  private static final EvictingQueue<SoftReference<BufferedImage>> NULL_EVICTING_QUEUE = EvictingQueue.create(0);
+  /** Image dimensions are rounded up to a multiple of this value to find the pool bucket */
+  @VisibleForTesting
+  static final int BUCKET_GRANULARITY = 64;
+  private static final long DEFAULT_MAX_POOL_BYTES = Math.min(Runtime.getRuntime().maxMemory() / 10, 256 * 1024 * 1024);
   private static final BiFunction<Integer, Integer, Function<Integer, Integer>> DEFAULT_SIZING_POLICY = (w, h) -> (type) -> {
     // Images below 1k, do not pool
     if (w * h < 1000) {
       return 0;
     }
 
+    // Keep at most 50M pixels per size, so a single size can't take the whole byte budget
     return 50_000_000 / (w * h);
   };
 
-  private final HashMap<String, EvictingQueue<SoftReference<BufferedImage>>> myPool = new HashMap<>();
+  /**
+   * A pooled {@link BufferedImage} with its bucket dimensions. Images handed out to clients are views of the
+   * top left corner of the backing image with the requested size.
+   */
+  private static class PooledBuffer {
+    final long bucketKey;
+    final long bytes;
+    @NotNull final BufferedImage backing;
+    @NotNull BufferedImage view;
+
+    PooledBuffer(long bucketKey, @NotNull BufferedImage backing) {
+      this.bucketKey = bucketKey;
+      this.backing = backing;
+      this.view = backing;
+      DataBuffer dataBuffer = backing.getRaster().getDataBuffer();
+      this.bytes = (long)dataBuffer.getSize() * dataBuffer.getNumBanks() * DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / 8;
+    }
+
+    /** Returns a view of the backing image with the given size, reusing the previous view if the size matches */
+    @NotNull
+    BufferedImage getView(int w, int h) {
+      if (view.getWidth() != w || view.getHeight() != h) {
+        view = backing.getWidth() == w && backing.getHeight() == h ? backing : backing.getSubimage(0, 0, w, h);
+      }
+      return view;
+    }
+  }
+
+  private final Object myLock = new Object();
+  /** Free images, per bucket */
+  @GuardedBy("myLock")
+  private final HashMap<Long, ArrayDeque<PooledBuffer>> myPool = new HashMap<>();
+  /** All the free images, in the order they were returned to the pool */
+  @GuardedBy("myLock")
+  private final LinkedHashSet<PooledBuffer> myLruBuffers = new LinkedHashSet<>();
+  @GuardedBy("myLock")
+  private long myPooledBytes;
+
   @SuppressWarnings("IOResourceOpenedButNotSafelyClosed")
   private final FinalizableReferenceQueue myFinalizableReferenceQueue = new FinalizableReferenceQueue();
   private final Set<Reference<?>> myReferences = Sets.newConcurrentHashSet();
   private final BiFunction<Integer, Integer, Function<Integer, Integer>> myQueueSizingPolicy;
-  private boolean isDisposed = false;
+  private final long myMaxPoolBytes;
+  private volatile boolean isDisposed = false;
 
-  /**
-   * Returns the key to be used for indexing the {@link EvictingQueue}.
-   */
-  @NotNull
-  private static String getPoolKey(int w, int h, int type) {
-    return String.format("%dx%d-%d", w, h, type);
+  private final AtomicLong myHits = new AtomicLong();
+  private final AtomicLong myMisses = new AtomicLong();
+  private final AtomicLong myEvicted = new AtomicLong();
+  private final AtomicLong myAllocatedBytes = new AtomicLong();
+
+  private static int roundToBucket(int size) {
+    return ((size + BUCKET_GRANULARITY - 1) / BUCKET_GRANULARITY) * BUCKET_GRANULARITY;
   }
 
   /**
-   * Returns the queue to be used to store images of the given width, height and type.
-   *
-   * @param type See {@link BufferedImage} types
+   * Returns the key to be used for indexing the pool buckets. Width and height must be already rounded.
    */
-  @NotNull
-  private EvictingQueue<SoftReference<BufferedImage>> getTypeQueue(int w, int h, int type) {
-    String poolKey = getPoolKey(w, h, type);
-
-    return myPool.computeIfAbsent(poolKey, k -> {
-      int size = myQueueSizingPolicy.apply(w, h).apply(type);
-
-      if (size == 0) {
-        // For size 0, do not allocate extra memory for a new EvictingQueue.
-        return NULL_EVICTING_QUEUE;
-      }
-
-      return EvictingQueue.create(size);
-    });
+  private static long getBucketKey(int bucketW, int bucketH, int type) {
+    return ((long)(bucketW / BUCKET_GRANULARITY) << 40) | ((long)(bucketH / BUCKET_GRANULARITY) << 16) | (type & 0xFFFF);
   }
 
   /**
    * Constructs a new {@link ImagePool} with a custom queue sizing policy. The passed queueSizingPolicy will be called
-   * every time that a new cache is needed for a given (width, height) -> (imageType).
-   * The return value from calling that function will be the size of the EvictingQueue used for caching the pooled
-   * images.
+   * every time that an image of a given (width, height) -> (imageType) is returned to the pool. The return value is the
+   * maximum number of free images kept in the bucket for that size; 0 disables pooling for that size.
+   *
+   * @param maxPoolBytes the maximum number of bytes used by the free images in the pool
    */
-  public ImagePool(@NotNull BiFunction<Integer, Integer, Function<Integer, Integer>> queueSizingPolicy) {
+  public ImagePool(@NotNull BiFunction<Integer, Integer, Function<Integer, Integer>> queueSizingPolicy, long maxPoolBytes) {
     myQueueSizingPolicy = queueSizingPolicy;
+    myMaxPoolBytes = maxPoolBytes;
+  }
+
+  public ImagePool(@NotNull BiFunction<Integer, Integer, Function<Integer, Integer>> queueSizingPolicy) {
+    this(queueSizingPolicy, DEFAULT_MAX_POOL_BYTES);
   }
 
   public ImagePool() {
     this(DEFAULT_SIZING_POLICY);
   }
 
+  @Nullable
+  private PooledBuffer takeFromPool(long bucketKey) {
+    synchronized (myLock) {
+      ArrayDeque<PooledBuffer> bucket = myPool.get(bucketKey);
+      PooledBuffer buffer = bucket != null ? bucket.pollLast() : null;
+      if (buffer != null) {
+        myLruBuffers.remove(buffer);
+        myPooledBytes -= buffer.bytes;
+      }
+      return buffer;
+    }
+  }
+
+  private void returnToPool(@NotNull PooledBuffer buffer, int w, int h, int type) {
+    if (isDisposed) {
+      return;
+    }
+
+    int maxBucketSize = myQueueSizingPolicy.apply(w, h).apply(type);
+    if (maxBucketSize == 0 || buffer.bytes > myMaxPoolBytes) {
+      return;
+    }
+
+    synchronized (myLock) {
+      ArrayDeque<PooledBuffer> bucket = myPool.computeIfAbsent(buffer.bucketKey, k -> new ArrayDeque<>());
+      if (bucket.size() >= maxBucketSize) {
+        evict(bucket.pollFirst());
+      }
+      bucket.addLast(buffer);
+      myLruBuffers.add(buffer);
+      myPooledBytes += buffer.bytes;
+
+      Iterator<PooledBuffer> iterator = myLruBuffers.iterator();
+      while (myPooledBytes > myMaxPoolBytes && iterator.hasNext()) {
+        PooledBuffer eldest = iterator.next();
+        iterator.remove();
+        myPool.get(eldest.bucketKey).remove(eldest);
+        myPooledBytes -= eldest.bytes;
+        myEvicted.incrementAndGet();
+      }
+    }
+  }
+
+  @GuardedBy("myLock")
+  private void evict(@Nullable PooledBuffer buffer) {
+    if (buffer != null) {
+      myLruBuffers.remove(buffer);
+      myPooledBytes -= buffer.bytes;
+      myEvicted.incrementAndGet();
+    }
+  }
+
   @VisibleForTesting
   @NotNull
   ImageImpl create(final int w, final int h, final int type, @Nullable Consumer<BufferedImage> freedCallback) {
     assert !isDisposed : "ImagePool already disposed";
-    EvictingQueue<SoftReference<BufferedImage>> queue = getTypeQueue(w, h, type);
+    int bucketW = roundToBucket(w);
+    int bucketH = roundToBucket(h);
+    long bucketKey = getBucketKey(bucketW, bucketH, type);
 
+    PooledBuffer buffer = takeFromPool(bucketKey);
     BufferedImage image;
-    SoftReference<BufferedImage> imageRef;
-    try {
-      imageRef = queue.remove();
-      while ((image = imageRef.get()) == null) {
-        imageRef = queue.remove();
-      }
+    if (buffer != null) {
+      myHits.incrementAndGet();
       if (DEBUG) {
         //noinspection UseOfSystemOutOrSystemErr
         System.out.printf("Re-used image %dx%d - %d\n", w, h, type);
       }
+      image = buffer.getView(w, h);
       // Clear the image
       Graphics2D g = image.createGraphics();
       g.setComposite(AlphaComposite.Clear);
       g.fillRect(0, 0, w, h);
       g.dispose();
     }
-    catch (NoSuchElementException e) {
+    else {
+      myMisses.incrementAndGet();
       if (DEBUG) {
         //noinspection UseOfSystemOutOrSystemErr
         System.out.printf("New image %dx%d - %d\n", w, h, type);
       }
       //noinspection UndesirableClassUsage
-      image = new BufferedImage(w, h, type);
+      buffer = new PooledBuffer(bucketKey, new BufferedImage(bucketW, bucketH, type));
+      myAllocatedBytes.addAndGet(buffer.bytes);
+      image = buffer.getView(w, h);
     }
 
     ImageImpl pooledImage = new ImageImpl(image);
+    final PooledBuffer bufferPointer = buffer;
     final BufferedImage imagePointer = image;
     Reference<?> reference = new FinalizablePhantomReference<Image>(pooledImage, myFinalizableReferenceQueue) {
       @Override
@@ -153,7 +253,7 @@ public class ImagePool {
           System.out.printf("Released image %dx%d - %d\n", w, h, type);
         }
         myReferences.remove(this);
-        getTypeQueue(w, h, type).add(new SoftReference<>(imagePointer));
+        returnToPool(bufferPointer, w, h, type);
         if (freedCallback != null) {
           freedCallback.accept(imagePointer);
         }
@@ -189,7 +289,53 @@ public class ImagePool {
     isDisposed = true;
     myFinalizableReferenceQueue.close();
     myReferences.clear();
-    myPool.clear();
+    synchronized (myLock) {
+      myPool.clear();
+      myLruBuffers.clear();
+      myPooledBytes = 0;
+    }
+  }
+
+  /**
+   * Returns the usage statistics of this pool
+   */
+  @NotNull
+  public Stats getStats() {
+    long pooledBytes;
+    synchronized (myLock) {
+      pooledBytes = myPooledBytes;
+    }
+    return new Stats(myHits.get(), myMisses.get(), myEvicted.get(), pooledBytes, myAllocatedBytes.get());
+  }
+
+  /**
+   * Snapshot of the usage statistics of an {@link ImagePool}
+   */
+  public static class Stats {
+    /** Number of images served from the pool */
+    public final long hits;
+    /** Number of images that had to be allocated */
+    public final long misses;
+    /** Number of free images dropped from the pool to stay within the budget */
+    public final long evicted;
+    /** Bytes currently held by free images in the pool */
+    public final long pooledBytes;
+    /** Total bytes allocated by the pool since it was created */
+    public final long allocatedBytes;
+
+    private Stats(long hits, long misses, long evicted, long pooledBytes, long allocatedBytes) {
+      this.hits = hits;
+      this.misses = misses;
+      this.evicted = evicted;
+      this.pooledBytes = pooledBytes;
+      this.allocatedBytes = allocatedBytes;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("ImagePool.Stats{hits=%d, misses=%d, evicted=%d, pooledBytes=%d, allocatedBytes=%d}",
+                           hits, misses, evicted, pooledBytes, allocatedBytes);
+    }
   }
 
   /**
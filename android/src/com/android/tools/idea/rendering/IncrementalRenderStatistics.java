@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for the different paths a layout edit can take in {@link RenderTask}: a full inflate of the
+ * view hierarchy or an in-place attribute update of the existing render session.
+ */
+public class IncrementalRenderStatistics {
+  public enum Path {
+    /** The layout was inflated from scratch */
+    FULL_INFLATE,
+    /** The attribute changes were applied to the existing session */
+    ATTRIBUTE_UPDATE,
+    /** An attribute update was attempted but layoutlib rejected it, so a full inflate followed */
+    ATTRIBUTE_UPDATE_FALLBACK
+  }
+
+  private static final IncrementalRenderStatistics ourInstance = new IncrementalRenderStatistics();
+
+  private final AtomicLong[] myCounts = new AtomicLong[Path.values().length];
+  private final AtomicLong[] myTotalNanos = new AtomicLong[Path.values().length];
+
+  private IncrementalRenderStatistics() {
+    for (int i = 0; i < myCounts.length; i++) {
+      myCounts[i] = new AtomicLong();
+      myTotalNanos[i] = new AtomicLong();
+    }
+  }
+
+  @NotNull
+  public static IncrementalRenderStatistics getInstance() {
+    return ourInstance;
+  }
+
+  void record(@NotNull Path path, long elapsedNanos) {
+    myCounts[path.ordinal()].incrementAndGet();
+    myTotalNanos[path.ordinal()].addAndGet(elapsedNanos);
+  }
+
+  public long getCount(@NotNull Path path) {
+    return myCounts[path.ordinal()].get();
+  }
+
+  public long getTotalTimeMs(@NotNull Path path) {
+    return TimeUnit.NANOSECONDS.toMillis(myTotalNanos[path.ordinal()].get());
+  }
+
+  public long getAverageTimeMs(@NotNull Path path) {
+    long count = getCount(path);
+    return count == 0 ? 0 : getTotalTimeMs(path) / count;
+  }
+
+  public void reset() {
+    for (int i = 0; i < myCounts.length; i++) {
+      myCounts[i].set(0);
+      myTotalNanos[i].set(0);
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("IncrementalRenderStatistics{");
+    for (Path path : Path.values()) {
+      if (path.ordinal() > 0) {
+        sb.append(", ");
+      }
+      sb.append(path).append('=').append(getCount(path)).append(" (avg ").append(getAverageTimeMs(path)).append("ms)");
+    }
+    return sb.append('}').toString();
+  }
+}
@@ -175,6 +175,15 @@ public class LayoutPsiPullParser extends LayoutPullParser {
     }
   }
 
+  /**
+   * Returns the root of the {@link TagSnapshot} hierarchy this parser reads from. These snapshots are the
+   * view cookies handed to layoutlib.
+   */
+  @Nullable
+  public final TagSnapshot getRootSnapshot() {
+    return myRoot;
+  }
+
   @Nullable
   protected final TagSnapshot getCurrentNode() {
     if (myNodeStack.size() > 0) {
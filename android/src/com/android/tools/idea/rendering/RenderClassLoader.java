@@ -22,10 +22,13 @@ import com.intellij.util.lang.UrlClassLoader;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.List;
 
@@ -76,6 +79,21 @@ public abstract class RenderClassLoader extends ClassLoader {
     try {
       myInsideJarClassLoader = true;
       String relative = name.replace('.', '/').concat(DOT_CLASS);
+      // Classes inside a jar are considered unchanged as long as the jar itself is unchanged
+      URL url = myJarClassLoader.getResource(relative);
+      File jarFile = url != null ? getJarFile(url) : null;
+      long timestamp = jarFile != null ? jarFile.lastModified() : 0;
+      long length = jarFile != null ? jarFile.length() : 0;
+      if (jarFile != null) {
+        byte[] cached = ClassBytesCache.getInstance().get(url.toExternalForm(), timestamp, length, myLayoutlibApiLevel);
+        if (cached != null) {
+          if (LOG.isDebugEnabled()) {
+            LOG.debug(String.format("Defining class '%s' from .jar file (cached)", anonymizeClassName(name)));
+          }
+          return defineClassAndPackage(name, cached, 0, cached.length);
+        }
+      }
+
       InputStream is = myJarClassLoader.getResourceAsStream(relative);
       if (is != null) {
         byte[] data = ByteStreams.toByteArray(is);
@@ -89,7 +107,11 @@ public abstract class RenderClassLoader extends ClassLoader {
           if (LOG.isDebugEnabled()) {
             LOG.debug(String.format("Defining class '%s' from .jar file", anonymizeClassName(name)));
           }
-          return defineClassAndPackage(name, rewritten, 0, rewritten.length);
+          Class<?> clz = defineClassAndPackage(name, rewritten, 0, rewritten.length);
+          if (jarFile != null) {
+            ClassBytesCache.getInstance().put(url.toExternalForm(), timestamp, length, myLayoutlibApiLevel, rewritten);
+          }
+          return clz;
         }
         catch (UnsupportedClassVersionError inner) {
           LOG.debug(inner);
@@ -122,11 +144,54 @@ public abstract class RenderClassLoader extends ClassLoader {
     return builder.get();
   }
 
+  /**
+   * Returns the jar file a {@code jar:} resource URL points into, or null if the URL does not point to a local jar file
+   */
+  @Nullable
+  private static File getJarFile(@NotNull URL url) {
+    if (!"jar".equals(url.getProtocol())) {
+      return null;
+    }
+    String path = url.getPath();
+    int separator = path.indexOf("!/");
+    if (separator == -1 || !path.startsWith("file:")) {
+      return null;
+    }
+    try {
+      return new File(new URL(path.substring(0, separator)).toURI());
+    }
+    catch (MalformedURLException | URISyntaxException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+
   @Nullable
   protected Class<?> loadClassFile(String fqcn, @NotNull VirtualFile classFile) {
+    String path = classFile.getPath();
+    //noinspection ConstantConditions (the path is null for non physical files)
+    boolean cacheable = path != null;
+    if (cacheable) {
+      byte[] cached = ClassBytesCache.getInstance().get(path, classFile.getTimeStamp(), classFile.getLength(), myLayoutlibApiLevel);
+      if (cached != null) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug(String.format("Defining class '%s' from disk file (cached)", anonymizeClassName(fqcn)));
+        }
+        return defineClassAndPackage(fqcn, cached, 0, cached.length);
+      }
+    }
+
     try {
       byte[] data = classFile.contentsToByteArray();
-      return loadClass(fqcn, data);
+      if (!isValidClassFile(data)) {
+        throw new ClassFormatError(fqcn);
+      }
+
+      byte[] rewritten = convertClass(data);
+      Class<?> clz = defineRewrittenClass(fqcn, data, rewritten);
+      if (cacheable) {
+        ClassBytesCache.getInstance().put(path, classFile.getTimeStamp(), classFile.getLength(), myLayoutlibApiLevel, rewritten);
+      }
+      return clz;
     }
     catch (IOException e) {
       LOG.warn(e);
@@ -145,7 +210,11 @@ public abstract class RenderClassLoader extends ClassLoader {
       throw new ClassFormatError(fqcn);
     }
 
-    byte[] rewritten = convertClass(data);
+    return defineRewrittenClass(fqcn, data, convertClass(data));
+  }
+
+  @NotNull
+  private Class<?> defineRewrittenClass(@NotNull String fqcn, @NotNull byte[] data, @NotNull byte[] rewritten) {
     try {
       if (LOG.isDebugEnabled()) {
         LOG.debug(String.format("Defining class '%s' from disk file", anonymizeClassName(fqcn)));
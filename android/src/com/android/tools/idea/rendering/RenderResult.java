@@ -39,6 +39,7 @@ public class RenderResult {
   @NotNull private final Result myRenderResult;
   @NotNull private final Map<Object, PropertiesMap> myDefaultProperties;
   @NotNull private final Module myModule;
+  @NotNull private final RenderTimings myTimings;
 
   protected RenderResult(@NotNull PsiFile file,
                          @NotNull Module module,
@@ -48,7 +49,8 @@ public class RenderResult {
                          @NotNull List<ViewInfo> rootViews,
                          @NotNull List<ViewInfo> systemRootViews,
                          @NotNull ImagePool.Image image,
-                         @NotNull Map<Object, PropertiesMap> defaultProperties) {
+                         @NotNull Map<Object, PropertiesMap> defaultProperties,
+                         @NotNull RenderTimings timings) {
     myRenderTask = renderTask;
     myModule = module;
     myFile = file;
@@ -58,6 +60,7 @@ public class RenderResult {
     mySystemRootViews = systemRootViews;
     myImage = image;
     myDefaultProperties = defaultProperties;
+    myTimings = timings;
   }
 
   /**
@@ -81,7 +84,8 @@ public class RenderResult {
       rootViews != null ? rootViews : Collections.emptyList(),
       systemRootViews != null ? systemRootViews : Collections.emptyList(),
       image, // image might be ImagePool.NULL_POOL_IMAGE if there is no rendered image (as in layout())
-      defaultProperties != null ? defaultProperties : Collections.emptyMap());
+      defaultProperties != null ? defaultProperties : Collections.emptyMap(),
+      renderTask.getTimings());
   }
 
   /**
@@ -100,7 +104,8 @@ public class RenderResult {
       Collections.emptyList(),
       Collections.emptyList(),
       ImagePool.NULL_POOLED_IMAGE,
-      Collections.emptyMap());
+      Collections.emptyMap(),
+      RenderTimings.EMPTY);
   }
 
   /**
@@ -122,7 +127,8 @@ public class RenderResult {
       Collections.emptyList(),
       Collections.emptyList(),
       ImagePool.NULL_POOLED_IMAGE,
-      Collections.emptyMap());
+      Collections.emptyMap(),
+      RenderTimings.EMPTY);
   }
 
   @NotNull
@@ -177,4 +183,12 @@ public class RenderResult {
   public Map<Object, PropertiesMap> getDefaultProperties() {
     return myDefaultProperties;
   }
+
+  /**
+   * Returns the time spent in each phase of the render that produced this result
+   */
+  @NotNull
+  public RenderTimings getTimings() {
+    return myTimings;
+  }
 }
@@ -90,12 +90,15 @@ public class RenderService {
                                                                                        return renderingThread;
                                                                                      });
   private static final AtomicInteger ourTimeoutExceptionCounter = new AtomicInteger(0);
+  /** Pool of the rendered images, shared by all the render tasks so its byte budget covers all of them */
+  private static final ImagePool ourImagePool = new ImagePool();
 
   static {
     // Register the executor to be shutdown on close
     ShutDownTracker.getInstance().registerShutdownTask(() -> {
       ourRenderingExecutor.shutdownNow();
       ourRenderingThread.set(null);
+      ourImagePool.dispose();
     });
   }
 
@@ -110,6 +113,14 @@ public class RenderService {
     myFacet = facet;
   }
 
+  /**
+   * Returns the pool the rendered images are allocated from
+   */
+  @NotNull
+  public static ImagePool getImagePool() {
+    return ourImagePool;
+  }
+
   /**
    * Returns the {@linkplain RenderService} for the given facet
    */
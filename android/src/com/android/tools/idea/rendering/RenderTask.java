@@ -55,6 +55,7 @@ import com.intellij.psi.PsiFile;
 import com.intellij.psi.xml.XmlFile;
 import com.intellij.psi.xml.XmlTag;
 import com.intellij.reference.SoftReference;
+import com.intellij.util.containers.ContainerUtil;
 import org.intellij.lang.annotations.MagicConstant;
 import org.jetbrains.android.facet.AndroidFacet;
 import org.jetbrains.android.sdk.AndroidPlatform;
@@ -72,7 +73,9 @@ import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
+import static com.android.SdkConstants.ANDROID_URI;
 import static com.android.SdkConstants.APPCOMPAT_LIB_ARTIFACT;
+import static com.android.SdkConstants.ATTR_LAYOUT_RESOURCE_PREFIX;
 import static com.android.SdkConstants.HORIZONTAL_SCROLL_VIEW;
 import static com.intellij.lang.annotation.HighlightSeverity.ERROR;
 
@@ -82,8 +85,13 @@ import static com.intellij.lang.annotation.HighlightSeverity.ERROR;
  */
 public class RenderTask implements IImageFactory {
   private static final Logger LOG = Logger.getInstance(RenderTask.class);
+  /**
+   * Whether each {@link RenderSession} implementation supports {@link RenderSession#setProperty}. The base implementation returns
+   * {@link Result.Status#NOT_IMPLEMENTED}, in which case {@link #updateAttributes()} gives up before parsing the layout again.
+   */
+  private static final Map<Class<?>, Boolean> ourSetPropertySupport = ContainerUtil.createConcurrentWeakMap();
 
-  private final ImagePool myImagePool = new ImagePool();
+  private final ImagePool myImagePool = RenderService.getImagePool();
 
   @NotNull
   private final RenderService myRenderService;
@@ -142,6 +150,15 @@ public class RenderTask implements IImageFactory {
   private boolean myProvideCookiesForIncludedViews = false;
   private final FakeImageFactory myFakeImageFactory = new FakeImageFactory();
   private RenderSession myRenderSession;
+  /** Time spent in the phases of the last inflate and render */
+  @NotNull private volatile RenderTimings myTimings = RenderTimings.EMPTY;
+  /**
+   * Root of the {@link TagSnapshot} hierarchy used to inflate {@link #myRenderSession}, or null if the session was not inflated
+   * from a {@link LayoutPsiPullParser} (in which case {@link #updateAttributes()} is not supported)
+   */
+  @Nullable private TagSnapshot myRootSnapshot;
+  /** The {@link Configuration#getModificationCount()} at the time {@link #myRenderSession} was inflated */
+  private long myInflatedConfigurationVersion;
   private IImageFactory myImageFactoryDelegate;
   /** Cached {@link BufferedImage} that will be returned when direct rendering is not used. See {@link #render(Graphics2D)} */
   private SoftReference<BufferedImage> myCachedImageReference;
@@ -254,7 +271,6 @@ public class RenderTask implements IImageFactory {
    * Disposes the RenderTask and releases the allocated resources. Do not call this method while holding the read lock.
    */
   public void dispose() {
-    myImagePool.dispose();
     myLayoutlibCallback.setLogger(null);
     myLayoutlibCallback.setResourceResolver(null);
     if (myRenderSession != null) {
@@ -264,6 +280,7 @@ public class RenderTask implements IImageFactory {
       try {
         RenderService.runRenderAction(myRenderSession::dispose);
         myRenderSession = null;
+        myRootSnapshot = null;
       }
       catch (Exception ignored) {
       }
@@ -443,6 +460,8 @@ public class RenderTask implements IImageFactory {
       return null;
     }
 
+    RenderTimings timings = new RenderTimings();
+    long parseStart = System.nanoTime();
     ILayoutPullParser modelParser = LayoutPullParserFactory.create(this);
     if (modelParser == null) {
       return null;
@@ -458,9 +477,13 @@ public class RenderTask implements IImageFactory {
     myLayoutlibCallback.reset();
 
     ILayoutPullParser includingParser = getIncludingLayoutParser(resolver, modelParser);
+    // Attribute updates are only supported when the view cookies are the snapshots of the rendered file itself
+    final TagSnapshot rootSnapshot =
+      includingParser == null && modelParser instanceof LayoutPsiPullParser ? ((LayoutPsiPullParser)modelParser).getRootSnapshot() : null;
     if (includingParser != null) {
       modelParser = includingParser;
     }
+    timings.set(RenderTimings.Phase.PARSE, System.nanoTime() - parseStart);
 
 
     IAndroidTarget target = myConfiguration.getTarget();
@@ -558,6 +581,7 @@ public class RenderTask implements IImageFactory {
           }
 
           try {
+            long inflateStart = System.nanoTime();
             int retries = 0;
             RenderSession session = null;
             while (retries < 10) {
@@ -585,9 +609,15 @@ public class RenderTask implements IImageFactory {
               session.setSystemTimeNanos(now);
               session.setElapsedFrameTimeNanos(TimeUnit.MILLISECONDS.toNanos(500));
             }
-            RenderResult result =
-              RenderResult.create(RenderTask.this, session, myPsiFile, myLogger, myImagePool.copyOf(session.getImage()));
+            timings.set(RenderTimings.Phase.INFLATE, System.nanoTime() - inflateStart);
+            long transferStart = System.nanoTime();
+            ImagePool.Image image = myImagePool.copyOf(session.getImage());
+            timings.set(RenderTimings.Phase.IMAGE_TRANSFER, System.nanoTime() - transferStart);
+            myTimings = timings;
+            RenderResult result = RenderResult.create(RenderTask.this, session, myPsiFile, myLogger, image);
             myRenderSession = session;
+            myRootSnapshot = rootSnapshot;
+            myInflatedConfigurationVersion = myConfiguration.getModificationCount();
             return result;
           }
           finally {
@@ -676,6 +706,7 @@ public class RenderTask implements IImageFactory {
       throw new IllegalStateException("inflate shouldn't be called on RenderTask without PsiFile");
     }
 
+    long start = System.nanoTime();
     try {
       return RenderService.runRenderAction(() -> createRenderSession((width, height) -> {
         if (myImageFactoryDelegate != null) {
@@ -693,6 +724,124 @@ public class RenderTask implements IImageFactory {
       myLogger.addMessage(RenderProblem.createPlain(ERROR, message, myRenderService.getProject(), myLogger.getLinkManager(), e));
       return RenderResult.createSessionInitializationError(this, myPsiFile, myLogger);
     }
+    finally {
+      IncrementalRenderStatistics.getInstance().record(IncrementalRenderStatistics.Path.FULL_INFLATE, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Attempts to bring the current render session up to date with the edits made to the file since the last
+   * {@link #inflate()} without inflating the view hierarchy again.
+   * <p/>
+   * This is only possible when the tag hierarchy is unchanged and only attribute values differ (see {@link TagSnapshotDiff});
+   * the changed values are then pushed into the existing views and a measure pass is run. If the edit is structural, the
+   * configuration changed, an attribute can't be set on the view (see {@link #canSetProperty}), layoutlib doesn't implement
+   * {@link RenderSession#setProperty} or refuses any of the property changes, this method returns null and the caller must
+   * call {@link #inflate()} (typically on a new task) instead.
+   *
+   * @return the result of the measure pass on the updated session, or null if a full inflate is required
+   */
+  @Nullable
+  public RenderResult updateAttributes() {
+    if (myRenderSession == null || myRootSnapshot == null || myPsiFile == null || myLogger.hasProblems() ||
+        myConfiguration.getModificationCount() != myInflatedConfigurationVersion || !supportsSetProperty(myRenderSession)) {
+      return null;
+    }
+
+    long start = System.nanoTime();
+    ILayoutPullParser parser = LayoutPullParserFactory.create(this);
+    TagSnapshot newRoot = parser instanceof LayoutPsiPullParser ? ((LayoutPsiPullParser)parser).getRootSnapshot() : null;
+    TagSnapshotDiff diff = TagSnapshotDiff.compute(myRootSnapshot, newRoot);
+    if (diff.isStructural()) {
+      return null;
+    }
+    for (TagSnapshotDiff.AttributeChange change : diff.getChanges()) {
+      if (!canSetProperty(change)) {
+        return null;
+      }
+    }
+
+    RenderResult result = null;
+    try {
+      result = RenderService.runRenderAction(() -> {
+        if (!diff.isEmpty()) {
+          Map<TagSnapshot, Object> viewObjects = Maps.newIdentityHashMap();
+          collectViewObjects(myRenderSession.getRootViews(), viewObjects);
+          for (TagSnapshotDiff.AttributeChange change : diff.getChanges()) {
+            Object viewObject = viewObjects.get(change.getSnapshot());
+            if (viewObject == null) {
+              return null;
+            }
+            Result propertyResult = myRenderSession.setProperty(viewObject, change.getName(), change.getNewValue());
+            if (!propertyResult.isSuccess()) {
+              if (propertyResult.getStatus() == Result.Status.NOT_IMPLEMENTED) {
+                ourSetPropertySupport.put(myRenderSession.getClass(), false);
+              }
+              return null;
+            }
+            // Keep the view cookies in sync with the values the views now have
+            change.apply();
+          }
+        }
+
+        Result measureResult = myRenderSession.measure();
+        if (!measureResult.isSuccess()) {
+          return null;
+        }
+        return RenderResult.create(this, myRenderSession, myPsiFile, myLogger, ImagePool.NULL_POOLED_IMAGE);
+      });
+    }
+    catch (final Exception e) {
+      LOG.debug("Attribute update failed; falling back to full inflate", e);
+    }
+
+    if (result == null) {
+      // The session may have been partially updated; it can not be updated incrementally anymore
+      myRootSnapshot = null;
+      IncrementalRenderStatistics.getInstance()
+        .record(IncrementalRenderStatistics.Path.ATTRIBUTE_UPDATE_FALLBACK, System.nanoTime() - start);
+    }
+    else {
+      IncrementalRenderStatistics.getInstance().record(IncrementalRenderStatistics.Path.ATTRIBUTE_UPDATE, System.nanoTime() - start);
+    }
+    return result;
+  }
+
+  /**
+   * Returns true if the session may be able to apply attribute changes with {@link RenderSession#setProperty}, that is if its class
+   * overrides it and it didn't report it as not implemented before
+   */
+  private static boolean supportsSetProperty(@NotNull RenderSession session) {
+    return ourSetPropertySupport.computeIfAbsent(session.getClass(), sessionClass -> {
+      try {
+        return sessionClass.getMethod("setProperty", Object.class, String.class, String.class).getDeclaringClass() != RenderSession.class;
+      }
+      catch (NoSuchMethodException e) {
+        return false;
+      }
+    });
+  }
+
+  /**
+   * Returns true if the attribute change can be applied to the existing view with {@link RenderSession#setProperty}. The
+   * {@code layout_} attributes belong to the LayoutParams of the parent rather than to the view, removed attributes can't be
+   * reset to their default value, and only the framework attributes map to view properties.
+   */
+  @VisibleForTesting
+  static boolean canSetProperty(@NotNull TagSnapshotDiff.AttributeChange change) {
+    return ANDROID_URI.equals(change.getNamespace()) &&
+           !change.getName().startsWith(ATTR_LAYOUT_RESOURCE_PREFIX) &&
+           change.getNewValue() != null;
+  }
+
+  private static void collectViewObjects(@NotNull List<ViewInfo> views, @NotNull Map<TagSnapshot, Object> viewObjects) {
+    for (ViewInfo view : views) {
+      Object cookie = view.getCookie();
+      if (cookie instanceof TagSnapshot && view.getViewObject() != null) {
+        viewObjects.put((TagSnapshot)cookie, view.getViewObject());
+      }
+      collectViewObjects(view.getChildren(), viewObjects);
+    }
   }
 
   /**
@@ -715,6 +864,14 @@ public class RenderTask implements IImageFactory {
     return null;
   }
 
+  /**
+   * Returns the time spent in each phase of the last inflate and render of this task
+   */
+  @NotNull
+  public RenderTimings getTimings() {
+    return myTimings;
+  }
+
   /**
    * Method used to report unhandled layoutlib exceptions to the crash reporter
    */
@@ -749,9 +906,16 @@ public class RenderTask implements IImageFactory {
 
     try {
       return RenderService.runRenderAction(() -> {
+        // Keep the parse and inflate times of the session this render is based on
+        RenderTimings timings = myTimings.copy();
+        long renderStart = System.nanoTime();
         myRenderSession.render();
-        RenderResult result =
-          RenderResult.create(this, myRenderSession, myPsiFile, myLogger, myImagePool.copyOf(myRenderSession.getImage()));
+        timings.set(RenderTimings.Phase.RENDER, System.nanoTime() - renderStart);
+        long transferStart = System.nanoTime();
+        ImagePool.Image image = myImagePool.copyOf(myRenderSession.getImage());
+        timings.set(RenderTimings.Phase.IMAGE_TRANSFER, System.nanoTime() - transferStart);
+        myTimings = timings;
+        RenderResult result = RenderResult.create(this, myRenderSession, myPsiFile, myLogger, image);
         if (result.getRenderResult().getException() != null) {
           reportException(result.getRenderResult().getException());
         }
@@ -929,6 +1093,17 @@ public class RenderTask implements IImageFactory {
     return myLayoutLib;
   }
 
+  @VisibleForTesting
+  @Nullable
+  RenderSession getRenderSession() {
+    return myRenderSession;
+  }
+
+  @VisibleForTesting
+  void setRenderSession(@NotNull RenderSession session) {
+    myRenderSession = session;
+  }
+
   @NotNull
   public LayoutlibCallbackImpl getLayoutlibCallback() {
     return myLayoutlibCallback;
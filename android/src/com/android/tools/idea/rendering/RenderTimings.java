@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Time spent in each phase of the last render of a {@link RenderTask}. Layoutlib measures and lays out the views as part of creating
+ * the session and of each render, so those are accounted in {@link Phase#INFLATE} and {@link Phase#RENDER}.
+ */
+public class RenderTimings {
+  public enum Phase {
+    /** Creating the XML parser of the layout, including the layouts it is included from */
+    PARSE,
+    /** Creating the render session: inflating, measuring and laying out the view hierarchy */
+    INFLATE,
+    /** Measuring, laying out and drawing the views into the image */
+    RENDER,
+    /** Copying the image out of layoutlib */
+    IMAGE_TRANSFER
+  }
+
+  public static final RenderTimings EMPTY = new RenderTimings();
+
+  private final long[] myNanos;
+
+  public RenderTimings() {
+    myNanos = new long[Phase.values().length];
+  }
+
+  private RenderTimings(@NotNull long[] nanos) {
+    myNanos = nanos;
+  }
+
+  void set(@NotNull Phase phase, long nanos) {
+    myNanos[phase.ordinal()] = nanos;
+  }
+
+  public long getNanos(@NotNull Phase phase) {
+    return myNanos[phase.ordinal()];
+  }
+
+  public double getTimeMs(@NotNull Phase phase) {
+    return getNanos(phase) / 1e6;
+  }
+
+  public double getTotalTimeMs() {
+    long total = 0;
+    for (long nanos : myNanos) {
+      total += nanos;
+    }
+    return total / 1e6;
+  }
+
+  @NotNull
+  public RenderTimings copy() {
+    return new RenderTimings(Arrays.copyOf(myNanos, myNanos.length));
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("RenderTimings{");
+    for (Phase phase : Phase.values()) {
+      if (phase.ordinal() > 0) {
+        sb.append(", ");
+      }
+      sb.append(phase).append('=').append(String.format("%.2fms", getTimeMs(phase)));
+    }
+    return sb.append('}').toString();
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Computes the difference between two {@link TagSnapshot} hierarchies.
+ * <p>
+ * The diff is used by {@link RenderTask} to decide whether an edit can be applied to an existing
+ * {@link com.android.ide.common.rendering.api.RenderSession} or whether the layout needs to be
+ * inflated again. Two hierarchies are considered structurally equal when every tag has the same
+ * name and the same number of children, in the same order. In that case the diff is the list
+ * of attributes whose values changed; otherwise the diff is {@link #isStructural() structural}.
+ */
+public class TagSnapshotDiff {
+  private static final TagSnapshotDiff STRUCTURAL = new TagSnapshotDiff(true, Collections.emptyList());
+
+  private final boolean myStructural;
+  @NotNull private final List<AttributeChange> myChanges;
+
+  private TagSnapshotDiff(boolean structural, @NotNull List<AttributeChange> changes) {
+    myStructural = structural;
+    myChanges = changes;
+  }
+
+  /**
+   * Compares the hierarchy rooted at {@code oldRoot} with the one rooted at {@code newRoot}.
+   */
+  @NotNull
+  public static TagSnapshotDiff compute(@Nullable TagSnapshot oldRoot, @Nullable TagSnapshot newRoot) {
+    if (oldRoot == null || newRoot == null) {
+      return STRUCTURAL;
+    }
+
+    List<AttributeChange> changes = Lists.newArrayList();
+    if (!diff(oldRoot, newRoot, changes)) {
+      return STRUCTURAL;
+    }
+
+    return new TagSnapshotDiff(false, changes.isEmpty() ? Collections.emptyList() : ImmutableList.copyOf(changes));
+  }
+
+  private static boolean diff(@NotNull TagSnapshot oldTag, @NotNull TagSnapshot newTag, @NotNull List<AttributeChange> changes) {
+    if (!oldTag.tagName.equals(newTag.tagName) ||
+        !Objects.equal(oldTag.namespace, newTag.namespace) ||
+        oldTag.tag != newTag.tag ||
+        oldTag.children.size() != newTag.children.size()) {
+      return false;
+    }
+
+    diffAttributes(oldTag, newTag, changes);
+
+    for (int i = 0, n = oldTag.children.size(); i < n; i++) {
+      if (!diff(oldTag.children.get(i), newTag.children.get(i), changes)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static void diffAttributes(@NotNull TagSnapshot oldTag, @NotNull TagSnapshot newTag, @NotNull List<AttributeChange> changes) {
+    // Changed and added attributes
+    for (AttributeSnapshot attribute : newTag.attributes) {
+      String oldValue = oldTag.getAttribute(attribute.name, attribute.namespace);
+      if (!Objects.equal(oldValue, attribute.value)) {
+        changes.add(new AttributeChange(oldTag, attribute.namespace, attribute.prefix, attribute.name, oldValue, attribute.value));
+      }
+    }
+
+    // Removed attributes
+    for (AttributeSnapshot attribute : oldTag.attributes) {
+      if (attribute.value != null && newTag.getAttribute(attribute.name, attribute.namespace) == null) {
+        changes.add(new AttributeChange(oldTag, attribute.namespace, attribute.prefix, attribute.name, attribute.value, null));
+      }
+    }
+  }
+
+  /**
+   * Returns true if the two hierarchies differ in more than attribute values, in which case
+   * {@link #getChanges()} is always empty.
+   */
+  public boolean isStructural() {
+    return myStructural;
+  }
+
+  /**
+   * Returns true if the two hierarchies are identical.
+   */
+  public boolean isEmpty() {
+    return !myStructural && myChanges.isEmpty();
+  }
+
+  /**
+   * Returns the list of attribute changes. The {@link AttributeChange#getSnapshot() snapshot} of each change
+   * refers to the tag in the <b>old</b> hierarchy since that is the one referenced by the view cookies of an
+   * existing render session.
+   */
+  @NotNull
+  public List<AttributeChange> getChanges() {
+    return myChanges;
+  }
+
+  @Override
+  public String toString() {
+    return myStructural ? "TagSnapshotDiff{structural}" : "TagSnapshotDiff{" + myChanges + "}";
+  }
+
+  /**
+   * A single attribute value change
+   */
+  public static class AttributeChange {
+    @NotNull private final TagSnapshot mySnapshot;
+    @Nullable private final String myNamespace;
+    @Nullable private final String myPrefix;
+    @NotNull private final String myName;
+    @Nullable private final String myOldValue;
+    @Nullable private final String myNewValue;
+
+    private AttributeChange(@NotNull TagSnapshot snapshot,
+                            @Nullable String namespace,
+                            @Nullable String prefix,
+                            @NotNull String name,
+                            @Nullable String oldValue,
+                            @Nullable String newValue) {
+      mySnapshot = snapshot;
+      myNamespace = namespace;
+      myPrefix = prefix;
+      myName = name;
+      myOldValue = oldValue;
+      myNewValue = newValue;
+    }
+
+    @NotNull
+    public TagSnapshot getSnapshot() {
+      return mySnapshot;
+    }
+
+    @Nullable
+    public String getNamespace() {
+      return myNamespace;
+    }
+
+    @NotNull
+    public String getName() {
+      return myName;
+    }
+
+    @Nullable
+    public String getOldValue() {
+      return myOldValue;
+    }
+
+    @Nullable
+    public String getNewValue() {
+      return myNewValue;
+    }
+
+    /**
+     * Applies this change to the old snapshot so that it reflects the new attribute value
+     */
+    public void apply() {
+      mySnapshot.setAttribute(myName, myNamespace, myPrefix, myNewValue);
+    }
+
+    @Override
+    public String toString() {
+      return mySnapshot.tagName + "@" + myName + ": \"" + myOldValue + "\" -> \"" + myNewValue + "\"";
+    }
+  }
+}
@@ -6,7 +6,6 @@ import com.android.tools.idea.project.AndroidProjectInfo;
 import com.android.tools.idea.res.PsiProjectListener;
 import com.android.tools.lint.checks.DeprecationDetector;
 import com.android.tools.lint.checks.GradleDetector;
-import com.android.tools.lint.client.api.IssueRegistry;
 import com.android.tools.lint.client.api.LintDriver;
 import com.android.tools.lint.client.api.LintRequest;
 import com.android.tools.lint.detector.api.Issue;
@@ -38,7 +37,6 @@ import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.*;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.profile.codeInspection.InspectionProjectProfileManager;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.util.IncorrectOperationException;
@@ -53,7 +51,6 @@ import org.jetbrains.annotations.Nullable;
 import org.jetbrains.plugins.groovy.GroovyFileType;
 
 import javax.swing.*;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
@@ -130,7 +127,9 @@ public class AndroidLintExternalAnnotator extends ExternalAnnotator<State, State
   public State doAnnotate(final State state) {
     final LintIdeClient client = LintIdeClient.forEditor(state);
     try {
-      final LintDriver lint = new LintDriver(new LintIdeIssueRegistry(), client);
+      final LintIdeSessionService.ModuleSession session =
+        LintIdeSessionService.getInstance(state.getModule().getProject()).getSession(state.getModule());
+      final LintDriver lint = session.createDriver(client);
 
       EnumSet<Scope> scope;
       VirtualFile mainFile = state.getMainFile();
@@ -166,7 +165,9 @@ public class AndroidLintExternalAnnotator extends ExternalAnnotator<State, State
                                                Collections.singletonList(state.getModule()), true /* incremental */);
       request.setScope(scope);
 
+      long start = System.nanoTime();
       lint.analyze(request);
+      session.recordPass(scope, System.nanoTime() - start, state.getProblems());
     }
     finally {
       Disposer.dispose(client);
@@ -176,35 +177,7 @@ public class AndroidLintExternalAnnotator extends ExternalAnnotator<State, State
 
   @NotNull
   static List<Issue> getIssuesFromInspections(@NotNull Project project, @Nullable PsiElement context) {
-    final List<Issue> result = new ArrayList<>();
-    final IssueRegistry fullRegistry = new LintIdeIssueRegistry();
-
-    for (Issue issue : fullRegistry.getIssues()) {
-      final String inspectionShortName = AndroidLintInspectionBase.getInspectionShortNameByIssue(project, issue);
-      if (inspectionShortName == null) {
-        continue;
-      }
-
-      final HighlightDisplayKey key = HighlightDisplayKey.find(inspectionShortName);
-      if (key == null) {
-        continue;
-      }
-
-      final InspectionProfile profile = InspectionProjectProfileManager.getInstance(project).getCurrentProfile();
-      final boolean enabled = context != null ? profile.isToolEnabled(key, context) : profile.isToolEnabled(key);
-
-      if (!enabled) {
-        continue;
-      } else if (!issue.isEnabledByDefault()) {
-        // If an issue is marked as not enabled by default, lint won't run it, even if it's in the set
-        // of issues provided by an issue registry. Since in the IDE we're enforcing the enabled-state via
-        // inspection profiles, mark the issue as enabled to allow users to turn on a lint check directly
-        // via the inspections UI.
-        issue.setEnabledByDefault(true);
-      }
-      result.add(issue);
-    }
-    return result;
+    return LintIdeSessionService.getInstance(project).getEnabledIssues(context);
   }
 
   @Override
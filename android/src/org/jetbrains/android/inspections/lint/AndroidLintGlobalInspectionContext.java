@@ -105,9 +105,6 @@ class AndroidLintGlobalInspectionContext implements GlobalInspectionContextExten
       }
     }
 
-    final LintIdeClient client = LintIdeClient.forBatch(project, problemMap, scope, issues);
-    final LintDriver lint = new LintDriver(new LintIdeIssueRegistry(), client);
-
     final ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
     if (indicator != null) {
       ProgressWrapper.unwrap(indicator).setText("Running Android Lint");
@@ -234,11 +231,45 @@ class AndroidLintGlobalInspectionContext implements GlobalInspectionContextExten
       }
     }
 
+    File baselineFile = findBaselineFile(modules);
+    if (LintBatchRunner.PARALLEL && files == null && baselineFile == null && !modules.isEmpty()) {
+      myBaseline = null;
+      myResults = new LintBatchRunner(project, scope, issues, lintScope).run(modules, indicator);
+      AndroidLintLintBaselineInspection.clearNextRunState();
+      return;
+    }
+
+    final LintIdeClient client = LintIdeClient.forBatch(project, problemMap, scope, issues);
+    final LintDriver lint = new LintDriver(LintIdeSessionService.getInstance(project).getRegistry(), client);
+
     LintRequest request = new LintIdeRequest(client, project, files, modules, false);
     request.setScope(lintScope);
 
     // Baseline analysis?
     myBaseline = null;
+    if (baselineFile != null) {
+      myBaseline = new LintBaseline(client, baselineFile);
+      lint.setBaseline(myBaseline);
+      if (!baselineFile.isFile()) {
+        myBaseline.setWriteOnClose(true);
+      } else if (AndroidLintLintBaselineInspection.ourUpdateBaselineNextRun) {
+        myBaseline.setRemoveFixed(true);
+        myBaseline.setWriteOnClose(true);
+      }
+    }
+
+    lint.analyze(request);
+
+    AndroidLintLintBaselineInspection.clearNextRunState();
+
+    myResults = problemMap;
+  }
+
+  /**
+   * Returns the baseline file configured for the first Android Gradle module, if any
+   */
+  @Nullable
+  private static File findBaselineFile(@NotNull List<Module> modules) {
     for (Module module : modules) {
       AndroidModuleModel model = AndroidModuleModel.get(module);
       if (model != null) {
@@ -254,15 +285,7 @@ class AndroidLintGlobalInspectionContext implements GlobalInspectionContextExten
                   baselineFile = new File(FileUtil.toSystemDependentName(path), baselineFile.getPath());
                 }
               }
-              myBaseline = new LintBaseline(client, baselineFile);
-              lint.setBaseline(myBaseline);
-              if (!baselineFile.isFile()) {
-                myBaseline.setWriteOnClose(true);
-              } else if (AndroidLintLintBaselineInspection.ourUpdateBaselineNextRun) {
-                myBaseline.setRemoveFixed(true);
-                myBaseline.setWriteOnClose(true);
-              }
-
+              return baselineFile;
             }
           } catch (Throwable unsupported) {
             // During 2.3 development some builds may have this method, others may not
@@ -271,12 +294,7 @@ class AndroidLintGlobalInspectionContext implements GlobalInspectionContextExten
         break;
       }
     }
-
-    lint.analyze(request);
-
-    AndroidLintLintBaselineInspection.clearNextRunState();
-
-    myResults = problemMap;
+    return null;
   }
 
   @Nullable
@@ -0,0 +1,459 @@
+package org.jetbrains.android.inspections.lint;
+
+import com.android.tools.idea.lint.LintIdeClient;
+import com.android.tools.idea.lint.LintIdeIssueRegistry;
+import com.android.tools.idea.lint.LintIdeProject;
+import com.android.tools.idea.lint.LintIdeRequest;
+import com.android.tools.idea.lint.LintIdeSessionService;
+import com.android.tools.idea.lint.LintResultCache;
+import com.android.tools.lint.client.api.IssueRegistry;
+import com.android.tools.lint.client.api.LintDriver;
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.Scope;
+import com.intellij.analysis.AnalysisScope;
+import com.intellij.concurrency.JobLauncher;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileTypes.StdFileTypes;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.util.ProgressWrapper;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileVisitor;
+import com.intellij.util.PathUtil;
+import org.jetbrains.android.facet.AndroidFacet;
+import org.jetbrains.android.facet.AndroidRootUtil;
+import org.jetbrains.android.util.AndroidUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.android.SdkConstants.DOT_GRADLE;
+import static com.android.SdkConstants.DOT_PROPERTIES;
+
+/**
+ * Runs batch lint over several modules in parallel.
+ * <p/>
+ * The issues are split in two groups:
+ * <ul>
+ *   <li>the issues whose detectors only look at one project at a time are run once per module, each module in its own shard with its
+ *   own client and driver. The modules a shard depends on are still part of its lint project (so resources and classes resolve) but
+ *   their issues are not reported: they are reported by their own shard</li>
+ *   <li>the issues whose detectors look across projects (e.g. unused resources) are run by a single shard over all the modules, as
+ *   the serial batch run does</li>
+ * </ul>
+ * The shards are processed by the shared worker pool, libraries first, and merge their problems into a concurrent collector. The time
+ * spent per module and the problems found per detector are logged at the end of the run.
+ * <p/>
+ * Lint does not report the time spent in each detector, so detectors are measured by the number of problems they find.
+ * <p/>
+ * Issues whose detectors look at a single file are checked in a separate shard per module, which only analyzes the files that changed
+ * since the last run and replays the results of the others from the {@link LintResultCache}.
+ * <p/>
+ * The issues of custom rule jars are only checked by the cross-project shard, as every driver loading the jars would report them.
+ * <p/>
+ * The shards share the {@link LintIdeIssueRegistry} of the session service, whose lazily built caches are initialized before the shards
+ * are started. Sharded runs are opt-in until their results are known to match the serial run on real projects.
+ */
+class LintBatchRunner {
+  private static final Logger LOG = Logger.getInstance(LintBatchRunner.class);
+
+  /**
+   * Set to run batch lint in parallel shards instead of with a single driver
+   */
+  static final boolean PARALLEL = Boolean.getBoolean("android.lint.parallel.batch");
+
+  /**
+   * Set to check every file again instead of replaying the results of the unchanged ones from the {@link LintResultCache}
+   */
+  static final boolean NO_RESULT_CACHE = Boolean.getBoolean("android.lint.no.result.cache");
+
+  /**
+   * Scopes which make a detector look at more than the project being checked
+   */
+  private static final EnumSet<Scope> CROSS_PROJECT_SCOPES =
+    EnumSet.of(Scope.ALL_RESOURCE_FILES, Scope.ALL_JAVA_FILES, Scope.ALL_CLASS_FILES, Scope.JAVA_LIBRARIES);
+
+  @NotNull private final Project myProject;
+  @NotNull private final AnalysisScope myScope;
+  @NotNull private final List<Issue> myIssues;
+  @Nullable private final EnumSet<Scope> myLintScope;
+  private final ConcurrentMap<Issue, Map<File, List<ProblemData>>> myResults = new ConcurrentHashMap<>();
+  private final Map<String, Long> myShardTimes = Collections.synchronizedMap(new LinkedHashMap<>());
+  /**
+   * Directories of the modules which have their own shard, and report their own issues
+   */
+  private final Set<File> myShardModuleDirs = new HashSet<>();
+
+  LintBatchRunner(@NotNull Project project, @NotNull AnalysisScope scope, @NotNull List<Issue> issues, @Nullable EnumSet<Scope> lintScope) {
+    myProject = project;
+    myScope = scope;
+    myIssues = issues;
+    myLintScope = lintScope;
+  }
+
+  /**
+   * Returns true if the given issue can be checked one module at a time
+   */
+  static boolean isModuleLocal(@NotNull Issue issue) {
+    EnumSet<Scope> scope = issue.getImplementation().getScope();
+    for (Scope crossProjectScope : CROSS_PROJECT_SCOPES) {
+      if (scope.contains(crossProjectScope)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Checks the given modules and returns the problems found, by issue and file
+   */
+  @NotNull
+  Map<Issue, Map<File, List<ProblemData>>> run(@NotNull List<Module> modules, @Nullable ProgressIndicator indicator) {
+    List<Issue> localIssues = new ArrayList<>();
+    List<Issue> singleFileIssues = new ArrayList<>();
+    List<Issue> crossProjectIssues = new ArrayList<>();
+    boolean customIssues = false;
+    for (Issue issue : myIssues) {
+      if (issue == LintIdeIssueRegistry.CUSTOM_WARNING || issue == LintIdeIssueRegistry.CUSTOM_ERROR) {
+        // Placeholders for the issues of the custom rule jars, which are not known until a driver loads the jars
+        customIssues = true;
+        crossProjectIssues.add(issue);
+      }
+      else if (!NO_RESULT_CACHE && LintResultCache.isCacheable(issue)) {
+        singleFileIssues.add(issue);
+      }
+      else {
+        (isModuleLocal(issue) ? localIssues : crossProjectIssues).add(issue);
+      }
+    }
+
+    List<Shard> shards = new ArrayList<>();
+    if (!crossProjectIssues.isEmpty() || customIssues) {
+      // Largest shard first, so it doesn't end up running alone at the end
+      shards.add(new Shard("<cross-project>", modules, crossProjectIssues, false));
+    }
+    for (Module module : getShardModules(modules)) {
+      File moduleDir = LintIdeProject.getLintProjectDirectory(module, AndroidFacet.getInstance(module));
+      if (moduleDir != null) {
+        myShardModuleDirs.add(getCanonicalFile(moduleDir));
+      }
+      if (!localIssues.isEmpty()) {
+        shards.add(new Shard(module.getName(), Collections.singletonList(module), localIssues, true));
+      }
+      if (!singleFileIssues.isEmpty()) {
+        shards.add(new CachedShard(module, singleFileIssues));
+      }
+    }
+    LintResultCache cache = LintResultCache.getInstance(myProject);
+    cache.resetStatistics();
+
+    IssueRegistry registry = LintIdeSessionService.getInstance(myProject).getRegistry();
+    if (registry instanceof LintIdeIssueRegistry) {
+      ((LintIdeIssueRegistry)registry).initializeCaches();
+    }
+
+    long start = System.currentTimeMillis();
+    AtomicInteger done = new AtomicInteger();
+    boolean completed = JobLauncher.getInstance().invokeConcurrentlyUnderProgress(shards, indicator, false, shard -> {
+      long shardStart = System.currentTimeMillis();
+      if (shard instanceof CachedShard) {
+        runCachedShard((CachedShard)shard, cache);
+      }
+      else {
+        runShard(shard);
+      }
+      myShardTimes.put(shard.myName, System.currentTimeMillis() - shardStart);
+      if (indicator != null) {
+        ProgressWrapper.unwrap(indicator).setText(
+          String.format("Running Android Lint (%1$d/%2$d modules)", done.incrementAndGet(), shards.size()));
+      }
+      return true;
+    });
+    if (completed) {
+      cache.save();
+      logStatistics(System.currentTimeMillis() - start, cache);
+    }
+    return myResults;
+  }
+
+  /**
+   * Returns the Android modules to create a shard for, libraries before the modules depending on them. Modules without an Android
+   * facet are not checked by lint, but their Android dependencies are
+   */
+  @NotNull
+  private List<Module> getShardModules(@NotNull List<Module> modules) {
+    Set<Module> result = new LinkedHashSet<>();
+    for (Module module : modules) {
+      if (AndroidFacet.getInstance(module) != null) {
+        result.add(module);
+      }
+      else {
+        for (AndroidFacet facet : AndroidUtils.getAllAndroidDependencies(module, false)) {
+          result.add(facet.getModule());
+        }
+      }
+    }
+    List<Module> sorted = new ArrayList<>(result);
+    sorted.sort(ModuleManager.getInstance(myProject).moduleDependencyComparator());
+    return sorted;
+  }
+
+  private void runShard(@NotNull Shard shard) {
+    Map<Issue, Map<File, List<ProblemData>>> problemMap = new HashMap<>();
+    LintIdeClient client = LintIdeClient.forBatch(myProject, problemMap, myScope, shard.myIssues, !shard.myModuleOnly);
+    try {
+      LintDriver lint = new LintDriver(LintIdeSessionService.getInstance(myProject).getRegistry(), client);
+      LintIdeRequest request = new LintIdeRequest(client, myProject, null, shard.myModules, false);
+      request.setScope(myLintScope);
+      if (shard.myModuleOnly) {
+        Collection<com.android.tools.lint.detector.api.Project> projects = request.getProjects();
+        if (projects != null) {
+          for (com.android.tools.lint.detector.api.Project project : projects) {
+            // Reported by the shards of the libraries. Libraries without a shard of their own (e.g. not part of the analyzed
+            // modules) keep reporting as in the serial run
+            for (com.android.tools.lint.detector.api.Project library : project.getAllLibraries()) {
+              if (myShardModuleDirs.contains(getCanonicalFile(library.getDir()))) {
+                library.setReportIssues(false);
+              }
+            }
+          }
+        }
+      }
+      lint.analyze(request);
+    }
+    finally {
+      Disposer.dispose(client);
+    }
+    merge(problemMap);
+  }
+
+  /**
+   * Checks the files of the module which changed since the last run, and replays the cached problems of the other ones
+   */
+  private void runCachedShard(@NotNull CachedShard shard, @NotNull LintResultCache cache) {
+    Module module = shard.myModules.get(0);
+    Map<Issue, Map<File, List<ProblemData>>> problemMap = new HashMap<>();
+    // The fingerprint and the file list in one short read action, then one read action per file so that write actions
+    // (e.g. typing in the editor) are not held off for the whole module
+    Pair<String, List<VirtualFile>> moduleState = ReadAction.compute(() -> {
+      if (module.isDisposed()) {
+        return null;
+      }
+      return Pair.create(LintResultCache.computeFingerprint(module), getCheckedFiles(module));
+    });
+    if (moduleState == null) {
+      return;
+    }
+    String fingerprint = moduleState.getFirst();
+
+    // Files to check, with the hash of their content (null if it could not be read)
+    Map<VirtualFile, String> changedFiles = new LinkedHashMap<>();
+    for (VirtualFile file : moduleState.getSecond()) {
+      ProgressManager.checkCanceled();
+      if (module.isDisposed()) {
+        return;
+      }
+      String contentHash = ReadAction.compute(() -> {
+        if (!file.isValid()) {
+          return null;
+        }
+        try {
+          return LintResultCache.computeContentHash(file);
+        }
+        catch (IOException e) {
+          LOG.debug(e);
+          return null;
+        }
+      });
+      Map<Issue, List<ProblemData>> cached =
+        contentHash != null ? cache.get(getCanonicalFile(file), contentHash, fingerprint, shard.myIssues) : null;
+      if (cached != null) {
+        for (Map.Entry<Issue, List<ProblemData>> entry : cached.entrySet()) {
+          problemMap.computeIfAbsent(entry.getKey(), issue -> new HashMap<>()).put(getCanonicalFile(file), entry.getValue());
+        }
+      }
+      else if (file.isValid()) {
+        changedFiles.put(file, contentHash);
+      }
+    }
+
+    if (!changedFiles.isEmpty()) {
+      Map<Issue, Map<File, List<ProblemData>>> analyzed = new HashMap<>();
+      LintIdeClient client = LintIdeClient.forBatch(myProject, analyzed, myScope, shard.myIssues, false);
+      try {
+        LintDriver lint = new LintDriver(LintIdeSessionService.getInstance(myProject).getRegistry(), client);
+        // The scope is inferred from the files
+        lint.analyze(new LintIdeRequest(client, myProject, new ArrayList<>(changedFiles.keySet()), shard.myModules, false));
+      }
+      finally {
+        Disposer.dispose(client);
+      }
+
+      for (Map.Entry<VirtualFile, String> entry : changedFiles.entrySet()) {
+        if (entry.getValue() == null) {
+          continue;
+        }
+        File file = getCanonicalFile(entry.getKey());
+        Map<Issue, List<ProblemData>> fileProblems = new HashMap<>();
+        for (Map.Entry<Issue, Map<File, List<ProblemData>>> issueProblems : analyzed.entrySet()) {
+          List<ProblemData> problems = issueProblems.getValue().get(file);
+          if (problems != null) {
+            fileProblems.put(issueProblems.getKey(), problems);
+          }
+        }
+        cache.put(file, entry.getValue(), fingerprint, shard.myIssues, fileProblems);
+      }
+      merge(analyzed);
+    }
+    merge(problemMap);
+  }
+
+  /**
+   * Returns the files of the module that single-file detectors check, and which are part of the analysis scope. Reports outside the
+   * scope are dropped by the client, so their files must not be cached.
+   */
+  @NotNull
+  private List<VirtualFile> getCheckedFiles(@NotNull Module module) {
+    List<VirtualFile> files = new ArrayList<>();
+    AndroidFacet facet = AndroidFacet.getInstance(module);
+    if (facet == null) {
+      return files;
+    }
+    VirtualFile manifest = AndroidRootUtil.getPrimaryManifestFile(facet);
+    if (manifest != null) {
+      files.add(manifest);
+    }
+    for (VirtualFile folder : facet.getResourceFolderManager().getFolders()) {
+      VfsUtilCore.visitChildrenRecursively(folder, new VirtualFileVisitor() {
+        @Override
+        public boolean visitFile(@NotNull VirtualFile file) {
+          if (!file.isDirectory()) {
+            files.add(file);
+          }
+          return true;
+        }
+      });
+    }
+    for (VirtualFile root : ModuleRootManager.getInstance(module).getSourceRoots(false)) {
+      VfsUtilCore.visitChildrenRecursively(root, new VirtualFileVisitor() {
+        @Override
+        public boolean visitFile(@NotNull VirtualFile file) {
+          if (!file.isDirectory() && StdFileTypes.JAVA == file.getFileType()) {
+            files.add(file);
+          }
+          return true;
+        }
+      });
+    }
+    File moduleDir = LintIdeProject.getLintProjectDirectory(module, facet);
+    VirtualFile vModuleDir = moduleDir != null ? LocalFileSystem.getInstance().findFileByIoFile(moduleDir) : null;
+    if (vModuleDir != null) {
+      for (VirtualFile file : vModuleDir.getChildren()) {
+        String name = file.getName();
+        if (!file.isDirectory() && (name.endsWith(DOT_GRADLE) || name.endsWith(DOT_PROPERTIES) || name.startsWith("proguard"))) {
+          files.add(file);
+        }
+      }
+    }
+    files.removeIf(file -> !myScope.contains(file));
+    return files;
+  }
+
+  @NotNull
+  private static File getCanonicalFile(@NotNull VirtualFile file) {
+    return new File(PathUtil.getCanonicalPath(file.getPath()));
+  }
+
+  @NotNull
+  private static File getCanonicalFile(@NotNull File file) {
+    return new File(PathUtil.getCanonicalPath(FileUtil.toSystemIndependentName(file.getPath())));
+  }
+
+  private void merge(@NotNull Map<Issue, Map<File, List<ProblemData>>> problemMap) {
+    for (Map.Entry<Issue, Map<File, List<ProblemData>>> entry : problemMap.entrySet()) {
+      Map<File, List<ProblemData>> fileProblems = myResults.computeIfAbsent(entry.getKey(), issue -> new ConcurrentHashMap<>());
+      for (Map.Entry<File, List<ProblemData>> fileEntry : entry.getValue().entrySet()) {
+        fileProblems.merge(fileEntry.getKey(), fileEntry.getValue(), (existing, added) -> {
+          List<ProblemData> merged = new ArrayList<>(existing.size() + added.size());
+          merged.addAll(existing);
+          merged.addAll(added);
+          return merged;
+        });
+      }
+    }
+  }
+
+  private void logStatistics(long totalTimeMs, @NotNull LintResultCache cache) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("Batch lint: %1$d shards in %2$d ms\n", myShardTimes.size(), totalTimeMs));
+    int lookups = cache.getHitCount() + cache.getMissCount();
+    if (lookups > 0) {
+      sb.append(String.format("  Result cache: %1$d of %2$d files unchanged (%3$.0f%%)\n", cache.getHitCount(), lookups,
+                              100.0 * cache.getHitCount() / lookups));
+    }
+    List<Map.Entry<String, Long>> shardTimes;
+    synchronized (myShardTimes) {
+      shardTimes = new ArrayList<>(myShardTimes.entrySet());
+    }
+    shardTimes.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+    for (Map.Entry<String, Long> entry : shardTimes) {
+      sb.append(String.format("  %1$s: %2$d ms\n", entry.getKey(), entry.getValue()));
+    }
+
+    Map<String, Integer> detectorProblems = new TreeMap<>();
+    for (Map.Entry<Issue, Map<File, List<ProblemData>>> entry : myResults.entrySet()) {
+      String detector = entry.getKey().getImplementation().getDetectorClass().getSimpleName();
+      int count = 0;
+      for (List<ProblemData> problems : entry.getValue().values()) {
+        count += problems.size();
+      }
+      detectorProblems.merge(detector, count, Integer::sum);
+    }
+    for (Map.Entry<String, Integer> entry : detectorProblems.entrySet()) {
+      sb.append(String.format("  %1$s: %2$d problems\n", entry.getKey(), entry.getValue()));
+    }
+    LOG.info(sb.toString());
+  }
+
+  private static class Shard {
+    @NotNull private final String myName;
+    @NotNull private final List<Module> myModules;
+    @NotNull private final List<Issue> myIssues;
+    /**
+     * Whether only the issues of the module itself are reported, and not the ones of its dependencies
+     */
+    private final boolean myModuleOnly;
+
+    private Shard(@NotNull String name, @NotNull List<Module> modules, @NotNull List<Issue> issues, boolean moduleOnly) {
+      myName = name;
+      myModules = modules;
+      myIssues = issues;
+      myModuleOnly = moduleOnly;
+    }
+  }
+
+  /**
+   * Shard checking the single-file issues of a module, see {@link LintResultCache}
+   */
+  private static class CachedShard extends Shard {
+    private CachedShard(@NotNull Module module, @NotNull List<Issue> issues) {
+      super(module.getName() + " (single file checks)", Collections.singletonList(module), issues, true);
+    }
+  }
+}
@@ -496,14 +496,13 @@ public final class ModuleClassLoader extends RenderClassLoader {
       LOG.debug(String.format("ModuleClassLoader.get(%s)", anonymize(module)));
     }
 
-    ModuleClassLoader loader = ourCache.get(module);
+    ModuleClassLoader loader;
+    synchronized (ourCache) {
+      Map<LayoutLibrary, ModuleClassLoader> loaders = ourCache.get(module);
+      loader = loaders != null ? loaders.get(library) : null;
+    }
     if (loader != null) {
-      if (library != loader.myLibrary) {
-        if (LOG.isDebugEnabled()) {
-          LOG.debug("  Discarding loader because the layout library has changed");
-        }
-        loader = null;
-      } else if (!loader.isUpToDate()) {
+      if (!loader.isUpToDate()) {
         if (LOG.isDebugEnabled()) {
           LOG.debug("  Discarding loader because some files have changed");
         }
@@ -534,7 +533,19 @@ public final class ModuleClassLoader extends RenderClassLoader {
         LOG.debug("  New class loader");
       }
       loader = new ModuleClassLoader(library, module);
-      ourCache.put(module, loader);
+      synchronized (ourCache) {
+        Map<LayoutLibrary, ModuleClassLoader> loaders = ourCache.get(module);
+        if (loaders == null) {
+          loaders = new LinkedHashMap<LayoutLibrary, ModuleClassLoader>(4, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<LayoutLibrary, ModuleClassLoader> eldest) {
+              return size() > MAX_LIBRARIES_PER_MODULE;
+            }
+          };
+          ourCache.put(module, loaders);
+        }
+        loaders.put(library, loader);
+      }
     } else if (LOG.isDebugEnabled()) {
       LOG.debug("  Re-used class loader");
     }
@@ -544,12 +555,14 @@ public final class ModuleClassLoader extends RenderClassLoader {
 
   /** Flush any cached class loaders */
   public static void clearCache() {
-    ourCache.clear();
+    synchronized (ourCache) {
+      ourCache.clear();
+    }
   }
 
-  /** Remove the cached class loader for the module. */
+  /** Remove the cached class loaders for the module. */
   public static void clearCache(Module module) {
-    if (ourCache.containsKey(module)) {
+    synchronized (ourCache) {
       ourCache.remove(module);
     }
   }
@@ -559,6 +572,8 @@ public final class ModuleClassLoader extends RenderClassLoader {
   }
 
   /** Temporary hack: Store this in a weak hash map cached by modules. In the next version we should move this
-   * into a proper persistent render service. */
-  private static Map<Module,ModuleClassLoader> ourCache = ContainerUtil.createWeakMap();
+   * into a proper persistent render service. Each module keeps a loader for the few most recently used layout
+   * libraries, so previews rendered against several platforms (e.g. a multi-device preview) share them. */
+  private static final Map<Module, Map<LayoutLibrary, ModuleClassLoader>> ourCache = ContainerUtil.createWeakMap();
+  private static final int MAX_LIBRARIES_PER_MODULE = 3;
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.experimental.codeanalysis.callgraph;
+
+import com.android.tools.idea.experimental.CodeAnalysisMain;
+import com.android.tools.idea.experimental.codeanalysis.PsiCFGScene;
+import com.google.common.primitives.Ints;
+import com.intellij.analysis.AnalysisScope;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.android.AndroidTestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+public class CallgraphIndexTest extends AndroidTestCase {
+  private CallgraphIndex myIndex;
+  private File myFile;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    myFixture.addFileToProject("src/p1/p2/Calls.java",
+                               "package p1.p2;\n" +
+                               "public class Calls {\n" +
+                               "  public void a(int i, String s) { b(); c(); }\n" +
+                               "  public void b() { c(); }\n" +
+                               "  public void c() { }\n" +
+                               "}\n");
+    CodeAnalysisMain.getInstance(getProject()).analyze(new AnalysisScope(getProject()));
+    Callgraph callgraph = PsiCFGScene.getInstance(getProject()).getCallGraph();
+    assertNotNull(callgraph);
+    myIndex = CallgraphIndex.create(callgraph);
+    myFile = new File(FileUtil.createTempDirectory("callgraph", null), "callgraph.bin");
+  }
+
+  public void testEdges() {
+    int a = myIndex.getMethodIndex("p1.p2.Calls#a(int,java.lang.String)");
+    int b = myIndex.getMethodIndex("p1.p2.Calls#b()");
+    int c = myIndex.getMethodIndex("p1.p2.Calls#c()");
+    assertTrue(a >= 0 && b >= 0 && c >= 0);
+    assertEquals(-1, myIndex.getMethodIndex("p1.p2.Calls#missing()"));
+
+    assertEquals(sorted(b, c), Ints.asList(myIndex.getCallees(a)));
+    assertEquals(sorted(c), Ints.asList(myIndex.getCallees(b)));
+    assertEquals(sorted(a, b), Ints.asList(myIndex.getCallers(c)));
+    assertEquals(0, myIndex.getCallers(a).length);
+  }
+
+  public void testSaveAndLoad() {
+    myIndex.save(myFile);
+    CallgraphIndex loaded = CallgraphIndex.load(myFile);
+    assertNotNull(loaded);
+    assertSameIndex(myIndex, loaded);
+  }
+
+  public void testMissingFileIsIgnored() {
+    assertNull(CallgraphIndex.load(myFile));
+  }
+
+  public void testIndexOfOtherVersionIsIgnored() throws IOException {
+    myIndex.save(myFile);
+    try (RandomAccessFile file = new RandomAccessFile(myFile, "rw")) {
+      int version = file.readInt();
+      file.seek(0);
+      file.writeInt(version + 1);
+    }
+    assertNull(CallgraphIndex.load(myFile));
+  }
+
+  public void testTruncatedIndexIsIgnored() throws IOException {
+    myIndex.save(myFile);
+    try (RandomAccessFile file = new RandomAccessFile(myFile, "rw")) {
+      file.setLength(file.length() / 2);
+    }
+    assertNull(CallgraphIndex.load(myFile));
+  }
+
+  public void testCorruptIndexIsIgnored() throws IOException {
+    myIndex.save(myFile);
+    // A negative method count
+    try (RandomAccessFile file = new RandomAccessFile(myFile, "rw")) {
+      file.seek(4);
+      file.writeInt(-1);
+    }
+    assertNull(CallgraphIndex.load(myFile));
+
+    // Edges to methods that are not in the index
+    myIndex.save(myFile);
+    try (RandomAccessFile file = new RandomAccessFile(myFile, "rw")) {
+      file.seek(file.length() - 4);
+      file.writeInt(myIndex.getMethodCount());
+    }
+    assertNull(CallgraphIndex.load(myFile));
+
+    // An array longer than the file
+    int callerCount = 0;
+    for (int i = 0; i < myIndex.getMethodCount(); i++) {
+      callerCount += myIndex.getCallers(i).length;
+    }
+    myIndex.save(myFile);
+    try (RandomAccessFile file = new RandomAccessFile(myFile, "rw")) {
+      file.seek(file.length() - 4 * (callerCount + 1));
+      file.writeInt(Integer.MAX_VALUE);
+    }
+    assertNull(CallgraphIndex.load(myFile));
+  }
+
+  private static void assertSameIndex(@NotNull CallgraphIndex expected, @NotNull CallgraphIndex actual) {
+    assertEquals(expected.getMethodCount(), actual.getMethodCount());
+    for (int i = 0; i < expected.getMethodCount(); i++) {
+      assertEquals(expected.getMethodKey(i), actual.getMethodKey(i));
+      assertEquals(i, actual.getMethodIndex(expected.getMethodKey(i)));
+      assertTrue(Arrays.equals(expected.getCallees(i), actual.getCallees(i)));
+      assertTrue(Arrays.equals(expected.getCallers(i), actual.getCallers(i)));
+    }
+  }
+
+  @NotNull
+  private static List<Integer> sorted(int... indices) {
+    int[] copy = indices.clone();
+    Arrays.sort(copy);
+    return Ints.asList(copy);
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.experimental.codeanalysis.dataflow;
+
+import com.android.tools.idea.experimental.CodeAnalysisMain;
+import com.android.tools.idea.experimental.codeanalysis.PsiCFGScene;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGMethod;
+import com.intellij.analysis.AnalysisScope;
+import com.intellij.testFramework.PlatformTestUtil;
+import org.jetbrains.android.AndroidTestCase;
+
+import java.util.BitSet;
+import java.util.List;
+
+public class DataflowSolverTest extends AndroidTestCase {
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    for (String annotation : new String[]{"UiThread", "WorkerThread"}) {
+      myFixture.addFileToProject("src/android/support/annotation/" + annotation + ".java",
+                                 "package android.support.annotation;\n" +
+                                 "public @interface " + annotation + " {}\n");
+    }
+  }
+
+  public void testGenKill() {
+    BitSet facts = new BitSet();
+    facts.set(1);
+
+    GenKill genZeroKillOne = GenKill.gen(0).then(GenKill.kill(1));
+    assertEquals(bits(0), genZeroKillOne.apply(facts));
+    assertEquals(bits(0, 1), genZeroKillOne.then(GenKill.gen(1)).apply(facts));
+    assertSame(genZeroKillOne, GenKill.IDENTITY.then(genZeroKillOne));
+
+    // A fact may hold if it holds on a path
+    GenKill may = GenKill.merge(GenKill.gen(0), GenKill.kill(1), true);
+    assertNotNull(may);
+    assertEquals(bits(0, 1), may.apply(facts));
+    assertEquals(bits(0), may.apply(new BitSet()));
+
+    // A fact must hold if it holds on all paths
+    GenKill must = GenKill.merge(GenKill.gen(0), GenKill.IDENTITY, false);
+    assertNotNull(must);
+    assertEquals(bits(1), must.apply(facts));
+    assertEquals(bits(0, 1), must.apply(bits(0, 1)));
+    assertEquals(new BitSet(), GenKill.merge(GenKill.kill(1), GenKill.gen(1), false).apply(facts));
+
+    // Unknown paths are ignored
+    assertSame(may, GenKill.merge(null, may, true));
+    assertSame(may, GenKill.merge(may, null, false));
+  }
+
+  public void testWorkerThreadCalls() {
+    myFixture.addFileToProject("src/p1/p2/Activity.java",
+                               "package p1.p2;\n" +
+                               "import android.support.annotation.UiThread;\n" +
+                               "import android.support.annotation.WorkerThread;\n" +
+                               "public class Activity {\n" +
+                               "  @UiThread public static void onClick() { helper(3); }\n" +
+                               "  @UiThread public static void onResume() { other(3); }\n" +
+                               "  @UiThread public static void onPause() { if (check()) { return; } load(); }\n" +
+                               "  private static void helper(int i) { if (i > 0) { recurse(i - 1); } }\n" +
+                               "  private static void recurse(int i) { if (i > 0) { helper(i); } else { load(); } }\n" +
+                               "  private static void other(int i) { if (i > 0) { other(i - 1); } }\n" +
+                               "  private static boolean check() { return true; }\n" +
+                               "  @WorkerThread public static void load() { }\n" +
+                               "}\n");
+    PsiCFGScene scene = analyze();
+
+    DataflowSolver solver = new DataflowSolver(scene, new WorkerThreadCallAnalysis());
+    solver.solve();
+    List<PsiCFGMethod> violations = WorkerThreadCallAnalysis.findViolations(solver);
+    assertEquals(2, violations.size());
+    for (PsiCFGMethod violation : violations) {
+      assertTrue(violation.getName(), violation.getName().equals("onClick") || violation.getName().equals("onPause"));
+    }
+
+    // Nothing changed, all the solutions are reused
+    solver.solve();
+    assertEquals(0, solver.getSolvedCount());
+    assertEquals(solver.getMethods().size(), solver.getReusedCount());
+    assertEquals(2, WorkerThreadCallAnalysis.findViolations(solver).size());
+  }
+
+  /**
+   * Benchmark on a generated project: classes whose methods call the methods of the next
+   * classes, with a cycle between the first and the last class.
+   */
+  public void testSolvePerformance() {
+    int classCount = 200;
+    int methodCount = 10;
+    for (int c = 0; c < classCount; c++) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("package bench;\n")
+        .append("import android.support.annotation.UiThread;\n")
+        .append("import android.support.annotation.WorkerThread;\n")
+        .append("public class C").append(c).append(" {\n");
+      for (int m = 0; m < methodCount; m++) {
+        sb.append(m == 0 ? "  @UiThread" : m == methodCount - 1 && c % 10 == 0 ? "  @WorkerThread" : " ")
+          .append(" public static int m").append(m).append("(int x) {\n")
+          .append("    int y = x;\n")
+          .append("    for (int i = 0; i < x; i++) {\n")
+          .append("      if (i % 2 == 0) { y += C").append((c + 1) % classCount).append(".m").append((m + 1) % methodCount).append("(i); }\n")
+          .append("      else { y -= m").append((m + 1) % methodCount).append("(i); }\n")
+          .append("    }\n")
+          .append("    return y;\n")
+          .append("  }\n");
+      }
+      sb.append("}\n");
+      myFixture.addFileToProject("src/bench/C" + c + ".java", sb.toString());
+    }
+    PsiCFGScene scene = analyze();
+
+    PlatformTestUtil.startPerformanceTest("dataflow analysis of generated project", 5000, () -> {
+      DataflowSolver solver = new DataflowSolver(scene, new WorkerThreadCallAnalysis());
+      solver.solve();
+      assertEquals(classCount * methodCount, solver.getMethods().size());
+      // All the methods call each other through the cycle
+      assertEquals(classCount, WorkerThreadCallAnalysis.findViolations(solver).size());
+    }).attempts(2).usesAllCPUCores().assertTiming();
+  }
+
+  private PsiCFGScene analyze() {
+    CodeAnalysisMain.getInstance(getProject()).analyze(new AnalysisScope(getProject()));
+    PsiCFGScene scene = PsiCFGScene.getInstance(getProject());
+    assertNotNull(scene.getCallGraph());
+    return scene;
+  }
+
+  private static BitSet bits(int... indices) {
+    BitSet bits = new BitSet();
+    for (int index : indices) {
+      bits.set(index);
+    }
+    return bits;
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.experimental.codeanalysis.utils;
+
+import com.android.tools.idea.experimental.CodeAnalysisMain;
+import com.android.tools.idea.experimental.codeanalysis.PsiCFGScene;
+import com.android.tools.idea.experimental.codeanalysis.callgraph.Callgraph;
+import com.android.tools.idea.experimental.codeanalysis.callgraph.CallgraphIndex;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGClass;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGMethod;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.MethodGraph;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.node.GraphNode;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.intellij.analysis.AnalysisScope;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import org.jetbrains.android.AndroidTestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Set;
+
+public class PsiCFGAnalysisUtilTest extends AndroidTestCase {
+  private PsiFile myFile;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    myFile = myFixture.addFileToProject("src/p1/p2/Calls.java",
+                                        "package p1.p2;\n" +
+                                        "public class Calls {\n" +
+                                        "  public void a() { b(); }\n" +
+                                        "  public void b() { d(); }\n" +
+                                        "  public void c() { }\n" +
+                                        "  public void d() { }\n" +
+                                        "}\n");
+  }
+
+  public void testEditedMethodBodyIsUpdatedIncrementally() {
+    PsiCFGScene scene = analyze();
+    Callgraph callgraph = scene.getCallGraph();
+    PsiCFGMethod a = getMethod(scene, "a");
+    PsiCFGMethod b = getMethod(scene, "b");
+    PsiCFGMethod c = getMethod(scene, "c");
+    PsiCFGMethod d = getMethod(scene, "d");
+    MethodGraph oldGraph = a.getControlFlowGraph();
+    MethodGraph bGraph = b.getControlFlowGraph();
+    MethodGraph cGraph = c.getControlFlowGraph();
+    assertEquals(ImmutableSet.of(b), ImmutableSet.copyOf(callgraph.callerMethodToCalleeMethodMap.get(a)));
+
+    editBody("b(); }", "c(); }");
+    assertEquals(1, scene.getChangedMethods().size());
+    // Reuses the scene and only builds the graph of a() again
+    assertSame(scene, analyze());
+    assertSame(callgraph, scene.getCallGraph());
+    assertSame(a, getMethod(scene, "a"));
+    assertNotSame(oldGraph, a.getControlFlowGraph());
+    assertSame(bGraph, b.getControlFlowGraph());
+    assertSame(cGraph, c.getControlFlowGraph());
+    assertTrue(scene.getChangedMethods().isEmpty());
+
+    // The edges of a() point to c(), the others are unchanged
+    assertEquals(ImmutableSet.of(c), ImmutableSet.copyOf(callgraph.callerMethodToCalleeMethodMap.get(a)));
+    assertEquals(ImmutableSet.of(d), ImmutableSet.copyOf(callgraph.callerMethodToCalleeMethodMap.get(b)));
+    assertFalse(callgraph.calleeMethodToCallerMethodReturnMap.containsEntry(b, a));
+    assertTrue(callgraph.calleeMethodToCallerMethodReturnMap.containsEntry(c, a));
+
+    // Only the invocation nodes of the current graphs are left, and those of a() lead to the entry of c()
+    Set<GraphNode> invocationNodes = Sets.newHashSet(scene.getAllInvocationNode());
+    assertTrue(invocationNodes.containsAll(callgraph.callerNodeToMethodsMap.keySet()));
+    assertTrue(invocationNodes.containsAll(callgraph.callerNodeToCalleeNodeMap.keySet()));
+    for (GraphNode node : callgraph.calleeMethodToCallerGraphNodeMap.get(c)) {
+      assertSame(a, callgraph.getNodesParentMethod(node));
+      assertEquals(ImmutableSet.of(cGraph.getEntryNode()), ImmutableSet.copyOf(callgraph.callerNodeToCalleeNodeMap.get(node)));
+      assertTrue(callgraph.calleeNodeToCallerNodeMap.containsEntry(cGraph.getExitNode(), node));
+    }
+    assertEquals(1, callgraph.calleeMethodToCallerGraphNodeMap.get(c).size());
+    assertTrue(callgraph.calleeMethodToCallerGraphNodeMap.get(b).isEmpty());
+
+    // The index follows the update
+    CallgraphIndex index = scene.getCallgraphIndex();
+    assertNotNull(index);
+    int[] callees = index.getCallees(index.getMethodIndex(CallgraphIndex.getMethodKey(a)));
+    assertEquals(1, callees.length);
+    assertEquals(CallgraphIndex.getMethodKey(c), index.getMethodKey(callees[0]));
+  }
+
+  public void testStructureChangeRebuildsScene() {
+    PsiCFGScene scene = analyze();
+    editBody("  public void c() { }\n", "  public void c() { }\n  public void e() { }\n");
+    assertTrue(scene.isStructureChanged());
+    assertNotSame(scene, analyze());
+  }
+
+  @NotNull
+  private PsiCFGScene analyze() {
+    CodeAnalysisMain.getInstance(getProject()).analyze(new AnalysisScope(getProject()));
+    PsiCFGScene scene = PsiCFGScene.getInstance(getProject());
+    assertNotNull(scene.getCallGraph());
+    return scene;
+  }
+
+  @NotNull
+  private static PsiCFGMethod getMethod(@NotNull PsiCFGScene scene, @NotNull String name) {
+    PsiCFGClass clazz = scene.getPsiCFGClass("p1.p2.Calls");
+    assertNotNull(clazz);
+    for (PsiCFGMethod method : clazz.getAllMethods()) {
+      if (method.getName().equals(name)) {
+        return method;
+      }
+    }
+    throw new AssertionError("No method " + name);
+  }
+
+  private void editBody(@NotNull String oldText, @NotNull String newText) {
+    Document document = PsiDocumentManager.getInstance(getProject()).getDocument(myFile);
+    assertNotNull(document);
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+      int offset = document.getText().indexOf(oldText);
+      document.replaceString(offset, offset + oldText.length(), newText);
+      PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+    });
+  }
+}
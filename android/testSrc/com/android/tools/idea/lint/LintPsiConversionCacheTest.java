@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.lint;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.xml.XmlFile;
+import lombok.ast.CompilationUnit;
+import lombok.ast.Node;
+import org.jetbrains.android.AndroidTestCase;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.w3c.dom.NodeList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+public class LintPsiConversionCacheTest extends AndroidTestCase {
+  private static final String[] JAVA_SOURCES = {
+    "projects/projectWithAppandLib/lib/src/main/java/com/example/projectwithappandlib/lib/LoginActivity.java",
+    "projects/projectWithAppandLib/lib/src/main/java/com/example/projectwithappandlib/lib/PlusBaseActivity.java",
+    "projects/projectWithAppandLib/app/src/main/java/com/example/projectwithappandlib/app/NavigationDrawerFragment.java",
+  };
+
+  /**
+   * Whether to run the conversion benchmark, which is too slow and noisy to run with the other tests
+   */
+  private static final boolean BENCHMARK =
+    Boolean.parseBoolean(System.getProperty("com.android.tools.idea.lint.LintPsiConversionCacheTest.BENCHMARK"));
+  private static final int BENCHMARK_WARMUP = 3;
+  private static final int BENCHMARK_PASSES = 10;
+
+  public void testCompilationUnitReusedUntilModified() {
+    PsiJavaFile javaFile = (PsiJavaFile)myFixture.addFileToProject("src/p1/p2/Test.java",
+                                                                     "package p1.p2;\n" +
+                                                                     "public class Test {\n" +
+                                                                     "  public int foo() { return 1; }\n" +
+                                                                     "}\n");
+    CompilationUnit unit = LintPsiConversionCache.getCompilationUnit(javaFile);
+    assertNotNull(unit);
+    assertSame(unit, LintPsiConversionCache.getCompilationUnit(javaFile));
+
+    Document document = PsiDocumentManager.getInstance(getProject()).getDocument(javaFile);
+    assertNotNull(document);
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+      document.insertString(document.getText().indexOf("}\n}"), "  public int bar() { return 2; }\n");
+      PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+    });
+
+    CompilationUnit updated = LintPsiConversionCache.getCompilationUnit(javaFile);
+    assertNotNull(updated);
+    assertNotSame(unit, updated);
+    assertTrue(updated.toString().contains("bar"));
+    assertSame(updated, LintPsiConversionCache.getCompilationUnit(javaFile));
+  }
+
+  public void testNodeReused() {
+    PsiJavaFile javaFile = (PsiJavaFile)myFixture.addFileToProject("src/p1/p2/Test.java",
+                                                                     "package p1.p2;\n" +
+                                                                     "public class Test {\n" +
+                                                                     "  public int foo() { return 1; }\n" +
+                                                                     "}\n");
+    PsiClass psiClass = javaFile.getClasses()[0];
+    Node node = LintPsiConversionCache.getNode(psiClass);
+    assertNotNull(node);
+    assertSame(node, LintPsiConversionCache.getNode(psiClass));
+    Node method = LintPsiConversionCache.getNode(psiClass.getMethods()[0]);
+    assertNotNull(method);
+    assertSame(method, LintPsiConversionCache.getNode(psiClass.getMethods()[0]));
+  }
+
+  public void testDocumentReusedUntilModified() {
+    XmlFile xmlFile = (XmlFile)myFixture.addFileToProject("res/values/strings.xml",
+                                                           "<resources>\n" +
+                                                           "  <string name=\"app_name\">App</string>\n" +
+                                                           "</resources>\n");
+    org.w3c.dom.Document dom = LintPsiConversionCache.getDocument(xmlFile);
+    assertNotNull(dom);
+    assertSame(dom, LintPsiConversionCache.getDocument(xmlFile));
+
+    Document document = PsiDocumentManager.getInstance(getProject()).getDocument(xmlFile);
+    assertNotNull(document);
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+      document.insertString(document.getText().indexOf("</resources>"), "  <string name=\"other\">Other</string>\n");
+      PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+    });
+
+    org.w3c.dom.Document updated = LintPsiConversionCache.getDocument(xmlFile);
+    assertNotNull(updated);
+    assertNotSame(dom, updated);
+    assertEquals(2, updated.getElementsByTagName("string").getLength());
+  }
+
+  /**
+   * Converts real-world sources repeatedly, as the editor and batch lint passes do for unchanged files, and checks that
+   * the conversions are made once and then shared.
+   */
+  public void testConversionsSharedAcrossPasses() {
+    List<PsiFile> files = new ArrayList<>();
+    for (String source : JAVA_SOURCES) {
+      VirtualFile file = myFixture.copyFileToProject(source, "src/" + source.substring(source.indexOf("com/example")));
+      files.add(myFixture.getPsiManager().findFile(file));
+    }
+    VirtualFile xml = myFixture.copyFileToProject("dom/resources/bigattrs.xml", "res/values/bigattrs.xml");
+    files.add(myFixture.getPsiManager().findFile(xml));
+
+    List<Object> first = new ArrayList<>();
+    for (PsiFile file : files) {
+      Object converted = convert(file);
+      assertNotNull(converted);
+      first.add(converted);
+    }
+
+    int iterations = 10;
+    long hits = LintPsiConversionCache.getHitCount();
+    for (int i = 0; i < iterations; i++) {
+      for (int j = 0; j < files.size(); j++) {
+        assertSame(first.get(j), convert(files.get(j)));
+      }
+    }
+    assertEquals(iterations * files.size(), LintPsiConversionCache.getHitCount() - hits);
+  }
+
+  /**
+   * Measures the Lombok and DOM conversions of real-world sources over several detector passes, converting the files on every
+   * pass as before the cache and going through the cache. Each pass walks the converted trees, since the DOM is populated
+   * lazily. Only runs when the {@link #BENCHMARK} property is set, and reports to stderr without checking the timings.
+   */
+  public void testConversionBenchmark() {
+    if (!BENCHMARK) {
+      return;
+    }
+    List<PsiFile> files = new ArrayList<>();
+    for (String source : JAVA_SOURCES) {
+      VirtualFile file = myFixture.copyFileToProject(source, "src/" + source.substring(source.indexOf("com/example")));
+      files.add(myFixture.getPsiManager().findFile(file));
+    }
+    VirtualFile xml = myFixture.copyFileToProject("dom/resources/bigattrs.xml", "res/values/bigattrs.xml");
+    files.add(myFixture.getPsiManager().findFile(xml));
+
+    long uncached = 0;
+    long cached = 0;
+    for (int i = 0; i < BENCHMARK_WARMUP + BENCHMARK_PASSES; i++) {
+      long start = System.nanoTime();
+      for (PsiFile file : files) {
+        walk(file instanceof PsiJavaFile ? LombokPsiConverter.convert((PsiJavaFile)file) : DomPsiConverter.convert((XmlFile)file));
+      }
+      long converted = System.nanoTime();
+      for (PsiFile file : files) {
+        walk(convert(file));
+      }
+      long reused = System.nanoTime();
+      if (i >= BENCHMARK_WARMUP) {
+        uncached += converted - start;
+        cached += reused - converted;
+      }
+    }
+    System.err.println(String.format("%d files, %d passes: without cache %8.2fms/pass, with cache %8.2fms/pass", files.size(),
+                                     BENCHMARK_PASSES, uncached * 1E-6 / BENCHMARK_PASSES, cached * 1E-6 / BENCHMARK_PASSES));
+  }
+
+  private static int walk(@Nullable Object converted) {
+    if (converted instanceof Node) {
+      int count = 1;
+      for (Node child : ((Node)converted).getChildren()) {
+        count += walk(child);
+      }
+      return count;
+    }
+    return converted instanceof org.w3c.dom.Node ? dump((org.w3c.dom.Node)converted).length() : 0;
+  }
+
+  /**
+   * Walks the same cached DOM from several threads, as concurrent lint passes do, while its nodes are lazily populated.
+   */
+  public void testConcurrentDomTraversal() throws Exception {
+    VirtualFile xml = myFixture.copyFileToProject("dom/resources/bigattrs.xml", "res/values/bigattrs.xml");
+    XmlFile xmlFile = (XmlFile)myFixture.getPsiManager().findFile(xml);
+    assertNotNull(xmlFile);
+    org.w3c.dom.Document expected = DomPsiConverter.convert(xmlFile);
+    assertNotNull(expected);
+    String expectedDump = dump(expected);
+
+    for (int attempt = 0; attempt < 5; attempt++) {
+      // A fresh, unpopulated tree for every attempt
+      org.w3c.dom.Document shared = DomPsiConverter.convert(xmlFile);
+      assertNotNull(shared);
+      List<Future<String>> futures = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        futures.add(ApplicationManager.getApplication().executeOnPooledThread(
+          () -> ApplicationManager.getApplication().runReadAction((Computable<String>)() -> dump(shared))));
+      }
+      for (Future<String> future : futures) {
+        assertEquals(expectedDump, future.get());
+      }
+    }
+  }
+
+  @NotNull
+  private static String dump(@NotNull org.w3c.dom.Node node) {
+    StringBuilder builder = new StringBuilder();
+    builder.append(node.getNodeName());
+    if (node.getAttributes() != null) {
+      builder.append('[').append(node.getAttributes().getLength()).append(']');
+    }
+    NodeList children = node.getChildNodes();
+    builder.append('(');
+    for (int i = 0; i < children.getLength(); i++) {
+      builder.append(dump(children.item(i)));
+    }
+    return builder.append(')').toString();
+  }
+
+  private static Object convert(@NotNull PsiFile file) {
+    return file instanceof PsiJavaFile
+           ? LintPsiConversionCache.getCompilationUnit((PsiJavaFile)file)
+           : LintPsiConversionCache.getDocument((XmlFile)file);
+  }
+}
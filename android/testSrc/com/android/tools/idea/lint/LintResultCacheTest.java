@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.lint;
+
+import com.android.tools.lint.checks.GradleDetector;
+import com.android.tools.lint.checks.HardcodedValuesDetector;
+import com.android.tools.lint.checks.ToastDetector;
+import com.android.tools.lint.checks.UnusedResourceDetector;
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.Severity;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.android.AndroidTestCase;
+import org.jetbrains.android.inspections.lint.ProblemData;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class LintResultCacheTest extends AndroidTestCase {
+  private static final Issue ISSUE = HardcodedValuesDetector.ISSUE;
+
+  public void testIsCacheable() {
+    assertTrue(LintResultCache.isCacheable(HardcodedValuesDetector.ISSUE));
+    assertFalse(LintResultCache.isCacheable(UnusedResourceDetector.ISSUE));
+    // Java detectors resolve into other files
+    assertFalse(LintResultCache.isCacheable(ToastDetector.ISSUE));
+    // Gradle detectors look at the SDK and the repositories
+    assertFalse(LintResultCache.isCacheable(GradleDetector.REMOTE_VERSION));
+  }
+
+  public void testGetAndPut() throws Exception {
+    File cacheFile = new File(FileUtil.createTempDirectory("lint", null), "results.bin");
+    File file = new File("/project/res/layout/main.xml");
+    List<Issue> issues = Collections.singletonList(ISSUE);
+    ProblemData problem = new ProblemData(ISSUE, "Hardcoded string", new TextRange(10, 20), Severity.ERROR);
+
+    LintResultCache cache = new LintResultCache(getProject(), cacheFile);
+    assertNull(cache.get(file, "hash", "fingerprint", issues));
+    cache.put(file, "hash", "fingerprint", issues, Collections.singletonMap(ISSUE, Collections.singletonList(problem)));
+    cache.save();
+
+    // Reload from disk
+    cache = new LintResultCache(getProject(), cacheFile);
+    Map<Issue, List<ProblemData>> cached = cache.get(file, "hash", "fingerprint", issues);
+    assertNotNull(cached);
+    List<ProblemData> problems = cached.get(ISSUE);
+    assertEquals(1, problems.size());
+    assertEquals("Hardcoded string", problems.get(0).getMessage());
+    assertEquals(new TextRange(10, 20), problems.get(0).getTextRange());
+    assertEquals(Severity.ERROR, problems.get(0).getConfiguredSeverity());
+
+    // Changed content, changed configuration, or more issues than the file was checked for
+    assertNull(cache.get(file, "changed", "fingerprint", issues));
+    assertNull(cache.get(file, "hash", "changed", issues));
+    assertNull(cache.get(file, "hash", "fingerprint", Collections.singletonList(UnusedResourceDetector.ISSUE)));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(3, cache.getMissCount());
+  }
+
+  public void testFileWithoutProblems() throws Exception {
+    LintResultCache cache = new LintResultCache(getProject(), null);
+    File file = new File("/project/src/Main.java");
+    List<Issue> issues = Collections.singletonList(ISSUE);
+    cache.put(file, "hash", "fingerprint", issues, Collections.emptyMap());
+
+    Map<Issue, List<ProblemData>> cached = cache.get(file, "hash", "fingerprint", issues);
+    assertNotNull(cached);
+    assertTrue(cached.isEmpty());
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ClassBytesCacheTest {
+  @Test
+  public void testHitAndMiss() {
+    ClassBytesCache cache = new ClassBytesCache(1024);
+    byte[] data = new byte[]{1, 2, 3};
+
+    assertNull(cache.get("/a/B.class", 10, 3, 15));
+    cache.put("/a/B.class", 10, 3, 15, data);
+    assertSame(data, cache.get("/a/B.class", 10, 3, 15));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+    assertEquals(0.5, cache.getHitRate(), 0.001);
+
+    // A different API level is a different entry
+    assertNull(cache.get("/a/B.class", 10, 3, 16));
+    assertSame(data, cache.get("/a/B.class", 10, 3, 15));
+  }
+
+  @Test
+  public void testStaleEntries() {
+    ClassBytesCache cache = new ClassBytesCache(1024);
+    cache.put("/a/B.class", 10, 3, 15, new byte[3]);
+
+    assertNull(cache.get("/a/B.class", 11, 3, 15));
+    // The stale entry has been removed
+    assertEquals(0, cache.getSizeBytes());
+    assertNull(cache.get("/a/B.class", 10, 3, 15));
+
+    cache.put("/a/B.class", 10, 3, 15, new byte[3]);
+    assertNull(cache.get("/a/B.class", 10, 4, 15));
+  }
+
+  @Test
+  public void testEviction() {
+    ClassBytesCache cache = new ClassBytesCache(100);
+    cache.put("/A.class", 1, 40, 15, new byte[40]);
+    cache.put("/B.class", 1, 40, 15, new byte[40]);
+    // Access A so that B becomes the least recently used entry
+    assertNotNull(cache.get("/A.class", 1, 40, 15));
+    cache.put("/C.class", 1, 40, 15, new byte[40]);
+
+    assertEquals(1, cache.getEvictionCount());
+    assertEquals(80, cache.getSizeBytes());
+    assertNotNull(cache.get("/A.class", 1, 40, 15));
+    assertNull(cache.get("/B.class", 1, 40, 15));
+    assertNotNull(cache.get("/C.class", 1, 40, 15));
+
+    // Entries larger than the cache are never stored
+    cache.put("/D.class", 1, 200, 15, new byte[200]);
+    assertNull(cache.get("/D.class", 1, 200, 15));
+
+    cache.clear();
+    assertEquals(0, cache.getSizeBytes());
+    assertNull(cache.get("/A.class", 1, 40, 15));
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.google.common.base.Charsets;
+import com.intellij.openapi.application.Result;
+import com.intellij.openapi.application.WriteAction;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.android.AndroidTestCase;
+import org.jetbrains.annotations.NotNull;
+
+import javax.imageio.ImageIO;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+
+public class GutterIconCacheTest extends AndroidTestCase {
+  private GutterIconCache myCache;
+  private VirtualFile myFile;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    myCache = new GutterIconCache();
+    Disposer.register(getTestRootDisposable(), myCache);
+    myFile = myFixture.getTempDirFixture().createFile("res/drawable/icon.png");
+    writeImage(myFile, 32, 32);
+  }
+
+  public void testIconIsReusedUntilFileChanges() throws Exception {
+    Icon icon = myCache.getIcon(myFile.getPath(), null);
+    assertNotNull(icon);
+    assertSame(icon, myCache.getIcon(myFile.getPath(), null));
+    // The renderers pass java.io paths
+    assertSame(icon, myCache.getIcon(FileUtil.toSystemDependentName(myFile.getPath()), null));
+
+    writeImage(myFile, 48, 48);
+    Icon changed = myCache.getIcon(myFile.getPath(), null);
+    assertNotNull(changed);
+    assertNotSame(icon, changed);
+  }
+
+  public void testDeletedFolderDropsIcons() throws Exception {
+    String path = myFile.getPath();
+    assertNotNull(myCache.getIcon(path, null));
+
+    new WriteAction() {
+      @Override
+      protected void run(@NotNull Result result) throws Throwable {
+        myFile.getParent().delete(this);
+      }
+    }.execute();
+    // Loaded again, and the file is gone
+    assertNull(myCache.getIcon(path, null));
+  }
+
+  public void testUnreadableFileHasNoIcon() throws Exception {
+    new WriteAction() {
+      @Override
+      protected void run(@NotNull Result result) throws Throwable {
+        myFile.setBinaryContent("not an image".getBytes(Charsets.UTF_8));
+      }
+    }.execute();
+    // The callers fall back to their own error icon, every time
+    assertNull(myCache.getIcon(myFile.getPath(), null));
+    assertNull(myCache.getIcon(myFile.getPath(), null));
+  }
+
+  private void writeImage(@NotNull VirtualFile file, int width, int height) throws Exception {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = image.createGraphics();
+    //noinspection UseJBColor
+    g.setColor(Color.RED);
+    g.fillRect(0, 0, width, height);
+    g.dispose();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ImageIO.write(image, "PNG", bytes);
+
+    new WriteAction() {
+      @Override
+      protected void run(@NotNull Result result) throws Throwable {
+        file.setBinaryContent(bytes.toByteArray());
+      }
+    }.execute();
+  }
+}
@@ -22,6 +22,7 @@ import org.junit.Test;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -101,13 +102,66 @@ public class ImagePoolTest {
     image2 = null;
     gc();
     countDown2.await(3, TimeUnit.SECONDS);
-    // We will get images from different size, and type, none of them should return the pooled image
+    // We will get images from different size buckets, and type, none of them should return the pooled image
     assertNotEquals(internalPtr, myPool.create(50, 50, BufferedImage.TYPE_INT_ARGB_PRE, null).myBuffer);
-    assertNotEquals(internalPtr, myPool.create(51, 50, BufferedImage.TYPE_INT_ARGB, null).myBuffer);
-    assertNotEquals(internalPtr, myPool.create(50, 51, BufferedImage.TYPE_INT_ARGB, null).myBuffer);
+    assertNotEquals(internalPtr, myPool.create(50 + ImagePool.BUCKET_GRANULARITY, 50, BufferedImage.TYPE_INT_ARGB, null).myBuffer);
+    assertNotEquals(internalPtr, myPool.create(50, 50 + ImagePool.BUCKET_GRANULARITY, BufferedImage.TYPE_INT_ARGB, null).myBuffer);
     assertEquals(internalPtr, myPool.create(50, 50, BufferedImage.TYPE_INT_ARGB, null).myBuffer);
   }
 
+  @Test
+  public void testBucketReuse() throws InterruptedException {
+    CountDownLatch countDown = new CountDownLatch(1);
+    ImagePool.ImageImpl image = myPool.create(50, 50, BufferedImage.TYPE_INT_ARGB, (b) -> countDown.countDown());
+    image.drawFrom(getSampleImage());
+    WritableRaster raster = image.myBuffer.getRaster();
+
+    //noinspection UnusedAssignment
+    image = null;
+    gc();
+    countDown.await(3, TimeUnit.SECONDS);
+
+    // An image of a different size within the same bucket reuses the same memory
+    ImagePool.ImageImpl resized = myPool.create(55, 45, BufferedImage.TYPE_INT_ARGB, null);
+    assertEquals(55, resized.getWidth());
+    assertEquals(45, resized.getHeight());
+    assertSame(raster.getDataBuffer(), resized.myBuffer.getRaster().getDataBuffer());
+    ImageDiffUtil.assertImageSimilar("clean", new BufferedImage(55, 45, BufferedImage.TYPE_INT_ARGB), resized.getCopy(), 0.0);
+
+    ImagePool.Stats stats = myPool.getStats();
+    assertEquals(1, stats.hits);
+    assertEquals(1, stats.misses);
+    assertEquals(0, stats.pooledBytes);
+  }
+
+  @Test
+  public void testByteBudget() throws InterruptedException {
+    // Budget for just one 64x64 ARGB image
+    ImagePool pool = new ImagePool((w, h) -> (type) -> Integer.MAX_VALUE, 64 * 64 * 4);
+    try {
+      CountDownLatch countDown = new CountDownLatch(2);
+      ImagePool.ImageImpl image1 = pool.create(64, 64, BufferedImage.TYPE_INT_ARGB, (b) -> countDown.countDown());
+      ImagePool.ImageImpl image2 = pool.create(64, 64, BufferedImage.TYPE_INT_ARGB, (b) -> countDown.countDown());
+      assertNotEquals(image1.myBuffer, image2.myBuffer);
+
+      //noinspection UnusedAssignment
+      image1 = null;
+      //noinspection UnusedAssignment
+      image2 = null;
+      gc();
+      countDown.await(3, TimeUnit.SECONDS);
+
+      ImagePool.Stats stats = pool.getStats();
+      assertEquals(2, stats.misses);
+      assertEquals(1, stats.evicted);
+      assertEquals(64 * 64 * 4, stats.pooledBytes);
+      assertEquals(2 * 64 * 64 * 4, stats.allocatedBytes);
+    }
+    finally {
+      pool.dispose();
+    }
+  }
+
   @Test
   public void testDefaultPooling() throws InterruptedException {
     CountDownLatch countDown = new CountDownLatch(1);
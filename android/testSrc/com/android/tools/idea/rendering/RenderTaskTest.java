@@ -15,11 +15,26 @@
  */
 package com.android.tools.idea.rendering;
 
+import com.android.ide.common.rendering.api.RenderSession;
+import com.android.ide.common.rendering.api.Result;
+import com.android.ide.common.rendering.api.ViewInfo;
 import com.android.tools.idea.configurations.Configuration;
 import com.android.tools.idea.diagnostics.crash.CrashReport;
 import com.android.tools.idea.diagnostics.crash.CrashReporter;
+import com.android.util.PropertiesMap;
+import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.xml.XmlFile;
+import com.intellij.psi.xml.XmlTag;
+import org.jetbrains.annotations.NotNull;
 
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static com.android.SdkConstants.*;
 import static org.mockito.Mockito.*;
 
 public class RenderTaskTest extends RenderTestBase {
@@ -38,5 +53,114 @@ public class RenderTaskTest extends RenderTestBase {
     verify(mockCrashReporter, times(1)).submit(isNotNull(CrashReport.class));
   }
 
+  public void testAttributeUpdate() throws Exception {
+    RenderTask task = inflateTextView();
+    SetPropertySession session = new SetPropertySession(task.getRenderSession());
+    task.setRenderSession(session);
+    IncrementalRenderStatistics statistics = IncrementalRenderStatistics.getInstance();
+    long updates = statistics.getCount(IncrementalRenderStatistics.Path.ATTRIBUTE_UPDATE);
+
+    setTextViewAttribute(task, ATTR_TEXT, "World");
+    RenderResult result = task.updateAttributes();
+    assertNotNull(result);
+    assertTrue(result.getRenderResult().isSuccess());
+    assertEquals(Collections.singletonList("text=World"), session.myProperties);
+    assertEquals(updates + 1, statistics.getCount(IncrementalRenderStatistics.Path.ATTRIBUTE_UPDATE));
+
+    // Nothing changed since the update
+    assertNotNull(task.updateAttributes());
+    assertEquals(1, session.myProperties.size());
+    task.dispose();
+  }
+
+  public void testLayoutAttributeUpdateRequiresInflate() throws Exception {
+    RenderTask task = inflateTextView();
+    SetPropertySession session = new SetPropertySession(task.getRenderSession());
+    task.setRenderSession(session);
+
+    setTextViewAttribute(task, ATTR_LAYOUT_WIDTH, VALUE_MATCH_PARENT);
+    assertNull(task.updateAttributes());
+    assertEquals(Collections.<String>emptyList(), session.myProperties);
+    task.dispose();
+  }
+
+  @NotNull
+  private RenderTask inflateTextView() throws Exception {
+    VirtualFile layoutFile = myFixture.addFileToProject(
+      "res/layout/text.xml",
+      "<LinearLayout xmlns:android=\"http://schemas.android.com/apk/res/android\"\n" +
+      "    android:layout_width=\"match_parent\"\n" +
+      "    android:layout_height=\"match_parent\">\n" +
+      "  <TextView android:layout_width=\"wrap_content\" android:layout_height=\"wrap_content\" android:text=\"Hello\"/>\n" +
+      "</LinearLayout>\n").getVirtualFile();
+    RenderTask task = createRenderTask(layoutFile, getConfiguration(layoutFile, DEFAULT_DEVICE_ID));
+    RenderResult result = task.inflate();
+    assertNotNull(result);
+    assertTrue(result.getRenderResult().isSuccess());
+    assertNotNull(task.getRenderSession());
+    return task;
+  }
+
+  private void setTextViewAttribute(@NotNull RenderTask task, @NotNull String name, @NotNull String value) {
+    XmlFile file = task.getPsiFile();
+    assertNotNull(file);
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+      XmlTag rootTag = file.getRootTag();
+      assertNotNull(rootTag);
+      rootTag.getSubTags()[0].setAttribute(name, ANDROID_URI, value);
+    });
+  }
 
+  /**
+   * Session delegating to the one created by layoutlib, except for {@link RenderSession#setProperty} which records the properties
+   */
+  private static class SetPropertySession extends RenderSession {
+    @NotNull private final RenderSession myDelegate;
+    private final List<String> myProperties = new ArrayList<>();
+
+    private SetPropertySession(@NotNull RenderSession delegate) {
+      myDelegate = delegate;
+    }
+
+    @Override
+    public Result setProperty(Object objectView, String propertyName, String propertyValue) {
+      myProperties.add(propertyName + "=" + propertyValue);
+      return Result.Status.SUCCESS.createResult();
+    }
+
+    @Override
+    public Result getResult() {
+      return myDelegate.getResult();
+    }
+
+    @Override
+    public List<ViewInfo> getRootViews() {
+      return myDelegate.getRootViews();
+    }
+
+    @Override
+    public List<ViewInfo> getSystemRootViews() {
+      return myDelegate.getSystemRootViews();
+    }
+
+    @Override
+    public Map<Object, PropertiesMap> getDefaultProperties() {
+      return myDelegate.getDefaultProperties();
+    }
+
+    @Override
+    public BufferedImage getImage() {
+      return myDelegate.getImage();
+    }
+
+    @Override
+    public Result measure() {
+      return myDelegate.measure();
+    }
+
+    @Override
+    public void dispose() {
+      myDelegate.dispose();
+    }
+  }
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.intellij.psi.xml.XmlAttribute;
+import com.intellij.psi.xml.XmlTag;
+import junit.framework.TestCase;
+
+import java.util.List;
+
+import static com.android.SdkConstants.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TagSnapshotDiffTest extends TestCase {
+  private XmlTag myButton;
+  private XmlTag myTextView;
+  private XmlTag myLinearLayout;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myButton = setAttributes(createTag("Button"), androidAttribute(ATTR_LAYOUT_WIDTH, VALUE_WRAP_CONTENT),
+                             androidAttribute(ATTR_TEXT, "Hello"));
+    myTextView = setAttributes(createTag("TextView"), androidAttribute(ATTR_LAYOUT_WIDTH, VALUE_WRAP_CONTENT));
+    myLinearLayout = setAttributes(createTag("LinearLayout", myButton, myTextView), androidAttribute(ATTR_ORIENTATION, VALUE_VERTICAL));
+  }
+
+  public void testIdentical() {
+    TagSnapshot oldRoot = TagSnapshot.createTagSnapshot(myLinearLayout);
+    TagSnapshot newRoot = TagSnapshot.createTagSnapshot(myLinearLayout);
+
+    TagSnapshotDiff diff = TagSnapshotDiff.compute(oldRoot, newRoot);
+    assertFalse(diff.isStructural());
+    assertTrue(diff.isEmpty());
+  }
+
+  public void testAttributeChanges() {
+    TagSnapshot oldRoot = TagSnapshot.createTagSnapshot(myLinearLayout);
+    setAttributes(myButton, androidAttribute(ATTR_LAYOUT_WIDTH, VALUE_MATCH_PARENT));
+    setAttributes(myTextView, androidAttribute(ATTR_LAYOUT_WIDTH, VALUE_WRAP_CONTENT), androidAttribute(ATTR_TEXT, "World"));
+    TagSnapshot newRoot = TagSnapshot.createTagSnapshot(myLinearLayout);
+
+    TagSnapshotDiff diff = TagSnapshotDiff.compute(oldRoot, newRoot);
+    assertFalse(diff.isStructural());
+    List<TagSnapshotDiff.AttributeChange> changes = diff.getChanges();
+    assertEquals(3, changes.size());
+    assertEquals("Button@layout_width: \"wrap_content\" -> \"match_parent\"", changes.get(0).toString());
+    assertEquals("Button@text: \"Hello\" -> \"null\"", changes.get(1).toString());
+    assertEquals("TextView@text: \"null\" -> \"World\"", changes.get(2).toString());
+
+    // Only the last change can be set on the existing view
+    assertFalse(RenderTask.canSetProperty(changes.get(0)));
+    assertFalse(RenderTask.canSetProperty(changes.get(1)));
+    assertTrue(RenderTask.canSetProperty(changes.get(2)));
+
+    // Changes refer to the old snapshots and update them in place
+    TagSnapshot oldButton = oldRoot.children.get(0);
+    assertSame(oldButton, changes.get(0).getSnapshot());
+    for (TagSnapshotDiff.AttributeChange change : changes) {
+      change.apply();
+    }
+    assertEquals(VALUE_MATCH_PARENT, oldButton.getAttribute(ATTR_LAYOUT_WIDTH, ANDROID_URI));
+    assertNull(oldButton.getAttribute(ATTR_TEXT, ANDROID_URI));
+    assertEquals("World", oldRoot.children.get(1).getAttribute(ATTR_TEXT, ANDROID_URI));
+    assertTrue(TagSnapshotDiff.compute(oldRoot, newRoot).isEmpty());
+  }
+
+  public void testStructuralChanges() {
+    TagSnapshot oldRoot = TagSnapshot.createTagSnapshot(myLinearLayout);
+
+    // Removed child
+    when(myLinearLayout.getSubTags()).thenReturn(new XmlTag[]{myButton});
+    assertTrue(TagSnapshotDiff.compute(oldRoot, TagSnapshot.createTagSnapshot(myLinearLayout)).isStructural());
+
+    // Reordered children
+    when(myLinearLayout.getSubTags()).thenReturn(new XmlTag[]{myTextView, myButton});
+    assertTrue(TagSnapshotDiff.compute(oldRoot, TagSnapshot.createTagSnapshot(myLinearLayout)).isStructural());
+
+    // Renamed tag
+    when(myLinearLayout.getSubTags()).thenReturn(new XmlTag[]{myButton, myTextView});
+    when(myButton.getName()).thenReturn("ImageButton");
+    TagSnapshotDiff diff = TagSnapshotDiff.compute(oldRoot, TagSnapshot.createTagSnapshot(myLinearLayout));
+    assertTrue(diff.isStructural());
+    assertTrue(diff.getChanges().isEmpty());
+
+    assertTrue(TagSnapshotDiff.compute(null, oldRoot).isStructural());
+  }
+
+  private static XmlAttribute androidAttribute(String localName, String value) {
+    XmlAttribute attribute = mock(XmlAttribute.class);
+    when(attribute.getLocalName()).thenReturn(localName);
+    when(attribute.getNamespace()).thenReturn(ANDROID_URI);
+    when(attribute.getNamespacePrefix()).thenReturn(PREFIX_ANDROID);
+    when(attribute.getValue()).thenReturn(value);
+    return attribute;
+  }
+
+  private static XmlTag createTag(String tagName, XmlTag... subtags) {
+    XmlTag tag = mock(XmlTag.class);
+    when(tag.getName()).thenReturn(tagName);
+    when(tag.getSubTags()).thenReturn(subtags);
+    return tag;
+  }
+
+  private static XmlTag setAttributes(XmlTag tag, XmlAttribute... attributes) {
+    when(tag.getAttributes()).thenReturn(attributes);
+    return tag;
+  }
+}
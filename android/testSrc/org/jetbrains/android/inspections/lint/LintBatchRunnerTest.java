@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.inspections.lint;
+
+import com.android.annotations.NonNull;
+import com.android.resources.ResourceFolderType;
+import com.android.tools.idea.lint.LintIdeClient;
+import com.android.tools.idea.lint.LintIdeRequest;
+import com.android.tools.idea.lint.LintIdeSessionService;
+import com.android.tools.lint.checks.HardcodedValuesDetector;
+import com.android.tools.lint.checks.ToastDetector;
+import com.android.tools.lint.checks.UnusedResourceDetector;
+import com.android.tools.lint.client.api.IssueRegistry;
+import com.android.tools.lint.client.api.LintDriver;
+import com.android.tools.lint.detector.api.*;
+import com.intellij.analysis.AnalysisScope;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.fixtures.IdeaProjectTestFixture;
+import com.intellij.testFramework.fixtures.TestFixtureBuilder;
+import org.jetbrains.android.AndroidTestCase;
+import org.jetbrains.annotations.NotNull;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static com.android.builder.model.AndroidProject.PROJECT_TYPE_LIBRARY;
+
+public class LintBatchRunnerTest extends AndroidTestCase {
+  private static final List<Issue> ISSUES =
+    Arrays.asList(HardcodedValuesDetector.ISSUE, ToastDetector.ISSUE, UnusedResourceDetector.ISSUE);
+
+  private static final String LAYOUT =
+    "<LinearLayout xmlns:android=\"http://schemas.android.com/apk/res/android\"\n" +
+    "    android:layout_width=\"match_parent\"\n" +
+    "    android:layout_height=\"match_parent\">\n" +
+    "  <Button android:layout_width=\"wrap_content\" android:layout_height=\"wrap_content\" android:text=\"Hardcoded\"/>\n" +
+    "</LinearLayout>\n";
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+
+    String lib = getAdditionalModulePath("lib").substring(1);
+    myFixture.addFileToProject(lib + "/AndroidManifest.xml",
+                               "<manifest xmlns:android=\"http://schemas.android.com/apk/res/android\" package=\"p1.p2.lib\"/>\n");
+    myFixture.addFileToProject("res/layout/app_layout.xml", LAYOUT);
+    myFixture.addFileToProject(lib + "/res/layout/lib_layout.xml", LAYOUT);
+    myFixture.addFileToProject("res/values/strings.xml", "<resources><string name=\"app_unused\">App</string></resources>");
+    myFixture.addFileToProject(lib + "/res/values/strings.xml", "<resources><string name=\"lib_unused\">Lib</string></resources>");
+    myFixture.addFileToProject("src/p1/p2/AppToast.java", getToastSource("p1.p2", "AppToast"));
+    myFixture.addFileToProject(lib + "/src/p1/p2/lib/LibToast.java", getToastSource("p1.p2.lib", "LibToast"));
+  }
+
+  @Override
+  protected void configureAdditionalModules(@NotNull TestFixtureBuilder<IdeaProjectTestFixture> projectBuilder,
+                                            @NotNull List<MyAdditionalModuleData> modules) {
+    addModuleWithAndroidFacet(projectBuilder, modules, "lib", PROJECT_TYPE_LIBRARY, true);
+  }
+
+  public void testShardedRunMatchesSerialRun() {
+    List<Module> modules = Arrays.asList(myModule, myAdditionalModules.get(0));
+    Set<String> serial = runSerial(modules);
+    // Problems of both modules, in the files of each
+    assertTrue(serial.toString(), serial.stream().anyMatch(problem -> problem.contains("app_layout.xml")));
+    assertTrue(serial.toString(), serial.stream().anyMatch(problem -> problem.contains("lib_layout.xml")));
+    assertEquals(serial, runSharded(modules));
+  }
+
+  public void testShardedRunMatchesSerialRunWithoutLibraryModule() {
+    // The library is not analyzed on its own, so the app shard must report what the serial run reports for it
+    List<Module> modules = Collections.singletonList(myModule);
+    assertEquals(runSerial(modules), runSharded(modules));
+  }
+
+  public void testCustomRulesAreReportedOnce() throws Exception {
+    LintIdeClient.setTestRuleJars(Collections.singletonList(createCustomRuleJar()));
+    try {
+      List<Module> modules = Arrays.asList(myModule, myAdditionalModules.get(0));
+      Set<String> serial = runSerial(modules);
+      // Custom issues are reported as CustomWarning, with their id in the message
+      assertTrue(serial.toString(), serial.stream().anyMatch(
+        problem -> problem.startsWith("CustomWarning app_layout.xml") && problem.contains("[CustomLayoutRoot]") && problem.endsWith(" x1")));
+      assertEquals(serial, runSharded(modules));
+    }
+    finally {
+      LintIdeClient.setTestRuleJars(null);
+    }
+  }
+
+  public void testRepeatedShardedRunsMatch() {
+    // The second run replays the single file results from the result cache
+    List<Module> modules = Arrays.asList(myModule, myAdditionalModules.get(0));
+    Set<String> first = runSharded(modules);
+    assertEquals(first, runSharded(modules));
+  }
+
+  @NotNull
+  private Set<String> runSerial(@NotNull List<Module> modules) {
+    Map<Issue, Map<File, List<ProblemData>>> problemMap = new HashMap<>();
+    LintIdeClient client = LintIdeClient.forBatch(getProject(), problemMap, new AnalysisScope(getProject()), ISSUES);
+    try {
+      LintDriver lint = new LintDriver(LintIdeSessionService.getInstance(getProject()).getRegistry(), client);
+      LintIdeRequest request = new LintIdeRequest(client, getProject(), null, modules, false);
+      request.setScope(null);
+      lint.analyze(request);
+    }
+    finally {
+      Disposer.dispose(client);
+    }
+    return describe(problemMap);
+  }
+
+  @NotNull
+  private Set<String> runSharded(@NotNull List<Module> modules) {
+    LintBatchRunner runner = new LintBatchRunner(getProject(), new AnalysisScope(getProject()), ISSUES, null);
+    return describe(runner.run(modules, null));
+  }
+
+  /**
+   * Returns the problems found, in an order independent form. Duplicates are kept apart by their count
+   */
+  @NotNull
+  private static Set<String> describe(@NotNull Map<Issue, Map<File, List<ProblemData>>> problemMap) {
+    Map<String, Integer> counts = new HashMap<>();
+    for (Map.Entry<Issue, Map<File, List<ProblemData>>> entry : problemMap.entrySet()) {
+      for (Map.Entry<File, List<ProblemData>> fileEntry : entry.getValue().entrySet()) {
+        for (ProblemData problem : fileEntry.getValue()) {
+          String key = entry.getKey().getId() + " " + fileEntry.getKey().getName() + " " + problem.getTextRange() + " " +
+                       problem.getMessage();
+          counts.merge(key, 1, Integer::sum);
+        }
+      }
+    }
+    Set<String> result = new TreeSet<>();
+    for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+      result.add(entry.getKey() + " x" + entry.getValue());
+    }
+    return result;
+  }
+
+  /**
+   * Creates a custom rule jar registering {@link CustomLayoutRootDetector}, the way third party rules are packaged
+   */
+  @NotNull
+  private static File createCustomRuleJar() throws Exception {
+    File jar = FileUtil.createTempFile("custom-lint-rules", ".jar", true);
+    Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    manifest.getMainAttributes().putValue("Lint-Registry", CustomRegistry.class.getName());
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest)) {
+      for (Class<?> c : Arrays.asList(CustomRegistry.class, CustomLayoutRootDetector.class)) {
+        String name = c.getName().replace('.', '/') + ".class";
+        out.putNextEntry(new JarEntry(name));
+        try (InputStream in = c.getClassLoader().getResourceAsStream(name)) {
+          FileUtil.copy(in, out);
+        }
+        out.closeEntry();
+      }
+    }
+    return jar;
+  }
+
+  @NotNull
+  private static String getToastSource(@NotNull String packageName, @NotNull String className) {
+    return "package " + packageName + ";\n" +
+           "\n" +
+           "import android.content.Context;\n" +
+           "import android.widget.Toast;\n" +
+           "\n" +
+           "public class " + className + " {\n" +
+           "  public void show(Context context) {\n" +
+           "    Toast.makeText(context, \"Hello\", Toast.LENGTH_SHORT);\n" +
+           "  }\n" +
+           "}\n";
+  }
+
+  public static class CustomRegistry extends IssueRegistry {
+    @NonNull
+    @Override
+    public List<Issue> getIssues() {
+      return Collections.singletonList(CustomLayoutRootDetector.ISSUE);
+    }
+  }
+
+  /**
+   * Custom rule reporting the root of each layout
+   */
+  public static class CustomLayoutRootDetector extends ResourceXmlDetector {
+    static final Issue ISSUE = Issue.create(
+      "CustomLayoutRoot", "Layout root", "Reports the root of each layout", Category.CORRECTNESS, 5, Severity.WARNING,
+      new Implementation(CustomLayoutRootDetector.class, Scope.RESOURCE_FILE_SCOPE));
+
+    @Override
+    public boolean appliesTo(@NonNull ResourceFolderType folderType) {
+      return folderType == ResourceFolderType.LAYOUT;
+    }
+
+    @Override
+    public void visitDocument(@NonNull XmlContext context, @NonNull Document document) {
+      Element root = document.getDocumentElement();
+      if (root != null) {
+        context.report(ISSUE, root, context.getLocation(root), "Layout root");
+      }
+    }
+  }
+}
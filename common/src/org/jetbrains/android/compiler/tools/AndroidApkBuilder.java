@@ -23,6 +23,7 @@ import com.android.prefs.AndroidLocation;
 import com.android.sdklib.IAndroidTarget;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Condition;
+import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.io.FileUtilRt;
 import com.intellij.openapi.util.text.StringUtil;
@@ -122,6 +123,27 @@ public class AndroidApkBuilder {
                                                                       @NotNull IAndroidTarget target,
                                                                       @Nullable String customKeystorePath,
                                                                       @NotNull Condition<File> resourceFilter) throws IOException {
+    return execute(resPackagePath, dexPath, resourceRoots, externalJars, nativeLibsFolders, additionalNativeLibs, finalApk, unsigned,
+                   sdkPath, target, customKeystorePath, resourceFilter, null);
+  }
+
+  /**
+   * @param incrementalStateFile the file where the state of the incremental packaging is kept, or null if the APK
+   *                             must be packaged from scratch
+   */
+  public static Map<AndroidCompilerMessageKind, List<String>> execute(@NotNull String resPackagePath,
+                                                                      @NotNull String dexPath,
+                                                                      @NotNull String[] resourceRoots,
+                                                                      @NotNull String[] externalJars,
+                                                                      @NotNull String[] nativeLibsFolders,
+                                                                      @NotNull Collection<AndroidNativeLibData> additionalNativeLibs,
+                                                                      @NotNull String finalApk,
+                                                                      boolean unsigned,
+                                                                      @NotNull String sdkPath,
+                                                                      @NotNull IAndroidTarget target,
+                                                                      @Nullable String customKeystorePath,
+                                                                      @NotNull Condition<File> resourceFilter,
+                                                                      @Nullable File incrementalStateFile) throws IOException {
     final AndroidBuildTestingManager testingManager = AndroidBuildTestingManager.getTestingManager();
 
     if (testingManager != null) {
@@ -148,16 +170,33 @@ public class AndroidApkBuilder {
       return map;
     }
     File additionalLibsDir = null;
+    // the copies of the additional native libraries, mapped to the original files
+    final Map<File, File> nativeLibOrigins = new HashMap<File, File>();
     try {
       if (additionalNativeLibs.size() > 0) {
         additionalLibsDir = FileUtil.createTempDirectory("android_additional_libs", "tmp");
 
-        if (!copyNativeLibs(additionalNativeLibs, additionalLibsDir, map)) {
+        if (!copyNativeLibs(additionalNativeLibs, additionalLibsDir, nativeLibOrigins, map)) {
           return map;
         }
         nativeLibsFolders = ArrayUtil.append(nativeLibsFolders, additionalLibsDir.getPath());
       }
 
+      if (incrementalStateFile != null && AndroidIncrementalApkBuilder.isEnabled()) {
+        // the incremental packaging aligns the APK itself
+        final Map<AndroidCompilerMessageKind, List<String>> incrementalResult =
+          incrementalPackage(dexPath, resourceRoots, externalJars, nativeLibsFolders, nativeLibOrigins, finalApk, resPackagePath,
+                             customKeystorePath, !unsigned, resourceFilter, incrementalStateFile);
+
+        if (incrementalResult != null) {
+          map.putAll(incrementalResult);
+          return filterUsingKeystoreMessages(map);
+        }
+      }
+      else if (incrementalStateFile != null) {
+        FileUtil.delete(incrementalStateFile);
+      }
+
       if (unsigned) {
         return filterUsingKeystoreMessages(
           finalPackage(dexPath, resourceRoots, externalJars, nativeLibsFolders, finalApk, resPackagePath, customKeystorePath, false,
@@ -187,6 +226,7 @@ public class AndroidApkBuilder {
 
   private static boolean copyNativeLibs(@NotNull Collection<AndroidNativeLibData> libs,
                                         @NotNull File targetDir,
+                                        @NotNull Map<File, File> copies,
                                         @NotNull Map<AndroidCompilerMessageKind, List<String>> map) throws IOException {
     for (AndroidNativeLibData lib : libs) {
       final String path = lib.getPath();
@@ -208,6 +248,7 @@ public class AndroidApkBuilder {
         continue;
       }
       FileUtil.copy(srcFile, dstFile);
+      copies.put(dstFile, srcFile);
     }
     return map.get(ERROR).size() == 0;
   }
@@ -230,61 +271,14 @@ public class AndroidApkBuilder {
     SignedJarBuilder builder = null;
     try {
 
-      String keyStoreOsPath = customKeystorePath != null && customKeystorePath.length() > 0
-                              ? customKeystorePath 
-                              : DebugKeyProvider.getDefaultKeyStoreOsPath();
-      
-      DebugKeyProvider provider = createDebugKeyProvider(result, keyStoreOsPath);
-
-      X509Certificate certificate = signed ? (X509Certificate)provider.getCertificate() : null;
-
-      if (certificate != null && certificate.getNotAfter().compareTo(new Date()) < 0) {
-        // generate a new one
-        File keyStoreFile = new File(keyStoreOsPath);
-        if (keyStoreFile.exists()) {
-          keyStoreFile.delete();
-        }
-        provider = createDebugKeyProvider(result, keyStoreOsPath);
-        certificate = (X509Certificate)provider.getCertificate();
-      }
-
-      if (certificate != null && certificate.getNotAfter().compareTo(new Date()) < 0) {
-        String date = DateFormatUtil.formatPrettyDateTime(certificate.getNotAfter());
-        result.get(ERROR).add(
-          ("Debug certificate expired on " + date + ". Cannot regenerate it, please delete file \"" + keyStoreOsPath + "\" manually."));
-        return result;
-      }
-
-      PrivateKey key = provider.getDebugKey();
+      final Pair<PrivateKey, X509Certificate> keyAndCertificate = getDebugKey(customKeystorePath, signed, result);
 
-      if (key == null) {
-        result.get(ERROR).add("Cannot create new key or keystore");
+      if (keyAndCertificate == null || !checkInputs(apkPath, dexPath, externalJars, result)) {
         return result;
       }
-
-      if (!new File(apkPath).exists()) {
-        result.get(ERROR).add("File " + apkPath + " not found. Try to rebuild project");
-        return result;
-      }
-
       File dexEntryFile = new File(dexPath);
-      if (!dexEntryFile.exists()) {
-        result.get(ERROR).add("File " + dexEntryFile.getPath() + " not found. Try to rebuild project");
-        return result;
-      }
-
-      for (String externalJar : externalJars) {
-        if (new File(externalJar).isDirectory()) {
-          result.get(ERROR).add(externalJar + " is directory. Directory libraries are not supported");
-        }
-      }
-
-      if (result.get(ERROR).size() > 0) {
-        return result;
-      }
-
       fos = new FileOutputStream(outputApk);
-      builder = new SafeSignedJarBuilder(fos, key, certificate, outputApk);
+      builder = new SafeSignedJarBuilder(fos, keyAndCertificate.first, keyAndCertificate.second, outputApk);
 
       FileInputStream fis = new FileInputStream(apkPath);
       try {
@@ -386,6 +380,120 @@ public class AndroidApkBuilder {
     return result;
   }
 
+  @Nullable
+  private static Map<AndroidCompilerMessageKind, List<String>> incrementalPackage(@NotNull String dexPath,
+                                                                                  @NotNull String[] javaResourceRoots,
+                                                                                  @NotNull String[] externalJars,
+                                                                                  @NotNull String[] nativeLibsFolders,
+                                                                                  @NotNull Map<File, File> nativeLibOrigins,
+                                                                                  @NotNull String outputApk,
+                                                                                  @NotNull String apkPath,
+                                                                                  @Nullable String customKeystorePath,
+                                                                                  boolean signed,
+                                                                                  @NotNull Condition<File> resourceFilter,
+                                                                                  @NotNull File stateFile) {
+    final Map<AndroidCompilerMessageKind, List<String>> result = new HashMap<AndroidCompilerMessageKind, List<String>>();
+    result.put(ERROR, new ArrayList<String>());
+    result.put(INFORMATION, new ArrayList<String>());
+    result.put(WARNING, new ArrayList<String>());
+
+    try {
+      final Pair<PrivateKey, X509Certificate> keyAndCertificate = getDebugKey(customKeystorePath, signed, result);
+
+      if (keyAndCertificate == null || !checkInputs(apkPath, dexPath, externalJars, result)) {
+        return result;
+      }
+      final AndroidIncrementalApkBuilder builder = new AndroidIncrementalApkBuilder(stateFile);
+
+      if (!builder.build(apkPath, dexPath, javaResourceRoots, externalJars, nativeLibsFolders, nativeLibOrigins, outputApk,
+                         signed ? keyAndCertificate.first : null, keyAndCertificate.second, signed, resourceFilter, result)) {
+        return null;
+      }
+      LOG.info("APK " + outputApk + " packaged incrementally: " + builder.getCopiedEntryCount() + " entries copied, " +
+               builder.getCompressedEntryCount() + " compressed, " + builder.getDigestedEntryCount() + " digested");
+    }
+    catch (IOException e) {
+      return addExceptionMessage(e, result);
+    }
+    catch (DebugKeyProvider.KeytoolException e) {
+      return addExceptionMessage(e, result);
+    }
+    catch (AndroidLocation.AndroidLocationException e) {
+      return addExceptionMessage(e, result);
+    }
+    catch (GeneralSecurityException e) {
+      return addExceptionMessage(e, result);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the debug key and, if the APK is signed, its certificate, regenerating the keystore if the certificate expired
+   *
+   * @return null if the key cannot be obtained, the errors being added to the result
+   */
+  @Nullable
+  private static Pair<PrivateKey, X509Certificate> getDebugKey(@Nullable String customKeystorePath,
+                                                               boolean signed,
+                                                               @NotNull Map<AndroidCompilerMessageKind, List<String>> result)
+    throws GeneralSecurityException, IOException, DebugKeyProvider.KeytoolException, AndroidLocation.AndroidLocationException {
+    String keyStoreOsPath = customKeystorePath != null && customKeystorePath.length() > 0
+                            ? customKeystorePath
+                            : DebugKeyProvider.getDefaultKeyStoreOsPath();
+
+    DebugKeyProvider provider = createDebugKeyProvider(result, keyStoreOsPath);
+
+    X509Certificate certificate = signed ? (X509Certificate)provider.getCertificate() : null;
+
+    if (certificate != null && certificate.getNotAfter().compareTo(new Date()) < 0) {
+      // generate a new one
+      File keyStoreFile = new File(keyStoreOsPath);
+      if (keyStoreFile.exists()) {
+        keyStoreFile.delete();
+      }
+      provider = createDebugKeyProvider(result, keyStoreOsPath);
+      certificate = (X509Certificate)provider.getCertificate();
+    }
+
+    if (certificate != null && certificate.getNotAfter().compareTo(new Date()) < 0) {
+      String date = DateFormatUtil.formatPrettyDateTime(certificate.getNotAfter());
+      result.get(ERROR).add(
+        ("Debug certificate expired on " + date + ". Cannot regenerate it, please delete file \"" + keyStoreOsPath + "\" manually."));
+      return null;
+    }
+
+    PrivateKey key = provider.getDebugKey();
+
+    if (key == null) {
+      result.get(ERROR).add("Cannot create new key or keystore");
+      return null;
+    }
+    return Pair.create(key, certificate);
+  }
+
+  private static boolean checkInputs(@NotNull String apkPath,
+                                     @NotNull String dexPath,
+                                     @NotNull String[] externalJars,
+                                     @NotNull Map<AndroidCompilerMessageKind, List<String>> result) {
+    if (!new File(apkPath).exists()) {
+      result.get(ERROR).add("File " + apkPath + " not found. Try to rebuild project");
+      return false;
+    }
+
+    File dexEntryFile = new File(dexPath);
+    if (!dexEntryFile.exists()) {
+      result.get(ERROR).add("File " + dexEntryFile.getPath() + " not found. Try to rebuild project");
+      return false;
+    }
+
+    for (String externalJar : externalJars) {
+      if (new File(externalJar).isDirectory()) {
+        result.get(ERROR).add(externalJar + " is directory. Directory libraries are not supported");
+      }
+    }
+    return result.get(ERROR).size() == 0;
+  }
+
   private static DebugKeyProvider createDebugKeyProvider(final Map<AndroidCompilerMessageKind, List<String>> result, String path) throws
                                                                                                                                KeyStoreException,
                                                                                                                                NoSuchAlgorithmException,
@@ -0,0 +1,363 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.compiler.tools;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Reads and writes zip files at the level of the compressed entry data, so that entries can be copied from an
+ * archive to another without being decompressed and compressed again.
+ * <p>
+ * Only the features used by the APKs are supported: the archives may not be split or use the zip64 extensions,
+ * and the entries may not be encrypted.
+ */
+class AndroidApkZip {
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_SIGNATURE = 0x06054b50;
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int CENTRAL_HEADER_SIZE = 46;
+  private static final int END_SIZE = 22;
+  private static final int MAX_COMMENT_SIZE = 0xFFFF;
+  private static final long MAX_32_BIT_VALUE = 0xFFFFFFFFL;
+  private static final int MAX_ENTRY_COUNT = 0xFFFF;
+  private static final int ENCRYPTED_FLAG = 1;
+  private static final int UTF8_FLAG = 1 << 11;
+  // the data of the uncompressed entries is aligned, so that it can be mapped in memory (as zipalign does)
+  static final int ALIGNMENT = 4;
+
+  private AndroidApkZip() {
+  }
+
+  /**
+   * An entry of the central directory
+   */
+  static class Entry {
+    final String myName;
+    final int myMethod;
+    final int myDosTime;
+    final long myCrc;
+    final long myCompressedSize;
+    final long mySize;
+    final long myLocalHeaderOffset;
+
+    Entry(@NotNull String name, int method, int dosTime, long crc, long compressedSize, long size, long localHeaderOffset) {
+      myName = name;
+      myMethod = method;
+      myDosTime = dosTime;
+      myCrc = crc;
+      myCompressedSize = compressedSize;
+      mySize = size;
+      myLocalHeaderOffset = localHeaderOffset;
+    }
+
+    boolean isDirectory() {
+      return myName.endsWith("/");
+    }
+  }
+
+  /**
+   * Reads the central directory of the archive
+   *
+   * @return the entries by name, in the order of the central directory, or null if the archive is not supported
+   */
+  @Nullable
+  static Map<String, Entry> readEntries(@NotNull RandomAccessFile file) throws IOException {
+    final long length = file.length();
+
+    if (length < END_SIZE) {
+      return null;
+    }
+    // the end record is followed by a comment of at most 64 KB
+    final int tailSize = (int)Math.min(length, END_SIZE + MAX_COMMENT_SIZE);
+    final byte[] tail = new byte[tailSize];
+    file.seek(length - tailSize);
+    file.readFully(tail);
+    int endOffset = -1;
+
+    for (int i = tailSize - END_SIZE; i >= 0; i--) {
+      if (readInt(tail, i) == END_SIGNATURE) {
+        endOffset = i;
+        break;
+      }
+    }
+    if (endOffset < 0) {
+      return null;
+    }
+    final int diskNumber = readShort(tail, endOffset + 4);
+    final int entryCount = readShort(tail, endOffset + 10);
+    final long centralDirectorySize = readUnsignedInt(tail, endOffset + 12);
+    final long centralDirectoryOffset = readUnsignedInt(tail, endOffset + 16);
+
+    if (diskNumber != 0 || entryCount == MAX_ENTRY_COUNT ||
+        centralDirectoryOffset == MAX_32_BIT_VALUE || centralDirectoryOffset + centralDirectorySize > length) {
+      return null;
+    }
+    final byte[] centralDirectory = new byte[(int)centralDirectorySize];
+    file.seek(centralDirectoryOffset);
+    file.readFully(centralDirectory);
+
+    final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+    int offset = 0;
+
+    for (int i = 0; i < entryCount; i++) {
+      if (offset + CENTRAL_HEADER_SIZE > centralDirectory.length || readInt(centralDirectory, offset) != CENTRAL_HEADER_SIGNATURE) {
+        return null;
+      }
+      final int flags = readShort(centralDirectory, offset + 8);
+      final int method = readShort(centralDirectory, offset + 10);
+      final int dosTime = readInt(centralDirectory, offset + 12);
+      final long crc = readUnsignedInt(centralDirectory, offset + 16);
+      final long compressedSize = readUnsignedInt(centralDirectory, offset + 20);
+      final long size = readUnsignedInt(centralDirectory, offset + 24);
+      final int nameLength = readShort(centralDirectory, offset + 28);
+      final int extraLength = readShort(centralDirectory, offset + 30);
+      final int commentLength = readShort(centralDirectory, offset + 32);
+      final long localHeaderOffset = readUnsignedInt(centralDirectory, offset + 42);
+
+      if ((flags & ENCRYPTED_FLAG) != 0 ||
+          (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) ||
+          compressedSize == MAX_32_BIT_VALUE || size == MAX_32_BIT_VALUE || localHeaderOffset == MAX_32_BIT_VALUE) {
+        return null;
+      }
+      final String name = new String(centralDirectory, offset + CENTRAL_HEADER_SIZE, nameLength,
+                                     "UTF-8");
+      entries.put(name, new Entry(name, method, dosTime, crc, compressedSize, size, localHeaderOffset));
+      offset += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+    }
+    return entries;
+  }
+
+  /**
+   * Writes an archive entry by entry. The output is not valid until {@link #finish()} is called.
+   */
+  static class Writer implements Closeable {
+    private final CountingOutputStream myOut;
+    private final ByteArrayOutputStream myCentralDirectory = new ByteArrayOutputStream();
+    private final byte[] myBuffer = new byte[64 * 1024];
+    private int myEntryCount;
+
+    Writer(@NotNull File file) throws IOException {
+      myOut = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+    }
+
+    /**
+     * Copies the compressed data of the entry from the source archive
+     */
+    void copyEntry(@NotNull RandomAccessFile source, @NotNull Entry entry, @NotNull String name) throws IOException {
+      source.seek(entry.myLocalHeaderOffset);
+      final byte[] header = new byte[LOCAL_HEADER_SIZE];
+      source.readFully(header);
+
+      if (readInt(header, 0) != LOCAL_HEADER_SIGNATURE) {
+        throw new IOException("Invalid local header for " + entry.myName);
+      }
+      source.seek(entry.myLocalHeaderOffset + LOCAL_HEADER_SIZE + readShort(header, 26) + readShort(header, 28));
+      writeHeaders(name, entry.myMethod, entry.myDosTime, entry.myCrc, entry.myCompressedSize, entry.mySize);
+      long remaining = entry.myCompressedSize;
+
+      while (remaining > 0) {
+        final int read = source.read(myBuffer, 0, (int)Math.min(myBuffer.length, remaining));
+
+        if (read < 0) {
+          throw new EOFException("Unexpected end of the data of " + entry.myName);
+        }
+        myOut.write(myBuffer, 0, read);
+        remaining -= read;
+      }
+    }
+
+    /**
+     * Compresses and writes the given content
+     *
+     * @return the CRC-32 of the content
+     */
+    long writeEntry(@NotNull String name, @NotNull byte[] content, long time) throws IOException {
+      final CRC32 crc = new CRC32();
+      crc.update(content);
+      final ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(32, content.length / 2));
+      final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+
+      try {
+        final DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater);
+        out.write(content);
+        out.close();
+      }
+      finally {
+        deflater.end();
+      }
+      writeHeaders(name, ZipEntry.DEFLATED, toDosTime(time), crc.getValue(), compressed.size(), content.length);
+      compressed.writeTo(myOut);
+      return crc.getValue();
+    }
+
+    private void writeHeaders(@NotNull String name, int method, int dosTime, long crc, long compressedSize, long size)
+      throws IOException {
+      final long offset = myOut.getCount();
+
+      if (offset > MAX_32_BIT_VALUE || myEntryCount == MAX_ENTRY_COUNT) {
+        throw new TooLargeException();
+      }
+      final byte[] nameBytes = name.getBytes("UTF-8");
+      int padding = 0;
+
+      if (method == ZipEntry.STORED) {
+        final long dataOffset = offset + LOCAL_HEADER_SIZE + nameBytes.length;
+        padding = (int)((ALIGNMENT - dataOffset % ALIGNMENT) % ALIGNMENT);
+      }
+      final int versionNeeded = method == ZipEntry.STORED ? 10 : 20;
+      writeInt(myOut, LOCAL_HEADER_SIGNATURE);
+      writeShort(myOut, versionNeeded);
+      writeShort(myOut, UTF8_FLAG);
+      writeShort(myOut, method);
+      writeInt(myOut, dosTime);
+      writeInt(myOut, (int)crc);
+      writeInt(myOut, (int)compressedSize);
+      writeInt(myOut, (int)size);
+      writeShort(myOut, nameBytes.length);
+      writeShort(myOut, padding);
+      myOut.write(nameBytes);
+      myOut.write(new byte[padding]);
+
+      writeInt(myCentralDirectory, CENTRAL_HEADER_SIGNATURE);
+      writeShort(myCentralDirectory, 20);
+      writeShort(myCentralDirectory, versionNeeded);
+      writeShort(myCentralDirectory, UTF8_FLAG);
+      writeShort(myCentralDirectory, method);
+      writeInt(myCentralDirectory, dosTime);
+      writeInt(myCentralDirectory, (int)crc);
+      writeInt(myCentralDirectory, (int)compressedSize);
+      writeInt(myCentralDirectory, (int)size);
+      writeShort(myCentralDirectory, nameBytes.length);
+      // extra field, comment, disk number, internal and external attributes
+      writeShort(myCentralDirectory, 0);
+      writeShort(myCentralDirectory, 0);
+      writeShort(myCentralDirectory, 0);
+      writeShort(myCentralDirectory, 0);
+      writeInt(myCentralDirectory, 0);
+      writeInt(myCentralDirectory, (int)offset);
+      myCentralDirectory.write(nameBytes);
+      myEntryCount++;
+    }
+
+    /**
+     * Writes the central directory
+     */
+    void finish() throws IOException {
+      final long offset = myOut.getCount();
+
+      if (offset + myCentralDirectory.size() > MAX_32_BIT_VALUE) {
+        throw new TooLargeException();
+      }
+      myCentralDirectory.writeTo(myOut);
+      writeInt(myOut, END_SIGNATURE);
+      writeShort(myOut, 0);
+      writeShort(myOut, 0);
+      writeShort(myOut, myEntryCount);
+      writeShort(myOut, myEntryCount);
+      writeInt(myOut, myCentralDirectory.size());
+      writeInt(myOut, (int)offset);
+      writeShort(myOut, 0);
+      myOut.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      myOut.close();
+    }
+  }
+
+  /**
+   * Thrown when the archive would need the zip64 extensions
+   */
+  static class TooLargeException extends IOException {
+    TooLargeException() {
+      super("The archive is too large");
+    }
+  }
+
+  static int toDosTime(long time) {
+    final Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(time);
+    final int year = calendar.get(Calendar.YEAR);
+
+    if (year < 1980) {
+      return (1 << 21) | (1 << 16);
+    }
+    return (year - 1980) << 25 |
+           (calendar.get(Calendar.MONTH) + 1) << 21 |
+           calendar.get(Calendar.DAY_OF_MONTH) << 16 |
+           calendar.get(Calendar.HOUR_OF_DAY) << 11 |
+           calendar.get(Calendar.MINUTE) << 5 |
+           calendar.get(Calendar.SECOND) >> 1;
+  }
+
+  private static int readShort(@NotNull byte[] bytes, int offset) {
+    return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8;
+  }
+
+  private static int readInt(@NotNull byte[] bytes, int offset) {
+    return readShort(bytes, offset) | readShort(bytes, offset + 2) << 16;
+  }
+
+  private static long readUnsignedInt(@NotNull byte[] bytes, int offset) {
+    return readInt(bytes, offset) & MAX_32_BIT_VALUE;
+  }
+
+  private static class CountingOutputStream extends FilterOutputStream {
+    private long myCount;
+
+    CountingOutputStream(@NotNull OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      myCount++;
+    }
+
+    @Override
+    public void write(@NotNull byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      myCount += len;
+    }
+
+    long getCount() {
+      return myCount;
+    }
+  }
+
+  private static void writeShort(@NotNull OutputStream out, int value) throws IOException {
+    out.write(value & 0xFF);
+    out.write((value >>> 8) & 0xFF);
+  }
+
+  private static void writeInt(@NotNull OutputStream out, int value) throws IOException {
+    writeShort(out, value);
+    writeShort(out, value >>> 16);
+  }
+}
@@ -0,0 +1,611 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.compiler.tools;
+
+import com.android.SdkConstants;
+import com.android.jarutils.JavaResourceFilter;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Condition;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.Base64;
+import com.intellij.util.io.IOUtil;
+import org.jetbrains.android.util.AndroidBuildTestingManager;
+import org.jetbrains.android.util.AndroidCommonUtils;
+import org.jetbrains.android.util.AndroidCompilerMessageKind;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.jetbrains.android.util.AndroidCompilerMessageKind.WARNING;
+
+/**
+ * Packages the APK reusing the result of the previous packaging.
+ * <p>
+ * The entries of the resource package and of the external jars are copied without being decompressed, and the
+ * files (classes.dex, java resources and native libraries) are compressed only if they changed since the previous
+ * packaging, otherwise their compressed data is copied from the previous APK. The SHA-1 digests of the entries are
+ * kept in a state file along with the fingerprints of their sources, so that the signature files are regenerated
+ * without reading the unchanged entries. The uncompressed entries are aligned, so zipalign doesn't need to be run.
+ * <p>
+ * The entries are added in the same order and with the same filters as by {@link AndroidApkBuilder}, which is used
+ * when the APK cannot be packaged incrementally.
+ */
+class AndroidIncrementalApkBuilder {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.android.compiler.tools.AndroidIncrementalApkBuilder");
+
+  @NonNls private static final String DISABLED_PROPERTY = "android.apk.builder.incremental.disabled";
+  @NonNls private static final String META_INF = "META-INF/";
+  @NonNls private static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+  @NonNls private static final String SIGNATURE_NAME = "META-INF/CERT.SF";
+  @NonNls private static final String SIGNATURE_BLOCK_PREFIX = "META-INF/CERT.";
+  @NonNls private static final String DIGEST_ALGORITHM = "SHA1";
+  @NonNls private static final String DIGEST_ATTR = "SHA1-Digest";
+  @NonNls private static final String DIGEST_MANIFEST_ATTR = "SHA1-Digest-Manifest";
+  @NonNls private static final String CREATED_BY = "1.0 (Android)";
+  @NonNls private static final String LINE_SEPARATOR = "\r\n";
+  private static final int MAX_LINE_LENGTH = 72;
+  // to be incremented when the format of the state or the fingerprints change
+  private static final int STATE_VERSION = 2;
+
+  private final File myStateFile;
+
+  private int myCopiedEntryCount;
+  private int myCompressedEntryCount;
+  private int myDigestedEntryCount;
+
+  AndroidIncrementalApkBuilder(@NotNull File stateFile) {
+    myStateFile = stateFile;
+  }
+
+  /**
+   * Incremental packaging can be disabled with the {@code android.apk.builder.incremental.disabled} system property,
+   * and is disabled in build tests
+   */
+  static boolean isEnabled() {
+    return !Boolean.getBoolean(DISABLED_PROPERTY) && AndroidBuildTestingManager.getTestingManager() == null;
+  }
+
+  /**
+   * Packages the APK. The inputs are expected to exist, as checked by {@link AndroidApkBuilder}.
+   *
+   * @param nativeLibOrigins the native libraries copied into {@code nativeLibsFolders} for this build, mapped to the files they
+   *                         were copied from. Their entries are fingerprinted by the original files, since the copies are new
+   *                         every time
+   * @param key              the signing key, or null if the APK isn't signed
+   * @param certificate      the certificate of the key, or null if the APK isn't signed
+   * @return false if the APK cannot be packaged incrementally, in which case nothing is written
+   */
+  boolean build(@NotNull String resPackagePath,
+                @NotNull String dexPath,
+                @NotNull String[] javaResourceRoots,
+                @NotNull String[] externalJars,
+                @NotNull String[] nativeLibsFolders,
+                @NotNull Map<File, File> nativeLibOrigins,
+                @NotNull String outputApk,
+                @Nullable PrivateKey key,
+                @Nullable X509Certificate certificate,
+                boolean debugBuild,
+                @NotNull Condition<File> resourceFilter,
+                @NotNull Map<AndroidCompilerMessageKind, List<String>> messages) throws IOException, GeneralSecurityException {
+    final File apk = new File(outputApk);
+    final Map<String, RandomAccessFile> archives = new HashMap<String, RandomAccessFile>();
+    final Map<String, ZipFile> zipFiles = new HashMap<String, ZipFile>();
+    RandomAccessFile previousApk = null;
+    File tempFile = null;
+
+    try {
+      final Map<String, MySource> sources = new LinkedHashMap<String, MySource>();
+
+      if (!collectSources(resPackagePath, dexPath, javaResourceRoots, externalJars, nativeLibsFolders, nativeLibOrigins, apk,
+                          debugBuild, resourceFilter, archives, sources, messages)) {
+        return false;
+      }
+      final Map<String, MyEntryState> previousState = loadState(apk);
+      Map<String, AndroidApkZip.Entry> previousEntries = null;
+
+      if (previousState != null) {
+        previousApk = new RandomAccessFile(apk, "r");
+        previousEntries = AndroidApkZip.readEntries(previousApk);
+      }
+      // the state is invalid as soon as the APK is modified
+      FileUtil.delete(myStateFile);
+
+      final Map<String, MyEntryState> state = new LinkedHashMap<String, MyEntryState>();
+      final MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+      tempFile = FileUtil.createTempFile(apk.getParentFile(), apk.getName(), ".tmp", true, false);
+      final AndroidApkZip.Writer writer = new AndroidApkZip.Writer(tempFile);
+
+      try {
+        for (Map.Entry<String, MySource> e : sources.entrySet()) {
+          final String name = e.getKey();
+          final MySource source = e.getValue();
+          final String fingerprint = source.getFingerprint();
+          final MyEntryState previous = previousState != null ? previousState.get(name) : null;
+          final boolean unchanged = previous != null && previous.myFingerprint.equals(fingerprint);
+          String entryDigest = unchanged ? previous.myDigest : null;
+          long crc;
+
+          if (source instanceof MyZipSource) {
+            final MyZipSource zipSource = (MyZipSource)source;
+            writer.copyEntry(archives.get(zipSource.myArchivePath), zipSource.myEntry, name);
+            crc = zipSource.myEntry.myCrc;
+            myCopiedEntryCount++;
+
+            if (entryDigest == null) {
+              entryDigest = computeDigest(zipSource, zipFiles, digest);
+            }
+          }
+          else {
+            final File file = ((MyFileSource)source).myFile;
+            final AndroidApkZip.Entry previousEntry = unchanged && previousEntries != null ? previousEntries.get(name) : null;
+
+            if (previousEntry != null && previousEntry.myCrc == previous.myCrc) {
+              writer.copyEntry(previousApk, previousEntry, name);
+              crc = previousEntry.myCrc;
+              myCopiedEntryCount++;
+            }
+            else {
+              final byte[] content = FileUtil.loadFileBytes(file);
+              crc = writer.writeEntry(name, content, file.lastModified());
+              myCompressedEntryCount++;
+
+              if (entryDigest == null) {
+                entryDigest = Base64.encode(digest.digest(content));
+                myDigestedEntryCount++;
+              }
+            }
+          }
+          state.put(name, new MyEntryState(fingerprint, crc, entryDigest));
+        }
+        if (key != null && certificate != null) {
+          writeSignature(writer, state, key, certificate);
+        }
+        writer.finish();
+      }
+      catch (AndroidApkZip.TooLargeException e) {
+        LOG.info("Cannot package " + outputApk + " incrementally: " + e.getMessage());
+        return false;
+      }
+      finally {
+        writer.close();
+      }
+      if (previousApk != null) {
+        previousApk.close();
+        previousApk = null;
+      }
+      FileUtil.rename(tempFile, apk);
+      tempFile = null;
+      saveState(apk, state);
+      return true;
+    }
+    finally {
+      if (previousApk != null) {
+        previousApk.close();
+      }
+      for (RandomAccessFile archive : archives.values()) {
+        archive.close();
+      }
+      for (ZipFile zipFile : zipFiles.values()) {
+        zipFile.close();
+      }
+      if (tempFile != null) {
+        FileUtil.delete(tempFile);
+      }
+    }
+  }
+
+  /**
+   * Number of the entries copied from the previous APK or from the source archives, without compressing them
+   */
+  int getCopiedEntryCount() {
+    return myCopiedEntryCount;
+  }
+
+  /**
+   * Number of the files compressed because they are new or changed
+   */
+  int getCompressedEntryCount() {
+    return myCompressedEntryCount;
+  }
+
+  /**
+   * Number of the entries read to compute their digests
+   */
+  int getDigestedEntryCount() {
+    return myDigestedEntryCount;
+  }
+
+  private static boolean collectSources(@NotNull String resPackagePath,
+                                        @NotNull String dexPath,
+                                        @NotNull String[] javaResourceRoots,
+                                        @NotNull String[] externalJars,
+                                        @NotNull String[] nativeLibsFolders,
+                                        @NotNull Map<File, File> nativeLibOrigins,
+                                        @NotNull File apk,
+                                        boolean debugBuild,
+                                        @NotNull Condition<File> resourceFilter,
+                                        @NotNull Map<String, RandomAccessFile> archives,
+                                        @NotNull Map<String, MySource> sources,
+                                        @NotNull Map<AndroidCompilerMessageKind, List<String>> messages) throws IOException {
+    if (!addZipSources(resPackagePath, null, archives, sources)) {
+      return false;
+    }
+    final File dexFile = new File(dexPath);
+
+    if (!addFileSource(AndroidCommonUtils.CLASSES_FILE_NAME, dexFile, dexFile, apk, sources)) {
+      return false;
+    }
+    final Set<String> added = new HashSet<String>();
+
+    for (String resourceRootPath : javaResourceRoots) {
+      final Set<File> javaResources = new HashSet<File>();
+      final File resourceRoot = new File(resourceRootPath);
+      AndroidApkBuilder.collectStandardJavaResources(resourceRoot, javaResources, resourceFilter);
+
+      for (File javaResource : javaResources) {
+        final String relativePath = FileUtil.getRelativePath(resourceRoot, javaResource);
+
+        if (relativePath != null && added.add(relativePath) &&
+            !addFileSource(FileUtil.toSystemIndependentName(relativePath), javaResource, javaResource, apk, sources)) {
+          return false;
+        }
+      }
+    }
+    final JavaResourceFilter javaResourceFilter = new JavaResourceFilter();
+    final Set<String> jarEntries = new HashSet<String>();
+    final Set<String> duplicates = new HashSet<String>();
+
+    for (String externalJar : externalJars) {
+      final RandomAccessFile archive = openArchive(externalJar, archives);
+      final Map<String, AndroidApkZip.Entry> entries = archive != null ? AndroidApkZip.readEntries(archive) : null;
+
+      if (entries == null) {
+        return false;
+      }
+      for (AndroidApkZip.Entry entry : entries.values()) {
+        if (!entry.isDirectory() && javaResourceFilter.checkEntry(entry.myName) && !jarEntries.add(entry.myName)) {
+          duplicates.add(entry.myName);
+        }
+      }
+    }
+    for (String duplicate : duplicates) {
+      messages.get(WARNING).add("Duplicate entry " + duplicate + ". The file won't be added");
+    }
+    for (String externalJar : externalJars) {
+      if (!addZipSources(externalJar, duplicates, archives, sources)) {
+        return false;
+      }
+    }
+    final Set<String> nativeLibs = new HashSet<String>();
+
+    for (String nativeLibsFolderPath : nativeLibsFolders) {
+      final File nativeLibsFolder = new File(nativeLibsFolderPath);
+      final File[] children = nativeLibsFolder.listFiles();
+
+      if (children != null) {
+        for (File child : children) {
+          final List<File> libs = new ArrayList<File>();
+          AndroidApkBuilder.collectNativeLibraries(child, libs, debugBuild);
+
+          for (File lib : libs) {
+            final String relativePath = FileUtil.getRelativePath(nativeLibsFolder, lib);
+            final String path = FileUtil.toSystemIndependentName(SdkConstants.FD_APK_NATIVE_LIBS + File.separator + relativePath);
+
+            final File origin = nativeLibOrigins.get(lib);
+
+            if (nativeLibs.add(path) && !addFileSource(path, lib, origin != null ? origin : lib, apk, sources)) {
+              return false;
+            }
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Adds the entries of the archive, skipping the directories and the signature files as SignedJarBuilder does
+   *
+   * @param excludedEntries the entries to skip, or null if the java resource filter isn't applied
+   */
+  private static boolean addZipSources(@NotNull String archivePath,
+                                       @Nullable Set<String> excludedEntries,
+                                       @NotNull Map<String, RandomAccessFile> archives,
+                                       @NotNull Map<String, MySource> sources) throws IOException {
+    final RandomAccessFile archive = openArchive(archivePath, archives);
+    final Map<String, AndroidApkZip.Entry> entries = archive != null ? AndroidApkZip.readEntries(archive) : null;
+
+    if (entries == null) {
+      LOG.info("Cannot package incrementally: unsupported archive " + archivePath);
+      return false;
+    }
+    final JavaResourceFilter javaResourceFilter = excludedEntries != null ? new JavaResourceFilter() : null;
+
+    for (AndroidApkZip.Entry entry : entries.values()) {
+      final String name = entry.myName;
+
+      if (entry.isDirectory() || name.startsWith(META_INF)) {
+        continue;
+      }
+      if (javaResourceFilter != null && (excludedEntries.contains(name) || !javaResourceFilter.checkEntry(name))) {
+        continue;
+      }
+      if (sources.containsKey(name)) {
+        // the full packaging reports the error
+        return false;
+      }
+      sources.put(name, new MyZipSource(archivePath, entry));
+    }
+    return true;
+  }
+
+  /**
+   * @param fingerprintFile the file identifying the content of the entry, which is either the file itself or the one it was copied from
+   */
+  private static boolean addFileSource(@NotNull String name,
+                                       @NotNull File file,
+                                       @NotNull File fingerprintFile,
+                                       @NotNull File apk,
+                                       @NotNull Map<String, MySource> sources) throws IOException {
+    if (FileUtil.filesEqual(file, apk)) {
+      throw new IOException("Cannot pack file " + apk.getPath() + " into itself");
+    }
+    if (sources.containsKey(name)) {
+      return false;
+    }
+    sources.put(name, new MyFileSource(name, file, fingerprintFile));
+    return true;
+  }
+
+  @Nullable
+  private static RandomAccessFile openArchive(@NotNull String path, @NotNull Map<String, RandomAccessFile> archives) throws IOException {
+    RandomAccessFile archive = archives.get(path);
+
+    if (archive == null) {
+      final File file = new File(path);
+
+      if (!file.isFile()) {
+        return null;
+      }
+      archive = new RandomAccessFile(file, "r");
+      archives.put(path, archive);
+    }
+    return archive;
+  }
+
+  @NotNull
+  private String computeDigest(@NotNull MyZipSource source, @NotNull Map<String, ZipFile> zipFiles, @NotNull MessageDigest digest)
+    throws IOException {
+    ZipFile zipFile = zipFiles.get(source.myArchivePath);
+
+    if (zipFile == null) {
+      zipFile = new ZipFile(source.myArchivePath);
+      zipFiles.put(source.myArchivePath, zipFile);
+    }
+    final ZipEntry entry = zipFile.getEntry(source.myEntry.myName);
+
+    if (entry == null) {
+      throw new IOException("Cannot find " + source.myEntry.myName + " in " + source.myArchivePath);
+    }
+    final InputStream in = zipFile.getInputStream(entry);
+    try {
+      final byte[] buffer = new byte[64 * 1024];
+      int read;
+
+      while ((read = in.read(buffer)) > 0) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    finally {
+      in.close();
+    }
+    myDigestedEntryCount++;
+    return Base64.encode(digest.digest());
+  }
+
+  /**
+   * Writes the signature files of the JAR signing scheme, as SignedJarBuilder does
+   */
+  private static void writeSignature(@NotNull AndroidApkZip.Writer writer,
+                                     @NotNull Map<String, MyEntryState> state,
+                                     @NotNull PrivateKey key,
+                                     @NotNull X509Certificate certificate) throws IOException, GeneralSecurityException {
+    final MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+    final ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+    writeAttribute(manifest, "Manifest-Version", "1.0");
+    writeAttribute(manifest, "Created-By", CREATED_BY);
+    manifest.write(LINE_SEPARATOR.getBytes("UTF-8"));
+
+    final ByteArrayOutputStream sectionDigests = new ByteArrayOutputStream();
+
+    for (Map.Entry<String, MyEntryState> e : state.entrySet()) {
+      final ByteArrayOutputStream section = new ByteArrayOutputStream();
+      writeAttribute(section, "Name", e.getKey());
+      writeAttribute(section, DIGEST_ATTR, e.getValue().myDigest);
+      section.write(LINE_SEPARATOR.getBytes("UTF-8"));
+      section.writeTo(manifest);
+
+      writeAttribute(sectionDigests, "Name", e.getKey());
+      writeAttribute(sectionDigests, DIGEST_ATTR, Base64.encode(digest.digest(section.toByteArray())));
+      sectionDigests.write(LINE_SEPARATOR.getBytes("UTF-8"));
+    }
+    final byte[] manifestBytes = manifest.toByteArray();
+    final long now = System.currentTimeMillis();
+    writer.writeEntry(MANIFEST_NAME, manifestBytes, now);
+
+    final ByteArrayOutputStream signatureFile = new ByteArrayOutputStream();
+    writeAttribute(signatureFile, "Signature-Version", "1.0");
+    writeAttribute(signatureFile, "Created-By", CREATED_BY);
+    writeAttribute(signatureFile, DIGEST_MANIFEST_ATTR, Base64.encode(digest.digest(manifestBytes)));
+    signatureFile.write(LINE_SEPARATOR.getBytes("UTF-8"));
+    sectionDigests.writeTo(signatureFile);
+    final byte[] signatureFileBytes = signatureFile.toByteArray();
+    writer.writeEntry(SIGNATURE_NAME, signatureFileBytes, now);
+
+    final byte[] signatureBlock = AndroidSignatureBlock.create(signatureFileBytes, key, certificate);
+    writer.writeEntry(SIGNATURE_BLOCK_PREFIX + key.getAlgorithm(), signatureBlock, now);
+  }
+
+  /**
+   * Writes the attribute, wrapping the lines longer than 72 bytes as required by the manifest format
+   */
+  private static void writeAttribute(@NotNull OutputStream out, @NotNull String name, @NotNull String value) throws IOException {
+    final byte[] line = (name + ": " + value).getBytes("UTF-8");
+    int offset = 0;
+    int length = Math.min(line.length, MAX_LINE_LENGTH);
+
+    while (true) {
+      out.write(line, offset, length);
+      out.write(LINE_SEPARATOR.getBytes("UTF-8"));
+      offset += length;
+
+      if (offset >= line.length) {
+        break;
+      }
+      // the continuation lines start with a space
+      out.write(' ');
+      length = Math.min(line.length - offset, MAX_LINE_LENGTH - 1);
+    }
+  }
+
+  /**
+   * Returns the state of the previous packaging, or null if there is none or the APK was modified since then
+   */
+  @Nullable
+  private Map<String, MyEntryState> loadState(@NotNull File apk) {
+    if (!myStateFile.isFile() || !apk.isFile()) {
+      return null;
+    }
+    try {
+      final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(myStateFile)));
+      try {
+        if (in.readInt() != STATE_VERSION || in.readLong() != apk.length() || in.readLong() != apk.lastModified()) {
+          return null;
+        }
+        final int count = in.readInt();
+        final Map<String, MyEntryState> state = new HashMap<String, MyEntryState>();
+
+        for (int i = 0; i < count; i++) {
+          final String name = IOUtil.readUTF(in);
+          final String fingerprint = IOUtil.readUTF(in);
+          final long crc = in.readLong();
+          final String digest = IOUtil.readUTF(in);
+          state.put(name, new MyEntryState(fingerprint, crc, digest));
+        }
+        return state;
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot load " + myStateFile.getPath(), e);
+      return null;
+    }
+  }
+
+  private void saveState(@NotNull File apk, @NotNull Map<String, MyEntryState> state) {
+    try {
+      FileUtil.createParentDirs(myStateFile);
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myStateFile)));
+      try {
+        out.writeInt(STATE_VERSION);
+        out.writeLong(apk.length());
+        out.writeLong(apk.lastModified());
+        out.writeInt(state.size());
+
+        for (Map.Entry<String, MyEntryState> e : state.entrySet()) {
+          final MyEntryState entryState = e.getValue();
+          IOUtil.writeUTF(out, e.getKey());
+          IOUtil.writeUTF(out, entryState.myFingerprint);
+          out.writeLong(entryState.myCrc);
+          IOUtil.writeUTF(out, entryState.myDigest);
+        }
+      }
+      finally {
+        out.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot save " + myStateFile.getPath(), e);
+      FileUtil.delete(myStateFile);
+    }
+  }
+
+  private static abstract class MySource {
+    /**
+     * Identifies the content of the entry: the entry is considered unchanged when its fingerprint is the same
+     */
+    @NotNull
+    abstract String getFingerprint();
+  }
+
+  private static class MyFileSource extends MySource {
+    final String myName;
+    final File myFile;
+    final File myFingerprintFile;
+
+    MyFileSource(@NotNull String name, @NotNull File file, @NotNull File fingerprintFile) {
+      myName = name;
+      myFile = file;
+      myFingerprintFile = fingerprintFile;
+    }
+
+    @NotNull
+    @Override
+    String getFingerprint() {
+      return "file:" + myName + ':' + myFingerprintFile.getPath() + ':' + myFingerprintFile.length() + ':' +
+             myFingerprintFile.lastModified();
+    }
+  }
+
+  private static class MyZipSource extends MySource {
+    final String myArchivePath;
+    final AndroidApkZip.Entry myEntry;
+
+    MyZipSource(@NotNull String archivePath, @NotNull AndroidApkZip.Entry entry) {
+      myArchivePath = archivePath;
+      myEntry = entry;
+    }
+
+    @NotNull
+    @Override
+    String getFingerprint() {
+      return "zip:" + myEntry.myMethod + ':' + myEntry.myCrc + ':' + myEntry.myCompressedSize + ':' + myEntry.mySize;
+    }
+  }
+
+  private static class MyEntryState {
+    final String myFingerprint;
+    final long myCrc;
+    final String myDigest;
+
+    MyEntryState(@NotNull String fingerprint, long crc, @NotNull String digest) {
+      myFingerprint = fingerprint;
+      myCrc = crc;
+      myDigest = digest;
+    }
+  }
+}
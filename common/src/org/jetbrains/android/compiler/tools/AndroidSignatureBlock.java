@@ -0,0 +1,157 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.compiler.tools;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+
+/**
+ * Creates the signature block of a signed jar (the {@code META-INF/CERT.RSA} entry) in the same form as the SDK's
+ * SignedJarBuilder: a PKCS#7 SignedData without content nor authenticated attributes, holding the certificate and the
+ * SHA-1 signature of the signature file. It is DER-encoded here, so that only public JDK APIs are needed.
+ */
+class AndroidSignatureBlock {
+  @NonNls private static final String SIGNED_DATA_OID = "1.2.840.113549.1.7.2";
+  @NonNls private static final String DATA_OID = "1.2.840.113549.1.7.1";
+  @NonNls private static final String SHA1_OID = "1.3.14.3.2.26";
+  @NonNls private static final String RSA_OID = "1.2.840.113549.1.1.1";
+  @NonNls private static final String DSA_OID = "1.2.840.10040.4.1";
+  @NonNls private static final String EC_OID = "1.2.840.10045.2.1";
+
+  private static final int TAG_INTEGER = 0x02;
+  private static final int TAG_OCTET_STRING = 0x04;
+  private static final int TAG_NULL = 0x05;
+  private static final int TAG_OID = 0x06;
+  private static final int TAG_SEQUENCE = 0x30;
+  private static final int TAG_SET = 0x31;
+  private static final int TAG_CONTEXT_0 = 0xA0;
+
+  private AndroidSignatureBlock() {
+  }
+
+  @NotNull
+  static byte[] create(@NotNull byte[] signatureFile, @NotNull PrivateKey key, @NotNull X509Certificate certificate)
+    throws IOException, GeneralSecurityException {
+    final String keyAlgorithm = key.getAlgorithm();
+    final byte[] encryptionAlgorithm;
+    final String signatureAlgorithm;
+
+    if ("RSA".equals(keyAlgorithm)) {
+      encryptionAlgorithm = algorithm(RSA_OID, true);
+      signatureAlgorithm = "SHA1withRSA";
+    }
+    else if ("DSA".equals(keyAlgorithm)) {
+      encryptionAlgorithm = algorithm(DSA_OID, false);
+      signatureAlgorithm = "SHA1withDSA";
+    }
+    else if ("EC".equals(keyAlgorithm)) {
+      encryptionAlgorithm = algorithm(EC_OID, false);
+      signatureAlgorithm = "SHA1withECDSA";
+    }
+    else {
+      throw new NoSuchAlgorithmException("Unsupported signing key algorithm: " + keyAlgorithm);
+    }
+    final Signature signature = Signature.getInstance(signatureAlgorithm);
+    signature.initSign(key);
+    signature.update(signatureFile);
+
+    final byte[] digestAlgorithm = algorithm(SHA1_OID, true);
+    final byte[] signerInfo = sequence(integer(BigInteger.ONE),
+                                       sequence(certificate.getIssuerX500Principal().getEncoded(),
+                                                integer(certificate.getSerialNumber())),
+                                       digestAlgorithm,
+                                       encryptionAlgorithm,
+                                       tlv(TAG_OCTET_STRING, signature.sign()));
+    final byte[] signedData = sequence(integer(BigInteger.ONE),
+                                       tlv(TAG_SET, digestAlgorithm),
+                                       sequence(oid(DATA_OID)),
+                                       tlv(TAG_CONTEXT_0, certificate.getEncoded()),
+                                       tlv(TAG_SET, signerInfo));
+    return sequence(oid(SIGNED_DATA_OID), tlv(TAG_CONTEXT_0, signedData));
+  }
+
+  @NotNull
+  private static byte[] algorithm(@NotNull String oid, boolean nullParameters) throws IOException {
+    return nullParameters ? sequence(oid(oid), tlv(TAG_NULL, new byte[0])) : sequence(oid(oid));
+  }
+
+  @NotNull
+  private static byte[] integer(@NotNull BigInteger value) throws IOException {
+    return tlv(TAG_INTEGER, value.toByteArray());
+  }
+
+  @NotNull
+  private static byte[] oid(@NotNull String oid) throws IOException {
+    final String[] components = oid.split("\\.");
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(Integer.parseInt(components[0]) * 40 + Integer.parseInt(components[1]));
+
+    for (int i = 2; i < components.length; i++) {
+      final long value = Long.parseLong(components[i]);
+      // base 128, most significant group first, the high bit set on all but the last byte
+      int shift = 0;
+      while ((value >> (shift + 7)) != 0) {
+        shift += 7;
+      }
+      for (; shift > 0; shift -= 7) {
+        out.write((int)(0x80 | ((value >> shift) & 0x7F)));
+      }
+      out.write((int)(value & 0x7F));
+    }
+    return tlv(TAG_OID, out.toByteArray());
+  }
+
+  @NotNull
+  private static byte[] sequence(@NotNull byte[]... elements) throws IOException {
+    final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    for (byte[] element : elements) {
+      content.write(element);
+    }
+    return tlv(TAG_SEQUENCE, content.toByteArray());
+  }
+
+  @NotNull
+  private static byte[] tlv(int tag, @NotNull byte[] content) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(content.length + 6);
+    out.write(tag);
+    final int length = content.length;
+
+    if (length < 0x80) {
+      out.write(length);
+    }
+    else {
+      int byteCount = 0;
+      for (int l = length; l != 0; l >>>= 8) {
+        byteCount++;
+      }
+      out.write(0x80 | byteCount);
+      for (int i = byteCount - 1; i >= 0; i--) {
+        out.write(length >>> (i * 8));
+      }
+    }
+    out.write(content);
+    return out.toByteArray();
+  }
+}
@@ -164,38 +164,47 @@ public class AndroidCommonUtils {
                                                 @NotNull String outputFilePath,
                                                 @NotNull final Map<AndroidCompilerMessageKind, List<String>> messages, boolean multiDex) {
     final BaseOSProcessHandler handler = new BaseOSProcessHandler(process, commandLine, null);
+    final DexOutputParser parser = new DexOutputParser(messages);
     handler.addProcessListener(new ProcessAdapter() {
-      private AndroidCompilerMessageKind myCategory = null;
-
       @Override
       public void onTextAvailable(@NotNull ProcessEvent event, @NotNull Key outputType) {
-        String[] msgs = event.getText().split("\\n");
-        for (String msg : msgs) {
-          msg = msg.trim();
-          String msglc = msg.toLowerCase();
-          if (outputType == ProcessOutputTypes.STDERR) {
-            if (WARNING_PATTERN.matcher(msglc).matches()) {
-              myCategory = AndroidCompilerMessageKind.WARNING;
-            }
-            if (ERROR_PATTERN.matcher(msglc).matches() || EXCEPTION_PATTERN.matcher(msglc).matches() || myCategory == null) {
-              myCategory = AndroidCompilerMessageKind.ERROR;
-            }
-            messages.get(myCategory).add(msg);
-          }
-          else if (outputType == ProcessOutputTypes.STDOUT) {
-            if (!msglc.startsWith("processing")) {
-              messages.get(AndroidCompilerMessageKind.INFORMATION).add(msg);
-            }
-          }
-
-          LOG.debug(msg);
+        if (outputType == ProcessOutputTypes.STDERR) {
+          parser.processText(event.getText(), true);
+        }
+        else if (outputType == ProcessOutputTypes.STDOUT) {
+          parser.processText(event.getText(), false);
         }
       }
     });
 
     handler.startNotify();
-    handler.waitFor();
 
+    if (!handler.waitFor()) {
+      // interrupted, e.g. when the build is stopped: don't leave dx running
+      handler.destroyProcess();
+      Thread.currentThread().interrupt();
+      messages.get(AndroidCompilerMessageKind.ERROR).add("Dex compilation was interrupted");
+      return;
+    }
+    finishDexCompilation(outputFilePath, messages, multiDex);
+  }
+
+  /**
+   * Same as {@link #handleDexCompilationResult(Process, String, String, Map, boolean)} for a dex compilation
+   * run in the current process, whose output was captured.
+   */
+  public static void handleDexCompilationResult(@NotNull String stdout,
+                                                @NotNull String stderr,
+                                                @NotNull String outputFilePath,
+                                                @NotNull Map<AndroidCompilerMessageKind, List<String>> messages, boolean multiDex) {
+    final DexOutputParser parser = new DexOutputParser(messages);
+    parser.processText(stderr, true);
+    parser.processText(stdout, false);
+    finishDexCompilation(outputFilePath, messages, multiDex);
+  }
+
+  private static void finishDexCompilation(@NotNull String outputFilePath,
+                                           @NotNull Map<AndroidCompilerMessageKind, List<String>> messages, boolean multiDex) {
     final List<String> errors = messages.get(AndroidCompilerMessageKind.ERROR);
 
     if (new File(outputFilePath).isFile()) {
@@ -208,6 +217,42 @@ public class AndroidCommonUtils {
     }
   }
 
+  private static class DexOutputParser {
+    private final Map<AndroidCompilerMessageKind, List<String>> myMessages;
+    private AndroidCompilerMessageKind myCategory = null;
+
+    private DexOutputParser(@NotNull Map<AndroidCompilerMessageKind, List<String>> messages) {
+      myMessages = messages;
+    }
+
+    private void processText(@NotNull String text, boolean stderr) {
+      if (text.isEmpty()) {
+        return;
+      }
+      String[] msgs = text.split("\\n");
+      for (String msg : msgs) {
+        msg = msg.trim();
+        String msglc = msg.toLowerCase();
+        if (stderr) {
+          if (WARNING_PATTERN.matcher(msglc).matches()) {
+            myCategory = AndroidCompilerMessageKind.WARNING;
+          }
+          if (ERROR_PATTERN.matcher(msglc).matches() || EXCEPTION_PATTERN.matcher(msglc).matches() || myCategory == null) {
+            myCategory = AndroidCompilerMessageKind.ERROR;
+          }
+          myMessages.get(myCategory).add(msg);
+        }
+        else {
+          if (!msglc.startsWith("processing")) {
+            myMessages.get(AndroidCompilerMessageKind.INFORMATION).add(msg);
+          }
+        }
+
+        LOG.debug(msg);
+      }
+    }
+  }
+
   @NotNull
   public static List<String> packClassFilesIntoJar(@NotNull String[] firstPackageDirPaths,
                                                  @NotNull String[] libFirstPackageDirPaths,
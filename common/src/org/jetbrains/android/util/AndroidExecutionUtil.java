@@ -19,6 +19,7 @@ import com.intellij.openapi.util.text.StringUtil;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.*;
 
 /**
@@ -83,7 +84,13 @@ public final class AndroidExecutionUtil {
   private static ProcessResult readProcessOutput(@NotNull Process process, @NotNull String commandLine) throws IOException {
     final AndroidOSProcessHandler handler = new AndroidOSProcessHandler(process, commandLine);
     handler.startNotify();
-    handler.waitFor();
+
+    if (!handler.waitFor()) {
+      // interrupted, e.g. when the build is stopped: don't leave the tool running
+      handler.destroyProcess();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Command \"" + commandLine + "\" was interrupted");
+    }
     int exitCode = handler.getProcess().exitValue();
     return new ProcessResult(handler.getInfoMessages(), handler.getErrorMessages(), exitCode);
   }
@@ -0,0 +1,434 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.compiler.tools;
+
+import com.android.repository.api.ProgressIndicator;
+import com.android.repository.api.ProgressIndicatorAdapter;
+import com.android.sdklib.IAndroidTarget;
+import com.android.sdklib.repository.AndroidSdkHandler;
+import com.intellij.openapi.util.Condition;
+import com.intellij.openapi.util.Conditions;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import junit.framework.TestCase;
+import org.jetbrains.android.util.AndroidCompilerMessageKind;
+import org.jetbrains.android.util.AndroidNativeLibData;
+
+import java.io.*;
+import java.security.CodeSigner;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class AndroidIncrementalApkBuilderTest extends TestCase {
+  private static final int ASSET_COUNT = 8;
+  private static final int ASSET_SIZE = 4 * 1024;
+  // about 75 MB of assets for the benchmark
+  private static final int BENCHMARK_ASSET_COUNT = 300;
+  private static final int BENCHMARK_ASSET_SIZE = 256 * 1024;
+  private static final int BENCHMARK_WARMUP = 2;
+  private static final int BENCHMARK_ITERATIONS = 5;
+
+  private File myDir;
+  private File myResPackage;
+  private File myDex;
+  private File myJavaResources;
+  private File myJar;
+  private File myNativeLibs;
+  private File myApk;
+  private File myStateFile;
+  private PrivateKey myKey;
+  private X509Certificate myCertificate;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    createFixture(ASSET_COUNT, ASSET_SIZE);
+  }
+
+  private void createFixture(int assetCount, int assetSize) throws Exception {
+    myDir = FileUtil.createTempDirectory("incremental-apk-builder", null);
+    myResPackage = new File(myDir, "resources.ap_");
+    myDex = new File(myDir, "classes.dex");
+    myJavaResources = new File(myDir, "java_resources");
+    myJar = new File(myDir, "lib.jar");
+    myNativeLibs = new File(myDir, "libs");
+    myApk = new File(myDir, "out/app.apk");
+    myStateFile = new File(myDir, "state/incremental_packaging.state");
+
+    final KeyStore keyStore = KeyStore.getInstance("JKS");
+    final InputStream keyStoreStream = getClass().getResourceAsStream("/debug.keystore");
+    try {
+      keyStore.load(keyStoreStream, "android".toCharArray());
+    }
+    finally {
+      keyStoreStream.close();
+    }
+    myKey = (PrivateKey)keyStore.getKey("androiddebugkey", "android".toCharArray());
+    myCertificate = (X509Certificate)keyStore.getCertificate("androiddebugkey");
+
+    createResPackage(assetCount, assetSize);
+    writeFile(myDex, "dex");
+    writeFile(new File(myJavaResources, "com/example/config.properties"), "config");
+    writeFile(new File(myNativeLibs, "armeabi/libnative.so"), "native");
+
+    final ZipOutputStream jar = new ZipOutputStream(new FileOutputStream(myJar));
+    try {
+      addEntry(jar, "com/example/Library.class", "class".getBytes("UTF-8"), false);
+      addEntry(jar, "com/example/library.properties", "library".getBytes("UTF-8"), false);
+      addEntry(jar, "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n".getBytes("UTF-8"), false);
+    }
+    finally {
+      jar.close();
+    }
+    assertTrue(myApk.getParentFile().mkdirs());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testPackaging() throws Exception {
+    final AndroidIncrementalApkBuilder builder = build(true);
+    // the entries of the resource package and the resource of the jar
+    assertEquals(ASSET_COUNT + 4, builder.getCopiedEntryCount());
+    // classes.dex, the java resource and the native library
+    assertEquals(3, builder.getCompressedEntryCount());
+    checkApk(true);
+  }
+
+  public void testUnsignedPackaging() throws Exception {
+    build(false);
+    final JarFile apk = new JarFile(myApk);
+    try {
+      assertNull(apk.getEntry("META-INF/MANIFEST.MF"));
+      assertNotNull(apk.getEntry("classes.dex"));
+    }
+    finally {
+      apk.close();
+    }
+  }
+
+  public void testOnlyChangedEntriesAreCompressedAndDigested() throws Exception {
+    build(true);
+    changeFile(myDex, "new dex");
+
+    final AndroidIncrementalApkBuilder builder = build(true);
+    // classes.dex
+    assertEquals(1, builder.getCompressedEntryCount());
+    assertEquals(1, builder.getDigestedEntryCount());
+    checkApk(true);
+
+    // the resource package is rebuilt with a changed asset
+    createResPackage(ASSET_COUNT, ASSET_SIZE, 5);
+    final AndroidIncrementalApkBuilder nextBuilder = build(true);
+    assertEquals(0, nextBuilder.getCompressedEntryCount());
+    assertEquals(1, nextBuilder.getDigestedEntryCount());
+    checkApk(true);
+  }
+
+  public void testModifiedApkIsPackagedFromScratch() throws Exception {
+    build(true);
+    changeFile(myApk, "corrupted");
+
+    final AndroidIncrementalApkBuilder builder = build(true);
+    assertEquals(3, builder.getCompressedEntryCount());
+    checkApk(true);
+  }
+
+  public void testRemovedEntries() throws Exception {
+    build(true);
+    assertTrue(new File(myJavaResources, "com/example/config.properties").delete());
+    build(true);
+
+    final JarFile apk = new JarFile(myApk, true);
+    try {
+      assertNull(apk.getEntry("com/example/config.properties"));
+      assertNull(apk.getManifest().getAttributes("com/example/config.properties"));
+    }
+    finally {
+      apk.close();
+    }
+    checkApk(true);
+  }
+
+  public void testCopiedNativeLibrariesAreFingerprintedByOrigin() throws Exception {
+    // AndroidApkBuilder copies the additional native libraries into a new temp directory for every build
+    build(true, copyNativeLibs("copy1"));
+    final AndroidIncrementalApkBuilder builder = build(true, copyNativeLibs("copy2"));
+    assertEquals(0, builder.getCompressedEntryCount());
+    assertEquals(0, builder.getDigestedEntryCount());
+
+    changeFile(new File(myNativeLibs, "armeabi/libnative.so"), "new native");
+    final AndroidIncrementalApkBuilder nextBuilder = build(true, copyNativeLibs("copy3"));
+    assertEquals(1, nextBuilder.getCompressedEntryCount());
+    checkApk(true);
+  }
+
+  private AndroidIncrementalApkBuilder build(boolean signed) throws Exception {
+    return build(signed, myNativeLibs, Collections.<File, File>emptyMap());
+  }
+
+  private AndroidIncrementalApkBuilder build(boolean signed, File nativeLibCopies) throws Exception {
+    final Map<File, File> origins = new HashMap<File, File>();
+    origins.put(new File(nativeLibCopies, "armeabi/libnative.so"), new File(myNativeLibs, "armeabi/libnative.so"));
+    return build(signed, nativeLibCopies, origins);
+  }
+
+  private AndroidIncrementalApkBuilder build(boolean signed, File nativeLibs, Map<File, File> nativeLibOrigins) throws Exception {
+    final Map<AndroidCompilerMessageKind, List<String>> messages = new HashMap<AndroidCompilerMessageKind, List<String>>();
+    messages.put(AndroidCompilerMessageKind.WARNING, new ArrayList<String>());
+    final AndroidIncrementalApkBuilder builder = new AndroidIncrementalApkBuilder(myStateFile);
+    final Condition<File> filter = Conditions.alwaysTrue();
+    assertTrue(builder.build(myResPackage.getPath(), myDex.getPath(), new String[]{myJavaResources.getPath()},
+                             new String[]{myJar.getPath()}, new String[]{nativeLibs.getPath()}, nativeLibOrigins, myApk.getPath(),
+                             signed ? myKey : null, signed ? myCertificate : null, signed, filter, messages));
+    assertEquals(Collections.<String>emptyList(), messages.get(AndroidCompilerMessageKind.WARNING));
+    return builder;
+  }
+
+  /**
+   * Compares the packaging after a change of classes.dex with the full packaging, SignedJarBuilder followed by zipalign,
+   * for a resource package of about 75 MB of assets. Not run as part of the tests; run its main method with the SDK
+   * location and the hash string of an installed platform (e.g. android-25). The results are printed to stderr.
+   */
+  public static void main(String[] args) throws Exception {
+    final AndroidSdkHandler sdkHandler = AndroidSdkHandler.getInstance(new File(args[0]));
+    final ProgressIndicator progress = new ProgressIndicatorAdapter() {};
+    final IAndroidTarget target = sdkHandler.getAndroidTargetManager(progress).getTargetFromHashString(args[1], progress);
+
+    if (target == null) {
+      throw new IllegalArgumentException("Unknown target " + args[1]);
+    }
+    final AndroidIncrementalApkBuilderTest benchmark = new AndroidIncrementalApkBuilderTest();
+    benchmark.createFixture(BENCHMARK_ASSET_COUNT, BENCHMARK_ASSET_SIZE);
+    try {
+      benchmark.runBenchmark(args[0], target);
+    }
+    finally {
+      FileUtil.delete(benchmark.myDir);
+    }
+  }
+
+  private void runBenchmark(String sdkPath, IAndroidTarget target) throws Exception {
+    final File keyStore = new File(myDir, "debug.keystore");
+    final InputStream keyStoreStream = getClass().getResourceAsStream("/debug.keystore");
+    try {
+      FileUtil.writeToFile(keyStore, FileUtil.loadBytes(keyStoreStream));
+    }
+    finally {
+      keyStoreStream.close();
+    }
+    long fullTime = 0;
+    long incrementalTime = 0;
+
+    for (int i = 0; i < BENCHMARK_WARMUP + BENCHMARK_ITERATIONS; i++) {
+      changeFile(myDex, "dex " + i);
+      final long fullStart = System.nanoTime();
+      execute(sdkPath, target, keyStore, null);
+      final long fullEnd = System.nanoTime();
+
+      // the first incremental packaging is from scratch, the second one only recompresses classes.dex
+      FileUtil.delete(myStateFile);
+      execute(sdkPath, target, keyStore, myStateFile);
+      changeFile(myDex, "new dex " + i);
+      final long incrementalStart = System.nanoTime();
+      execute(sdkPath, target, keyStore, myStateFile);
+      final long incrementalEnd = System.nanoTime();
+
+      if (i >= BENCHMARK_WARMUP) {
+        fullTime += fullEnd - fullStart;
+        incrementalTime += incrementalEnd - incrementalStart;
+      }
+    }
+    System.err.println(String.format("Packaging after a classes.dex change: full %8.1fms, incremental %8.1fms",
+                                     fullTime * 1E-6 / BENCHMARK_ITERATIONS, incrementalTime * 1E-6 / BENCHMARK_ITERATIONS));
+  }
+
+  private void execute(String sdkPath, IAndroidTarget target, File keyStore, File stateFile) throws IOException {
+    final Map<AndroidCompilerMessageKind, List<String>> messages =
+      AndroidApkBuilder.execute(myResPackage.getPath(), myDex.getPath(), new String[]{myJavaResources.getPath()},
+                                new String[]{myJar.getPath()}, new String[]{myNativeLibs.getPath()},
+                                Collections.<AndroidNativeLibData>emptyList(), myApk.getPath(), false, sdkPath, target,
+                                keyStore.getPath(), Conditions.<File>alwaysTrue(), stateFile);
+    final List<String> errors = messages.get(AndroidCompilerMessageKind.ERROR);
+
+    if (errors != null && !errors.isEmpty()) {
+      throw new IOException(StringUtil.join(errors, "\n"));
+    }
+  }
+
+  /**
+   * Checks the content and the signature of the entries, and the alignment of the uncompressed ones
+   */
+  private void checkApk(boolean signed) throws Exception {
+    final Map<String, byte[]> expected = new LinkedHashMap<String, byte[]>();
+    final JarFile resPackage = new JarFile(myResPackage);
+    try {
+      for (Enumeration<JarEntry> e = resPackage.entries(); e.hasMoreElements(); ) {
+        final JarEntry entry = e.nextElement();
+        expected.put(entry.getName(), readFully(resPackage.getInputStream(entry)));
+      }
+    }
+    finally {
+      resPackage.close();
+    }
+    expected.put("classes.dex", FileUtil.loadFileBytes(myDex));
+    final File javaResource = new File(myJavaResources, "com/example/config.properties");
+
+    if (javaResource.exists()) {
+      expected.put("com/example/config.properties", FileUtil.loadFileBytes(javaResource));
+    }
+    expected.put("com/example/library.properties", "library".getBytes("UTF-8"));
+    expected.put("lib/armeabi/libnative.so", FileUtil.loadFileBytes(new File(myNativeLibs, "armeabi/libnative.so")));
+
+    final JarFile apk = new JarFile(myApk, true);
+    try {
+      final Set<String> names = new HashSet<String>();
+
+      for (Enumeration<JarEntry> e = apk.entries(); e.hasMoreElements(); ) {
+        final JarEntry entry = e.nextElement();
+        final byte[] content = readFully(apk.getInputStream(entry));
+
+        if (entry.getName().startsWith("META-INF/")) {
+          continue;
+        }
+        names.add(entry.getName());
+        assertTrue(entry.getName(), Arrays.equals(expected.get(entry.getName()), content));
+
+        if (signed) {
+          final CodeSigner[] signers = entry.getCodeSigners();
+          assertNotNull(entry.getName(), signers);
+          assertEquals(myCertificate, signers[0].getSignerCertPath().getCertificates().get(0));
+        }
+      }
+      assertEquals(expected.keySet(), names);
+    }
+    finally {
+      apk.close();
+    }
+    final RandomAccessFile file = new RandomAccessFile(myApk, "r");
+    try {
+      final Map<String, AndroidApkZip.Entry> entries = AndroidApkZip.readEntries(file);
+      assertNotNull(entries);
+
+      for (AndroidApkZip.Entry entry : entries.values()) {
+        if (entry.myMethod == ZipEntry.STORED) {
+          file.seek(entry.myLocalHeaderOffset + 26);
+          final int nameLength = Short.reverseBytes(file.readShort()) & 0xFFFF;
+          final int extraLength = Short.reverseBytes(file.readShort()) & 0xFFFF;
+          assertEquals(entry.myName, 0, (entry.myLocalHeaderOffset + 30 + nameLength + extraLength) % AndroidApkZip.ALIGNMENT);
+        }
+      }
+    }
+    finally {
+      file.close();
+    }
+  }
+
+  /**
+   * Copies the native libraries the way {@link AndroidApkBuilder} copies the additional ones, with a new timestamp
+   */
+  private File copyNativeLibs(String name) throws IOException {
+    final File copies = new File(myDir, name);
+    final File copy = new File(copies, "armeabi/libnative.so");
+    FileUtil.copy(new File(myNativeLibs, "armeabi/libnative.so"), copy);
+    assertTrue(copy.setLastModified(System.currentTimeMillis() + 10000));
+    return copies;
+  }
+
+  private void createResPackage(int assetCount, int assetSize) throws IOException {
+    createResPackage(assetCount, assetSize, -1);
+  }
+
+  /**
+   * Creates a resource package with the given assets, half of them stored uncompressed as aapt does for media files
+   */
+  private void createResPackage(int assetCount, int assetSize, int changedAsset) throws IOException {
+    final Random random = new Random(0);
+    final ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(myResPackage)));
+    try {
+      addEntry(out, "AndroidManifest.xml", "manifest".getBytes("UTF-8"), false);
+      addEntry(out, "resources.arsc", "resources".getBytes("UTF-8"), true);
+      // the manifest lines of the long names are wrapped
+      addEntry(out, "res/drawable-xxxhdpi/" + StringUtil.repeat("long_name_", 10) + ".png", "image".getBytes("UTF-8"), true);
+
+      for (int i = 0; i < assetCount; i++) {
+        final byte[] content = new byte[assetSize];
+        // compressible content
+        for (int j = 0; j < content.length; j++) {
+          content[j] = (byte)('a' + random.nextInt(4));
+        }
+        if (i == changedAsset) {
+          content[0] = 'z';
+        }
+        final boolean stored = i % 2 == 0;
+        addEntry(out, "assets/asset" + i + (stored ? ".ogg" : ".txt"), content, stored);
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  private static void addEntry(ZipOutputStream out, String name, byte[] content, boolean stored) throws IOException {
+    final ZipEntry entry = new ZipEntry(name);
+
+    if (stored) {
+      final CRC32 crc = new CRC32();
+      crc.update(content);
+      entry.setMethod(ZipEntry.STORED);
+      entry.setSize(content.length);
+      entry.setCompressedSize(content.length);
+      entry.setCrc(crc.getValue());
+    }
+    out.putNextEntry(entry);
+    out.write(content);
+    out.closeEntry();
+  }
+
+  private static void writeFile(File file, String content) throws IOException {
+    FileUtil.writeToFile(file, content);
+  }
+
+  private static void changeFile(File file, String content) throws IOException {
+    final long timestamp = file.lastModified();
+    writeFile(file, content);
+    // the timestamp must change on the file systems with a coarse precision
+    assertTrue(file.setLastModified(timestamp + 2000));
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    try {
+      return FileUtil.loadBytes(in);
+    }
+    finally {
+      in.close();
+    }
+  }
+}
@@ -98,7 +98,7 @@ public class GenerateLayoutTestSkeletonAction extends AnAction {
   }
 
   @Nullable
-  private static DesignSurface getSurface(@NotNull Project project) {
+  static DesignSurface getSurface(@NotNull Project project) {
     FileEditorManager fileEditorManager = FileEditorManager.getInstance(project);
     FileEditor[] editors = fileEditorManager.getSelectedEditors();
     for (FileEditor fileEditor : editors) {
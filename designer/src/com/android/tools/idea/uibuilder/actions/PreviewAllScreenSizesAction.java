@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.uibuilder.actions;
+
+import com.android.tools.idea.uibuilder.editor.NlPreviewForm;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.ToggleAction;
+import icons.AndroidIcons;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Shows the previewed layout rendered for all the phone and tablet screen sizes, in place of the design surface
+ */
+public class PreviewAllScreenSizesAction extends ToggleAction {
+  private final NlPreviewForm myForm;
+
+  public PreviewAllScreenSizesAction(@NotNull NlPreviewForm form) {
+    super("Preview All Screen Sizes", "Preview the layout on all the phone and tablet screen sizes", AndroidIcons.NeleIcons.DeviceScreen);
+    myForm = form;
+  }
+
+  @Override
+  public void update(@NotNull AnActionEvent e) {
+    super.update(e);
+    e.getPresentation().setEnabled(myForm.getSurface().getCurrentScreenView() != null);
+  }
+
+  @Override
+  public boolean isSelected(AnActionEvent e) {
+    return myForm.isScreenSizesPreviewVisible();
+  }
+
+  @Override
+  public void setSelected(AnActionEvent e, boolean state) {
+    myForm.setScreenSizesPreviewVisible(state);
+  }
+}
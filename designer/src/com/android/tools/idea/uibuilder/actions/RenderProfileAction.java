@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.uibuilder.actions;
+
+import com.android.tools.idea.uibuilder.surface.DesignSurface;
+import com.android.tools.idea.uibuilder.surface.RenderProfile;
+import com.android.tools.idea.uibuilder.surface.ScreenView;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.fileChooser.FileChooserFactory;
+import com.intellij.openapi.fileChooser.FileSaverDescriptor;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.vfs.VirtualFileWrapper;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Shows the render cost of the current layout over the design surface, and exports it so it can be compared across builds
+ */
+public class RenderProfileAction extends AnAction {
+  private static final String TITLE = "Layout Render Profile";
+
+  public RenderProfileAction() {
+    super("Layout Render Profile");
+  }
+
+  @Override
+  public void update(AnActionEvent event) {
+    Project project = event.getProject();
+    event.getPresentation().setEnabled(project != null && getScreenView(project) != null);
+  }
+
+  @Override
+  public void actionPerformed(@NotNull AnActionEvent event) {
+    Project project = event.getProject();
+    if (project == null) {
+      return;
+    }
+    DesignSurface surface = GenerateLayoutTestSkeletonAction.getSurface(project);
+    ScreenView screenView = getScreenView(project);
+    if (surface == null || screenView == null) {
+      return;
+    }
+    RenderProfile profile = RenderProfile.create(screenView.getModel());
+    int option = Messages.showDialog(
+      project,
+      String.format("%1$d views, maximum depth %2$d, rendered in %3$.1f ms", profile.getViewCount(), profile.getMaxDepth(),
+                    profile.getTimings().getTotalTimeMs()),
+      TITLE,
+      new String[]{surface.isRenderProfileVisible() ? "Hide Overlay" : "Show Overlay", "Append to CSV...", "Cancel"},
+      0,
+      Messages.getInformationIcon());
+
+    if (option == 0) {
+      surface.setRenderProfileVisible(!surface.isRenderProfileVisible());
+    }
+    else if (option == 1) {
+      FileSaverDescriptor descriptor = new FileSaverDescriptor(TITLE, "Append the render profile to a CSV file", "csv");
+      VirtualFileWrapper target = FileChooserFactory.getInstance().createSaveFileDialog(descriptor, project)
+        .save(project.getBaseDir(), "render-profile.csv");
+      if (target == null) {
+        return;
+      }
+      try {
+        profile.appendTo(target.getFile());
+      }
+      catch (IOException e) {
+        Messages.showErrorDialog(project, "Could not write the render profile: " + e.getMessage(), TITLE);
+      }
+    }
+  }
+
+  @Nullable
+  private static ScreenView getScreenView(@NotNull Project project) {
+    DesignSurface surface = GenerateLayoutTestSkeletonAction.getSurface(project);
+    return surface != null ? surface.getCurrentScreenView() : null;
+  }
+}
@@ -32,6 +32,7 @@ import com.android.tools.idea.uibuilder.surface.DesignSurfaceListener;
 import com.android.tools.idea.uibuilder.surface.ScreenView;
 import com.android.tools.idea.uibuilder.surface.ZoomType;
 import com.intellij.openapi.actionSystem.ActionGroup;
+import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.ActionManager;
 import com.intellij.openapi.actionSystem.ActionToolbar;
 import com.intellij.openapi.actionSystem.DefaultActionGroup;
@@ -54,10 +55,19 @@ public class NlActionsToolbar implements DesignSurfaceListener, ModelListener {
   private NlModel myModel;
   private JComponent myToolbarComponent;
   private final DefaultActionGroup myDynamicGroup = new DefaultActionGroup();
+  private final DefaultActionGroup myRhsGroup;
   private ActionToolbar myActionToolbar;
 
   public NlActionsToolbar(@NotNull DesignSurface surface) {
     mySurface = surface;
+    myRhsGroup = getRhsActions(surface);
+  }
+
+  /**
+   * Adds an action after the zoom actions
+   */
+  public void addRhsAction(@NotNull AnAction action) {
+    myRhsGroup.add(action);
   }
 
   @NotNull
@@ -98,7 +108,7 @@ public class NlActionsToolbar implements DesignSurfaceListener, ModelListener {
     bottom.add(layoutToolBar.getComponent(), BorderLayout.WEST);
 
     JPanel combined = new JPanel(new BorderLayout());
-    ActionToolbar zoomToolBar = actionManager.createActionToolbar("NlRhsToolbar", getRhsActions(mySurface), true);
+    ActionToolbar zoomToolBar = actionManager.createActionToolbar("NlRhsToolbar", myRhsGroup, true);
     combined.add(zoomToolBar.getComponent(), BorderLayout.WEST);
     bottom.add(combined, BorderLayout.EAST);
 
@@ -111,7 +121,7 @@ public class NlActionsToolbar implements DesignSurfaceListener, ModelListener {
     return panel;
   }
 
-  private static ActionGroup getRhsActions(DesignSurface surface) {
+  private static DefaultActionGroup getRhsActions(DesignSurface surface) {
     DefaultActionGroup group = new DefaultActionGroup();
 
     group.add(new SetZoomAction(surface, ZoomType.OUT));
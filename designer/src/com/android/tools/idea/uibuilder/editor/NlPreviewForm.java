@@ -20,6 +20,7 @@ import com.android.tools.adtui.workbench.Side;
 import com.android.tools.adtui.workbench.Split;
 import com.android.tools.adtui.workbench.WorkBench;
 import com.android.tools.idea.rendering.RenderResult;
+import com.android.tools.idea.uibuilder.actions.PreviewAllScreenSizesAction;
 import com.android.tools.idea.uibuilder.model.ModelListener;
 import com.android.tools.idea.uibuilder.model.NlComponent;
 import com.android.tools.idea.uibuilder.model.NlModel;
@@ -27,6 +28,7 @@ import com.android.tools.idea.uibuilder.model.SelectionModel;
 import com.android.tools.idea.uibuilder.palette.NlPaletteDefinition;
 import com.android.tools.idea.uibuilder.surface.DesignSurface;
 import com.android.tools.idea.uibuilder.surface.DesignSurfaceListener;
+import com.android.tools.idea.uibuilder.surface.MultiPreviewPanel;
 import com.android.tools.idea.uibuilder.surface.ScreenView;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.application.ApplicationManager;
@@ -40,6 +42,7 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Disposer;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.xml.XmlFile;
+import com.intellij.ui.components.JBScrollPane;
 import com.intellij.util.Alarm;
 import com.intellij.util.ui.update.MergingUpdateQueue;
 import com.intellij.util.ui.update.Update;
@@ -64,6 +67,12 @@ public class NlPreviewForm implements Disposable, CaretListener {
   private XmlFile myFile;
   private boolean isActive = true;
   private final NlActionsToolbar myActionsToolbar;
+  private final JPanel myContentPanel;
+  /**
+   * Whether the layout is shown rendered for all the screen sizes, in {@link #myScreenSizesPanel}, instead of on the surface
+   */
+  private boolean myShowScreenSizes;
+  @Nullable private MultiPreviewPanel myScreenSizesPanel;
 
   /**
    * When {@link #deactivate()} is called, the file will be saved here and the preview will not be rendered anymore.
@@ -113,12 +122,13 @@ public class NlPreviewForm implements Disposable, CaretListener {
 
 
     myActionsToolbar = new NlActionsToolbar(mySurface);
-    JPanel contentPanel = new JPanel(new BorderLayout());
-    contentPanel.add(myActionsToolbar.getToolbarComponent(), BorderLayout.NORTH);
-    contentPanel.add(mySurface, BorderLayout.CENTER);
+    myActionsToolbar.addRhsAction(new PreviewAllScreenSizesAction(this));
+    myContentPanel = new JPanel(new BorderLayout());
+    myContentPanel.add(myActionsToolbar.getToolbarComponent(), BorderLayout.NORTH);
+    myContentPanel.add(mySurface, BorderLayout.CENTER);
 
     myWorkBench = new WorkBench<>(project, "Preview", null);
-    myWorkBench.init(contentPanel, mySurface, Collections.singletonList(
+    myWorkBench.init(myContentPanel, mySurface, Collections.singletonList(
       new NlPaletteDefinition(project, Side.LEFT, Split.TOP, AutoHide.AUTO_HIDE)));
   }
 
@@ -302,6 +312,8 @@ public class NlPreviewForm implements Disposable, CaretListener {
 
   public void setActiveModel(@Nullable NlModel model) {
     myPendingFile = null;
+    // The grid listens to the model disposed below
+    updateScreenSizesPreview(null);
     ScreenView currentScreenView = mySurface.getCurrentScreenView();
     if (currentScreenView != null) {
       currentScreenView.getModel().deactivate();
@@ -337,7 +349,47 @@ public class NlPreviewForm implements Disposable, CaretListener {
         mySurface.setScreenMode(myScreenMode, false);
         myWorkBench.setMinimizePanelsVisible(true);
       }
+      updateScreenSizesPreview(model);
+    }
+  }
+
+  public boolean isScreenSizesPreviewVisible() {
+    return myShowScreenSizes;
+  }
+
+  /**
+   * Shows the layout rendered for all the phone and tablet screen sizes in place of the design surface, or the surface again
+   */
+  public void setScreenSizesPreviewVisible(boolean visible) {
+    if (visible == myShowScreenSizes) {
+      return;
+    }
+    myShowScreenSizes = visible;
+    ScreenView screenView = mySurface.getCurrentScreenView();
+    updateScreenSizesPreview(screenView != null ? screenView.getModel() : null);
+  }
+
+  private void updateScreenSizesPreview(@Nullable NlModel model) {
+    BorderLayout layout = (BorderLayout)myContentPanel.getLayout();
+    Component center = layout.getLayoutComponent(BorderLayout.CENTER);
+    if (center != null) {
+      myContentPanel.remove(center);
+    }
+    if (myScreenSizesPanel != null) {
+      Disposer.dispose(myScreenSizesPanel);
+      myScreenSizesPanel = null;
+    }
+
+    if (myShowScreenSizes && model != null) {
+      myScreenSizesPanel = new MultiPreviewPanel(model, MultiPreviewPanel.getScreenSizeDevices(model.getConfiguration()));
+      Disposer.register(this, myScreenSizesPanel);
+      myContentPanel.add(new JBScrollPane(myScreenSizesPanel), BorderLayout.CENTER);
+    }
+    else {
+      myContentPanel.add(mySurface, BorderLayout.CENTER);
     }
+    myContentPanel.revalidate();
+    myContentPanel.repaint();
   }
 
   @Nullable
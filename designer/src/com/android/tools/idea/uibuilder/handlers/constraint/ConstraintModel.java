@@ -97,6 +97,11 @@ public class ConstraintModel implements ModelListener, SelectionListener, Select
   private static final Map<ScreenView, DrawConstraintModel> ourDrawModelCache = ContainerUtil.createWeakMap();
   private static final Map<NlModel, ConstraintModel> ourModelCache = ContainerUtil.createWeakMap();
 
+  /**
+   * Maximum time in ms a requested save can be postponed by further requests
+   */
+  private static final int MAX_SAVE_DELAY = 2000;
+
   private SaveXMLTimer mySaveXmlTimer = new SaveXMLTimer();
 
   //////////////////////////////////////////////////////////////////////////////
@@ -481,6 +486,10 @@ public class ConstraintModel implements ModelListener, SelectionListener, Select
    */
   class SaveXMLTimer implements ActionListener {
     Timer myTimer = new Timer(800, this); // 800ms delay before saving
+    /**
+     * Time of the first save request not yet written to the XML, or -1 if there is none
+     */
+    private long myFirstRequestTime = -1;
 
     public SaveXMLTimer() {
       myTimer.setRepeats(false);
@@ -492,10 +501,22 @@ public class ConstraintModel implements ModelListener, SelectionListener, Select
       }
     }
 
+    /**
+     * Restart the delay before saving. The requests are coalesced, but a continuous
+     * stream of requests (e.g. a long drag) still saves every {@link #MAX_SAVE_DELAY} ms.
+     */
     public void reset() {
       if (DEBUG) {
         System.out.println("reset timer");
       }
+      long now = System.currentTimeMillis();
+      if (myFirstRequestTime == -1) {
+        myFirstRequestTime = now;
+      }
+      else if (now - myFirstRequestTime >= MAX_SAVE_DELAY && myTimer.isRunning()) {
+        // Let the pending save happen
+        return;
+      }
       myTimer.restart();
     }
 
@@ -504,6 +525,7 @@ public class ConstraintModel implements ModelListener, SelectionListener, Select
         System.out.println("cancel timer");
       }
       myTimer.stop();
+      myFirstRequestTime = -1;
     }
 
     @Override
@@ -925,21 +947,31 @@ public class ConstraintModel implements ModelListener, SelectionListener, Select
 
   /**
    * Always save the model to xml
+   * <p/>
+   * All the pending changes are written in a single command, and only the attributes
+   * that differ from the XML are written. This also flushes any save scheduled by
+   * {@link #requestSaveToXML()}.
    */
   public void saveToXML(boolean forceSave) {
+    mySaveXmlTimer.cancel();
     Selection selection = getSelection();
     if (forceSave || !selection.getModifiedWidgets().isEmpty()) {
-      ourLock.lock();
-      myModificationCount++;
-      ourLock.unlock();
+      boolean modified = ConstraintUtilities.saveModelToXML(myNlModel, true);
+      if (modified) {
+        ourLock.lock();
+        myModificationCount++;
+        ourLock.unlock();
+      }
       if (DEBUG) {
         System.out.println("Model Saved to XML -> " + myModificationCount
                            + "(" + selection.getModifiedWidgets().size()
                            + " elements modified)");
       }
-      ConstraintUtilities.saveModelToXML(myNlModel, true);
       selection.clearModifiedWidgets();
-      requestRender();
+      if (!modified) {
+        // When the XML is modified, the model update triggered by the edit renders the layout
+        requestRender();
+      }
     }
   }
 
@@ -45,6 +45,7 @@ import org.jetbrains.annotations.Nullable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 
 import static com.android.tools.idea.res.ResourceHelper.resolveStringValue;
 
@@ -1474,55 +1475,87 @@ public class ConstraintUtilities {
   }
 
   /**
-   * Utility function committing the given ConstraintModel to NlComponent,
-   * either directly an AttributesTransaction to commit to disk, or via
+   * Utility function applying the given ConstraintModel to the NlComponents via
    * a MemoryAttributesTransaction (which internally use AttributesTransaction
-   * to commit, but only via reflection)
+   * to commit, but only via reflection). The XML is not modified.
    *
-   * @param model  the given ConstraintModel
-   * @param commit commit to disk or not
+   * @param model the given ConstraintModel
    */
-  private static void saveXmlWidgets(@NotNull ConstraintModel model, boolean commit) {
+  private static void applyXmlWidgets(@NotNull ConstraintModel model) {
     Collection<ConstraintWidget> widgets = model.getScene().getWidgets();
     for (ConstraintWidget widget : widgets) {
       NlComponent component = getValidComponent(model, widget);
       if (component != null) {
         AttributesTransaction transaction = component.startAttributeTransaction();
         updateComponentFromWidget(model, widget, transaction);
-        if (commit) {
-          assert ApplicationManager.getApplication().isWriteAccessAllowed();
-          transaction.commit();
-        } else {
+        transaction.apply();
+      }
+    }
+  }
+
+  /**
+   * Utility function updating the AttributesTransaction of each component from its widget, and returning the
+   * transactions that would modify the XML. The transactions that only contain values already present in the XML
+   * are applied to the views and discarded.
+   *
+   * @param model the given ConstraintModel
+   * @return the transactions to commit
+   */
+  @NotNull
+  private static List<AttributesTransaction> collectXmlChanges(@NotNull ConstraintModel model) {
+    Collection<ConstraintWidget> widgets = model.getScene().getWidgets();
+    List<AttributesTransaction> changes = new ArrayList<>();
+    for (ConstraintWidget widget : widgets) {
+      NlComponent component = getValidComponent(model, widget);
+      if (component != null) {
+        AttributesTransaction transaction = component.startAttributeTransaction();
+        updateComponentFromWidget(model, widget, transaction);
+        if (transaction.hasPendingChanges()) {
+          changes.add(transaction);
+        }
+        else {
           transaction.apply();
+          transaction.rollback();
         }
       }
     }
+    return changes;
   }
 
   /**
-   * Utility function to commit to the NlModel the current state of all widgets
+   * Utility function to commit to the NlModel the current state of all widgets.
+   * Only the attributes that differ from the XML are written, all in a single
+   * write command; no command is created if the XML is already up to date.
    *
    * @param nlModel
    * @param commit  if false, the changes are only reflected in memory not saved to the XML file.
+   * @return true if the XML file was modified
    */
-  static void saveModelToXML(@NotNull NlModel nlModel, boolean commit) {
+  static boolean saveModelToXML(@NotNull NlModel nlModel, boolean commit) {
     ConstraintModel model = ConstraintModel.getConstraintModel(nlModel);
-    if (commit) {
-      Project project = nlModel.getProject();
-      XmlFile file = nlModel.getFile();
-
-      String label = "Constraint";
-      WriteCommandAction action = new WriteCommandAction(project, label, file) {
-        @Override
-        protected void run(@NotNull Result result) throws Throwable {
-          saveXmlWidgets(model, commit);
-        }
-      };
-      action.execute();
+    if (!commit) {
+      applyXmlWidgets(model);
+      return false;
     }
-    else {
-      saveXmlWidgets(model, commit);
+
+    List<AttributesTransaction> changes = collectXmlChanges(model);
+    if (changes.isEmpty()) {
+      return false;
     }
+    Project project = nlModel.getProject();
+    XmlFile file = nlModel.getFile();
+
+    String label = "Constraint";
+    WriteCommandAction action = new WriteCommandAction(project, label, file) {
+      @Override
+      protected void run(@NotNull Result result) throws Throwable {
+        for (AttributesTransaction transaction : changes) {
+          transaction.commit();
+        }
+      }
+    };
+    action.execute();
+    return true;
   }
 
   /**
@@ -231,24 +231,7 @@ public class AttributesTransaction implements NlAttributesHolder {
 
       boolean modified = false;
       for (PendingAttribute attribute : myPendingAttributes.values()) {
-        String originalValue = myOriginalValues.get(attributeKey(attribute.namespace, attribute.name));
-        String currentValue = myComponent.getAttribute(attribute.namespace, attribute.name);
-
-        if (!StringUtil.equals(currentValue, attribute.value)) {
-          // The value has changed from what's in the XML
-          if (!StringUtil.equals(originalValue, currentValue)) {
-            // The attribute value has changed since we started the transaction, deal with the conflict.
-            if (StringUtil.isEmpty(attribute.value)) {
-              // In this case, the attribute has changed and we are trying to remove it or set it to empty. We will ignore our removal and
-              // leave the attribute with the modified value.
-              continue;
-            }
-            else if (StringUtil.equals(originalValue, attribute.value)) {
-              // The attribute has been modified without the change being send through this transaction. Leave the modified value.
-              continue;
-            }
-          }
-
+        if (isPendingChange(attribute)) {
           modified = true;
           myComponent.setAttribute(attribute.namespace, attribute.name, attribute.value);
         }
@@ -263,6 +246,53 @@ public class AttributesTransaction implements NlAttributesHolder {
     }
   }
 
+  /**
+   * Returns whether a {@link #commit()} would modify the XML. Attributes set to the value they already have in the XML are not
+   * written, so a transaction only containing those can be discarded without opening a write command.
+   */
+  public boolean hasPendingChanges() {
+    myLock.readLock().lock();
+    try {
+      assert isValid;
+
+      for (PendingAttribute attribute : myPendingAttributes.values()) {
+        if (isPendingChange(attribute)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    finally {
+      myLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns whether the given attribute needs to be written to the XML when the transaction is committed
+   */
+  private boolean isPendingChange(@NotNull PendingAttribute attribute) {
+    String originalValue = myOriginalValues.get(attributeKey(attribute.namespace, attribute.name));
+    String currentValue = myComponent.getAttribute(attribute.namespace, attribute.name);
+
+    if (StringUtil.equals(currentValue, attribute.value)) {
+      return false;
+    }
+    // The value has changed from what's in the XML
+    if (!StringUtil.equals(originalValue, currentValue)) {
+      // The attribute value has changed since we started the transaction, deal with the conflict.
+      if (StringUtil.isEmpty(attribute.value)) {
+        // In this case, the attribute has changed and we are trying to remove it or set it to empty. We will ignore our removal and
+        // leave the attribute with the modified value.
+        return false;
+      }
+      else if (StringUtil.equals(originalValue, attribute.value)) {
+        // The attribute has been modified without the change being send through this transaction. Leave the modified value.
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Returns whether this transaction has been completed (either {@link #commit()} or {@link #rollback()} have been called.
    */
@@ -51,6 +51,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.*;
 import com.google.wireless.android.sdk.stats.LayoutEditorEvent;
 import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.Application;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.Result;
 import com.intellij.openapi.command.WriteCommandAction;
@@ -132,7 +133,7 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
   private RenderResult myRenderResult;
   private Configuration myConfiguration;
   private final List<ModelListener> myListeners = Lists.newArrayList();
-  private List<NlComponent> myComponents = Lists.newArrayList();
+  private volatile List<NlComponent> myComponents = Lists.newArrayList();
   private final SelectionModel mySelectionModel;
   private LintAnnotationsModel myLintAnnotationsModel;
   private final long myId;
@@ -152,6 +153,11 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
   private String myPreviousTheme;
   // Variable to track what triggered the latest render (if known)
   private ChangeType myModificationTrigger;
+  /**
+   * Whether anything other than an edit of the layout file itself happened since the last inflate, in which case the
+   * existing render session can not be updated incrementally
+   */
+  private volatile boolean myRequiresFullInflate = true;
 
   @NotNull
   public static NlModel create(@NotNull DesignSurface surface,
@@ -196,6 +202,7 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
         if (theme != null && !theme.startsWith(ANDROID_STYLE_RESOURCE_PREFIX) && !myProjectResourceRepository.hasResourceItem(theme)) {
           myConfiguration.setTheme(myConfiguration.getConfigurationManager().computePreferredTheme(myConfiguration));
         }
+        myRequiresFullInflate = true;
         requestModelUpdate();
         myModelVersion.myResourceVersion.incrementAndGet();
       }
@@ -309,6 +316,17 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
   private MergingUpdateQueue myRenderingQueue;
   private static final Object RENDERING_LOCK = new Object();
 
+  /**
+   * Number of hierarchy updates computed so far. Each update gets the next number so an update computed on the render thread
+   * does not overwrite a more recent one (e.g. a layout requested from the dispatch thread) applied in the meantime.
+   */
+  @GuardedBy("RENDERING_LOCK")
+  private long myComputedHierarchyUpdates;
+  /**
+   * Number of the last hierarchy update applied. Only accessed from the dispatch thread.
+   */
+  private long myAppliedHierarchyUpdate;
+
   /**
    * Whether we should render just the viewport
    */
@@ -347,6 +365,8 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
     LayoutPullParserFactory.saveFileIfNecessary(file);
 
     RenderResult result = null;
+    ModelUpdater updater = null;
+    boolean inflated = false;
     synchronized (RENDERING_LOCK) {
       if (myRenderTask != null && !force) {
         // No need to inflate
@@ -357,38 +377,57 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
       // external changes
       myRenderedVersion = resourceNotificationManager.getCurrentVersion(myFacet, file, myConfiguration);
 
-      RenderService renderService = RenderService.get(myFacet);
-      RenderLogger logger = renderService.createLogger();
-      if (myRenderTask != null) {
-        myRenderTask.dispose();
-      }
-      myRenderTask = renderService.createTask(file, configuration, logger, mySurface);
-      setupRenderTask(myRenderTask);
-      if (myRenderTask != null) {
-        if (!isRenderViewPort()) {
-          myRenderTask.useDesignMode(file);
+      if (myRenderTask != null && !myRequiresFullInflate) {
+        // Only the layout file was edited; try to apply attribute-only edits to the existing session
+        result = myRenderTask.updateAttributes();
+        if (result != null) {
+          updater = computeHierarchy(result);
+          inflated = true;
         }
-        result = myRenderTask.inflate();
-        if (result == null || !result.getRenderResult().isSuccess()) {
+      }
+
+      if (updater == null) {
+        myRequiresFullInflate = false;
+
+        RenderService renderService = RenderService.get(myFacet);
+        RenderLogger logger = renderService.createLogger();
+        if (myRenderTask != null) {
           myRenderTask.dispose();
-          myRenderTask = null;
+        }
+        myRenderTask = renderService.createTask(file, configuration, logger, mySurface);
+        setupRenderTask(myRenderTask);
+        if (myRenderTask != null) {
+          if (!isRenderViewPort()) {
+            myRenderTask.useDesignMode(file);
+          }
+          result = myRenderTask.inflate();
+          if (result == null || !result.getRenderResult().isSuccess()) {
+            myRenderTask.dispose();
+            myRenderTask = null;
 
-          if (result == null) {
-            result = RenderResult.createBlank(file);
+            if (result == null) {
+              result = RenderResult.createBlank(file);
+            }
           }
         }
-      }
 
-      updateHierarchy(result);
-      myRenderResultLock.writeLock().lock();
-      try {
-        myRenderResult = result;
-      }
-      finally {
-        myRenderResultLock.writeLock().unlock();
+        updater = computeHierarchy(result);
+        inflated = myRenderTask != null;
       }
+    }
+
+    // The hierarchy is applied on the dispatch thread, outside of the rendering lock
+    applyHierarchy(updater, result);
+    return inflated;
+  }
 
-      return myRenderTask != null;
+  private void setRenderResult(@Nullable RenderResult result) {
+    myRenderResultLock.writeLock().lock();
+    try {
+      myRenderResult = result;
+    }
+    finally {
+      myRenderResultLock.writeLock().unlock();
     }
   }
 
@@ -397,26 +436,82 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
     return myPendingIds;
   }
 
-  private void updateHierarchy(@Nullable RenderResult result) {
-    if (result == null || !result.getRenderResult().isSuccess()) {
-      myComponents = Collections.emptyList();
-    }
-    else {
+  /**
+   * Computes the changes needed to bring the component hierarchy up to date with the given render result. This only reads
+   * the current components, so it can run on the render thread while the user keeps editing; the changes are applied with
+   * {@link #applyHierarchy(ModelUpdater, RenderResult)}.
+   */
+  @GuardedBy("RENDERING_LOCK")
+  @NotNull
+  private ModelUpdater computeHierarchy(@Nullable RenderResult result) {
+    ModelUpdater updater = new ModelUpdater(this, ++myComputedHierarchyUpdates);
+    if (result != null && result.getRenderResult().isSuccess()) {
       XmlTag rootTag = AndroidPsiUtils.getRootTagSafely(getFile());
       List<ViewInfo> rootViews;
       rootViews = myType == NlLayoutType.MENU ? result.getSystemRootViews() : result.getRootViews();
-      updateHierarchy(rootTag, rootViews);
+      updater.computeChanges(rootTag, rootViews);
     }
+    return updater;
+  }
+
+  /**
+   * Applies the changes computed by {@link #computeHierarchy(RenderResult)} and publishes the render result they were
+   * computed from. This happens on the dispatch thread in a single step, so the surface never paints a partially updated
+   * hierarchy. When called from the render thread the update is queued rather than waited for, so the render thread never
+   * blocks on the dispatch thread; anything the listeners queue on the dispatch thread afterwards will see it applied.
+   *
+   * @param result the render result to publish, or null to keep the current one
+   */
+  private void applyHierarchy(@NotNull ModelUpdater updater, @Nullable RenderResult result) {
+    Application application = ApplicationManager.getApplication();
+    if (application.isDispatchThread()) {
+      doApplyHierarchy(updater, result);
+    }
+    else {
+      application.invokeLater(() -> doApplyHierarchy(updater, result));
+    }
+  }
+
+  private void doApplyHierarchy(@NotNull ModelUpdater updater, @Nullable RenderResult result) {
+    if (updater.getSequence() <= myAppliedHierarchyUpdate || myFacet.isDisposed()) {
+      // A more recent update was applied while this one was waiting for the dispatch thread; its render result is newer too
+      return;
+    }
+
+    myAppliedHierarchyUpdate = updater.getSequence();
+    if (updater.isStale()) {
+      // The XML or the components changed since the update was computed; the mappings might no longer be valid
+      updater = updater.recompute();
+    }
+    updater.apply();
     myModelVersion.increase(ChangeType.UPDATE_HIERARCHY);
 
     if (CHECK_MODEL_INTEGRITY) {
       checkStructure();
     }
+
+    if (result != null) {
+      setRenderResult(result);
+    }
+  }
+
+  /**
+   * Publishes a render result that did not require a hierarchy update. Off the dispatch thread this is queued like
+   * {@link #applyHierarchy(ModelUpdater, RenderResult)}, so it cannot be overwritten by an older update still waiting to be applied.
+   */
+  private void publishRenderResult(@Nullable RenderResult result) {
+    Application application = ApplicationManager.getApplication();
+    if (application.isDispatchThread()) {
+      setRenderResult(result);
+    }
+    else {
+      application.invokeLater(() -> setRenderResult(result));
+    }
   }
 
   @VisibleForTesting
   public void updateHierarchy(@Nullable XmlTag rootTag, @NotNull Iterable<ViewInfo> rootViews) {
-    ModelUpdater updater = new ModelUpdater(this);
+    ModelUpdater updater = new ModelUpdater(this, 0);
     updater.update(rootTag, rootViews);
   }
 
@@ -556,32 +651,30 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
     long renderStartTimeMs = System.currentTimeMillis();
     boolean inflated = inflate(false);
 
+    RenderResult result = null;
+    ModelUpdater updater = null;
+    boolean rendered = false;
     synchronized (RENDERING_LOCK) {
       if (myRenderTask != null) {
-        RenderResult result = myRenderTask.render();
+        result = myRenderTask.render();
+        rendered = true;
         // When the layout was inflated in this same call, we do not have to update the hierarchy again
         if (!inflated) {
-          updateHierarchy(result);
-        }
-        myRenderResultLock.writeLock().lock();
-        try {
-          myRenderResult = result;
-          // Downgrade the write lock to read lock
-          myRenderResultLock.readLock().lock();
-        }
-        finally {
-          myRenderResultLock.writeLock().unlock();
-        }
-        try {
-          NlUsageTrackerManager.getInstance(mySurface).logRenderResult(changeType,
-                                                                       myRenderResult,
-                                                                       System.currentTimeMillis() - renderStartTimeMs);
-        } finally {
-          myRenderResultLock.readLock().unlock();
+          updater = computeHierarchy(result);
         }
       }
     }
 
+    if (rendered) {
+      if (updater != null) {
+        applyHierarchy(updater, result);
+      }
+      else {
+        publishRenderResult(result);
+      }
+      NlUsageTrackerManager.getInstance(mySurface).logRenderResult(changeType, result, System.currentTimeMillis() - renderStartTimeMs);
+    }
+
     notifyListenersRenderComplete();
   }
 
@@ -616,13 +709,17 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
    */
   public void requestLayout(boolean animate) {
     if (myRenderTask != null) {
+      ModelUpdater updater = null;
       synchronized (RENDERING_LOCK) {
         RenderResult result = myRenderTask.layout();
         if (result != null) {
-          updateHierarchy(result);
-          notifyListenersModelLayoutComplete(animate);
+          updater = computeHierarchy(result);
         }
       }
+      if (updater != null) {
+        applyHierarchy(updater, null);
+        notifyListenersModelLayoutComplete(animate);
+      }
     }
   }
 
@@ -861,9 +958,15 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
    * want the {@linkplain NlComponent} instances to keep the same instances across these
    * edits such that for example the selection (a set of {@link NlComponent} instances)
    * are preserved.
+   * <p/>
+   * The update happens in two steps. {@link #computeChanges(XmlTag, Iterable)} works out the new
+   * hierarchy from the XML and the {@link ViewInfo}/{@link TagSnapshot} tree of the render without
+   * modifying the existing components, so it can run on the render thread. {@link #apply()} then
+   * updates the components whose state actually changed, on the dispatch thread.
    */
   private static class ModelUpdater {
     private final NlModel myModel;
+    private final long mySequence;
     private final Map<XmlTag, NlComponent> myTagToComponentMap = Maps.newIdentityHashMap();
     private final Map<NlComponent, XmlTag> myComponentToTagMap = Maps.newIdentityHashMap();
     /**
@@ -874,9 +977,25 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
      * Map from tags in the view render tree to the corresponding snapshots
      */
     private final Map<XmlTag, TagSnapshot> myTagToSnapshot = Maps.newHashMap();
+    /**
+     * Map from the components of the new hierarchy to the state they will have once the update is applied
+     */
+    private final Map<NlComponent, ComponentUpdate> myUpdates = Maps.newIdentityHashMap();
+    @Nullable private ComponentUpdate myRoot;
+    @Nullable private Iterable<ViewInfo> myRootViews;
+    /**
+     * The components and the file modification stamp the changes were computed from
+     */
+    @Nullable private List<NlComponent> myBaseComponents;
+    private long myBaseModificationStamp;
 
-    public ModelUpdater(@NotNull NlModel model) {
+    public ModelUpdater(@NotNull NlModel model, long sequence) {
       myModel = model;
+      mySequence = sequence;
+    }
+
+    public long getSequence() {
+      return mySequence;
     }
 
     private void recordComponentMapping(@NotNull XmlTag tag, @NotNull NlComponent component) {
@@ -898,8 +1017,16 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
      */
     @VisibleForTesting
     public void update(@Nullable XmlTag newRoot, @NotNull Iterable<ViewInfo> rootViews) {
+      computeChanges(newRoot, rootViews);
+      apply();
+    }
+
+    /**
+     * Computes the new component hierarchy without modifying the current components. This can be called from any thread.
+     */
+    public void computeChanges(@Nullable XmlTag newRoot, @NotNull Iterable<ViewInfo> rootViews) {
+      myRootViews = rootViews;
       if (newRoot == null) {
-        myModel.myComponents = Collections.emptyList();
         return;
       }
 
@@ -909,7 +1036,10 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
         gatherTagsAndSnapshots(rootView, myTagToSnapshot);
       }
 
-      NlComponent root = ApplicationManager.getApplication().runReadAction((Computable<NlComponent>)() -> {
+      myRoot = ApplicationManager.getApplication().runReadAction((Computable<ComponentUpdate>)() -> {
+        myBaseComponents = myModel.myComponents;
+        myBaseModificationStamp = myModel.getFile().getModificationStamp();
+
         // Ensure that all XmlTags in the new XmlFile contents map to a corresponding component
         // form the old map
         mapOldToNew(newRoot);
@@ -930,16 +1060,6 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
         return createTree(newRoot);
       });
 
-      myModel.myComponents = Collections.singletonList(root);
-
-      // Wipe out state in older components to make sure on reuse we don't accidentally inherit old
-      // data
-      for (NlComponent component : myTagToComponentMap.values()) {
-        component.setBounds(0, 0, -1, -1); // -1: not initialized
-        component.viewInfo = null;
-        component.setSnapshot(null);
-      }
-
       // Update the bounds. This is based on the ViewInfo instances.
       for (ViewInfo view : rootViews) {
         updateHierarchy(view, 0, 0);
@@ -947,32 +1067,79 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
 
       // Finally, fix up bounds: ensure that all components not found in the view
       // info hierarchy inherit position from parent
-      fixBounds(root);
+      fixBounds(myRoot, null);
+    }
+
+    /**
+     * Returns true if the XML file or the component list have been modified since the changes were computed
+     */
+    public boolean isStale() {
+      return myRootViews != null &&
+             (myModel.myComponents != myBaseComponents || myModel.getFile().getModificationStamp() != myBaseModificationStamp);
+    }
+
+    /**
+     * Computes the changes again from the same {@link ViewInfo} hierarchy against the current components and XML
+     */
+    @NotNull
+    public ModelUpdater recompute() {
+      ModelUpdater updater = new ModelUpdater(myModel, mySequence);
+      if (myRootViews != null) {
+        updater.computeChanges(AndroidPsiUtils.getRootTagSafely(myModel.getFile()), myRootViews);
+      }
+      return updater;
+    }
+
+    /**
+     * Applies the computed hierarchy to the model. Only the components whose tag, snapshot, view or bounds have changed
+     * are modified.
+     *
+     * @return the number of components that were modified
+     */
+    public int apply() {
+      if (myRoot == null) {
+        if (!myModel.myComponents.isEmpty()) {
+          myModel.myComponents = Collections.emptyList();
+        }
+        return 0;
+      }
+
+      List<NlComponent> components = myModel.myComponents;
+      if (components.size() != 1 || components.get(0) != myRoot.myComponent) {
+        myModel.myComponents = Collections.singletonList(myRoot.myComponent);
+      }
+
+      int changed = 0;
+      for (ComponentUpdate update : myUpdates.values()) {
+        if (update.apply()) {
+          changed++;
+        }
+      }
+      return changed;
     }
 
-    private static void fixBounds(NlComponent root) {
+    private static void fixBounds(@NotNull ComponentUpdate root, @Nullable ComponentUpdate parent) {
       boolean computeBounds = false;
-      if (root.w == -1 && root.h == -1) { // -1: not initialized
+      if (root.myW == -1 && root.myH == -1) { // -1: not initialized
         computeBounds = true;
 
         // Look at parent instead
-        NlComponent parent = root.getParent();
-        if (parent != null && parent.w >= 0) {
-          root.setBounds(parent.x, parent.y, 0, 0);
+        if (parent != null && parent.myW >= 0) {
+          root.setBounds(parent.myX, parent.myY, 0, 0);
         }
       }
 
-      List<NlComponent> children = root.children;
+      List<ComponentUpdate> children = root.myChildren;
       if (children != null && !children.isEmpty()) {
-        for (NlComponent child : children) {
-          fixBounds(child);
+        for (ComponentUpdate child : children) {
+          fixBounds(child, root);
         }
 
         if (computeBounds) {
-          Rectangle rectangle = new Rectangle(root.x, root.y, root.w, root.h);
+          Rectangle rectangle = new Rectangle(root.myX, root.myY, root.myW, root.myH);
           // Grow bounds to include child bounds
-          for (NlComponent child : children) {
-            rectangle = rectangle.union(new Rectangle(child.x, child.y, child.w, child.h));
+          for (ComponentUpdate child : children) {
+            rectangle = rectangle.union(new Rectangle(child.myX, child.myY, child.myW, child.myH));
           }
 
           root.setBounds(rectangle.x, rectangle.y, rectangle.width, rectangle.height);
@@ -984,10 +1151,18 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
       ApplicationManager.getApplication().assertReadAccessAllowed();
 
       // First build up a new component tree to reflect the latest XmlFile hierarchy.
-      // If there have been no structural changes, these map 1-1 from the previous hierarchy.
-      // We first attempt to do it based on the XmlTags:
+      // If there have been no structural changes, these map 1-1 from the previous hierarchy,
+      // which is the common case while editing attributes.
+      List<NlComponent> oldComponents = myModel.myComponents;
+      if (oldComponents.size() == 1 && gatherUnchanged(oldComponents.get(0), newRootTag)) {
+        return;
+      }
+      myTagToComponentMap.clear();
+      mySnapshotToComponent.clear();
+
+      // Otherwise we first attempt to do it based on the XmlTags:
       //  (1) record a map from XmlTag to NlComponent in the previous component list
-      for (NlComponent component : myModel.myComponents) {
+      for (NlComponent component : oldComponents) {
         gatherTagsAndSnapshots(component);
       }
 
@@ -1124,6 +1299,32 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
       }
     }
 
+    /**
+     * Records the components of the previous hierarchy as long as it has the same tags, in the same
+     * structure, as the new XML hierarchy. This avoids looking for missing and remaining tags.
+     *
+     * @return false if the hierarchy has changed, in which case the recorded mappings are incomplete
+     */
+    private boolean gatherUnchanged(@NotNull NlComponent component, @NotNull XmlTag tag) {
+      if (component.getTag() != tag) {
+        return false;
+      }
+      myTagToComponentMap.put(tag, component);
+      mySnapshotToComponent.put(component.getSnapshot(), component);
+
+      List<NlComponent> children = component.getChildren();
+      XmlTag[] subTags = tag.getSubTags();
+      if (children.size() != subTags.length) {
+        return false;
+      }
+      for (int i = 0; i < subTags.length; i++) {
+        if (!gatherUnchanged(children.get(i), subTags[i])) {
+          return false;
+        }
+      }
+      return true;
+    }
+
     private void gatherTagsAndSnapshots(@NotNull NlComponent component) {
       XmlTag tag = component.getTag();
 
@@ -1148,7 +1349,7 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
     }
 
     @NotNull
-    private NlComponent createTree(XmlTag tag) {
+    private ComponentUpdate createTree(XmlTag tag) {
       NlComponent component = myTagToComponentMap.get(tag);
       if (component == null) {
         // New component: tag didn't exist in the previous component hierarchy,
@@ -1156,6 +1357,8 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
         component = new NlComponent(myModel, tag);
         recordComponentMapping(tag, component);
       }
+      ComponentUpdate update = new ComponentUpdate(component);
+      myUpdates.put(component, update);
 
       XmlTag[] subTags = tag.getSubTags();
       if (subTags.length > 0) {
@@ -1177,18 +1380,15 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
           }
         }
 
-        List<NlComponent> children = new ArrayList<>(subTags.length);
+        List<ComponentUpdate> children = new ArrayList<>(subTags.length);
         for (XmlTag subtag : subTags) {
-          NlComponent child = createTree(subtag);
+          ComponentUpdate child = createTree(subtag);
           children.add(child);
         }
-        component.setChildren(children);
-      }
-      else {
-        component.setChildren(null);
+        update.myChildren = children;
       }
 
-      return component;
+      return update;
     }
 
     private void updateHierarchy(ViewInfo view,
@@ -1196,38 +1396,34 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
                                  int parentY) {
       ViewInfo bounds = RenderService.getSafeBounds(view);
       Object cookie = view.getCookie();
-      NlComponent component = null;
+      ComponentUpdate update = null;
       if (cookie != null) {
         if (cookie instanceof MergeCookie) {
           cookie = ((MergeCookie)cookie).getCookie();
         }
         if (cookie instanceof TagSnapshot) {
           TagSnapshot snapshot = (TagSnapshot)cookie;
-          component = mySnapshotToComponent.get(snapshot);
+          NlComponent component = mySnapshotToComponent.get(snapshot);
           if (component == null) {
             component = myTagToComponentMap.get(snapshot.tag);
-            if (component != null) {
-              component.setSnapshot(snapshot);
-              assert snapshot.tag != null;
-              component.setTag(snapshot.tag);
-            }
           }
-          else {
-            component.setSnapshot(snapshot);
+          update = component != null ? myUpdates.get(component) : null;
+          if (update != null) {
+            update.mySnapshot = snapshot;
             assert snapshot.tag != null;
-            component.setTag(snapshot.tag);
+            update.myTag = snapshot.tag;
           }
         }
       }
 
-      if (component != null) {
-        component.viewInfo = view;
+      if (update != null) {
+        update.myViewInfo = view;
         int left = parentX + bounds.getLeft();
         int top = parentY + bounds.getTop();
         int width = bounds.getRight() - bounds.getLeft();
         int height = bounds.getBottom() - bounds.getTop();
 
-        component.setBounds(left, top, Math.max(width, VISUAL_EMPTY_COMPONENT_SIZE), Math.max(height, VISUAL_EMPTY_COMPONENT_SIZE));
+        update.setBounds(left, top, Math.max(width, VISUAL_EMPTY_COMPONENT_SIZE), Math.max(height, VISUAL_EMPTY_COMPONENT_SIZE));
       }
 
       parentX += bounds.getLeft();
@@ -1239,6 +1435,87 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
     }
   }
 
+  /**
+   * The state a component will have once a {@link ModelUpdater} is applied. Components reused from the
+   * previous hierarchy start with no snapshot, view or bounds, so they don't inherit old data.
+   */
+  private static class ComponentUpdate {
+    @NotNull private final NlComponent myComponent;
+    @NotNull private XmlTag myTag;
+    @Nullable private TagSnapshot mySnapshot;
+    @Nullable private ViewInfo myViewInfo;
+    private int myX;
+    private int myY;
+    private int myW = -1; // -1: not initialized
+    private int myH = -1;
+    @Nullable private List<ComponentUpdate> myChildren;
+
+    private ComponentUpdate(@NotNull NlComponent component) {
+      myComponent = component;
+      myTag = component.getTag();
+    }
+
+    private void setBounds(int x, int y, int w, int h) {
+      myX = x;
+      myY = y;
+      myW = w;
+      myH = h;
+    }
+
+    /**
+     * Applies this state to the component
+     *
+     * @return true if the component was modified
+     */
+    private boolean apply() {
+      boolean changed = false;
+      if (myComponent.getTag() != myTag) {
+        myComponent.setTag(myTag);
+        changed = true;
+      }
+      if (myComponent.getSnapshot() != mySnapshot) {
+        myComponent.setSnapshot(mySnapshot);
+        changed = true;
+      }
+      if (myComponent.viewInfo != myViewInfo) {
+        myComponent.viewInfo = myViewInfo;
+        changed = true;
+      }
+      if (myComponent.x != myX || myComponent.y != myY || myComponent.w != myW || myComponent.h != myH) {
+        myComponent.setBounds(myX, myY, myW, myH);
+        changed = true;
+      }
+      if (!hasSameChildren()) {
+        List<NlComponent> children = null;
+        if (myChildren != null) {
+          children = new ArrayList<>(myChildren.size());
+          for (ComponentUpdate child : myChildren) {
+            children.add(child.myComponent);
+          }
+        }
+        myComponent.setChildren(children);
+        changed = true;
+      }
+      return changed;
+    }
+
+    private boolean hasSameChildren() {
+      List<NlComponent> children = myComponent.children;
+      if (myChildren == null || children == null) {
+        return myChildren == children;
+      }
+      if (children.size() != myChildren.size()) {
+        return false;
+      }
+      for (int i = 0; i < children.size(); i++) {
+        if (children.get(i) != myChildren.get(i).myComponent) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
   @Nullable
   public List<NlComponent> findByOffset(int offset) {
     XmlTag tag = PsiTreeUtil.findElementOfClassAtOffset(getFile(), offset, XmlTag.class, false);
@@ -1978,6 +2255,9 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
     }
     myModelVersion.increase(reason);
     myModificationTrigger = reason;
+    if (reason != ChangeType.EDIT) {
+      myRequiresFullInflate = true;
+    }
     requestModelUpdate();
   }
 
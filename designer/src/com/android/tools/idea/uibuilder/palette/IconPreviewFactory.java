@@ -31,10 +31,13 @@ import com.android.tools.idea.uibuilder.api.InsertType;
 import com.android.tools.idea.uibuilder.model.*;
 import com.android.tools.idea.uibuilder.surface.ScreenView;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.intellij.ide.highlighter.XmlFileType;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.util.io.FileUtil;
@@ -55,7 +58,10 @@ import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
 
 import static com.android.SdkConstants.*;
@@ -67,6 +73,10 @@ import static com.android.tools.idea.uibuilder.palette.NlPaletteModel.PALETTE_VE
  * IconPreviewFactory generates a preview of certain palette components.
  * The images are rendered from preview.xml and are used as an alternate representation on
  * the palette i.e. a button is rendered as the SDK button would look like on the target device.
+ * <p/>
+ * The previews of all the palette items are rendered in a batch, in a single render session, and
+ * stored in an on-disk cache keyed by theme, screen size, density and platform, so they are only
+ * rendered once across IDE sessions. See {@link #loadInBackground}.
  */
 public class IconPreviewFactory implements Disposable {
   private static final Logger LOG = Logger.getInstance(IconPreviewFactory.class);
@@ -76,6 +86,11 @@ public class IconPreviewFactory implements Disposable {
   private static final int DEFAULT_X_DIMENSION = 1080;
   private static final int DEFAULT_Y_DIMENSION = 1920;
   private static final String DEFAULT_THEME = "AppTheme";
+  /**
+   * Version of the format of the image cache. Increase this to discard the images cached by previous versions.
+   */
+  private static final int IMAGE_CACHE_VERSION = 2;
+  private static final int MAX_CACHED_IMAGES = 200;
   private static final String PREVIEW_PLACEHOLDER_FILE = "preview.xml";
   private static final String CONTAINER_ID = "TopLevelContainer";
   private static final String LINEAR_LAYOUT = "<LinearLayout\n" +
@@ -100,10 +115,32 @@ public class IconPreviewFactory implements Disposable {
   long myRenderTimeoutSeconds = 1L;
 
   private RenderTask myRenderTask;
+  private volatile boolean myDisposed;
+
+  /**
+   * Callbacks waiting for a background load, by cache directory
+   */
+  private final Map<File, List<Runnable>> myPendingLoads = Maps.newHashMap();
+
+  /**
+   * Cache directories whose previews could not all be rendered. They are not loaded in the background again, so a
+   * failing render doesn't start over on every paint. They are rendered again by {@link #load} or after {@link #dropCache}.
+   */
+  private final Set<File> myFailedLoads = Sets.newConcurrentHashSet();
+
+  /**
+   * Images already read from the disk cache, least recently used first
+   */
+  private final Map<File, BufferedImage> myImageCache = new LinkedHashMap<File, BufferedImage>(64, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<File, BufferedImage> eldest) {
+      return size() > MAX_CACHED_IMAGES;
+    }
+  };
 
   @Nullable
   public BufferedImage getImage(@NotNull Palette.Item item, @NotNull Configuration configuration, double scale) {
-    BufferedImage image = readImage(item.getId(), configuration);
+    BufferedImage image = getCachedImage(item.getId(), configuration);
     if (image == null) {
       return null;
     }
@@ -200,8 +237,26 @@ public class IconPreviewFactory implements Disposable {
                              Math.min(view.getBottom() + shadowIncrement, image.getHeight()));
   }
 
-  private static BufferedImage readImage(@NotNull String id, @NotNull Configuration configuration) {
+  @Nullable
+  private BufferedImage getCachedImage(@NotNull String id, @NotNull Configuration configuration) {
     File file = new File(getPreviewCacheDirForConfiguration(configuration), id + DOT_PNG);
+    synchronized (myImageCache) {
+      BufferedImage image = myImageCache.get(file);
+      if (image != null) {
+        return image;
+      }
+    }
+    BufferedImage image = readImage(file);
+    if (image != null) {
+      synchronized (myImageCache) {
+        myImageCache.put(file, image);
+      }
+    }
+    return image;
+  }
+
+  @Nullable
+  private static BufferedImage readImage(@NotNull File file) {
     if (!file.exists()) {
       return null;
     }
@@ -223,9 +278,66 @@ public class IconPreviewFactory implements Disposable {
    * Drop the preview cache for this configuration.
    */
   public void dropCache() {
+    synchronized (myImageCache) {
+      myImageCache.clear();
+    }
+    myFailedLoads.clear();
     FileUtil.delete(getPreviewCacheDir());
   }
 
+  /**
+   * Make sure the preview images of the palette are cached for the given configuration.
+   * If they are not, they are rendered on a background thread and {@code whenLoaded} is called
+   * on the dispatch thread once they are available. In unit test mode the images are rendered
+   * synchronously.
+   *
+   * @param configuration a hardware configuration to generate previews for
+   * @param palette a palette with the components to generate previews of
+   * @param whenLoaded called once the images have been rendered, if they were not already cached
+   * @return true if the images are already cached
+   */
+  public boolean loadInBackground(@NotNull Configuration configuration, @NotNull Palette palette, @NotNull Runnable whenLoaded) {
+    File cacheDir = getPreviewCacheDirForConfiguration(configuration);
+    if (isCached(cacheDir) || myFailedLoads.contains(cacheDir)) {
+      return true;
+    }
+    if (ApplicationManager.getApplication().isUnitTestMode()) {
+      if (load(configuration, palette, false)) {
+        whenLoaded.run();
+      }
+      return true;
+    }
+    synchronized (myPendingLoads) {
+      List<Runnable> callbacks = myPendingLoads.get(cacheDir);
+      if (callbacks != null) {
+        // Already rendering the images for this configuration
+        callbacks.add(whenLoaded);
+        return false;
+      }
+      myPendingLoads.put(cacheDir, Lists.newArrayList(whenLoaded));
+    }
+    ApplicationManager.getApplication().executeOnPooledThread(() -> {
+      try {
+        load(configuration, palette, false);
+      }
+      finally {
+        List<Runnable> callbacks;
+        synchronized (myPendingLoads) {
+          callbacks = myPendingLoads.remove(cacheDir);
+        }
+        if (callbacks != null && !myDisposed) {
+          ApplicationManager.getApplication().invokeLater(() -> callbacks.forEach(Runnable::run));
+        }
+      }
+    });
+    return false;
+  }
+
+  private static boolean isCached(@NotNull File cacheDir) {
+    String[] files = cacheDir.list();
+    return files != null && files.length > 0;
+  }
+
   /**
    * Load preview images for each component into a file cache.
    * Each combination of theme, device density, and API level will have its own cache.
@@ -250,7 +362,7 @@ public class IconPreviewFactory implements Disposable {
    * @param reload if true replace the existing preview images
    * @param requestedIds for testing only: gather the IDs of the components whose previews were requested
    * @param generatedIds for testing only: gather the IDs of the components whose preview images where generated
-   * @return true if the images were loaded, false if they already existed
+   * @return true if the images were loaded, false if they already existed or could not all be rendered
    */
   @VisibleForTesting
   boolean load(@NotNull final Configuration configuration,
@@ -259,27 +371,74 @@ public class IconPreviewFactory implements Disposable {
                @Nullable final List<String> requestedIds,
                @Nullable final List<String> generatedIds) {
     File cacheDir = getPreviewCacheDirForConfiguration(configuration);
-    String[] files = cacheDir.list();
-    if (files != null && files.length > 0) {
+    if (isCached(cacheDir) && !reload) {
       // The previews have already been generated.
-      if (!reload) {
-        return false;
-      }
-      FileUtil.delete(cacheDir);
-    }
-    ApplicationManager.getApplication().runReadAction(new Computable<Void>() {
-      @Override
-      public Void compute() {
-        List<StringBuilder> sources = Lists.newArrayList();
-        loadSources(sources, requestedIds, palette.getItems());
-        for (StringBuilder source : sources) {
+      return false;
+    }
+
+    // Render all the previews with their own render session, so the rendering of drag images is not affected.
+    // The images are written to a temporary directory of this load first, such that an interrupted or failed load
+    // is not mistaken for a complete cache, and concurrent loads of the same configuration don't mix their images.
+    AndroidFacet facet = AndroidFacet.getInstance(configuration.getModule());
+    if (facet == null) {
+      return false;
+    }
+    File tempDir;
+    try {
+      FileUtil.createDirectory(cacheDir.getParentFile());
+      tempDir = FileUtil.createTempDirectory(cacheDir.getParentFile(), cacheDir.getName(), ".tmp");
+    }
+    catch (IOException e) {
+      LOG.warn(e);
+      return false;
+    }
+    RenderService renderService = RenderService.get(facet);
+    RenderTask renderTask = renderService.createTask(null, configuration, renderService.createLogger(), null);
+    if (renderTask == null) {
+      FileUtil.delete(tempDir);
+      return false;
+    }
+    boolean complete = true;
+    try {
+      List<StringBuilder> sources = Lists.newArrayList();
+      ApplicationManager.getApplication().runReadAction(() -> loadSources(sources, requestedIds, palette.getItems()));
+      for (StringBuilder source : sources) {
+        if (myDisposed) {
+          complete = false;
+          break;
+        }
+        // Only hold the read lock for one group of previews at a time so edits are not blocked during the whole load
+        boolean rendered = ReadAction.compute(() -> {
           String preview = String.format(LINEAR_LAYOUT, CONTAINER_ID, source);
-          addResultToCache(renderImage(myExecutorService, myRenderTimeoutSeconds, getRenderTask(configuration), preview), generatedIds,
-                           configuration);
+          return addResultToCache(renderImage(myExecutorService, myRenderTimeoutSeconds, renderTask, preview), generatedIds, tempDir);
+        });
+        complete &= rendered;
+      }
+    }
+    finally {
+      renderTask.dispose();
+    }
+    if (!complete) {
+      // The groups which failed or timed out would never be rendered again if the previews were persisted
+      FileUtil.delete(tempDir);
+      if (!myDisposed) {
+        myFailedLoads.add(cacheDir);
+      }
+      return false;
+    }
+    myFailedLoads.remove(cacheDir);
+    synchronized (IconPreviewFactory.class) {
+      if (reload || !isCached(cacheDir)) {
+        FileUtil.delete(cacheDir);
+        if (tempDir.renameTo(cacheDir)) {
+          synchronized (myImageCache) {
+            myImageCache.clear();
+          }
+          return true;
         }
-        return null;
       }
-    });
+    }
+    FileUtil.delete(tempDir);
     return true;
   }
 
@@ -317,7 +476,7 @@ public class IconPreviewFactory implements Disposable {
       PathUtil.getCanonicalPath(PathManager.getSystemPath()) + File.separator +
       ANDROID_PALETTE + File.separator +
       PALETTE_VERSION + File.separator +
-      "image-cache");
+      "image-cache-" + IMAGE_CACHE_VERSION);
   }
 
   @NotNull
@@ -362,17 +521,24 @@ public class IconPreviewFactory implements Disposable {
     IAndroidTarget target = configuration.getTarget();
     // If the target is not found, return a version that cannot be confused with a proper result.
     // For now: use "U" for "unknown".
-    return target == null ? SdkVersionInfo.HIGHEST_KNOWN_STABLE_API + "U" : target.getVersion().getApiString();
+    // The platform revision is included so updating the platform replaces the previews.
+    return target == null
+           ? SdkVersionInfo.HIGHEST_KNOWN_STABLE_API + "U"
+           : target.getVersion().getApiString() + "r" + target.getRevision();
   }
 
-  @Nullable
-  private static BufferedImage addResultToCache(@Nullable RenderResult result, @Nullable List<String> ids, @NotNull Configuration configuration) {
-    if (result == null || result.getRenderedImage() == null || result.getRootViews().isEmpty()) {
-      return null;
+  /**
+   * Writes the previews of the rendered group to the cache directory
+   *
+   * @return false if the group could not be rendered
+   */
+  private static boolean addResultToCache(@Nullable RenderResult result, @Nullable List<String> ids, @NotNull File cacheDir) {
+    if (result == null || !result.getRenderResult().isSuccess() || !result.hasImage() || result.getRootViews().isEmpty()) {
+      return false;
     }
-    ImageAccumulator accumulator = new ImageAccumulator(result.getRenderedImage().getCopy(), ids, configuration);
+    ImageAccumulator accumulator = new ImageAccumulator(result.getRenderedImage().getCopy(), ids, cacheDir);
     accumulator.run(result.getRootViews(), 0, null);
-    return null;
+    return true;
   }
 
   @Nullable
@@ -407,6 +573,7 @@ public class IconPreviewFactory implements Disposable {
 
   @Override
   public void dispose() {
+    myDisposed = true;
     if (myRenderTask != null) {
       myRenderTask.dispose();
       myRenderTask = null;
@@ -421,10 +588,10 @@ public class IconPreviewFactory implements Disposable {
     private final int myHeight;
     private final int myWidth;
 
-    private ImageAccumulator(@NotNull BufferedImage image, @Nullable List<String> ids, @NotNull Configuration configuration) {
+    private ImageAccumulator(@NotNull BufferedImage image, @Nullable List<String> ids, @NotNull File cacheDir) {
       myImage = image;
       myIds = ids;
-      myCacheDir = getPreviewCacheDirForConfiguration(configuration);
+      myCacheDir = cacheDir;
       myHeight = image.getRaster().getHeight();
       myWidth = image.getRaster().getWidth();
     }
@@ -19,11 +19,13 @@ import com.android.annotations.VisibleForTesting;
 import com.android.tools.idea.configurations.Configuration;
 import com.android.tools.idea.gradle.dependencies.GradleDependencyManager;
 import com.android.tools.idea.model.MergedManifest;
+import com.android.tools.idea.res.AppResourceRepository;
 import com.android.tools.idea.uibuilder.api.ViewHandler;
 import com.android.tools.idea.uibuilder.handlers.ImageViewHandler;
 import com.android.tools.idea.uibuilder.handlers.ViewHandlerManager;
 import com.android.tools.idea.uibuilder.model.NlComponent;
 import com.android.utils.Pair;
+import com.google.common.base.Objects;
 import com.google.common.base.Splitter;
 import com.android.tools.idea.uibuilder.model.NlModel;
 import com.google.common.collect.HashBasedTable;
@@ -36,7 +38,9 @@ import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.psi.JavaPsiFacade;
 import com.intellij.psi.PsiClass;
+import com.intellij.psi.util.PsiModificationTracker;
 import com.intellij.psi.xml.XmlTag;
+import com.intellij.util.containers.ContainerUtil;
 import com.intellij.xml.NamespaceAwareXmlAttributeDescriptor;
 import com.intellij.xml.XmlAttributeDescriptor;
 import com.intellij.xml.XmlElementDescriptor;
@@ -49,7 +53,9 @@ import org.jetbrains.android.resourceManagers.ResourceManager;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import javax.annotation.concurrent.GuardedBy;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -60,6 +66,8 @@ public class NlProperties {
 
   private static NlProperties ourInstance = null;
   private final AndroidDomElementDescriptorProvider myDescriptorProvider = new AndroidDomElementDescriptorProvider();
+  @GuardedBy("myDefinitionCache")
+  private final Map<AndroidFacet, FacetDefinitions> myDefinitionCache = ContainerUtil.createWeakMap();
 
   public static synchronized NlProperties getInstance() {
     if (ourInstance == null) {
@@ -99,8 +107,11 @@ public class NlProperties {
 
     AttributeDefinitions localAttrDefs = localResourceManager.getAttributeDefinitions();
     AttributeDefinitions systemAttrDefs = systemResourceManager.getAttributeDefinitions();
+    FacetDefinitions facetDefinitions = getFacetDefinitions(facet, localAttrDefs, systemAttrDefs);
 
-    Table<String, String, NlPropertyItem> combinedProperties = null;
+    // Intersect the definitions of the selected components before creating any property: components of the same
+    // view class in the same kind of parent share their definitions and are only looked at once.
+    Table<String, String, PropertyDefinition> combinedDefinitions = null;
 
     for (NlComponent component : components) {
       XmlTag tag = component.getTag();
@@ -108,40 +119,28 @@ public class NlProperties {
         return ImmutableTable.of();
       }
 
-      XmlElementDescriptor elementDescriptor = myDescriptorProvider.getDescriptor(tag);
-      if (elementDescriptor == null) {
+      Table<String, String, PropertyDefinition> definitions = getDefinitions(facetDefinitions, tag);
+      if (definitions == null) {
         return ImmutableTable.of();
       }
 
-      XmlAttributeDescriptor[] descriptors = elementDescriptor.getAttributesDescriptors(tag);
-      Table<String, String, NlPropertyItem> properties = HashBasedTable.create(3, descriptors.length);
-
-      for (XmlAttributeDescriptor desc : descriptors) {
-        String namespace = getNamespace(desc, tag);
-        AttributeDefinitions attrDefs = NS_RESOURCES.equals(namespace) ? systemAttrDefs : localAttrDefs;
-        AttributeDefinition attrDef = attrDefs == null ? null : attrDefs.getAttrDefByName(desc.getName());
-        NlPropertyItem property = NlPropertyItem.create(components, desc, namespace, attrDef);
-        properties.put(StringUtil.notNullize(namespace), property.getName(), property);
-      }
+      combinedDefinitions = combine(definitions, combinedDefinitions);
+    }
+    assert combinedDefinitions != null;
 
-      // Exceptions:
-      switch (tag.getName()) {
-        case AUTO_COMPLETE_TEXT_VIEW:
-          // An AutoCompleteTextView has a popup that is created at runtime.
-          // Properties for this popup can be added to the AutoCompleteTextView tag.
-          properties.put(ANDROID_URI, ATTR_POPUP_BACKGROUND, NlPropertyItem.create(
-            components,
-            new AndroidAnyAttributeDescriptor(ATTR_POPUP_BACKGROUND),
-            ANDROID_URI,
-            systemAttrDefs != null ? systemAttrDefs.getAttrDefByName(ATTR_POPUP_BACKGROUND) : null));
-          break;
+    Table<String, String, NlPropertyItem> combinedProperties = HashBasedTable.create(3, combinedDefinitions.size());
+    for (Table.Cell<String, String, PropertyDefinition> cell : combinedDefinitions.cellSet()) {
+      // Never include the ID attribute when looking at multiple components:
+      if (components.size() > 1 && ANDROID_URI.equals(cell.getRowKey()) && ATTR_ID.equals(cell.getColumnKey())) {
+        continue;
       }
-
-      combinedProperties = combine(properties, combinedProperties);
+      PropertyDefinition definition = cell.getValue();
+      //noinspection ConstantConditions
+      combinedProperties.put(cell.getRowKey(), cell.getColumnKey(),
+                             NlPropertyItem.create(components, definition.myDescriptor, definition.myNamespace, definition.myDefinition));
     }
 
     // The following properties are deprecated in the support library and can be ignored by tools:
-    assert combinedProperties != null;
     combinedProperties.remove(AUTO_URI, ATTR_PADDING_START);
     combinedProperties.remove(AUTO_URI, ATTR_PADDING_END);
     combinedProperties.remove(AUTO_URI, ATTR_THEME);
@@ -151,10 +150,110 @@ public class NlProperties {
 
     initStarState(combinedProperties);
 
-    //noinspection ConstantConditions
     return combinedProperties;
   }
 
+  /**
+   * Returns the cached attribute definitions of the facet, discarding them if the resources or the classes of the
+   * project have changed since they were computed.
+   */
+  @NotNull
+  private FacetDefinitions getFacetDefinitions(@NotNull AndroidFacet facet,
+                                               @Nullable AttributeDefinitions localAttrDefs,
+                                               @Nullable AttributeDefinitions systemAttrDefs) {
+    long resourceModificationCount = AppResourceRepository.getAppResources(facet, true).getModificationCount();
+    long javaModificationCount =
+      PsiModificationTracker.SERVICE.getInstance(facet.getModule().getProject()).getJavaStructureModificationCount();
+    synchronized (myDefinitionCache) {
+      FacetDefinitions definitions = myDefinitionCache.get(facet);
+      if (definitions == null || !definitions.isUpToDate(resourceModificationCount, javaModificationCount, localAttrDefs, systemAttrDefs)) {
+        definitions = new FacetDefinitions(resourceModificationCount, javaModificationCount, localAttrDefs, systemAttrDefs);
+        myDefinitionCache.put(facet, definitions);
+      }
+      return definitions;
+    }
+  }
+
+  @Nullable
+  private Table<String, String, PropertyDefinition> getDefinitions(@NotNull FacetDefinitions facetDefinitions, @NotNull XmlTag tag) {
+    String key = getDefinitionsKey(tag);
+    synchronized (myDefinitionCache) {
+      Table<String, String, PropertyDefinition> definitions = facetDefinitions.myDefinitions.get(key);
+      if (definitions != null) {
+        return definitions;
+      }
+    }
+    Table<String, String, PropertyDefinition> definitions =
+      computeDefinitions(tag, facetDefinitions.myLocalAttrDefs, facetDefinitions.mySystemAttrDefs);
+    if (definitions == null) {
+      return null;
+    }
+    synchronized (myDefinitionCache) {
+      facetDefinitions.myDefinitions.put(key, definitions);
+    }
+    return definitions;
+  }
+
+  /**
+   * The attributes available on a tag depend on its view class and on the layout parameters of its parent.
+   */
+  @NotNull
+  private static String getDefinitionsKey(@NotNull XmlTag tag) {
+    StringBuilder key = new StringBuilder();
+    appendTagKey(key, tag);
+    key.append('/');
+    XmlTag parent = tag.getParentTag();
+    if (parent != null) {
+      appendTagKey(key, parent);
+    }
+    return key.toString();
+  }
+
+  private static void appendTagKey(@NotNull StringBuilder key, @NotNull XmlTag tag) {
+    key.append(tag.getName());
+    String viewClass = tag.getAttributeValue(ATTR_CLASS);
+    if (viewClass != null) {
+      key.append(':').append(viewClass);
+    }
+    String parentTag = tag.getAttributeValue(ATTR_PARENT_TAG, TOOLS_URI);
+    if (parentTag != null) {
+      key.append(':').append(parentTag);
+    }
+  }
+
+  @Nullable
+  private Table<String, String, PropertyDefinition> computeDefinitions(@NotNull XmlTag tag,
+                                                                      @Nullable AttributeDefinitions localAttrDefs,
+                                                                      @Nullable AttributeDefinitions systemAttrDefs) {
+    XmlElementDescriptor elementDescriptor = myDescriptorProvider.getDescriptor(tag);
+    if (elementDescriptor == null) {
+      return null;
+    }
+
+    XmlAttributeDescriptor[] descriptors = elementDescriptor.getAttributesDescriptors(tag);
+    Table<String, String, PropertyDefinition> definitions = HashBasedTable.create(3, descriptors.length);
+
+    for (XmlAttributeDescriptor desc : descriptors) {
+      String namespace = getNamespace(desc, tag);
+      AttributeDefinitions attrDefs = NS_RESOURCES.equals(namespace) ? systemAttrDefs : localAttrDefs;
+      AttributeDefinition attrDef = attrDefs == null ? null : attrDefs.getAttrDefByName(desc.getName());
+      definitions.put(StringUtil.notNullize(namespace), desc.getName(), new PropertyDefinition(desc, namespace, attrDef));
+    }
+
+    // Exceptions:
+    switch (tag.getName()) {
+      case AUTO_COMPLETE_TEXT_VIEW:
+        // An AutoCompleteTextView has a popup that is created at runtime.
+        // Properties for this popup can be added to the AutoCompleteTextView tag.
+        definitions.put(ANDROID_URI, ATTR_POPUP_BACKGROUND, new PropertyDefinition(
+          new AndroidAnyAttributeDescriptor(ATTR_POPUP_BACKGROUND),
+          ANDROID_URI,
+          systemAttrDefs != null ? systemAttrDefs.getAttrDefByName(ATTR_POPUP_BACKGROUND) : null));
+        break;
+    }
+    return definitions;
+  }
+
   @Nullable
   private static AndroidFacet getFacet(@NotNull List<NlComponent> components) {
     if (components.isEmpty()) {
@@ -240,28 +339,24 @@ public class NlProperties {
     }
   }
 
-  private static Table<String, String, NlPropertyItem> combine(@NotNull Table<String, String, NlPropertyItem> properties,
-                                                               @Nullable Table<String, String, NlPropertyItem> combinedProperties) {
-    if (combinedProperties == null) {
-      return properties;
-    }
-    List<String> namespaces = new ArrayList<>(combinedProperties.rowKeySet());
-    List<String> propertiesToRemove = new ArrayList<>();
-    for (String namespace : namespaces) {
-      propertiesToRemove.clear();
-      for (Map.Entry<String, NlPropertyItem> entry : combinedProperties.row(namespace).entrySet()) {
-        NlPropertyItem other = properties.get(namespace, entry.getKey());
-        if (!entry.getValue().sameDefinition(other)) {
-          propertiesToRemove.add(entry.getKey());
-        }
-      }
-      for (String propertyName : propertiesToRemove) {
-        combinedProperties.remove(namespace, propertyName);
+  /**
+   * Returns the definitions present in both tables. The cached tables are shared and never modified.
+   */
+  @NotNull
+  private static Table<String, String, PropertyDefinition> combine(@NotNull Table<String, String, PropertyDefinition> definitions,
+                                                                   @Nullable Table<String, String, PropertyDefinition> combinedDefinitions) {
+    if (combinedDefinitions == null || combinedDefinitions == definitions) {
+      return definitions;
+    }
+    Table<String, String, PropertyDefinition> result = HashBasedTable.create(3, combinedDefinitions.size());
+    for (Table.Cell<String, String, PropertyDefinition> cell : combinedDefinitions.cellSet()) {
+      PropertyDefinition other = definitions.get(cell.getRowKey(), cell.getColumnKey());
+      //noinspection ConstantConditions
+      if (cell.getValue().sameDefinition(other)) {
+        result.put(cell.getRowKey(), cell.getColumnKey(), cell.getValue());
       }
     }
-    // Never include the ID attribute when looking at multiple components:
-    combinedProperties.remove(ANDROID_URI, ATTR_ID);
-    return combinedProperties;
+    return result;
   }
 
   private static void setUpDesignProperties(@NotNull Table<String, String, NlPropertyItem> properties) {
@@ -340,4 +435,60 @@ public class NlProperties {
     }
     return activityClass != null;
   }
+
+  /**
+   * An attribute available on a view, independent of the components it is shown for
+   */
+  private static class PropertyDefinition {
+    @NotNull private final XmlAttributeDescriptor myDescriptor;
+    @Nullable private final String myNamespace;
+    @Nullable private final AttributeDefinition myDefinition;
+
+    private PropertyDefinition(@NotNull XmlAttributeDescriptor descriptor,
+                               @Nullable String namespace,
+                               @Nullable AttributeDefinition definition) {
+      myDescriptor = descriptor;
+      myNamespace = namespace;
+      myDefinition = definition;
+    }
+
+    private boolean sameDefinition(@Nullable PropertyDefinition other) {
+      return other != null &&
+             Objects.equal(myDescriptor.getName(), other.myDescriptor.getName()) &&
+             Objects.equal(myNamespace, other.myNamespace) &&
+             myDefinition == other.myDefinition;
+    }
+  }
+
+  /**
+   * The attribute definitions of the views of a facet, keyed by {@link #getDefinitionsKey}
+   */
+  private static class FacetDefinitions {
+    private final long myResourceModificationCount;
+    private final long myJavaModificationCount;
+    @Nullable private final AttributeDefinitions myLocalAttrDefs;
+    @Nullable private final AttributeDefinitions mySystemAttrDefs;
+    @GuardedBy("myDefinitionCache")
+    private final Map<String, Table<String, String, PropertyDefinition>> myDefinitions = new HashMap<>();
+
+    private FacetDefinitions(long resourceModificationCount,
+                             long javaModificationCount,
+                             @Nullable AttributeDefinitions localAttrDefs,
+                             @Nullable AttributeDefinitions systemAttrDefs) {
+      myResourceModificationCount = resourceModificationCount;
+      myJavaModificationCount = javaModificationCount;
+      myLocalAttrDefs = localAttrDefs;
+      mySystemAttrDefs = systemAttrDefs;
+    }
+
+    private boolean isUpToDate(long resourceModificationCount,
+                               long javaModificationCount,
+                               @Nullable AttributeDefinitions localAttrDefs,
+                               @Nullable AttributeDefinitions systemAttrDefs) {
+      return myResourceModificationCount == resourceModificationCount &&
+             myJavaModificationCount == javaModificationCount &&
+             myLocalAttrDefs == localAttrDefs &&
+             mySystemAttrDefs == systemAttrDefs;
+    }
+  }
 }
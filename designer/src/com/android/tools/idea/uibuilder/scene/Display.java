@@ -17,7 +17,6 @@ package com.android.tools.idea.uibuilder.scene;
 
 import com.android.tools.idea.uibuilder.handlers.constraint.ConstraintLayoutHandler;
 import com.android.tools.idea.uibuilder.scene.draw.DisplayList;
-import com.android.tools.idea.uibuilder.surface.DesignSurface;
 import org.jetbrains.annotations.NotNull;
 
 import java.awt.*;
@@ -34,7 +33,13 @@ public class Display {
     myNeedsDisplayListRebuild = true;
   }
 
-  public void draw(@NotNull SceneContext sceneContext, @NotNull Graphics2D g, @NotNull Scene scene) {
+  /**
+   * Draw the scene, rebuilding its display list first if the scene changed. The commands of the components that did not
+   * change are retained from the previous display list (see {@link SceneComponent#buildContentList}).
+   *
+   * @return true if the scene is animating and needs to be drawn again
+   */
+  public boolean draw(@NotNull SceneContext sceneContext, @NotNull Graphics2D g, @NotNull Scene scene) {
     mTime = System.currentTimeMillis();
     if (scene.getNeedsDisplayListRebuilt()) {
       myNeedsDisplayListRebuild = true;
@@ -52,12 +57,7 @@ public class Display {
     if (ConstraintLayoutHandler.USE_SCENE_INTERACTION) {
       draw(sceneContext, g, myDisplayList);
     }
-    if (myNeedsDisplayListRebuild) {
-      DesignSurface designSurface = sceneContext.getSurface();
-      if (designSurface != null) {
-        designSurface.repaint();
-      }
-    }
+    return myNeedsDisplayListRebuild;
   }
 
   public void draw(@NotNull SceneContext sceneContext, @NotNull Graphics2D g, @NotNull DisplayList list) {
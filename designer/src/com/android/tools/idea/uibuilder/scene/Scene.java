@@ -59,6 +59,7 @@ public class Scene implements ModelListener, SelectionListener {
   public static final int IMMEDIATE_LAYOUT = 1;
   public static final int ANIMATED_LAYOUT = 2;
   private boolean myNeedsDisplayListRebuilt = true;
+  private int myHitTablesVersion = 0; // incremented whenever the hit tables built from the components may be stale
   private Target myOverTarget;
   private SceneComponent myCurrentComponent;
   private SceneComponent myDnDComponent;
@@ -348,6 +349,7 @@ public class Scene implements ModelListener, SelectionListener {
    * @param model the NlModel to udpate from
    */
   public void updateFrom(@NotNull NlModel model) {
+    myHitTablesVersion++;
     List<NlComponent> components = model.getComponents();
     if (components.size() == 0) {
       mySceneComponents.clear();
@@ -457,6 +459,7 @@ public class Scene implements ModelListener, SelectionListener {
   }
 
   public void selectionChanged(@NotNull List<NlComponent> selection, boolean updateTargets) {
+    myHitTablesVersion++;
     if (myRoot != null) {
       if (updateTargets) {
         clearChildTargets(myRoot);
@@ -547,6 +550,7 @@ public class Scene implements ModelListener, SelectionListener {
    */
   public boolean buildDisplayList(@NotNull DisplayList displayList, long time, SceneContext sceneContext) {
     boolean needsRepaint = false;
+    myHitTablesVersion++;
     if (myRoot != null) {
       needsRepaint = myRoot.layout(sceneContext, time);
       if (sceneContext != null) {
@@ -672,6 +676,11 @@ public class Scene implements ModelListener, SelectionListener {
    */
   class HitListener implements ScenePicker.HitElementListener {
     private ScenePicker myPicker = new ScenePicker();
+    private SceneContext myPickerTransform;
+    private int myPickerVersion = -1;
+    private int myPickerOriginX;
+    private int myPickerOriginY;
+    private double myPickerScale;
     double myClosestComponentDistance = Double.MAX_VALUE;
     double myClosestTargetDistance = Double.MAX_VALUE;
     ArrayList<SceneComponent> myHitComponents = new ArrayList<>();
@@ -691,6 +700,39 @@ public class Scene implements ModelListener, SelectionListener {
       myClosestTargetDistance = Double.MAX_VALUE;
       myPicker.reset();
       root.addHit(transform, myPicker);
+      myPickerTransform = transform;
+      myPickerVersion = myHitTablesVersion;
+      myPickerOriginX = transform.getSwingX(0);
+      myPickerOriginY = transform.getSwingY(0);
+      myPickerScale = transform.getScale();
+      myPicker.find(transform.getSwingX(x), transform.getSwingY(y));
+    }
+
+    /**
+     * Same as {@link #find(SceneContext, SceneComponent, int, int)}, but reuses the hit tables built by the previous
+     * call as long as nothing in the scene nor in the transform changed since then, so that moving the mouse over
+     * a static scene does not add every component and target to the picker again.
+     */
+    public void findCached(@NotNull SceneContext transform,
+                           @NotNull SceneComponent root,
+                           @AndroidDpCoordinate int x,
+                           @AndroidDpCoordinate int y) {
+      if (myPickerVersion != myHitTablesVersion
+          || myPickerTransform != transform
+          || myPickerOriginX != transform.getSwingX(0)
+          || myPickerOriginY != transform.getSwingY(0)
+          || myPickerScale != transform.getScale()) {
+        find(transform, root, x, y);
+        return;
+      }
+      // addHit() resets the hovered component, do the same as it is not called
+      if (myCurrentComponent != null && myCurrentComponent.getDrawState() == SceneComponent.DrawState.HOVER) {
+        myCurrentComponent.setDrawState(SceneComponent.DrawState.NORMAL);
+      }
+      myHitComponents.clear();
+      myHitTargets.clear();
+      myClosestComponentDistance = Double.MAX_VALUE;
+      myClosestTargetDistance = Double.MAX_VALUE;
       myPicker.find(transform.getSwingX(x), transform.getSwingY(y));
     }
 
@@ -844,7 +886,7 @@ public class Scene implements ModelListener, SelectionListener {
     myLastMouseY = y;
     myMouseCursor = Cursor.DEFAULT_CURSOR;
     if (myRoot != null) {
-      myHoverListener.find(transform, myRoot, x, y);
+      myHoverListener.findCached(transform, myRoot, x, y);
     }
     Target closestTarget = myHoverListener.getClosestTarget();
     if (myOverTarget != closestTarget) {
@@ -958,6 +1000,7 @@ public class Scene implements ModelListener, SelectionListener {
     myLastMouseX = x;
     myLastMouseY = y;
     myFilterTarget = FilterType.NONE;
+    myHitTablesVersion++;
     if (myRoot == null) {
       return;
     }
@@ -991,6 +1034,7 @@ public class Scene implements ModelListener, SelectionListener {
     }
     myLastMouseX = x;
     myLastMouseY = y;
+    myHitTablesVersion++;
     if (myHitTarget != null) {
       myHitListener.find(transform, myRoot, x, y);
       myHitTarget.mouseDrag(x, y, myHitListener.getClosestTarget());
@@ -1021,6 +1065,7 @@ public class Scene implements ModelListener, SelectionListener {
       }
     }
     myFilterTarget = FilterType.NONE;
+    myHitTablesVersion++;
     myNewSelectedComponents.clear();
     if (myHitComponent != null && myHitListener.getClosestComponent() == myHitComponent) {
       myNewSelectedComponents.add(myHitComponent);
@@ -1085,6 +1130,7 @@ public class Scene implements ModelListener, SelectionListener {
 
   public void needsRebuildList() {
     myNeedsDisplayListRebuilt = true;
+    myHitTablesVersion++;
   }
   //endregion
   /////////////////////////////////////////////////////////////////////////////
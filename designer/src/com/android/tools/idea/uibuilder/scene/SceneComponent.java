@@ -33,6 +33,7 @@ import org.jetbrains.annotations.Nullable;
 import java.awt.*;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 /**
@@ -81,6 +82,14 @@ public class SceneComponent {
 
   private Notch.Provider myNotchProvider;
 
+  // Retained commands drawing the component itself, and the state they were built from
+  private final DisplayList myContentList = new DisplayList();
+  private final int[] myContentKey = new int[CONTENT_KEY_SIZE];
+  private SceneContext myContentContext;
+  private SceneDecorator myContentDecorator;
+  private boolean myContentDirty = true;
+  private static final int CONTENT_KEY_SIZE = 12;
+
   public int getCenterX() {
     return myCurrentLeft + (myCurrentRight - myCurrentLeft) / 2;
   }
@@ -515,6 +524,7 @@ public class SceneComponent {
    * @param component the NlComponent to update from
    */
   public void updateFrom(@NotNull NlComponent component) {
+    myContentDirty = true;
     if (myScene.getAnimate()) {
       long time = System.currentTimeMillis();
       myAnimatedDrawX.setTarget(myScene.pxToDp(component.x), time);
@@ -612,6 +622,50 @@ public class SceneComponent {
     myDecorator.buildList(list, time, sceneContext, this);
   }
 
+  /**
+   * Add the commands drawing the component itself (but not its targets nor its children) to the list.
+   * The commands are retained, and only built again by the decorator if the bounds or the draw state of the
+   * component, the transform or the NlComponent changed since they were built.
+   *
+   * @param time
+   * @param list
+   * @param sceneContext
+   */
+  public void buildContentList(long time, @NotNull DisplayList list, @NotNull SceneContext sceneContext) {
+    if (updateContentKey(time, sceneContext)) {
+      myContentList.clear();
+      myDecorator.buildListComponent(myContentList, time, sceneContext, this);
+    }
+    list.addAll(myContentList);
+  }
+
+  /**
+   * Mark the retained commands of the component as stale
+   */
+  public void invalidateContentList() {
+    myContentDirty = true;
+  }
+
+  private boolean updateContentKey(long time, @NotNull SceneContext sceneContext) {
+    int[] key = {
+      myCurrentLeft, myCurrentTop, myCurrentRight, myCurrentBottom,
+      getDrawX(time), getDrawY(time), getDrawWidth(time), getDrawHeight(time),
+      myDrawState.ordinal(),
+      sceneContext.getSwingX(0), sceneContext.getSwingY(0), sceneContext.getSwingDimension(1000)
+    };
+    boolean changed = myContentDirty
+                      || myContentContext != sceneContext
+                      || myContentDecorator != myDecorator
+                      || !Arrays.equals(key, myContentKey);
+    if (changed) {
+      System.arraycopy(key, 0, myContentKey, 0, CONTENT_KEY_SIZE);
+      myContentContext = sceneContext;
+      myContentDecorator = myDecorator;
+      myContentDirty = false;
+    }
+    return changed;
+  }
+
   //endregion
   /////////////////////////////////////////////////////////////////////////////
 
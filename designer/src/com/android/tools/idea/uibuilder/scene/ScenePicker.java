@@ -19,11 +19,18 @@ import java.util.Arrays;
 
 /**
  * This class provides efficient detection of many objects
+ * <p>
+ * Once more than {@link #INDEX_THRESHOLD} objects have been added, {@link #find(int, int)} uses a uniform grid
+ * built over the bounds of the objects, so that only the objects whose bounds cover the cell of the point are tested.
+ * The grid is rebuilt lazily on the first find after objects have been added, so the picker should be reused
+ * across finds as long as the objects do not change. Objects are always reported in the order they were added.
  */
 public class ScenePicker {
   private final static int MAX_DATA_SIZE = 10;
   private final static int INITAL_OBJECT_STORE = 30;
   private final static double EPSILON = 0.00001;
+  final static int INDEX_THRESHOLD = 64;
+  private final static int MAX_CELLS_PER_OBJECT = 16; // bigger objects are kept out of the grid
   private double[] mObjectData = new double[100];
   private int mObjectDataUsed = 0;
   private int[] mObjectOffset = new int[INITAL_OBJECT_STORE];
@@ -33,6 +40,21 @@ public class ScenePicker {
   HitElementListener mHitElementListener;
 
   private int mObjectCount = 0;
+  int mIndexThreshold = INDEX_THRESHOLD;
+
+  // Grid index, valid for the first mIndexedCount objects
+  private int mIndexedCount = 0;
+  private int mGridX;
+  private int mGridY;
+  private int mCellWidth;
+  private int mCellHeight;
+  private int mColumns;
+  private int mRows;
+  private int[] mCellStart = new int[1]; // start of each cell in mCellObjects, one extra entry for the end
+  private int[] mCellObjects = new int[0]; // object indexes, increasing within each cell
+  private int[] mLargeObjects = new int[0]; // objects covering too many cells, increasing
+  private int mLargeCount = 0;
+
   private final static int OBJECT_LINE = 0;
   private final static int OBJECT_POINT = 1;
   private final static int OBJECT_CURVE = 2;
@@ -57,19 +79,138 @@ public class ScenePicker {
    * @param y location y
    */
   public void find(int x, int y) {
+    if (mObjectCount < mIndexThreshold) {
+      for (int i = 0; i < mObjectCount; i++) {
+        check(i, x, y);
+      }
+      return;
+    }
+    if (mIndexedCount != mObjectCount) {
+      buildIndex();
+    }
+    if (x < mGridX || y < mGridY) {
+      return;
+    }
+    int col = (x - mGridX) / mCellWidth;
+    int row = (y - mGridY) / mCellHeight;
+    if (col >= mColumns || row >= mRows) {
+      return;
+    }
+    int cell = row * mColumns + col;
+    int p = mCellStart[cell];
+    int end = mCellStart[cell + 1];
+    int l = 0;
+    // merge the objects of the cell with the large objects to keep the insertion order
+    while (p < end || l < mLargeCount) {
+      if (l == mLargeCount || (p < end && mCellObjects[p] < mLargeObjects[l])) {
+        check(mCellObjects[p++], x, y);
+      }
+      else {
+        check(mLargeObjects[l++], x, y);
+      }
+    }
+  }
+
+  private void check(int i, int x, int y) {
+    int p = i * 4;
+    int x1 = mRect[p++];
+    int y1 = mRect[p++];
+    int x2 = mRect[p++];
+    int y2 = mRect[p];
+    if (inRect(x, y, x1, y1, x2, y2)) {
+      SelectionEngine selector = myEngines[mTypes[i]];
+      if (selector.inRange(i, x, y)) {
+        mHitElementListener.over(mObjects[i], selector.distance());
+      }
+    }
+  }
+
+  /**
+   * Build the grid over the bounds of all the objects, with roughly one object per cell
+   */
+  private void buildIndex() {
+    int minX = Integer.MAX_VALUE;
+    int minY = Integer.MAX_VALUE;
+    int maxX = Integer.MIN_VALUE;
+    int maxY = Integer.MIN_VALUE;
     for (int i = 0; i < mObjectCount; i++) {
       int p = i * 4;
-      int x1 = mRect[p++];
-      int y1 = mRect[p++];
-      int x2 = mRect[p++];
-      int y2 = mRect[p];
-      if (inRect(x, y, x1, y1, x2, y2)) {
-        SelectionEngine selector = myEngines[mTypes[i]];
-        if (selector.inRange(i, x, y)) {
-          mHitElementListener.over(mObjects[i], selector.distance());
+      minX = Math.min(minX, mRect[p]);
+      minY = Math.min(minY, mRect[p + 1]);
+      maxX = Math.max(maxX, mRect[p + 2]);
+      maxY = Math.max(maxY, mRect[p + 3]);
+    }
+    int side = (int)Math.ceil(Math.sqrt(mObjectCount));
+    mGridX = minX;
+    mGridY = minY;
+    mCellWidth = Math.max(1, (int)(((long)maxX - minX + 1 + side - 1) / side));
+    mCellHeight = Math.max(1, (int)(((long)maxY - minY + 1 + side - 1) / side));
+    mColumns = (int)(((long)maxX - minX) / mCellWidth) + 1;
+    mRows = (int)(((long)maxY - minY) / mCellHeight) + 1;
+
+    int cells = mColumns * mRows;
+    if (mCellStart.length < cells + 1) {
+      mCellStart = new int[cells + 1];
+    }
+    else {
+      Arrays.fill(mCellStart, 0, cells + 1, 0);
+    }
+    if (mLargeObjects.length < mObjectCount) {
+      mLargeObjects = new int[mTypes.length];
+    }
+    mLargeCount = 0;
+
+    // first count the objects in each cell, then fill the cells in object order
+    int total = 0;
+    for (int i = 0; i < mObjectCount; i++) {
+      int p = i * 4;
+      int col1 = (mRect[p] - mGridX) / mCellWidth;
+      int row1 = (mRect[p + 1] - mGridY) / mCellHeight;
+      int col2 = (mRect[p + 2] - mGridX) / mCellWidth;
+      int row2 = (mRect[p + 3] - mGridY) / mCellHeight;
+      if ((col2 - col1 + 1) * (row2 - row1 + 1) > MAX_CELLS_PER_OBJECT) {
+        mLargeObjects[mLargeCount++] = i;
+        continue;
+      }
+      for (int row = row1; row <= row2; row++) {
+        for (int col = col1; col <= col2; col++) {
+          mCellStart[row * mColumns + col + 1]++;
+          total++;
+        }
+      }
+    }
+    for (int c = 0; c < cells; c++) {
+      mCellStart[c + 1] += mCellStart[c];
+    }
+    if (mCellObjects.length < total) {
+      mCellObjects = new int[total];
+    }
+    int[] fill = Arrays.copyOf(mCellStart, cells);
+    int large = 0;
+    for (int i = 0; i < mObjectCount; i++) {
+      if (large < mLargeCount && mLargeObjects[large] == i) {
+        large++;
+        continue;
+      }
+      int p = i * 4;
+      int col1 = (mRect[p] - mGridX) / mCellWidth;
+      int row1 = (mRect[p + 1] - mGridY) / mCellHeight;
+      int col2 = (mRect[p + 2] - mGridX) / mCellWidth;
+      int row2 = (mRect[p + 3] - mGridY) / mCellHeight;
+      for (int row = row1; row <= row2; row++) {
+        for (int col = col1; col <= col2; col++) {
+          mCellObjects[fill[row * mColumns + col]++] = i;
         }
       }
     }
+    mIndexedCount = mObjectCount;
+  }
+
+  /**
+   * @return the number of objects added since the last reset
+   */
+  public int getObjectCount() {
+    return mObjectCount;
   }
 
   /**
@@ -111,6 +252,8 @@ public class ScenePicker {
   public void reset() {
     mObjectCount = 0;
     mObjectDataUsed = 0;
+    mIndexedCount = 0;
+    mLargeCount = 0;
     Arrays.fill(mObjects, null);// delete references
   }
 
@@ -91,7 +91,7 @@ public class SceneDecorator {
    * The Display list will contain a collection of commands that in screen space
    * It is also responsible to draw its targets (but not creating or placing targets
    * <ol>
-   * <li>It adds a rectangle</li>
+   * <li>It adds a rectangle (the commands are retained by the component, see {@link SceneComponent#buildContentList})</li>
    * <li>adds targets</li>
    * <li>add children (If children they are wrapped in a clip)</li>
    * </ol>
@@ -102,7 +102,7 @@ public class SceneDecorator {
    * @param component
    */
   public void buildList(@NotNull DisplayList list, long time, @NotNull SceneContext sceneContext, @NotNull SceneComponent component) {
-    buildListComponent(list, time, sceneContext, component);
+    component.buildContentList(time, list, sceneContext); // retained, calls buildListComponent() when needed
     buildListTargets(list, time, sceneContext, component);
     buildListChildren(list, time, sceneContext, component);
   }
@@ -34,9 +34,11 @@ import java.util.HashMap;
 public class DisplayList {
   private final static boolean DEBUG = false;
   private ArrayList<DrawCommand> myCommands = new ArrayList<DrawCommand>();
+  private CommandSet mySortedCommands; // sorted commands of the last paint, until the list is modified
 
   public void clear() {
     myCommands.clear();
+    mySortedCommands = null;
   }
 
   public ArrayList<DrawCommand> getCommands() {
@@ -317,6 +319,17 @@ public class DisplayList {
   /////////////////////////////////////////////////////////////////////////////
   public void add(DrawCommand cmd) {
     myCommands.add(cmd);
+    mySortedCommands = null;
+  }
+
+  /**
+   * Add all the commands of another list (e.g. the commands retained by a component)
+   *
+   * @param list
+   */
+  public void addAll(DisplayList list) {
+    myCommands.addAll(list.myCommands);
+    mySortedCommands = null;
   }
 
   public UNClip addClip(SceneContext transform, Rectangle r) {
@@ -325,7 +338,7 @@ public class DisplayList {
     int w = transform.getSwingDimension(r.width);
     int h = transform.getSwingDimension(r.height);
     Clip c = new Clip(l, t, w, h);
-    myCommands.add(c);
+    add(c);
     return new UNClip(c);
   }
 
@@ -334,7 +347,7 @@ public class DisplayList {
     int t = transform.getSwingY(r.y);
     int w = transform.getSwingDimension(r.width);
     int h = transform.getSwingDimension(r.height);
-    myCommands.add(new Rect(l, t, w, h, color));
+    add(new Rect(l, t, w, h, color));
   }
 
   public void addRect(SceneContext transform, float left, float top, float right, float bottom, Color color) {
@@ -489,9 +502,15 @@ public class DisplayList {
       System.out.println("<");
     }
     Graphics2D g = (Graphics2D)g2.create();
-    DrawCommand[] array = myCommands.toArray(new DrawCommand[myCommands.size()]);
-    CommandSet set = new CommandSet(array, 0, array.length - 1);
-    set.sort();
+    // The sorted set is kept as long as the list does not change, e.g. when the surface is repainted
+    // without the display list having to be rebuilt
+    CommandSet set = mySortedCommands;
+    if (set == null) {
+      DrawCommand[] array = myCommands.toArray(new DrawCommand[myCommands.size()]);
+      set = new CommandSet(array, 0, array.length - 1);
+      set.sort();
+      mySortedCommands = set;
+    }
     if (DEBUG) {
       set.print(">");
       System.out.println("-end-");
@@ -50,6 +50,7 @@ import com.intellij.openapi.actionSystem.DataProvider;
 import com.intellij.openapi.actionSystem.LangDataKeys;
 import com.intellij.openapi.actionSystem.PlatformDataKeys;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.fileEditor.FileEditor;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.project.Project;
@@ -83,6 +84,7 @@ import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static com.android.tools.idea.uibuilder.graphics.NlConstants.*;
 
@@ -91,7 +93,15 @@ import static com.android.tools.idea.uibuilder.graphics.NlConstants.*;
  * or more device renderings, etc
  */
 public class DesignSurface extends EditorDesignSurface implements Disposable, DataProvider {
+  private static final Logger LOG = Logger.getInstance(DesignSurface.class);
   private static final Integer LAYER_PROGRESS = JLayeredPane.POPUP_LAYER + 100;
+  /**
+   * Margin around a {@link ScreenView} repainted by {@link #repaint(ScreenView)}, for the decorations (e.g. anchors or
+   * guideline cycles) drawn slightly outside of it
+   */
+  private static final int SCREEN_VIEW_REPAINT_MARGIN = 40;
+  /** Frames taking longer than this are logged */
+  private static final long LOGGED_FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
   private static final String PROPERTY_ERROR_PANEL_SPLITTER = DesignSurface.class.getCanonicalName() + ".error.panel.split";
   /**
    * {@link RenderErrorModel} with one issue that is displayed while the project is still building. This avoids displaying an error
@@ -116,6 +126,7 @@ public class DesignSurface extends EditorDesignSurface implements Disposable, Da
 
   private boolean myIsCanvasResizing = false;
   private boolean myMockupVisible;
+  private boolean myRenderProfileVisible;
   private MockupEditor myMockupEditor;
   private boolean myZoomFitted = true;
   /**
@@ -174,6 +185,7 @@ public class DesignSurface extends EditorDesignSurface implements Disposable, Da
   private double myScale = 1;
   @NotNull private final JScrollPane myScrollPane;
   private final MyLayeredPane myLayeredPane;
+  private final FrameTimeStatistics myFrameTimeStatistics = new FrameTimeStatistics();
   private boolean myDeviceFrames = false;
   private final List<Layer> myLayers = Lists.newArrayList();
   private final InteractionManager myInteractionManager;
@@ -458,6 +470,7 @@ public class DesignSurface extends EditorDesignSurface implements Disposable, Da
       myLayers.add(new SceneLayer(myScreenView, false));
     }
     myLayers.add(new WarningLayer(myScreenView));
+    myLayers.add(new RenderProfileLayer(this, myScreenView));
     if (getLayoutType().isSupportedByDesigner()) {
       myLayers.add(new CanvasResizeLayer(this, myScreenView));
     }
@@ -527,6 +540,24 @@ public class DesignSurface extends EditorDesignSurface implements Disposable, Da
     return myScreenView;
   }
 
+  /**
+   * Repaint only the area of the given {@link ScreenView}, e.g. for the frames of an animation of its scene
+   */
+  public void repaint(@NotNull ScreenView screenView) {
+    Dimension size = screenView.getSize();
+    Rectangle dirty = new Rectangle(screenView.getX(), screenView.getY(), size.width, size.height);
+    dirty.grow(SCREEN_VIEW_REPAINT_MARGIN, SCREEN_VIEW_REPAINT_MARGIN);
+    myLayeredPane.repaint(dirty);
+  }
+
+  /**
+   * Returns the time spent painting the frames of this surface
+   */
+  @NotNull
+  public FrameTimeStatistics getFrameTimeStatistics() {
+    return myFrameTimeStatistics;
+  }
+
   @Nullable
   public ScreenView getScreenView(@SwingCoordinate int x, @SwingCoordinate int y) {
     // Currently only a single screen view active in the canvas.
@@ -1191,6 +1222,20 @@ public class DesignSurface extends EditorDesignSurface implements Disposable, Da
 
     @Override
     protected void paintComponent(@NotNull Graphics graphics) {
+      long start = System.nanoTime();
+      try {
+        paintSurface(graphics);
+      }
+      finally {
+        long elapsed = System.nanoTime() - start;
+        myFrameTimeStatistics.record(elapsed);
+        if (elapsed > LOGGED_FRAME_NANOS && LOG.isDebugEnabled()) {
+          LOG.debug(String.format("Slow frame: %.2fms, clip %s, %s", elapsed / 1e6, graphics.getClipBounds(), myFrameTimeStatistics));
+        }
+      }
+    }
+
+    private void paintSurface(@NotNull Graphics graphics) {
       super.paintComponent(graphics);
 
       Graphics2D g2d = (Graphics2D)graphics;
@@ -1691,6 +1736,18 @@ public class DesignSurface extends EditorDesignSurface implements Disposable, Da
     return myMockupVisible;
   }
 
+  /**
+   * Shows or hides the render cost of the layout over the screen view, see {@link RenderProfileLayer}
+   */
+  public void setRenderProfileVisible(boolean renderProfileVisible) {
+    myRenderProfileVisible = renderProfileVisible;
+    repaint();
+  }
+
+  public boolean isRenderProfileVisible() {
+    return myRenderProfileVisible;
+  }
+
   public void setMockupEditor(@Nullable MockupEditor mockupEditor) {
     myMockupEditor = mockupEditor;
   }
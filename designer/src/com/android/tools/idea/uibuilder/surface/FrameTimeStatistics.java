@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.uibuilder.surface;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent painting the frames of a {@link DesignSurface}. Frames are painted on the EDT, so this class is not thread safe
+ * and should only be used from the EDT.
+ */
+public class FrameTimeStatistics {
+  /** Frames taking longer than this are counted as slow (one frame at 60 fps) */
+  public static final long SLOW_FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+
+  private long myFrameCount;
+  private long mySlowFrameCount;
+  private long myTotalNanos;
+  private long myMaxNanos;
+  private long myLastNanos;
+
+  void record(long elapsedNanos) {
+    myFrameCount++;
+    myTotalNanos += elapsedNanos;
+    myMaxNanos = Math.max(myMaxNanos, elapsedNanos);
+    myLastNanos = elapsedNanos;
+    if (elapsedNanos > SLOW_FRAME_NANOS) {
+      mySlowFrameCount++;
+    }
+  }
+
+  public long getFrameCount() {
+    return myFrameCount;
+  }
+
+  public long getSlowFrameCount() {
+    return mySlowFrameCount;
+  }
+
+  public double getAverageFrameTimeMs() {
+    return myFrameCount == 0 ? 0 : myTotalNanos / 1e6 / myFrameCount;
+  }
+
+  public double getMaxFrameTimeMs() {
+    return myMaxNanos / 1e6;
+  }
+
+  public double getLastFrameTimeMs() {
+    return myLastNanos / 1e6;
+  }
+
+  public void reset() {
+    myFrameCount = 0;
+    mySlowFrameCount = 0;
+    myTotalNanos = 0;
+    myMaxNanos = 0;
+    myLastNanos = 0;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("FrameTimeStatistics{frames=%d, slow=%d, avg=%.2fms, max=%.2fms, last=%.2fms}",
+                         getFrameCount(), getSlowFrameCount(), getAverageFrameTimeMs(), getMaxFrameTimeMs(),
+                         getLastFrameTimeMs());
+  }
+}
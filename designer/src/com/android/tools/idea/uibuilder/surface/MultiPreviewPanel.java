@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.uibuilder.surface;
+
+import com.android.sdklib.devices.Device;
+import com.android.tools.idea.configurations.Configuration;
+import com.android.tools.idea.uibuilder.model.ModelListener;
+import com.android.tools.idea.uibuilder.model.NlModel;
+import com.google.common.annotations.VisibleForTesting;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.ui.components.JBLabel;
+import com.intellij.util.Alarm;
+import com.intellij.util.ui.JBUI;
+import com.intellij.util.ui.update.MergingUpdateQueue;
+import com.intellij.util.ui.update.Update;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.android.ide.common.rendering.HardwareConfigHelper.*;
+
+/**
+ * Grid showing the layout of a model rendered for several devices at once. The cells are filled in as the renders
+ * complete, and the whole grid is rendered again once the model stops changing.
+ */
+public class MultiPreviewPanel extends JPanel implements Disposable, ModelListener {
+  private static final int CELL_SIZE = 240;
+  /**
+   * Delay after the last model change before the grid is rendered again, so typing doesn't render every device on each key
+   */
+  private static final int REFRESH_DELAY_MS = 250;
+
+  @NotNull private final NlModel myModel;
+  @NotNull private final MultiPreviewRenderer myRenderer;
+  private final List<Configuration> myConfigurations;
+  private final Map<Configuration, PreviewCell> myCells = new IdentityHashMap<>();
+  private final MergingUpdateQueue myRefreshQueue =
+    new MergingUpdateQueue("android.layout.multi.preview", REFRESH_DELAY_MS, true, null, this, null, Alarm.ThreadToUse.SWING_THREAD);
+
+  public MultiPreviewPanel(@NotNull NlModel model, @NotNull List<Device> devices) {
+    this(model, devices, new MultiPreviewRenderer(model.getFacet()));
+  }
+
+  @VisibleForTesting
+  MultiPreviewPanel(@NotNull NlModel model, @NotNull List<Device> devices, @NotNull MultiPreviewRenderer renderer) {
+    super(new GridLayout(0, Math.max(1, (int)Math.ceil(Math.sqrt(devices.size()))), JBUI.scale(8), JBUI.scale(8)));
+    myModel = model;
+    myRenderer = renderer;
+    Disposer.register(this, myRenderer);
+    myRefreshQueue.setRestartTimerOnAdd(true);
+    myConfigurations = new ArrayList<>(MultiPreviewRenderer.createDeviceConfigurations(model.getConfiguration(), devices));
+    for (Configuration configuration : myConfigurations) {
+      PreviewCell cell = new PreviewCell(configuration);
+      myCells.put(configuration, cell);
+      add(cell);
+    }
+    myModel.addListener(this);
+    refresh();
+  }
+
+  /**
+   * Returns the phones and tablets to preview a layout on: the Nexus devices, from the smallest screen to the largest
+   */
+  @NotNull
+  public static List<Device> getScreenSizeDevices(@NotNull Configuration configuration) {
+    List<Device> devices = new ArrayList<>();
+    for (Device device : configuration.getConfigurationManager().getDevices()) {
+      if (isNexus(device) && !MANUFACTURER_GENERIC.equals(device.getManufacturer()) && !isWear(device) && !isTv(device)) {
+        devices.add(device);
+      }
+    }
+    sortDevicesByScreenSize(devices);
+    return devices;
+  }
+
+  /**
+   * Renders all the configurations again, dropping the results of the renders still in progress
+   */
+  public void refresh() {
+    for (PreviewCell cell : myCells.values()) {
+      cell.setPending();
+    }
+    myRenderer.render(myModel.getFile(), myConfigurations, preview -> {
+      PreviewCell cell = myCells.get(preview.getConfiguration());
+      if (cell != null) {
+        cell.setPreview(preview);
+      }
+    });
+  }
+
+  @Override
+  public void modelChanged(@NotNull NlModel model) {
+    // Called for each edit, and not on the dispatch thread
+    myRefreshQueue.queue(new Update("Refresh previews") {
+      @Override
+      public void run() {
+        refresh();
+      }
+
+      @Override
+      public boolean canEat(Update update) {
+        return true;
+      }
+    });
+  }
+
+  @Override
+  public void modelRendered(@NotNull NlModel model) {
+  }
+
+  @Override
+  public void modelChangedOnLayout(@NotNull NlModel model, boolean animate) {
+  }
+
+  @VisibleForTesting
+  @NotNull
+  MergingUpdateQueue getRefreshQueue() {
+    return myRefreshQueue;
+  }
+
+  @Override
+  public void dispose() {
+    myModel.removeListener(this);
+  }
+
+  private static class PreviewCell extends JPanel {
+    private final JBLabel myTitle = new JBLabel();
+    private final JBLabel myStatus = new JBLabel();
+    private BufferedImage myImage;
+
+    PreviewCell(@NotNull Configuration configuration) {
+      super(new BorderLayout());
+      setPreferredSize(JBUI.size(CELL_SIZE, CELL_SIZE));
+      Device device = configuration.getDevice();
+      myTitle.setText(device != null ? device.getDisplayName() : "");
+      myStatus.setHorizontalAlignment(SwingConstants.CENTER);
+      add(myTitle, BorderLayout.NORTH);
+      add(myStatus, BorderLayout.CENTER);
+    }
+
+    void setPending() {
+      myStatus.setText("Rendering...");
+      myStatus.setVisible(myImage == null);
+      repaint();
+    }
+
+    void setPreview(@NotNull MultiPreviewRenderer.Preview preview) {
+      myImage = preview.getImage();
+      myStatus.setText(myImage == null ? "Render problem" : "");
+      myStatus.setVisible(myImage == null);
+      myTitle.setToolTipText(String.format("Rendered in %1$dms", preview.getRenderTimeMs()));
+      repaint();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+      super.paintComponent(g);
+      if (myImage == null) {
+        return;
+      }
+      int top = myTitle.getHeight();
+      int width = getWidth();
+      int height = getHeight() - top;
+      double scale = Math.min(1, Math.min(width / (double)myImage.getWidth(), height / (double)myImage.getHeight()));
+      int w = (int)(myImage.getWidth() * scale);
+      int h = (int)(myImage.getHeight() * scale);
+      Graphics2D g2 = (Graphics2D)g.create();
+      try {
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2.drawImage(myImage, (width - w) / 2, top + (height - h) / 2, w, h, null);
+      }
+      finally {
+        g2.dispose();
+      }
+    }
+  }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.uibuilder.surface;
+
+import com.android.sdklib.IAndroidTarget;
+import com.android.sdklib.devices.Device;
+import com.android.tools.idea.configurations.Configuration;
+import com.android.tools.idea.rendering.RenderLogger;
+import com.android.tools.idea.rendering.RenderResult;
+import com.android.tools.idea.rendering.RenderService;
+import com.android.tools.idea.rendering.RenderTask;
+import com.google.common.annotations.VisibleForTesting;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.psi.xml.XmlFile;
+import com.intellij.util.concurrency.BoundedTaskExecutor;
+import org.jetbrains.android.facet.AndroidFacet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.ide.PooledThreadExecutor;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Renders a layout for a list of configurations (typically one per device) so they can be shown side by side.
+ * <p/>
+ * The configurations are rendered concurrently on a bounded number of pooled threads. Layoutlib itself is single
+ * threaded (see {@link RenderService#runRenderAction}), so the parallelism is used for the work around the render
+ * sessions: creating the render tasks, resolving the resources of each configuration and copying the images.
+ * Configurations sharing the same platform and theme are scheduled next to each other so they reuse the cached
+ * resource resolvers and module class loader.
+ * <p/>
+ * Each result is delivered on the dispatch thread as soon as its render completes. Calling {@link #render} again, or
+ * {@link #cancel()}, makes the pending renders obsolete: the ones not yet started are skipped and the results of the
+ * ones in progress are dropped.
+ */
+public class MultiPreviewRenderer implements Disposable {
+  private static final Logger LOG = Logger.getInstance(MultiPreviewRenderer.class);
+
+  /**
+   * Default number of configurations prepared concurrently
+   */
+  public static final int DEFAULT_PARALLELISM = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+  public interface PreviewListener {
+    /**
+     * Called on the dispatch thread when the preview of a configuration is available
+     */
+    void previewRendered(@NotNull Preview preview);
+  }
+
+  /**
+   * Result of rendering a layout for one configuration
+   */
+  public static class Preview {
+    @NotNull private final Configuration myConfiguration;
+    @Nullable private final BufferedImage myImage;
+    @NotNull private final RenderLogger myLogger;
+    private final long myRenderTimeMs;
+
+    private Preview(@NotNull Configuration configuration, @Nullable BufferedImage image, @NotNull RenderLogger logger, long renderTimeMs) {
+      myConfiguration = configuration;
+      myImage = image;
+      myLogger = logger;
+      myRenderTimeMs = renderTimeMs;
+    }
+
+    @NotNull
+    public Configuration getConfiguration() {
+      return myConfiguration;
+    }
+
+    /**
+     * Returns the rendered image, or null if the layout could not be rendered for this configuration
+     */
+    @Nullable
+    public BufferedImage getImage() {
+      return myImage;
+    }
+
+    @NotNull
+    public RenderLogger getLogger() {
+      return myLogger;
+    }
+
+    public long getRenderTimeMs() {
+      return myRenderTimeMs;
+    }
+  }
+
+  @NotNull private final AndroidFacet myFacet;
+  @NotNull private final Executor myExecutor;
+  /**
+   * Incremented by each call to {@link #render} and {@link #cancel()}; renders of an older generation are obsolete
+   */
+  private final AtomicLong myGeneration = new AtomicLong();
+
+  public MultiPreviewRenderer(@NotNull AndroidFacet facet) {
+    this(facet, DEFAULT_PARALLELISM);
+  }
+
+  public MultiPreviewRenderer(@NotNull AndroidFacet facet, int parallelism) {
+    myFacet = facet;
+    myExecutor = new BoundedTaskExecutor(PooledThreadExecutor.INSTANCE, parallelism);
+  }
+
+  /**
+   * Creates a configuration for each of the given devices, based on the given configuration
+   */
+  @NotNull
+  public static List<Configuration> createDeviceConfigurations(@NotNull Configuration base, @NotNull Collection<Device> devices) {
+    List<Configuration> configurations = new ArrayList<>(devices.size());
+    for (Device device : devices) {
+      Configuration configuration = Configuration.copy(base);
+      configuration.setDevice(device, false);
+      configurations.add(configuration);
+    }
+    return configurations;
+  }
+
+  /**
+   * Renders the file for each of the configurations, cancelling the renders requested before
+   */
+  public void render(@NotNull XmlFile file, @NotNull List<Configuration> configurations, @NotNull PreviewListener listener) {
+    long generation = myGeneration.incrementAndGet();
+    List<Configuration> sorted = new ArrayList<>(configurations);
+    sorted.sort(Comparator.comparing(MultiPreviewRenderer::getSharedStateKey));
+    for (Configuration configuration : sorted) {
+      myExecutor.execute(() -> renderConfiguration(generation, file, configuration, listener));
+    }
+  }
+
+  /**
+   * Cancels the pending renders
+   */
+  public void cancel() {
+    myGeneration.incrementAndGet();
+  }
+
+  @VisibleForTesting
+  boolean isObsolete(long generation) {
+    return generation != myGeneration.get() || myFacet.isDisposed();
+  }
+
+  /**
+   * Key of the state the render tasks of a configuration share with the other configurations: the class loader is
+   * shared per platform and the resource resolvers per theme
+   */
+  @NotNull
+  private static String getSharedStateKey(@NotNull Configuration configuration) {
+    IAndroidTarget target = configuration.getTarget();
+    String theme = configuration.getTheme();
+    return (target != null ? target.hashString() : "") + '/' + (theme != null ? theme : "");
+  }
+
+  private void renderConfiguration(long generation,
+                                   @NotNull XmlFile file,
+                                   @NotNull Configuration configuration,
+                                   @NotNull PreviewListener listener) {
+    if (isObsolete(generation)) {
+      return;
+    }
+
+    long start = System.currentTimeMillis();
+    RenderService renderService = RenderService.get(myFacet);
+    RenderLogger logger = renderService.createLogger();
+    // Resolve the resources here rather than on the render thread. The resolver is cached by the configuration manager,
+    // so the previews sharing the same theme and qualifiers reuse it.
+    configuration.getResourceResolver();
+    RenderTask task = renderService.createTask(file, configuration, logger, null);
+    if (task == null) {
+      deliver(generation, new Preview(configuration, null, logger, System.currentTimeMillis() - start), listener);
+      return;
+    }
+
+    BufferedImage image = null;
+    try {
+      if (isObsolete(generation)) {
+        return;
+      }
+      RenderResult result = task.inflate();
+      if (result != null && result.getRenderResult().isSuccess() && !isObsolete(generation)) {
+        //noinspection deprecation
+        result = task.render();
+        if (result != null && result.hasImage()) {
+          image = result.getRenderedImage().getCopy();
+        }
+      }
+    }
+    catch (Throwable t) {
+      LOG.warn(t);
+    }
+    finally {
+      task.dispose();
+    }
+    deliver(generation, new Preview(configuration, image, logger, System.currentTimeMillis() - start), listener);
+  }
+
+  private void deliver(long generation, @NotNull Preview preview, @NotNull PreviewListener listener) {
+    ApplicationManager.getApplication().invokeLater(() -> {
+      // Check again on the dispatch thread, the layout might have changed while the result was waiting
+      if (!isObsolete(generation)) {
+        listener.previewRendered(preview);
+      }
+    }, ModalityState.any());
+  }
+
+  @Override
+  public void dispose() {
+    cancel();
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.uibuilder.surface;
+
+import com.android.tools.idea.rendering.RenderResult;
+import com.android.tools.idea.rendering.RenderTimings;
+import com.android.tools.idea.uibuilder.model.NlComponent;
+import com.android.tools.idea.uibuilder.model.NlModel;
+import com.google.common.collect.Maps;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.android.SdkConstants.*;
+
+/**
+ * Cost of rendering a layout: the time spent in each phase of its last render, and the complexity of its view hierarchy.
+ * <p/>
+ * Layoutlib does not report how many times each view was measured, so the number of measure passes of a view is estimated from its
+ * ancestors: each {@code RelativeLayout} and weighted {@code LinearLayout} measures its children twice, which doubles the passes of
+ * their whole subtree.
+ */
+public class RenderProfile {
+  public static final String CSV_HEADER = "timestamp,file,parseMs,inflateMs,renderMs,imageTransferMs,views,maxDepth,maxMeasurePasses";
+
+  private final long myTimestamp;
+  @NotNull private final String myFileName;
+  @NotNull private final RenderTimings myTimings;
+  @NotNull private final Map<NlComponent, Integer> myMeasurePasses;
+  private final int myMaxDepth;
+  private final int myMaxMeasurePasses;
+
+  private RenderProfile(@NotNull String fileName,
+                        @NotNull RenderTimings timings,
+                        @NotNull Map<NlComponent, Integer> measurePasses,
+                        int maxDepth) {
+    myTimestamp = System.currentTimeMillis();
+    myFileName = fileName;
+    myTimings = timings;
+    myMeasurePasses = measurePasses;
+    myMaxDepth = maxDepth;
+    int maxPasses = 0;
+    for (int passes : measurePasses.values()) {
+      maxPasses = Math.max(maxPasses, passes);
+    }
+    myMaxMeasurePasses = maxPasses;
+  }
+
+  /**
+   * Creates the profile of the last render of the given model
+   */
+  @NotNull
+  public static RenderProfile create(@NotNull NlModel model) {
+    RenderResult result = model.getRenderResult();
+    RenderTimings timings = result != null ? result.getTimings() : RenderTimings.EMPTY;
+    Map<NlComponent, Integer> measurePasses = Maps.newIdentityHashMap();
+    int maxDepth = 0;
+    for (NlComponent root : model.getComponents()) {
+      maxDepth = Math.max(maxDepth, computeMeasurePasses(root, 1, 1, measurePasses));
+    }
+    return new RenderProfile(model.getFile().getName(), timings, measurePasses, maxDepth);
+  }
+
+  /**
+   * Records the estimated measure passes of the component and its descendants, and returns the depth of its subtree
+   */
+  private static int computeMeasurePasses(@NotNull NlComponent component,
+                                          int passes,
+                                          int depth,
+                                          @NotNull Map<NlComponent, Integer> measurePasses) {
+    measurePasses.put(component, passes);
+    int childPasses = measuresChildrenTwice(component) ? passes * 2 : passes;
+    int maxDepth = depth;
+    for (NlComponent child : component.getChildren()) {
+      maxDepth = Math.max(maxDepth, computeMeasurePasses(child, childPasses, depth + 1, measurePasses));
+    }
+    return maxDepth;
+  }
+
+  private static boolean measuresChildrenTwice(@NotNull NlComponent component) {
+    String tagName = component.getTagName();
+    if (RELATIVE_LAYOUT.equals(tagName)) {
+      return true;
+    }
+    if (LINEAR_LAYOUT.equals(tagName)) {
+      for (NlComponent child : component.getChildren()) {
+        String weight = child.getAttribute(ANDROID_URI, ATTR_LAYOUT_WEIGHT);
+        if (weight != null && !weight.isEmpty() && !"0".equals(weight)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  @NotNull
+  public RenderTimings getTimings() {
+    return myTimings;
+  }
+
+  /**
+   * Returns the estimated number of times the component is measured in a layout pass
+   */
+  public int getMeasurePasses(@NotNull NlComponent component) {
+    Integer passes = myMeasurePasses.get(component);
+    return passes != null ? passes : 0;
+  }
+
+  @NotNull
+  public Map<NlComponent, Integer> getMeasurePasses() {
+    return Collections.unmodifiableMap(myMeasurePasses);
+  }
+
+  public int getViewCount() {
+    return myMeasurePasses.size();
+  }
+
+  public int getMaxDepth() {
+    return myMaxDepth;
+  }
+
+  public int getMaxMeasurePasses() {
+    return myMaxMeasurePasses;
+  }
+
+  /**
+   * Returns the profile as a line matching {@link #CSV_HEADER}
+   */
+  @NotNull
+  public String toCsvLine() {
+    return String.format(Locale.US, "%1$d,%2$s,%3$.2f,%4$.2f,%5$.2f,%6$.2f,%7$d,%8$d,%9$d",
+                         myTimestamp, myFileName,
+                         myTimings.getTimeMs(RenderTimings.Phase.PARSE),
+                         myTimings.getTimeMs(RenderTimings.Phase.INFLATE),
+                         myTimings.getTimeMs(RenderTimings.Phase.RENDER),
+                         myTimings.getTimeMs(RenderTimings.Phase.IMAGE_TRANSFER),
+                         getViewCount(), myMaxDepth, myMaxMeasurePasses);
+  }
+
+  /**
+   * Appends the profile to the given CSV file, writing the header first if the file does not exist yet. Appending the profiles of
+   * successive builds to the same file allows tracking regressions over time.
+   */
+  public void appendTo(@NotNull File file) throws IOException {
+    boolean newFile = !file.exists();
+    if (newFile) {
+      FileUtil.createParentDirs(file);
+    }
+    try (Writer writer = new FileWriter(file, true)) {
+      if (newFile) {
+        writer.write(CSV_HEADER);
+        writer.write('\n');
+      }
+      writer.write(toCsvLine());
+      writer.write('\n');
+    }
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.uibuilder.surface;
+
+import com.android.tools.idea.rendering.RenderResult;
+import com.android.tools.idea.rendering.RenderTimings;
+import com.android.tools.idea.uibuilder.model.Coordinates;
+import com.android.tools.idea.uibuilder.model.NlComponent;
+import com.android.tools.idea.uibuilder.model.SwingCoordinate;
+import com.intellij.ui.JBColor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.awt.*;
+import java.util.Map;
+
+/**
+ * Paints the {@link RenderProfile} of the screen view when enabled with {@link DesignSurface#setRenderProfileVisible}: each view is tinted
+ * by its estimated number of measure passes, from no tint (measured once) to red (measured 8 times or more), and the phase timings of the
+ * last render are shown in the top left corner.
+ */
+public class RenderProfileLayer extends Layer {
+  private static final int PADDING = 4;
+  private static final int MAX_ALPHA = 160;
+  private static final Color TEXT_COLOR = JBColor.WHITE;
+  private static final Color BOX_COLOR = new Color(0, 0, 0, 180);
+
+  @NotNull private final DesignSurface myDesignSurface;
+  @NotNull private final ScreenView myScreenView;
+  /**
+   * The render result {@link #myProfile} was computed for; a new render produces a new result
+   */
+  @Nullable private RenderResult myProfiledResult;
+  @Nullable private RenderProfile myProfile;
+
+  public RenderProfileLayer(@NotNull DesignSurface designSurface, @NotNull ScreenView screenView) {
+    myDesignSurface = designSurface;
+    myScreenView = screenView;
+  }
+
+  @Nullable
+  private RenderProfile getProfile() {
+    RenderResult result = myScreenView.getModel().getRenderResult();
+    if (result == null) {
+      return null;
+    }
+    if (myProfile == null || result != myProfiledResult) {
+      myProfile = RenderProfile.create(myScreenView.getModel());
+      myProfiledResult = result;
+    }
+    return myProfile;
+  }
+
+  @Override
+  public void paint(@NotNull Graphics2D gc) {
+    if (!myDesignSurface.isRenderProfileVisible()) {
+      return;
+    }
+    RenderProfile profile = getProfile();
+    if (profile == null) {
+      return;
+    }
+
+    Graphics2D g = (Graphics2D)gc.create();
+    try {
+      g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+      for (Map.Entry<NlComponent, Integer> entry : profile.getMeasurePasses().entrySet()) {
+        paintComponent(g, entry.getKey(), entry.getValue());
+      }
+      paintTimings(g, profile);
+    }
+    finally {
+      g.dispose();
+    }
+  }
+
+  private void paintComponent(@NotNull Graphics2D g, @NotNull NlComponent component, int passes) {
+    if (passes <= 1 || !component.isShowing()) {
+      return;
+    }
+    int x = Coordinates.getSwingX(myScreenView, component.x);
+    int y = Coordinates.getSwingY(myScreenView, component.y);
+    int w = Coordinates.getSwingDimension(myScreenView, component.w);
+    int h = Coordinates.getSwingDimension(myScreenView, component.h);
+
+    g.setColor(getHeatColor(passes));
+    g.fillRect(x, y, w, h);
+
+    String label = "x" + passes;
+    FontMetrics metrics = g.getFontMetrics();
+    if (metrics.stringWidth(label) + PADDING * 2 <= w && metrics.getHeight() + PADDING <= h) {
+      g.setColor(JBColor.BLACK);
+      g.drawString(label, x + w - metrics.stringWidth(label) - PADDING, y + metrics.getAscent() + PADDING / 2);
+    }
+  }
+
+  /**
+   * Returns the tint of a view measured the given number of times: yellow for 2 passes, orange for 4 and red from 8
+   */
+  @NotNull
+  private static Color getHeatColor(int passes) {
+    // log2(passes), capped at 3
+    int level = Math.min(3, 31 - Integer.numberOfLeadingZeros(passes));
+    float hue = (3 - level) / 3f * 0.16f;
+    Color color = Color.getHSBColor(hue, 1f, 1f);
+    return new Color(color.getRed(), color.getGreen(), color.getBlue(), MAX_ALPHA * level / 3);
+  }
+
+  private void paintTimings(@NotNull Graphics2D g, @NotNull RenderProfile profile) {
+    RenderTimings timings = profile.getTimings();
+    String[] lines = {
+      String.format("Parse: %.1f ms", timings.getTimeMs(RenderTimings.Phase.PARSE)),
+      String.format("Inflate: %.1f ms", timings.getTimeMs(RenderTimings.Phase.INFLATE)),
+      String.format("Render: %.1f ms", timings.getTimeMs(RenderTimings.Phase.RENDER)),
+      String.format("Image transfer: %.1f ms", timings.getTimeMs(RenderTimings.Phase.IMAGE_TRANSFER)),
+      String.format("Views: %d, depth: %d, max passes: %d", profile.getViewCount(), profile.getMaxDepth(),
+                    profile.getMaxMeasurePasses())
+    };
+
+    FontMetrics metrics = g.getFontMetrics();
+    int width = 0;
+    for (String line : lines) {
+      width = Math.max(width, metrics.stringWidth(line));
+    }
+    int lineHeight = metrics.getHeight();
+    int x = myScreenView.getX() + PADDING;
+    int y = myScreenView.getY() + PADDING;
+
+    g.setColor(BOX_COLOR);
+    g.fillRect(x, y, width + PADDING * 2, lineHeight * lines.length + PADDING * 2);
+    g.setColor(TEXT_COLOR);
+    for (int i = 0; i < lines.length; i++) {
+      g.drawString(lines[i], x + PADDING, y + PADDING + i * lineHeight + metrics.getAscent());
+    }
+  }
+
+  @Nullable
+  @Override
+  public String getTooltip(@SwingCoordinate int mx, @SwingCoordinate int my) {
+    if (!myDesignSurface.isRenderProfileVisible() || myProfile == null) {
+      return null;
+    }
+    int x = Coordinates.getAndroidX(myScreenView, mx);
+    int y = Coordinates.getAndroidY(myScreenView, my);
+    for (NlComponent root : myScreenView.getModel().getComponents()) {
+      NlComponent component = root.findLeafAt(x, y);
+      if (component != null) {
+        int passes = myProfile.getMeasurePasses(component);
+        return passes > 1 ? String.format("%1$s is measured %2$d times per layout pass", component.getTagName(), passes) : null;
+      }
+    }
+    return null;
+  }
+}
@@ -71,8 +71,10 @@ public class SceneLayer extends Layer {
         g.fillRect(mySizeRectangle.x, mySizeRectangle.y, mySizeRectangle.width, mySizeRectangle.height);
       }
 
-      // Draw the components
-      myDisplay.draw(SceneContext.get(myScreenView), g, myScreenView.getScene());
+      // Draw the components, and only repaint this screen view for the next frames of an animation
+      if (myDisplay.draw(SceneContext.get(myScreenView), g, myScreenView.getScene())) {
+        myScreenView.getSurface().repaint(myScreenView);
+      }
     } finally {
       g.dispose();
     }
@@ -168,6 +168,33 @@ public final class NlComponentTest extends AndroidTestCase {
     assertEquals("Hello world", textViewXmlTag.getAttribute("android:text").getValue());
   }
 
+  public void testAttributeTransactionsPendingChanges() {
+    XmlTag textViewXmlTag = createTagFromXml(
+      "<TextView" +
+      " xmlns:android=\"" + ANDROID_URI + "\"" +
+      " android:text=\"Initial\"" +
+      " android:layout_width=\"wrap_content\"" +
+      " android:layout_height=\"wrap_content\" />");
+    NlComponent textView = new NlComponent(myModel, textViewXmlTag);
+
+    AttributesTransaction transaction = textView.startAttributeTransaction();
+    assertFalse(transaction.hasPendingChanges());
+
+    // Setting the values already in the XML does not need a write
+    transaction.setAndroidAttribute("text", "Initial");
+    transaction.setAndroidAttribute("layout_width", "wrap_content");
+    assertFalse(transaction.hasPendingChanges());
+
+    transaction.setAndroidAttribute("layout_width", "150dp");
+    assertTrue(transaction.hasPendingChanges());
+
+    // Reverting the change before the commit leaves nothing to write
+    transaction.setAndroidAttribute("layout_width", "wrap_content");
+    assertFalse(transaction.hasPendingChanges());
+    assertFalse(transaction.commit());
+    assertEquals("wrap_content", textViewXmlTag.getAttribute("android:layout_width").getValue());
+  }
+
   public void testAttributeTransactionsConflicts() {
     XmlTag linearLayoutXmlTag = createTagFromXml(
       "<LinearLayout" +
@@ -81,6 +81,27 @@ public class NlModelTest extends LayoutTestCase {
                  myTreeDumper.toTree(model.getComponents()));
   }
 
+  public void testUnchangedHierarchyOnlyUpdatesBounds() throws Exception {
+    ModelBuilder modelBuilder = createDefaultModelBuilder(false);
+    NlModel model = modelBuilder.build();
+    NlComponent root = model.getComponents().get(0);
+    List<NlComponent> children = root.children;
+
+    // Same XmlTags, only the bounds of the button change
+    ComponentDescriptor button = modelBuilder.findByPath(LINEAR_LAYOUT, BUTTON);
+    assertThat(button).isNotNull();
+    button.withBounds(100, 300, 100, 100);
+    modelBuilder.updateModel(model, true);
+
+    assertEquals("NlComponent{tag=<LinearLayout>, bounds=[0,0:1000x1000, instance=0}\n" +
+                 "    NlComponent{tag=<TextView>, bounds=[100,100:100x100, instance=1}\n" +
+                 "    NlComponent{tag=<Button>, bounds=[100,300:100x100, instance=2}",
+                 myTreeDumper.toTree(model.getComponents()));
+    // The structure was not rebuilt
+    assertSame(root, model.getComponents().get(0));
+    assertSame(children, root.children);
+  }
+
   public void testRemoveFirstChild() throws Exception {
     ModelBuilder modelBuilder = createDefaultModelBuilder(false);
     NlModel model = modelBuilder.build();
@@ -23,6 +23,7 @@ import com.android.tools.idea.rendering.RenderTask;
 import com.android.tools.idea.ui.designer.EditorDesignSurface;
 import com.android.tools.idea.uibuilder.LayoutTestCase;
 import com.android.tools.idea.uibuilder.fixtures.ModelBuilder;
+import com.android.tools.idea.uibuilder.handlers.ViewHandlerManager;
 import com.android.tools.idea.uibuilder.model.NlLayoutType;
 import com.android.tools.idea.uibuilder.model.NlModel;
 import com.android.tools.idea.uibuilder.surface.ScreenView;
@@ -37,12 +38,14 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static com.android.SdkConstants.RELATIVE_LAYOUT;
 import static java.io.File.separator;
+import static org.mockito.Mockito.*;
 
 public class IconPreviewFactoryTest extends LayoutTestCase {
   private static final float MAX_PERCENT_DIFFERENT = 6.5f;
@@ -92,6 +95,53 @@ public class IconPreviewFactoryTest extends LayoutTestCase {
     assertNull(myFactory.renderDragImage(myItem, myScreenView));
   }
 
+  public void testLoadInBackground() throws Exception {
+    Configuration configuration = myScreenView.getConfiguration();
+    Palette palette = loadWidgetsPalette();
+    myFactory.dropCache();
+    Runnable whenLoaded = mock(Runnable.class);
+
+    // Rendered synchronously in unit test mode
+    assertTrue(myFactory.loadInBackground(configuration, palette, whenLoaded));
+    verify(whenLoaded).run();
+    assertNotNull(myFactory.getImage(myItem, configuration, 1.0));
+
+    // Served from the cache the next time
+    assertTrue(myFactory.loadInBackground(configuration, palette, whenLoaded));
+    verifyNoMoreInteractions(whenLoaded);
+  }
+
+  public void testFailedLoadIsNotPersisted() throws Exception {
+    Configuration configuration = myScreenView.getConfiguration();
+    Palette palette = loadWidgetsPalette();
+    myFactory.dropCache();
+    myFactory.myRenderTimeoutSeconds = 0L;
+    Runnable whenLoaded = mock(Runnable.class);
+
+    // The renders time out: nothing is cached, and the load isn't started again on the next paint
+    assertTrue(myFactory.loadInBackground(configuration, palette, whenLoaded));
+    assertNull(myFactory.getImage(myItem, configuration, 1.0));
+    assertTrue(myFactory.loadInBackground(configuration, palette, whenLoaded));
+    verifyZeroInteractions(whenLoaded);
+
+    // An explicit load renders them again
+    myFactory.myRenderTimeoutSeconds = Long.MAX_VALUE;
+    assertTrue(myFactory.load(configuration, palette, false));
+    assertNotNull(myFactory.getImage(myItem, configuration, 1.0));
+  }
+
+  /**
+   * Returns a palette with a few widgets, whose previews render with the test SDK
+   */
+  private Palette loadWidgetsPalette() throws Exception {
+    return Palette.parse(new StringReader("<palette>\n" +
+                                         "  <group name=\"Widgets\">\n" +
+                                         "    <item tag=\"TextView\"/>\n" +
+                                         "    <item tag=\"Button\"/>\n" +
+                                         "  </group>\n" +
+                                         "</palette>\n"), ViewHandlerManager.get(getProject()));
+  }
+
   private Palette loadPalette() throws Exception {
     NlPaletteModel model = NlPaletteModel.get(getProject());
 
@@ -117,6 +117,44 @@ public class NlPropertiesTest extends PropertyTestCase {
     assertAbsent(tag, properties, ANDROID_URI, FRAME_LAYOUT_ATTRS);
   }
 
+  public void testMultipleSelectionAttributes() {
+    @Language("XML")
+    String source = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+                    "<RelativeLayout>" +
+                    "  <TextView />" +
+                    "  <TextView />" +
+                    "  <Button />" +
+                    "</RelativeLayout>";
+    XmlFile xmlFile = (XmlFile)myFixture.addFileToProject("res/layout/layout.xml", source);
+
+    XmlTag rootTag = xmlFile.getRootTag();
+    assert rootTag != null;
+
+    XmlTag[] subTags = rootTag.getSubTags();
+    assertEquals(3, subTags.length);
+
+    MockNlComponent text1 = MockNlComponent.create(subTags[0]);
+    MockNlComponent text2 = MockNlComponent.create(subTags[1]);
+    MockNlComponent button = MockNlComponent.create(subTags[2]);
+    Table<String, String, NlPropertyItem> single = NlProperties.getInstance().getProperties(ImmutableList.of(text1));
+    Table<String, String, NlPropertyItem> texts = NlProperties.getInstance().getProperties(ImmutableList.of(text1, text2));
+
+    // Components of the same view class share the attributes, except for the id
+    assertEquals(single.size() - 1, texts.size());
+    assertNull(texts.get(ANDROID_URI, ATTR_ID));
+    assertPresent("TextView", texts, ANDROID_URI, TEXT_VIEW_ATTRS);
+    assertPresent("TextView", texts, ANDROID_URI, RELATIVE_LAYOUT_ATTRS);
+    NlPropertyItem text = texts.get(ANDROID_URI, ATTR_TEXT);
+    assertEquals(ImmutableList.of(text1, text2), text.getComponents());
+    assertSame(single.get(ANDROID_URI, ATTR_TEXT).getDefinition(), text.getDefinition());
+
+    // A Button is a TextView
+    Table<String, String, NlPropertyItem> mixed = NlProperties.getInstance().getProperties(ImmutableList.of(text1, button));
+    assertPresent("TextView", mixed, ANDROID_URI, TEXT_VIEW_ATTRS);
+    assertPresent("TextView", mixed, ANDROID_URI, ANDROID_VIEW_ATTRS[1]);
+    assertNull(mixed.get(ANDROID_URI, ATTR_ID));
+  }
+
   public void testCustomViewAttributes() {
     XmlFile xmlFile = setupCustomViewProject();
 
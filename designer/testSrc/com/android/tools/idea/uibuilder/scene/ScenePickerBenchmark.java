@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.uibuilder.scene;
+
+import java.util.Random;
+
+/**
+ * Micro-benchmark of the {@link ScenePicker} hit-testing cost against the number of objects,
+ * with and without the grid index. Not run as part of the tests; run its main method.
+ */
+public class ScenePickerBenchmark {
+  private static final int[] SIZES = {10, 100, 1000, 10000};
+  private static final int FINDS = 100000;
+  private static final int WARMUP = 3;
+  private static final int ITERATIONS = 5;
+
+  /**
+   * Fill the picker the way a layout does: a rectangle per component, plus lines, points and curves for its targets
+   */
+  private static void fill(ScenePicker picker, int count) {
+    Random random = new Random(count);
+    int size = (int)(Math.sqrt(count) * 100);
+    picker.reset();
+    picker.addRect(0, 0, 0, 0, size, size);
+    for (int i = 1; i < count; i++) {
+      int x = random.nextInt(size);
+      int y = random.nextInt(size);
+      switch (i % 4) {
+        case 0:
+          picker.addRect(i, 0, x, y, x + 20 + random.nextInt(100), y + 20 + random.nextInt(50));
+          break;
+        case 1:
+          picker.addLine(i, 5, x, y, x + random.nextInt(100), y);
+          break;
+        case 2:
+          picker.addPoint(i, 8, x, y);
+          break;
+        default:
+          picker.addCurveTo(i, 5, x, y, x + 20, y, x + 20, y + 40, x + 40, y + 40);
+          break;
+      }
+    }
+  }
+
+  private static double run(int count, boolean indexed) {
+    ScenePicker picker = new ScenePicker();
+    if (!indexed) {
+      picker.mIndexThreshold = Integer.MAX_VALUE;
+    }
+    int[] hits = new int[1];
+    picker.setSelectListener((over, dist) -> hits[0]++);
+    int size = (int)(Math.sqrt(count) * 100);
+    long total = 0;
+    for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+      fill(picker, count);
+      Random random = new Random(i);
+      long start = System.nanoTime();
+      for (int j = 0; j < FINDS; j++) {
+        picker.find(random.nextInt(size), random.nextInt(size));
+      }
+      if (i >= WARMUP) {
+        total += System.nanoTime() - start;
+      }
+    }
+    return total / (double)ITERATIONS / FINDS;
+  }
+
+  public static void main(String[] args) {
+    for (int count : SIZES) {
+      double linear = run(count, false);
+      double indexed = run(count, true);
+      System.out.println(String.format("%6d objects: linear %10.1fns/find, indexed %10.1fns/find", count, linear, indexed));
+    }
+  }
+}
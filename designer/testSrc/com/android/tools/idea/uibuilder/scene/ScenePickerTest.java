@@ -19,6 +19,8 @@ import junit.framework.TestCase;
 
 import java.awt.*;
 import java.awt.geom.*;
+import java.util.ArrayList;
+import java.util.Random;
 
 /**
  * Test ScenePicker
@@ -308,4 +310,60 @@ public class ScenePickerTest extends TestCase {
       scenePicker.find((int)x, (int)y);
     }
   }
+
+  public void testIndexMatchesLinearScan() {
+    ScenePicker indexed = new ScenePicker();
+    ScenePicker linear = new ScenePicker();
+    linear.mIndexThreshold = Integer.MAX_VALUE;
+    Random random = new Random(42);
+    // a few big rectangles (containers) and many small objects
+    for (int i = 0; i < 1000; i++) {
+      int x = random.nextInt(2000);
+      int y = random.nextInt(2000);
+      int size = i % 100 == 0 ? 1500 : 10 + random.nextInt(80);
+      Integer object = i;
+      switch (i % 4) {
+        case 0:
+          indexed.addRect(object, 0, x, y, x + size, y + size);
+          linear.addRect(object, 0, x, y, x + size, y + size);
+          break;
+        case 1:
+          indexed.addLine(object, 5, x, y, x + size, y);
+          linear.addLine(object, 5, x, y, x + size, y);
+          break;
+        case 2:
+          indexed.addPoint(object, 8, x, y);
+          linear.addPoint(object, 8, x, y);
+          break;
+        default:
+          indexed.addCurveTo(object, 5, x, y, x + size / 2, y, x + size / 2, y + size, x + size, y + size);
+          linear.addCurveTo(object, 5, x, y, x + size / 2, y, x + size / 2, y + size, x + size, y + size);
+          break;
+      }
+    }
+    ArrayList<Object> indexedHits = new ArrayList<>();
+    ArrayList<Object> linearHits = new ArrayList<>();
+    indexed.setSelectListener((obj, dist) -> indexedHits.add(obj));
+    linear.setSelectListener((obj, dist) -> linearHits.add(obj));
+
+    for (int i = 0; i < 5000; i++) {
+      int x = random.nextInt(2300) - 100;
+      int y = random.nextInt(2300) - 100;
+      indexedHits.clear();
+      linearHits.clear();
+      indexed.find(x, y);
+      linear.find(x, y);
+      assertEquals(x + "," + y, linearHits, indexedHits);
+    }
+
+    // The index is rebuilt once the picker is reset and filled again
+    indexed.reset();
+    for (int i = 0; i < 100; i++) {
+      indexed.addPoint(i, 3, 5000 + 10 * i, 5000);
+    }
+    indexedHits.clear();
+    indexed.find(5000 + 10 * 42, 5001);
+    assertEquals(1, indexedHits.size());
+    assertEquals(42, indexedHits.get(0));
+  }
 }
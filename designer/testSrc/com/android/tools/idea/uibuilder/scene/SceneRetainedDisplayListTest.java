@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.uibuilder.scene;
+
+import com.android.tools.idea.uibuilder.fixtures.ModelBuilder;
+import com.android.tools.idea.uibuilder.scene.draw.DisplayList;
+import com.android.tools.idea.uibuilder.scene.draw.DrawCommand;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+import static com.android.SdkConstants.CONSTRAINT_LAYOUT;
+import static com.android.SdkConstants.TEXT_VIEW;
+
+/**
+ * Check that the commands of the components are retained between display list builds
+ */
+public class SceneRetainedDisplayListTest extends SceneTest {
+  @Override
+  @NotNull
+  public ModelBuilder createModel() {
+    return model("constraint.xml",
+                 component(CONSTRAINT_LAYOUT)
+                   .id("@id/root")
+                   .withBounds(0, 0, 1000, 1000)
+                   .width("1000dp")
+                   .height("1000dp")
+                   .children(
+                     component(TEXT_VIEW)
+                       .id("@id/textview")
+                       .withBounds(100, 200, 100, 20)
+                       .width("100dp")
+                       .height("20dp")
+                   ));
+  }
+
+  public void testRetainedCommands() {
+    DisplayList first = new DisplayList();
+    myScene.buildDisplayList(first, 0);
+    DisplayList second = new DisplayList();
+    myScene.buildDisplayList(second, 0);
+
+    assertEquals(first.serialize(), second.serialize());
+    List<DrawCommand> firstCommands = first.getCommands();
+    List<DrawCommand> secondCommands = second.getCommands();
+    // The frame of the root and the background, text and frame of the TextView are reused
+    assertSame(firstCommands.get(0), secondCommands.get(0));
+    assertSame(firstCommands.get(2), secondCommands.get(2));
+    assertSame(firstCommands.get(3), secondCommands.get(3));
+    assertSame(firstCommands.get(4), secondCommands.get(4));
+  }
+
+  public void testStateChangeRebuildsCommands() {
+    DisplayList first = new DisplayList();
+    myScene.buildDisplayList(first, 0);
+    DrawCommand frame = findCommand(first, "DrawComponentFrame,100,200,100,20,");
+
+    myInteraction.select("textview", true);
+    DisplayList second = new DisplayList();
+    myScene.buildDisplayList(second, 0);
+
+    DrawCommand selectedFrame = findCommand(second, "DrawComponentFrame,100,200,100,20,");
+    assertNotSame(frame, selectedFrame);
+    assertEquals("DrawComponentFrame,100,200,100,20,3", selectedFrame.serialize());
+  }
+
+  public void testModelChangeRebuildsCommands() {
+    DisplayList first = new DisplayList();
+    myScene.buildDisplayList(first, 0);
+    assertNotNull(findCommand(first, "DrawComponentFrame,100,200,100,20,"));
+
+    myScene.getSceneComponent("textview").getNlComponent().x = 300;
+    myScene.updateFrom(myModel);
+    DisplayList second = new DisplayList();
+    myScene.buildDisplayList(second, 0);
+
+    assertNull(findCommand(second, "DrawComponentFrame,100,200,100,20,"));
+    assertNotNull(findCommand(second, "DrawComponentFrame,300,200,100,20,"));
+  }
+
+  private static DrawCommand findCommand(@NotNull DisplayList list, @NotNull String prefix) {
+    for (DrawCommand command : list.getCommands()) {
+      if (command.serialize().startsWith(prefix)) {
+        return command;
+      }
+    }
+    return null;
+  }
+}
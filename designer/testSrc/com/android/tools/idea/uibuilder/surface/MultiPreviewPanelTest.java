@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.uibuilder.surface;
+
+import com.android.sdklib.devices.Device;
+import com.android.tools.idea.configurations.Configuration;
+import com.android.tools.idea.uibuilder.LayoutTestCase;
+import com.android.tools.idea.uibuilder.model.NlModel;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.psi.xml.XmlFile;
+import com.intellij.util.ui.update.MergingUpdateQueue;
+import org.jetbrains.android.facet.AndroidFacet;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.android.SdkConstants.LINEAR_LAYOUT;
+
+public class MultiPreviewPanelTest extends LayoutTestCase {
+  public void testScreenSizeDevices() {
+    List<Device> devices = MultiPreviewPanel.getScreenSizeDevices(createModel().getConfiguration());
+    assertFalse(devices.isEmpty());
+    for (Device device : devices) {
+      assertFalse(device.getDisplayName(), device.getId().startsWith("wear") || device.getId().startsWith("tv"));
+    }
+  }
+
+  public void testModelChangesAreMerged() {
+    NlModel model = createModel();
+    List<Device> devices = MultiPreviewPanel.getScreenSizeDevices(model.getConfiguration());
+    RecordingRenderer renderer = new RecordingRenderer(myFacet);
+    MultiPreviewPanel panel = new MultiPreviewPanel(model, devices, renderer);
+    try {
+      // All the devices are rendered when the panel is created
+      assertEquals(1, renderer.myRenders.size());
+      assertEquals(devices.size(), renderer.myRenders.get(0).size());
+
+      MergingUpdateQueue queue = panel.getRefreshQueue();
+      // The queue runs the updates right away in unit test mode
+      queue.setPassThrough(false);
+      panel.modelChanged(model);
+      panel.modelChanged(model);
+      panel.modelChanged(model);
+      assertEquals(1, renderer.myRenders.size());
+
+      queue.flush();
+      assertEquals(2, renderer.myRenders.size());
+      assertEquals(devices.size(), renderer.myRenders.get(1).size());
+
+      queue.flush();
+      assertEquals(2, renderer.myRenders.size());
+    }
+    finally {
+      Disposer.dispose(panel);
+    }
+  }
+
+  public void testDisposeStopsRefreshes() {
+    NlModel model = createModel();
+    RecordingRenderer renderer = new RecordingRenderer(myFacet);
+    MultiPreviewPanel panel = new MultiPreviewPanel(model, MultiPreviewPanel.getScreenSizeDevices(model.getConfiguration()), renderer);
+    panel.getRefreshQueue().setPassThrough(false);
+    Disposer.dispose(panel);
+
+    // A change notified while the panel was being disposed doesn't render it again
+    panel.modelChanged(model);
+    panel.getRefreshQueue().flush();
+    assertEquals(1, renderer.myRenders.size());
+  }
+
+  @NotNull
+  private NlModel createModel() {
+    return model("linear.xml",
+                 component(LINEAR_LAYOUT)
+                   .withBounds(0, 0, 1000, 1000)
+                   .matchParentWidth()
+                   .matchParentHeight())
+      .build();
+  }
+
+  private static class RecordingRenderer extends MultiPreviewRenderer {
+    private final List<List<Configuration>> myRenders = new ArrayList<>();
+
+    RecordingRenderer(@NotNull AndroidFacet facet) {
+      super(facet);
+    }
+
+    @Override
+    public void render(@NotNull XmlFile file, @NotNull List<Configuration> configurations, @NotNull PreviewListener listener) {
+      myRenders.add(new ArrayList<>(configurations));
+    }
+  }
+}
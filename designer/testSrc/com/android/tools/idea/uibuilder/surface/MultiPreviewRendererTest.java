@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.uibuilder.surface;
+
+import com.android.sdklib.devices.Device;
+import com.android.tools.idea.configurations.Configuration;
+import com.android.tools.idea.uibuilder.LayoutTestCase;
+import com.android.tools.idea.uibuilder.model.NlModel;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.util.ui.UIUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.android.SdkConstants.LINEAR_LAYOUT;
+
+public class MultiPreviewRendererTest extends LayoutTestCase {
+  private NlModel myModel;
+  private MultiPreviewRenderer myRenderer;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myModel = model("linear.xml",
+                    component(LINEAR_LAYOUT)
+                      .withBounds(0, 0, 1000, 1000)
+                      .matchParentWidth()
+                      .matchParentHeight())
+      .build();
+    // Avoid rendering the nav bar and similar, so we do not depend on the Material theme
+    myModel.getConfiguration().setTheme("android:Theme.NoTitleBar.Fullscreen");
+    myRenderer = new MultiPreviewRenderer(myFacet, 2);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      Disposer.dispose(myRenderer);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testIsObsolete() {
+    assertFalse(myRenderer.isObsolete(0));
+
+    myRenderer.render(myModel.getFile(), Collections.emptyList(), preview -> fail());
+    assertTrue(myRenderer.isObsolete(0));
+    assertFalse(myRenderer.isObsolete(1));
+
+    myRenderer.cancel();
+    assertTrue(myRenderer.isObsolete(1));
+    assertFalse(myRenderer.isObsolete(2));
+
+    Disposer.dispose(myRenderer);
+    assertTrue(myRenderer.isObsolete(2));
+  }
+
+  public void testRenderDeliversEachConfiguration() throws Exception {
+    List<Configuration> configurations = createConfigurations();
+    List<MultiPreviewRenderer.Preview> previews = new ArrayList<>();
+    myRenderer.render(myModel.getFile(), configurations, previews::add);
+    waitForPreviews(previews, configurations.size());
+
+    List<Configuration> rendered = new ArrayList<>();
+    for (MultiPreviewRenderer.Preview preview : previews) {
+      rendered.add(preview.getConfiguration());
+      assertNotNull(preview.getImage());
+    }
+    assertSameElements(rendered, configurations);
+  }
+
+  public void testNewRenderDropsPendingResults() throws Exception {
+    List<MultiPreviewRenderer.Preview> obsolete = new ArrayList<>();
+    myRenderer.render(myModel.getFile(), createConfigurations(), obsolete::add);
+
+    // The results are delivered on the dispatch thread, which runs this test, so none of the first renders can be delivered yet
+    List<Configuration> configurations = createConfigurations();
+    List<MultiPreviewRenderer.Preview> previews = new ArrayList<>();
+    myRenderer.render(myModel.getFile(), configurations, previews::add);
+    waitForPreviews(previews, configurations.size());
+
+    assertEmpty(obsolete);
+    for (MultiPreviewRenderer.Preview preview : previews) {
+      assertTrue(configurations.contains(preview.getConfiguration()));
+    }
+  }
+
+  @NotNull
+  private List<Configuration> createConfigurations() {
+    List<Device> devices = MultiPreviewPanel.getScreenSizeDevices(myModel.getConfiguration());
+    assertTrue(devices.size() >= 2);
+    return MultiPreviewRenderer.createDeviceConfigurations(myModel.getConfiguration(), devices.subList(0, 2));
+  }
+
+  private static void waitForPreviews(@NotNull List<MultiPreviewRenderer.Preview> previews, int count) throws InterruptedException {
+    long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(60);
+    while (previews.size() < count && System.currentTimeMillis() < end) {
+      UIUtil.dispatchAllInvocationEvents();
+      Thread.sleep(10);
+    }
+    assertEquals(count, previews.size());
+  }
+}
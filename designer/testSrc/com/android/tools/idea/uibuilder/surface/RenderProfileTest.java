@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.uibuilder.surface;
+
+import com.android.tools.idea.uibuilder.LayoutTestCase;
+import com.android.tools.idea.uibuilder.model.NlComponent;
+import com.android.tools.idea.uibuilder.model.NlModel;
+import com.intellij.openapi.util.io.FileUtil;
+
+import java.io.File;
+import java.util.List;
+
+import static com.android.SdkConstants.*;
+
+public class RenderProfileTest extends LayoutTestCase {
+  private NlModel createModel() {
+    return model("profile.xml", component(RELATIVE_LAYOUT)
+      .withBounds(0, 0, 1000, 1000)
+      .matchParentWidth()
+      .matchParentHeight()
+      .children(
+        component(LINEAR_LAYOUT)
+          .withBounds(0, 0, 1000, 500)
+          .matchParentWidth()
+          .wrapContentHeight()
+          .children(
+            component(TEXT_VIEW)
+              .withBounds(0, 0, 500, 100)
+              .width("0dp")
+              .wrapContentHeight()
+              .withAttribute("android:layout_weight", "1"),
+            component(BUTTON)
+              .withBounds(500, 0, 500, 100)
+              .width("0dp")
+              .wrapContentHeight()
+              .withAttribute("android:layout_weight", "1")
+          ),
+        component(BUTTON)
+          .withBounds(0, 500, 100, 100)
+          .wrapContentWidth()
+          .wrapContentHeight()
+      )).build();
+  }
+
+  public void testMeasurePasses() {
+    NlModel model = createModel();
+    RenderProfile profile = RenderProfile.create(model);
+
+    NlComponent relativeLayout = model.getComponents().get(0);
+    List<NlComponent> children = relativeLayout.getChildren();
+    NlComponent linearLayout = children.get(0);
+    assertEquals(1, profile.getMeasurePasses(relativeLayout));
+    // Children of a RelativeLayout are measured twice
+    assertEquals(2, profile.getMeasurePasses(linearLayout));
+    assertEquals(2, profile.getMeasurePasses(children.get(1)));
+    // ... and weighted children of a LinearLayout twice more
+    assertEquals(4, profile.getMeasurePasses(linearLayout.getChild(0)));
+    assertEquals(4, profile.getMeasurePasses(linearLayout.getChild(1)));
+
+    assertEquals(5, profile.getViewCount());
+    assertEquals(3, profile.getMaxDepth());
+    assertEquals(4, profile.getMaxMeasurePasses());
+  }
+
+  public void testAppendTo() throws Exception {
+    RenderProfile profile = RenderProfile.create(createModel());
+    File file = new File(FileUtil.createTempDirectory("profile", null), "render-profile.csv");
+
+    profile.appendTo(file);
+    profile.appendTo(file);
+    List<String> lines = FileUtil.loadLines(file);
+    assertEquals(3, lines.size());
+    assertEquals(RenderProfile.CSV_HEADER, lines.get(0));
+    assertTrue(lines.get(1).endsWith(",profile.xml,0.00,0.00,0.00,0.00,5,3,4"));
+  }
+}
@@ -1,12 +1,16 @@
 package org.jetbrains.jps.android;
 
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.io.FileUtil;
-import com.intellij.util.containers.HashMap;
 import com.intellij.util.containers.HashSet;
+import com.intellij.util.io.IOUtil;
 import org.jetbrains.android.util.ResourceEntry;
 import org.jetbrains.android.util.ValueResourcesFileParser;
+import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.android.model.JpsAndroidModuleExtension;
+import org.jetbrains.jps.builders.storage.BuildDataPaths;
 import org.jetbrains.jps.incremental.java.FormsParsing;
 import org.jetbrains.jps.model.java.JpsJavaClasspathKind;
 import org.jetbrains.jps.model.java.JpsJavaExtensionService;
@@ -16,40 +20,224 @@ import org.jetbrains.jps.model.module.JpsModuleDependency;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Data computed during a build and shared by the Android builders, which may run in parallel.
+ * <p>
+ * The parsed value resource files are also kept across builds in the build data of the project, and reused
+ * while the timestamp and the size of the file don't change. They are evicted in least recently used order when
+ * the cache holds more resource entries than its maximum ({@code android.jps.parsed.resources.max.entries} system
+ * property of the build process).
+ *
  * @author Eugene.Kudelevsky
  */
 public class AndroidBuildDataCache {
-  private static AndroidBuildDataCache ourInstance;
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.android.AndroidBuildDataCache");
 
-  private final Map<JpsModule, MyAndroidDeps> myModule2AndroidDeps = new HashMap<JpsModule, MyAndroidDeps>();
-  private final Map<String, List<ResourceEntry>> myParsedValueResourceFiles = new HashMap<String, List<ResourceEntry>>();
+  @NonNls private static final String PARSED_VALUE_RESOURCES_STORAGE = "parsed_value_resources.dat";
+  @NonNls private static final String MAX_ENTRY_COUNT_PROPERTY = "android.jps.parsed.resources.max.entries";
+  private static final int DEFAULT_MAX_ENTRY_COUNT = 200000;
+  private static final int STORAGE_VERSION = 1;
+
+  private static final Object ourLock = new Object();
+  private static File ourStorageFile;
+  private static volatile AndroidBuildDataCache ourInstance;
+
+  private final ConcurrentMap<JpsModule, MyAndroidDeps> myModule2AndroidDeps = new ConcurrentHashMap<JpsModule, MyAndroidDeps>();
+
+  // canonical path -> parsed file, in access order; guarded by itself
+  private final LinkedHashMap<String, MyParsedFile> myParsedValueResourceFiles = new LinkedHashMap<String, MyParsedFile>(16, 0.75f, true);
+  private final File myStorageFile;
+  private final int myMaxEntryCount;
+  private int myEntryCount;
+  private boolean myLoaded;
+  private boolean myModified;
+  private final AtomicInteger myParsedFileCount = new AtomicInteger();
+
+  AndroidBuildDataCache(@Nullable File storageFile, int maxEntryCount) {
+    myStorageFile = storageFile;
+    myMaxEntryCount = maxEntryCount;
+  }
 
   @NotNull
   public static AndroidBuildDataCache getInstance() {
-    if (ourInstance == null) {
-      ourInstance = new AndroidBuildDataCache();
+    AndroidBuildDataCache instance = ourInstance;
+
+    if (instance == null) {
+      synchronized (ourLock) {
+        instance = ourInstance;
+
+        if (instance == null) {
+          instance = new AndroidBuildDataCache(ourStorageFile, Integer.getInteger(MAX_ENTRY_COUNT_PROPERTY, DEFAULT_MAX_ENTRY_COUNT));
+          ourInstance = instance;
+        }
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Sets the project build data where the parsed value resource files are persisted
+   */
+  public static void initialize(@NotNull BuildDataPaths dataPaths) {
+    synchronized (ourLock) {
+      ourStorageFile = new File(new File(dataPaths.getDataStorageRoot(), AndroidJpsUtil.ANDROID_STORAGE_DIR),
+                                PARSED_VALUE_RESOURCES_STORAGE);
+      ourInstance = null;
     }
-    return ourInstance;
   }
 
+  /**
+   * Saves the parsed value resource files and drops the data of the build
+   */
   public static void clean() {
-    ourInstance = null;
+    final AndroidBuildDataCache instance;
+
+    synchronized (ourLock) {
+      instance = ourInstance;
+      ourInstance = null;
+    }
+    if (instance != null) {
+      instance.save();
+    }
   }
 
   // If parsing throws IOException, the result it is not cached, so invoker should catch it and stop the build
   public List<ResourceEntry> getParsedValueResourceFile(@NotNull File file) throws IOException {
     final String path = FileUtil.toCanonicalPath(file.getPath());
-    List<ResourceEntry> entries = myParsedValueResourceFiles.get(path);
+    final long timestamp = file.lastModified();
+    final long length = file.length();
+
+    synchronized (myParsedValueResourceFiles) {
+      ensureLoaded();
+      final MyParsedFile parsedFile = myParsedValueResourceFiles.get(path);
 
-    if (entries == null) {
-      entries = parseValueResourceFile(file);
-      myParsedValueResourceFiles.put(path, entries);
+      if (parsedFile != null && parsedFile.myTimestamp == timestamp && parsedFile.myLength == length) {
+        return parsedFile.myEntries;
+      }
+    }
+    // parsed without holding the lock; if two builders parse the same file at the same time, the results are the same
+    final List<ResourceEntry> entries = Collections.unmodifiableList(parseValueResourceFile(file));
+    myParsedFileCount.incrementAndGet();
+
+    synchronized (myParsedValueResourceFiles) {
+      put(path, new MyParsedFile(timestamp, length, entries));
+      myModified = true;
     }
     return entries;
   }
 
+  /**
+   * Returns the number of value resource files parsed by this cache, i.e. not found in the cache
+   */
+  int getParsedFileCount() {
+    return myParsedFileCount.get();
+  }
+
+  private void put(@NotNull String path, @NotNull MyParsedFile parsedFile) {
+    final MyParsedFile oldFile = myParsedValueResourceFiles.put(path, parsedFile);
+
+    if (oldFile != null) {
+      myEntryCount -= oldFile.myEntries.size();
+    }
+    myEntryCount += parsedFile.myEntries.size();
+    final Iterator<MyParsedFile> iterator = myParsedValueResourceFiles.values().iterator();
+
+    // evict the least recently used files, but keep the one just added
+    while (myEntryCount > myMaxEntryCount && myParsedValueResourceFiles.size() > 1 && iterator.hasNext()) {
+      myEntryCount -= iterator.next().myEntries.size();
+      iterator.remove();
+    }
+  }
+
+  private void ensureLoaded() {
+    if (myLoaded) {
+      return;
+    }
+    myLoaded = true;
+
+    if (myStorageFile == null || !myStorageFile.isFile()) {
+      return;
+    }
+    try {
+      final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(myStorageFile)));
+      try {
+        if (in.readInt() != STORAGE_VERSION) {
+          return;
+        }
+        final int fileCount = in.readInt();
+
+        for (int i = 0; i < fileCount; i++) {
+          final String path = IOUtil.readUTF(in);
+          final long timestamp = in.readLong();
+          final long length = in.readLong();
+          final int entryCount = in.readInt();
+          final List<ResourceEntry> entries = new ArrayList<ResourceEntry>(entryCount);
+
+          for (int j = 0; j < entryCount; j++) {
+            entries.add(new ResourceEntry(IOUtil.readUTF(in), IOUtil.readUTF(in), IOUtil.readUTF(in)));
+          }
+          put(path, new MyParsedFile(timestamp, length, Collections.unmodifiableList(entries)));
+        }
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot load parsed value resources from " + myStorageFile.getPath(), e);
+      myParsedValueResourceFiles.clear();
+      myEntryCount = 0;
+    }
+  }
+
+  void save() {
+    final Map<String, MyParsedFile> parsedFiles;
+
+    synchronized (myParsedValueResourceFiles) {
+      if (myStorageFile == null || !myModified) {
+        return;
+      }
+      // in access order, so that the least recently used files are evicted first when loaded
+      parsedFiles = new LinkedHashMap<String, MyParsedFile>(myParsedValueResourceFiles);
+    }
+    final File tempFile = new File(myStorageFile.getPath() + ".tmp");
+
+    try {
+      FileUtil.createParentDirs(tempFile);
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+      try {
+        out.writeInt(STORAGE_VERSION);
+        out.writeInt(parsedFiles.size());
+
+        for (Map.Entry<String, MyParsedFile> entry : parsedFiles.entrySet()) {
+          final MyParsedFile parsedFile = entry.getValue();
+          IOUtil.writeUTF(out, entry.getKey());
+          out.writeLong(parsedFile.myTimestamp);
+          out.writeLong(parsedFile.myLength);
+          out.writeInt(parsedFile.myEntries.size());
+
+          for (ResourceEntry resourceEntry : parsedFile.myEntries) {
+            IOUtil.writeUTF(out, resourceEntry.getType());
+            IOUtil.writeUTF(out, resourceEntry.getName());
+            IOUtil.writeUTF(out, resourceEntry.getContext());
+          }
+        }
+      }
+      finally {
+        out.close();
+      }
+      FileUtil.rename(tempFile, myStorageFile);
+    }
+    catch (IOException e) {
+      LOG.info("Cannot save parsed value resources to " + myStorageFile.getPath(), e);
+      FileUtil.delete(tempFile);
+    }
+  }
+
   @NotNull
   private static List<ResourceEntry> parseValueResourceFile(@NotNull File valueResXmlFile)
     throws IOException {
@@ -81,7 +269,11 @@ public class AndroidBuildDataCache {
 
     if (deps == null) {
       deps = computeAndroidDependencies(module);
-      myModule2AndroidDeps.put(module, deps);
+      final MyAndroidDeps existingDeps = myModule2AndroidDeps.putIfAbsent(module, deps);
+
+      if (existingDeps != null) {
+        deps = existingDeps;
+      }
     }
     return librariesOnly ? deps.myLibAndroidDeps : deps.myAndroidDeps;
   }
@@ -170,6 +362,18 @@ public class AndroidBuildDataCache {
     }
   }
 
+  private static class MyParsedFile {
+    final long myTimestamp;
+    final long myLength;
+    final List<ResourceEntry> myEntries;
+
+    private MyParsedFile(long timestamp, long length, @NotNull List<ResourceEntry> entries) {
+      myTimestamp = timestamp;
+      myLength = length;
+      myEntries = entries;
+    }
+  }
+
   private static class MyAndroidDeps {
     final List<JpsAndroidModuleExtension> myAndroidDeps = new ArrayList<JpsAndroidModuleExtension>();
     final List<JpsAndroidModuleExtension> myLibAndroidDeps = new ArrayList<JpsAndroidModuleExtension>();
@@ -46,6 +46,7 @@ import org.jetbrains.jps.builders.DirtyFilesHolder;
 import org.jetbrains.jps.cmdline.ClasspathBootstrap;
 import org.jetbrains.jps.incremental.CompileContext;
 import org.jetbrains.jps.incremental.ExternalProcessUtil;
+import org.jetbrains.jps.incremental.MessageHandler;
 import org.jetbrains.jps.incremental.ProjectBuildException;
 import org.jetbrains.jps.incremental.StopBuildException;
 import org.jetbrains.jps.incremental.messages.BuildMessage;
@@ -255,9 +256,28 @@ public class AndroidDexBuilder extends AndroidTargetBuilder<BuildRootDescriptor,
                                @NotNull String builderName,
                                @NotNull String srcTargetName,
                                @Nullable JpsModule module) throws IOException {
+    return dex(platform, outFilePath, compileTargets, context, project, builderName, srcTargetName, module)
+      .report(context, outputConsumer);
+  }
+
+  /**
+   * Same as {@link #runDex(AndroidPlatform, String, String[], CompileContext, JpsProject, BuildOutputConsumer, String, String, JpsModule)},
+   * but the messages and the output are not reported to the context, so that it can be called on any thread.
+   * The result must be reported on the build thread.
+   */
+  @NotNull
+  public static DexResult dex(@NotNull AndroidPlatform platform,
+                              @NotNull String outFilePath,
+                              @NotNull String[] compileTargets,
+                              @NotNull CompileContext context,
+                              @NotNull JpsProject project,
+                              @NotNull String builderName,
+                              @NotNull String srcTargetName,
+                              @Nullable JpsModule module) throws IOException {
+    final DexResult result = new DexResult();
     BuildToolInfo buildToolInfo = platform.getTarget().getBuildToolInfo();
     if (buildToolInfo == null) {
-      return false;
+      return result;
     }
 
     final String dxJarPath = FileUtil.toSystemDependentName(buildToolInfo.getPath(BuildToolInfo.PathId.DX_JAR));
@@ -265,9 +285,9 @@ public class AndroidDexBuilder extends AndroidTargetBuilder<BuildRootDescriptor,
 
     final File dxJar = new File(dxJarPath);
     if (testingManager == null && !dxJar.isFile()) {
-      context.processMessage(
+      result.processMessage(
         new CompilerMessage(builderName, BuildMessage.Kind.ERROR, AndroidJpsBundle.message("android.jps.cannot.find.file", dxJarPath)));
-      return false;
+      return result;
     }
 
     boolean multiDex = false;
@@ -329,38 +349,43 @@ public class AndroidDexBuilder extends AndroidTargetBuilder<BuildRootDescriptor,
 
     final File outFile = new File(outFilePath);
     if (outFile.exists() && !outFile.isDirectory() && !outFile.delete()) {
-      context.processMessage(new CompilerMessage(builderName, BuildMessage.Kind.WARNING,
-                                                 AndroidJpsBundle.message("android.jps.cannot.delete.file", outFilePath)));
-    }
-    final String javaExecutable = getJavaExecutable(platform, context, builderName);
-
-    if (javaExecutable == null) {
-      return false;
-    }
-    final List<String> commandLine = ExternalProcessUtil
-      .buildJavaCommandLine(javaExecutable, AndroidDxRunner.class.getName(),
-                            Collections.<String>emptyList(), classPath, vmOptions, programParamList);
-
-    LOG.info(AndroidCommonUtils.command2string(commandLine));
-
-    final String[] commands = ArrayUtil.toStringArray(commandLine);
-    final Process process;
-
-    if (testingManager != null) {
-      process = testingManager.getCommandExecutor().createProcess(
-        commands, Collections.<String, String>emptyMap());
-    }
-    else {
-      process = Runtime.getRuntime().exec(commands);
+      result.processMessage(new CompilerMessage(builderName, BuildMessage.Kind.WARNING,
+                                                AndroidJpsBundle.message("android.jps.cannot.delete.file", outFilePath)));
     }
     final HashMap<AndroidCompilerMessageKind, List<String>> messages = new HashMap<AndroidCompilerMessageKind, List<String>>(3);
     messages.put(AndroidCompilerMessageKind.ERROR, new ArrayList<String>());
     messages.put(AndroidCompilerMessageKind.WARNING, new ArrayList<String>());
     messages.put(AndroidCompilerMessageKind.INFORMATION, new ArrayList<String>());
 
-    AndroidCommonUtils.handleDexCompilationResult(process, StringUtil.join(commandLine, " "), outFilePath, messages, multiDex);
+    if (testingManager == null && AndroidInProcessDexer.isEnabled() &&
+        runDexInProcess(programParamList, outFilePath, messages, multiDex)) {
+      LOG.info("dx run in process: " + AndroidCommonUtils.command2string(programParamList));
+    }
+    else {
+      final String javaExecutable = getJavaExecutable(platform, context, result, builderName);
+
+      if (javaExecutable == null) {
+        return result;
+      }
+      final List<String> commandLine = ExternalProcessUtil
+        .buildJavaCommandLine(javaExecutable, AndroidDxRunner.class.getName(),
+                              Collections.<String>emptyList(), classPath, vmOptions, programParamList);
+
+      LOG.info(AndroidCommonUtils.command2string(commandLine));
+
+      final String[] commands = ArrayUtil.toStringArray(commandLine);
+      final Process process;
 
-    AndroidJpsUtil.addMessages(context, messages, builderName, srcTargetName);
+      if (testingManager != null) {
+        process = testingManager.getCommandExecutor().createProcess(
+          commands, Collections.<String, String>emptyMap());
+      }
+      else {
+        process = Runtime.getRuntime().exec(commands);
+      }
+      AndroidCommonUtils.handleDexCompilationResult(process, StringUtil.join(commandLine, " "), outFilePath, messages, multiDex);
+    }
+    AndroidJpsUtil.addMessages(result, messages, builderName, srcTargetName);
     final boolean success = messages.get(AndroidCompilerMessageKind.ERROR).size() == 0;
 
     if (success) {
@@ -384,19 +409,41 @@ public class AndroidDexBuilder extends AndroidTargetBuilder<BuildRootDescriptor,
           });
         }
       }
-      outputConsumer.registerOutputFile(outFile, srcFiles);
+      result.setOutput(outFile, srcFiles);
     }
-    return success;
+    return result;
+  }
+
+  /**
+   * @return false if dx could not be loaded in the build process, and should be run in a separate process
+   */
+  private static boolean runDexInProcess(@NotNull List<String> dxRunnerArgs,
+                                         @NotNull String outFilePath,
+                                         @NotNull Map<AndroidCompilerMessageKind, List<String>> messages,
+                                         boolean multiDex) {
+    final Pair<String, String> output;
+    try {
+      output = AndroidInProcessDexer.run(dxRunnerArgs);
+    }
+    catch (Exception e) {
+      LOG.warn("Cannot run dx in process", e);
+      return false;
+    }
+    AndroidCommonUtils.handleDexCompilationResult(output.getFirst(), output.getSecond(), outFilePath, messages, multiDex);
+    return true;
   }
 
   @Nullable
-  private static String getJavaExecutable(@NotNull AndroidPlatform platform, @NotNull CompileContext context, @NotNull String builderName) {
+  private static String getJavaExecutable(@NotNull AndroidPlatform platform,
+                                          @NotNull CompileContext context,
+                                          @NotNull MessageHandler messageHandler,
+                                          @NotNull String builderName) {
     final JpsSdk<JpsSimpleElement<JpsAndroidSdkProperties>> sdk = platform.getSdk();
     final String jdkName = sdk.getSdkProperties().getData().getJdkName();
     final JpsLibrary javaSdk = context.getProjectDescriptor().getModel().getGlobal().getLibraryCollection().findLibrary(jdkName);
     if (javaSdk == null || !javaSdk.getType().equals(JpsJavaSdkType.INSTANCE)) {
-      context.processMessage(new CompilerMessage(builderName, BuildMessage.Kind.ERROR,
-                                                 AndroidJpsBundle.message("android.jps.errors.java.sdk.not.specified", jdkName)));
+      messageHandler.processMessage(new CompilerMessage(builderName, BuildMessage.Kind.ERROR,
+                                                        AndroidJpsBundle.message("android.jps.errors.java.sdk.not.specified", jdkName)));
       return null;
     }
     return JpsJavaSdkType.getJavaExecutable((JpsSdk<?>)javaSdk.getProperties());
@@ -432,7 +479,7 @@ public class AndroidDexBuilder extends AndroidTargetBuilder<BuildRootDescriptor,
       return null;
     }
 
-    final String javaExecutable = getJavaExecutable(platform, context, PRO_GUARD_BUILDER_NAME);
+    final String javaExecutable = getJavaExecutable(platform, context, context, PRO_GUARD_BUILDER_NAME);
     if (javaExecutable == null) {
       return null;
     }
@@ -524,4 +571,53 @@ public class AndroidDexBuilder extends AndroidTargetBuilder<BuildRootDescriptor,
     return messages.get(AndroidCompilerMessageKind.ERROR).isEmpty()
            ? Pair.create(true, newState) : null;
   }
+
+  /**
+   * The messages and the output of a dex invocation, to be reported on the build thread.
+   */
+  public static class DexResult implements MessageHandler {
+    private final List<BuildMessage> myMessages = new ArrayList<BuildMessage>();
+    private File myOutputFile;
+    private List<String> mySourceFiles;
+
+    private DexResult() {
+    }
+
+    /**
+     * The result of a dex invocation whose output was obtained without running dx
+     */
+    public DexResult(@NotNull File outputFile, @NotNull List<String> sourceFiles) {
+      setOutput(outputFile, sourceFiles);
+    }
+
+    @Override
+    public void processMessage(BuildMessage message) {
+      myMessages.add(message);
+    }
+
+    private void setOutput(@NotNull File outputFile, @NotNull List<String> sourceFiles) {
+      myOutputFile = outputFile;
+      mySourceFiles = sourceFiles;
+    }
+
+    public boolean isSuccessful() {
+      return myOutputFile != null;
+    }
+
+    /**
+     * Reports the messages and registers the output
+     *
+     * @return true if dex succeeded
+     */
+    public boolean report(@NotNull MessageHandler messageHandler, @NotNull BuildOutputConsumer outputConsumer) throws IOException {
+      for (BuildMessage message : myMessages) {
+        messageHandler.processMessage(message);
+      }
+      if (!isSuccessful()) {
+        return false;
+      }
+      outputConsumer.registerOutputFile(myOutputFile, mySourceFiles);
+      return true;
+    }
+  }
 }
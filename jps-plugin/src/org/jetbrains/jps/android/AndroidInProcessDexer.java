@@ -0,0 +1,108 @@
+package org.jetbrains.jps.android;
+
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.io.FileUtilRt;
+import com.intellij.util.ArrayUtil;
+import org.jetbrains.android.compiler.tools.AndroidDxRunner;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.jps.cmdline.ClasspathBootstrap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.*;
+
+/**
+ * Runs {@link AndroidDxRunner} in the build process instead of launching a JVM for each dex invocation.
+ * <p>
+ * dx keeps its state in static fields, so each run uses a class loader of its own, which is kept to be reused
+ * by the next runs: at most one loader per concurrent dex invocation is created. The dx process VM options
+ * (e.g. the max heap size) don't apply, dx runs with the memory of the build process.
+ */
+class AndroidInProcessDexer {
+  @NonNls private static final String IN_PROCESS_PROPERTY = "android.jps.dex.in.process";
+  @NonNls private static final String RUN_METHOD_NAME = "run";
+
+  // dx jar path -> run methods of the idle loaders
+  private static final Map<String, Deque<Method>> ourIdleRunners = new HashMap<String, Deque<Method>>();
+
+  private AndroidInProcessDexer() {
+  }
+
+  /**
+   * Returns true if dx should be run in the build process. It is enabled with the
+   * {@code android.jps.dex.in.process} system property of the build process.
+   */
+  static boolean isEnabled() {
+    return Boolean.getBoolean(IN_PROCESS_PROPERTY);
+  }
+
+  /**
+   * Runs dx with the given {@link AndroidDxRunner} arguments, the first one being the path of the dx jar.
+   *
+   * @return the standard output and the error output of dx
+   */
+  @NotNull
+  static Pair<String, String> run(@NotNull List<String> dxRunnerArgs) throws Exception {
+    final String dxJarPath = dxRunnerArgs.get(0);
+    final Method runMethod = takeRunner(dxJarPath);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final ByteArrayOutputStream err = new ByteArrayOutputStream();
+    final PrintStream outStream = new PrintStream(out, true);
+    final PrintStream errStream = new PrintStream(err, true);
+
+    try {
+      runMethod.invoke(null, ArrayUtil.toStringArray(dxRunnerArgs), outStream, errStream);
+    }
+    catch (InvocationTargetException e) {
+      // dx failed unexpectedly, report it as a dx error
+      final Throwable cause = e.getCause() != null ? e.getCause() : e;
+      errStream.println("Error: " + cause.getMessage());
+      cause.printStackTrace(errStream);
+    }
+    finally {
+      releaseRunner(dxJarPath, runMethod);
+      outStream.close();
+      errStream.close();
+    }
+    return Pair.create(out.toString(), err.toString());
+  }
+
+  @NotNull
+  private static Method takeRunner(@NotNull String dxJarPath) throws Exception {
+    synchronized (ourIdleRunners) {
+      final Deque<Method> idleRunners = ourIdleRunners.get(dxJarPath);
+
+      if (idleRunners != null && !idleRunners.isEmpty()) {
+        return idleRunners.pop();
+      }
+    }
+    final List<URL> urls = new ArrayList<URL>();
+
+    for (String path : new String[]{ClasspathBootstrap.getResourcePath(AndroidDxRunner.class),
+      ClasspathBootstrap.getResourcePath(FileUtilRt.class)}) {
+      urls.add(new File(path).toURI().toURL());
+    }
+    // the parent is the bootstrap loader, so that the runner classes are not shared with the build process
+    final ClassLoader loader = new URLClassLoader(urls.toArray(new URL[urls.size()]), null);
+    final Class<?> runnerClass = Class.forName(AndroidDxRunner.class.getName(), true, loader);
+    return runnerClass.getMethod(RUN_METHOD_NAME, String[].class, PrintStream.class, PrintStream.class);
+  }
+
+  private static void releaseRunner(@NotNull String dxJarPath, @NotNull Method runMethod) {
+    synchronized (ourIdleRunners) {
+      Deque<Method> idleRunners = ourIdleRunners.get(dxJarPath);
+
+      if (idleRunners == null) {
+        idleRunners = new ArrayDeque<Method>();
+        ourIdleRunners.put(dxJarPath, idleRunners);
+      }
+      idleRunners.push(runMethod);
+    }
+  }
+}
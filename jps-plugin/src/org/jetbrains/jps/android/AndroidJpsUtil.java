@@ -112,7 +112,7 @@ public class AndroidJpsUtil {
     return JpsPathUtil.urlToFile(contentRoots.get(0));
   }
 
-  public static void addMessages(@NotNull CompileContext context,
+  public static void addMessages(@NotNull MessageHandler messageHandler,
                                  @NotNull Map<AndroidCompilerMessageKind, List<String>> messages,
                                  @NotNull String builderName,
                                  @NotNull String entryName) {
@@ -128,7 +128,7 @@ public class AndroidJpsUtil {
         }
         final BuildMessage.Kind category = toBuildMessageKind(entry.getKey());
         if (category != null) {
-          context.processMessage(
+          messageHandler.processMessage(
             new CompilerMessage(builderName, category, '[' + entryName + "] " + message, filePath, -1L, -1L, -1L, line, -1L));
         }
       }
@@ -10,6 +10,7 @@ import com.intellij.util.containers.HashSet;
 import org.jetbrains.android.compiler.tools.AndroidApkBuilder;
 import org.jetbrains.android.util.AndroidCompilerMessageKind;
 import org.jetbrains.android.util.AndroidNativeLibData;
+import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.jps.ProjectPaths;
 import org.jetbrains.jps.android.builder.AndroidDexBuildTarget;
@@ -43,6 +44,7 @@ import java.util.*;
 public class AndroidPackagingBuilder extends AndroidTargetBuilder<BuildRootDescriptor, AndroidPackagingBuildTarget> {
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.android.AndroidPackagingBuilder");
   private static final String BUILDER_NAME = "Android Packager";
+  @NonNls private static final String INCREMENTAL_PACKAGING_STATE_FILE_NAME = "incremental_packaging.state";
 
 
   public AndroidPackagingBuilder() {
@@ -183,7 +185,8 @@ public class AndroidPackagingBuilder extends AndroidTargetBuilder<BuildRootDescr
     final Map<AndroidCompilerMessageKind, List<String>> messages = AndroidApkBuilder
       .execute(resPackagePath, classesDexFilePath, resourceRoots, externalJars,
                nativeLibDirs, additionalNativeLibs, outputPath, release, sdkPath, platform.getTarget(),
-               customKeyStorePath, new MyExcludedSourcesFilter(context.getProjectDescriptor().getProject()));
+               customKeyStorePath, new MyExcludedSourcesFilter(context.getProjectDescriptor().getProject()),
+               new File(AndroidJpsUtil.getDirectoryForIntermediateArtifacts(context, module), INCREMENTAL_PACKAGING_STATE_FILE_NAME));
 
     if (messages.get(AndroidCompilerMessageKind.ERROR).size() == 0) {
       final List<String> srcFiles = new ArrayList<String>();
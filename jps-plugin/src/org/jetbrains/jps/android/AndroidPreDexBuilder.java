@@ -1,6 +1,7 @@
 package org.jetbrains.jps.android;
 
 import com.android.tools.idea.jps.AndroidTargetBuilder;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.io.FileUtilRt;
@@ -26,12 +27,14 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * @author Eugene.Kudelevsky
  */
 public class AndroidPreDexBuilder extends AndroidTargetBuilder<AndroidPreDexBuildTarget.MyRootDescriptor, AndroidPreDexBuildTarget> {
 
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.android.AndroidPreDexBuilder");
   @NonNls private static final String BUILDER_NAME = "Android Pre Dex";
 
   protected AndroidPreDexBuilder() {
@@ -65,8 +68,8 @@ public class AndroidPreDexBuilder extends AndroidTargetBuilder<AndroidPreDexBuil
 
   private static boolean doBuild(@NotNull AndroidPreDexBuildTarget target,
                                  @NotNull DirtyFilesHolder<AndroidPreDexBuildTarget.MyRootDescriptor, AndroidPreDexBuildTarget> holder,
-                                 @NotNull BuildOutputConsumer outputConsumer,
-                                 @NotNull CompileContext context) throws IOException, ProjectBuildException {
+                                 @NotNull final BuildOutputConsumer outputConsumer,
+                                 @NotNull final CompileContext context) throws IOException, ProjectBuildException {
     final List<Pair<File, String>> filesToPreDex = new ArrayList<Pair<File, String>>();
 
     holder.processDirtyFiles(new FileProcessor<AndroidPreDexBuildTarget.MyRootDescriptor, AndroidPreDexBuildTarget>() {
@@ -91,44 +94,50 @@ public class AndroidPreDexBuilder extends AndroidTargetBuilder<AndroidPreDexBuil
     if (platform == null) {
       return false;
     }
-    if (!filesToPreDex.isEmpty()) {
-      final File outputDir = target.getOutputFile(context);
-
-      for (Pair<File, String> pair : filesToPreDex) {
-        context.checkCanceled();
-
-        final File srcFile = pair.getFirst();
-        final String moduleName = pair.getSecond();
-        final String srcFilePath = srcFile.getAbsolutePath();
-        final File outputFile;
-
-        if (moduleName != null) {
-          context.processMessage(new ProgressMessage("Pre-dex [" + moduleName + "]"));
-          outputFile = new File(new File(outputDir, moduleName), srcFile.getName());
-        }
-        else {
-          context.processMessage(new ProgressMessage("Pre-dex: " + srcFile.getName()));
-          final String outputFileName = getOutputFileNameForExternalJar(srcFile);
-
-          if (outputFileName == null) {
-            context.processMessage(new CompilerMessage(BUILDER_NAME, BuildMessage.Kind.ERROR,
-                                                       "Cannot pre-dex file " + srcFilePath + ": incorrect path", srcFilePath));
-            return false;
-          }
-          outputFile = new File(outputDir, outputFileName);
-        }
+    if (filesToPreDex.isEmpty()) {
+      return true;
+    }
+    final File outputDir = target.getOutputFile(context);
+    final AndroidPreDexCache cache = AndroidPreDexCache.getInstance();
+    final List<MyPreDexTask> tasks = new ArrayList<MyPreDexTask>();
+
+    for (Pair<File, String> pair : filesToPreDex) {
+      final File srcFile = pair.getFirst();
+      final String moduleName = pair.getSecond();
+      final String srcFilePath = srcFile.getAbsolutePath();
+      final File outputFile;
+      final String progressMessage;
+
+      if (moduleName != null) {
+        progressMessage = "Pre-dex [" + moduleName + "]";
+        outputFile = new File(new File(outputDir, moduleName), srcFile.getName());
+      }
+      else {
+        progressMessage = "Pre-dex: " + srcFile.getName();
+        final String outputFileName = getOutputFileNameForExternalJar(srcFile);
 
-        if (AndroidJpsUtil.createDirIfNotExist(outputFile.getParentFile(), context, BUILDER_NAME) == null) {
+        if (outputFileName == null) {
+          context.processMessage(new CompilerMessage(BUILDER_NAME, BuildMessage.Kind.ERROR,
+                                                     "Cannot pre-dex file " + srcFilePath + ": incorrect path", srcFilePath));
           return false;
         }
+        outputFile = new File(outputDir, outputFileName);
+      }
 
-        if (!AndroidDexBuilder.runDex(platform, outputFile.getPath(), new String[]{srcFilePath}, context,
-          project, outputConsumer, BUILDER_NAME, srcFile.getName(), null)) {
-          return false;
-        }
+      if (AndroidJpsUtil.createDirIfNotExist(outputFile.getParentFile(), context, BUILDER_NAME) == null) {
+        return false;
       }
+      tasks.add(new MyPreDexTask(platform, context, project, cache, srcFile, outputFile, progressMessage));
     }
-    return true;
+    // the jars are pre-dexed in parallel, but the results are reported in order, as if they were pre-dexed sequentially
+    return AndroidToolExecutor.execute(context.getCancelStatus(), tasks, AndroidToolExecutor.getParallelism(),
+                                       new AndroidToolExecutor.ResultProcessor<Pair<String, AndroidDexBuilder.DexResult>>() {
+                                         @Override
+                                         public boolean process(Pair<String, AndroidDexBuilder.DexResult> result) throws IOException {
+                                           context.processMessage(new ProgressMessage(result.getFirst()));
+                                           return result.getSecond().report(context, outputConsumer);
+                                         }
+                                       });
   }
 
   public static boolean canBePreDexed(@NotNull File file) {
@@ -140,4 +149,49 @@ public class AndroidPreDexBuilder extends AndroidTargetBuilder<AndroidPreDexBuil
   public String getPresentableName() {
     return BUILDER_NAME;
   }
+
+  private static class MyPreDexTask implements Callable<Pair<String, AndroidDexBuilder.DexResult>> {
+    private final AndroidPlatform myPlatform;
+    private final CompileContext myContext;
+    private final JpsProject myProject;
+    @Nullable private final AndroidPreDexCache myCache;
+    private final File mySrcFile;
+    private final File myOutputFile;
+    private final String myProgressMessage;
+
+    private MyPreDexTask(@NotNull AndroidPlatform platform,
+                         @NotNull CompileContext context,
+                         @NotNull JpsProject project,
+                         @Nullable AndroidPreDexCache cache,
+                         @NotNull File srcFile,
+                         @NotNull File outputFile,
+                         @NotNull String progressMessage) {
+      myPlatform = platform;
+      myContext = context;
+      myProject = project;
+      myCache = cache;
+      mySrcFile = srcFile;
+      myOutputFile = outputFile;
+      myProgressMessage = progressMessage;
+    }
+
+    @Override
+    public Pair<String, AndroidDexBuilder.DexResult> call() throws IOException {
+      final String srcFilePath = mySrcFile.getAbsolutePath();
+      final String cacheKey = myCache != null ? AndroidPreDexCache.computeKey(mySrcFile, myPlatform, myProject) : null;
+
+      if (cacheKey != null && myCache.restore(cacheKey, myOutputFile)) {
+        LOG.debug("Pre-dexed jar restored from the cache: " + srcFilePath);
+        return Pair.create(myProgressMessage, new AndroidDexBuilder.DexResult(myOutputFile, Collections.singletonList(srcFilePath)));
+      }
+      final AndroidDexBuilder.DexResult result = AndroidDexBuilder.dex(
+        myPlatform, myOutputFile.getPath(), new String[]{srcFilePath}, myContext, myProject,
+        BUILDER_NAME, mySrcFile.getName(), null);
+
+      if (cacheKey != null && result.isSuccessful()) {
+        myCache.store(cacheKey, myOutputFile);
+      }
+      return Pair.create(myProgressMessage, result);
+    }
+  }
 }
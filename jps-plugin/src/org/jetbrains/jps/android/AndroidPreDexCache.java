@@ -0,0 +1,237 @@
+package org.jetbrains.jps.android;
+
+import com.android.prefs.AndroidLocation;
+import com.android.sdklib.BuildToolInfo;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.io.FileUtilRt;
+import com.intellij.openapi.util.text.StringUtil;
+import org.jetbrains.android.util.AndroidBuildTestingManager;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.android.model.JpsAndroidDexCompilerConfiguration;
+import org.jetbrains.jps.android.model.JpsAndroidExtensionService;
+import org.jetbrains.jps.model.JpsProject;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Cache of pre-dexed jars shared by all the projects of the user, so that the same library (e.g. the support library)
+ * is dexed once and not once per project.
+ * <p>
+ * The entries are keyed by the content of the jar, the build tools revision and the dx options. An entry is
+ * written to a temporary file and renamed, so that the cache can be used by several build processes at a time.
+ * When the cache is larger than its maximum size, the least recently used entries are deleted.
+ */
+class AndroidPreDexCache {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.android.AndroidPreDexCache");
+
+  @NonNls private static final String DISABLED_PROPERTY = "android.jps.pre.dex.cache.disabled";
+  @NonNls private static final String DIR_PROPERTY = "android.jps.pre.dex.cache.dir";
+  @NonNls private static final String MAX_SIZE_PROPERTY = "android.jps.pre.dex.cache.size.mb";
+  @NonNls private static final String DIR_NAME = "jps-pre-dex-cache";
+  @NonNls private static final String ENTRY_EXTENSION = "jar";
+  private static final int DEFAULT_MAX_SIZE_MB = 1024;
+  // to be incremented when the key or the format of the entries change
+  private static final int VERSION = 1;
+
+  private static final Object ourEvictionLock = new Object();
+
+  private final File myDir;
+  private final long myMaxSize;
+
+  private AndroidPreDexCache(@NotNull File dir, long maxSize) {
+    myDir = dir;
+    myMaxSize = maxSize;
+  }
+
+  /**
+   * Returns the cache, or null if it is disabled (with the {@code android.jps.pre.dex.cache.disabled} system property
+   * of the build process, or in build tests) or cannot be created. The directory of the cache can be set with
+   * the {@code android.jps.pre.dex.cache.dir} property and its size in MB with {@code android.jps.pre.dex.cache.size.mb}.
+   */
+  @Nullable
+  static AndroidPreDexCache getInstance() {
+    if (Boolean.getBoolean(DISABLED_PROPERTY) || AndroidBuildTestingManager.getTestingManager() != null) {
+      return null;
+    }
+    File dir;
+    final String dirPath = System.getProperty(DIR_PROPERTY);
+
+    if (dirPath != null) {
+      dir = new File(dirPath);
+    }
+    else {
+      try {
+        dir = new File(AndroidLocation.getFolder(), DIR_NAME);
+      }
+      catch (AndroidLocation.AndroidLocationException e) {
+        LOG.info("Pre-dex cache disabled: " + e.getMessage());
+        return null;
+      }
+    }
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      LOG.info("Pre-dex cache disabled: cannot create " + dir.getPath());
+      return null;
+    }
+    final long maxSizeMb = Math.max(0, Integer.getInteger(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE_MB));
+    return new AndroidPreDexCache(dir, maxSizeMb * 1024 * 1024);
+  }
+
+  /**
+   * Computes the key of the pre-dexed version of the jar
+   *
+   * @return the key, or null if the jar cannot be cached
+   */
+  @Nullable
+  static String computeKey(@NotNull File jar, @NotNull AndroidPlatform platform, @NotNull JpsProject project) throws IOException {
+    final BuildToolInfo buildToolInfo = platform.getTarget().getBuildToolInfo();
+
+    if (buildToolInfo == null) {
+      return null;
+    }
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    }
+    catch (NoSuchAlgorithmException e) {
+      LOG.info(e);
+      return null;
+    }
+    // the options passed to dx by AndroidDexBuilder for pre-dexing
+    final JpsAndroidDexCompilerConfiguration configuration =
+      JpsAndroidExtensionService.getInstance().getDexCompilerConfiguration(project);
+    final StringBuilder options = new StringBuilder();
+    options.append(VERSION).append(';').append(buildToolInfo.getRevision()).append(';');
+
+    if (configuration != null) {
+      options.append(configuration.isOptimize()).append(';')
+        .append(configuration.isForceJumbo()).append(';')
+        .append(configuration.isCoreLibrary()).append(';');
+    }
+    digest.update(options.toString().getBytes("UTF-8"));
+
+    final InputStream in = new BufferedInputStream(new FileInputStream(jar));
+    try {
+      final byte[] buffer = new byte[64 * 1024];
+      int read;
+
+      while ((read = in.read(buffer)) > 0) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    finally {
+      in.close();
+    }
+    return StringUtil.toHexString(digest.digest());
+  }
+
+  /**
+   * Copies the cached pre-dexed jar to the output file
+   *
+   * @return false if there is no entry for the key
+   */
+  boolean restore(@NotNull String key, @NotNull File outputFile) {
+    final File entry = getEntryFile(key);
+
+    if (!entry.isFile()) {
+      return false;
+    }
+    try {
+      FileUtil.copy(entry, outputFile);
+    }
+    catch (IOException e) {
+      // e.g. evicted by another build process in the meantime
+      LOG.info("Cannot restore pre-dexed jar " + entry.getPath(), e);
+      FileUtil.delete(outputFile);
+      return false;
+    }
+    // the last modification time is used as the last access time by the eviction
+    //noinspection ResultOfMethodCallIgnored
+    entry.setLastModified(System.currentTimeMillis());
+    return true;
+  }
+
+  /**
+   * Stores the pre-dexed jar and evicts the least recently used entries if the cache is too large
+   */
+  void store(@NotNull String key, @NotNull File preDexedJar) {
+    final File entry = getEntryFile(key);
+    File tempFile = null;
+
+    try {
+      tempFile = FileUtil.createTempFile(myDir, key, ".tmp", true, false);
+      FileUtil.copy(preDexedJar, tempFile);
+
+      if (!tempFile.renameTo(entry) && !entry.isFile()) {
+        LOG.info("Cannot store pre-dexed jar " + entry.getPath());
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot store pre-dexed jar " + entry.getPath(), e);
+    }
+    finally {
+      if (tempFile != null) {
+        // still there if another build process stored the same entry in the meantime
+        FileUtil.delete(tempFile);
+      }
+    }
+    evict();
+  }
+
+  private void evict() {
+    synchronized (ourEvictionLock) {
+      final File[] files = myDir.listFiles(new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+          return file.isFile() && FileUtilRt.extensionEquals(file.getName(), ENTRY_EXTENSION);
+        }
+      });
+
+      if (files == null) {
+        return;
+      }
+      final List<File> entries = new ArrayList<File>(Arrays.asList(files));
+      long size = 0;
+
+      for (File entry : entries) {
+        size += entry.length();
+      }
+      if (size <= myMaxSize) {
+        return;
+      }
+      // the timestamps are read once, they may be updated concurrently by the other build processes
+      final Map<File, Long> timestamps = new HashMap<File, Long>();
+
+      for (File entry : entries) {
+        timestamps.put(entry, entry.lastModified());
+      }
+      Collections.sort(entries, new Comparator<File>() {
+        @Override
+        public int compare(File f1, File f2) {
+          return timestamps.get(f1).compareTo(timestamps.get(f2));
+        }
+      });
+
+      for (File entry : entries) {
+        if (size <= myMaxSize) {
+          break;
+        }
+        final long length = entry.length();
+
+        if (FileUtil.delete(entry)) {
+          size -= length;
+        }
+      }
+    }
+  }
+
+  @NotNull
+  private File getEntryFile(@NotNull String key) {
+    return new File(myDir, key + '.' + ENTRY_EXTENSION);
+  }
+}
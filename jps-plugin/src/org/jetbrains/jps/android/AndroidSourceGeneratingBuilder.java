@@ -58,6 +58,7 @@ import org.jetbrains.jps.service.JpsServiceManager;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
  * @author Eugene.Kudelevsky
@@ -94,6 +95,7 @@ public class AndroidSourceGeneratingBuilder extends ModuleLevelBuilder {
   @Override
   public void buildStarted(CompileContext context) {
     IS_ENABLED.set(context, true);
+    AndroidBuildDataCache.initialize(context.getProjectDescriptor().dataManager.getDataPaths());
   }
 
   @Override
@@ -113,6 +115,9 @@ public class AndroidSourceGeneratingBuilder extends ModuleLevelBuilder {
     try {
       return doBuild(context, chunk, dirtyFilesHolder);
     }
+    catch (ProjectBuildException e) {
+      throw e;
+    }
     catch (Exception e) {
       return AndroidJpsUtil.handleException(context, e, BUILDER_NAME, LOG);
     }
@@ -126,7 +131,7 @@ public class AndroidSourceGeneratingBuilder extends ModuleLevelBuilder {
   private static ModuleLevelBuilder.ExitCode doBuild(CompileContext context,
                                                      ModuleChunk chunk,
                                                      DirtyFilesHolder<JavaSourceRootDescriptor, ModuleBuildTarget> dirtyFilesHolder)
-    throws IOException {
+    throws IOException, ProjectBuildException {
     final Map<JpsModule, MyModuleData> moduleDataMap = computeModuleDatas(chunk.getModules(), context);
     if (moduleDataMap == null || moduleDataMap.size() == 0) {
       return ExitCode.ABORT;
@@ -683,12 +688,13 @@ public class AndroidSourceGeneratingBuilder extends ModuleLevelBuilder {
 
   private static boolean runAidlCompiler(@NotNull final CompileContext context,
                                          @NotNull Map<File, ModuleBuildTarget> files,
-                                         @NotNull Map<JpsModule, MyModuleData> moduleDataMap) {
+                                         @NotNull Map<JpsModule, MyModuleData> moduleDataMap) throws ProjectBuildException, IOException {
     if (files.size() > 0) {
       context.processMessage(new ProgressMessage(AndroidJpsBundle.message("android.jps.progress.aidl")));
     }
 
     boolean success = true;
+    final List<MyToolTask> tasks = new ArrayList<MyToolTask>();
 
     for (Map.Entry<File, ModuleBuildTarget> entry : files.entrySet()) {
       final File file = entry.getKey();
@@ -732,117 +738,168 @@ public class AndroidSourceGeneratingBuilder extends ModuleLevelBuilder {
         final File outputFile = new File(aidlOutputDirectory, packageName.replace('.', File.separatorChar) +
                                                               File.separator + FileUtil.getNameWithoutExtension(file) + ".java");
         final String outputFilePath = outputFile.getPath();
-        final Map<AndroidCompilerMessageKind, List<String>> messages =
-          AndroidIdl.execute(target, filePath, outputFilePath, sourceRootPaths);
 
-        addMessages(context, messages, filePath, ANDROID_IDL_COMPILER);
+        tasks.add(new MyToolTask(file) {
+          @Override
+          protected Map<AndroidCompilerMessageKind, List<String>> execute() throws IOException {
+            return AndroidIdl.execute(target, filePath, outputFilePath, sourceRootPaths);
+          }
 
-        if (messages.get(AndroidCompilerMessageKind.ERROR).size() > 0) {
-          success = false;
-        }
-        else if (outputFile.exists()) {
-          final SourceToOutputMapping sourceToOutputMap = context.getProjectDescriptor().dataManager.getSourceToOutputMap(buildTarget);
-          sourceToOutputMap.setOutput(filePath, outputFilePath);
-          FSOperations.markDirty(context, CompilationRound.CURRENT, outputFile);
-        }
+          @Override
+          protected void processOutput() throws IOException {
+            if (outputFile.exists()) {
+              final SourceToOutputMapping sourceToOutputMap = context.getProjectDescriptor().dataManager.getSourceToOutputMap(buildTarget);
+              sourceToOutputMap.setOutput(filePath, outputFilePath);
+              FSOperations.markDirty(context, CompilationRound.CURRENT, outputFile);
+            }
+          }
+        });
       }
       catch (final IOException e) {
         AndroidJpsUtil.reportExceptionError(context, filePath, e, ANDROID_IDL_COMPILER);
         success = false;
       }
     }
-    return success;
+    return runToolTasks(context, tasks, ANDROID_IDL_COMPILER) && success;
   }
 
   private static boolean runRenderscriptCompiler(@NotNull final CompileContext context,
                                                  @NotNull Map<File, ModuleBuildTarget> files,
-                                                 @NotNull Map<JpsModule, MyModuleData> moduleDataMap) {
+                                                 @NotNull Map<JpsModule, MyModuleData> moduleDataMap)
+    throws ProjectBuildException, IOException {
     if (files.size() > 0) {
       context.processMessage(new ProgressMessage(AndroidJpsBundle.message("android.jps.progress.renderscript")));
     }
 
     boolean success = true;
+    final List<MyToolTask> tasks = new ArrayList<MyToolTask>();
+    final List<File> tmpOutputDirectories = new ArrayList<File>();
 
-    for (Map.Entry<File, ModuleBuildTarget> entry : files.entrySet()) {
-      final File file = entry.getKey();
-      final ModuleBuildTarget buildTarget = entry.getValue();
+    try {
+      for (Map.Entry<File, ModuleBuildTarget> entry : files.entrySet()) {
+        final File file = entry.getKey();
+        final ModuleBuildTarget buildTarget = entry.getValue();
+
+        final MyModuleData moduleData = moduleDataMap.get(buildTarget.getModule());
+        if (!LOG.assertTrue(moduleData != null)) {
+          context.processMessage(new CompilerMessage(ANDROID_RENDERSCRIPT_COMPILER, BuildMessage.Kind.ERROR,
+                                                     AndroidJpsBundle.message("android.jps.internal.error")));
+          success = false;
+          continue;
+        }
 
-      final MyModuleData moduleData = moduleDataMap.get(buildTarget.getModule());
-      if (!LOG.assertTrue(moduleData != null)) {
-        context.processMessage(new CompilerMessage(ANDROID_RENDERSCRIPT_COMPILER, BuildMessage.Kind.ERROR,
-                                                   AndroidJpsBundle.message("android.jps.internal.error")));
-        success = false;
-        continue;
-      }
+        final BuildDataManager dataManager = context.getProjectDescriptor().dataManager;
+        final File generatedSourcesDir = AndroidJpsUtil.getGeneratedSourcesStorage(buildTarget.getModule(), dataManager);
+        final File rsOutputDirectory = new File(generatedSourcesDir, AndroidJpsUtil.RENDERSCRIPT_GENERATED_SOURCE_ROOT_NAME);
+        if (!rsOutputDirectory.exists() && !rsOutputDirectory.mkdirs()) {
+          context.processMessage(new CompilerMessage(ANDROID_RENDERSCRIPT_COMPILER, BuildMessage.Kind.ERROR, AndroidJpsBundle
+            .message("android.jps.cannot.create.directory", rsOutputDirectory.getPath())));
+          success = false;
+          continue;
+        }
 
-      final BuildDataManager dataManager = context.getProjectDescriptor().dataManager;
-      final File generatedSourcesDir = AndroidJpsUtil.getGeneratedSourcesStorage(buildTarget.getModule(), dataManager);
-      final File rsOutputDirectory = new File(generatedSourcesDir, AndroidJpsUtil.RENDERSCRIPT_GENERATED_SOURCE_ROOT_NAME);
-      if (!rsOutputDirectory.exists() && !rsOutputDirectory.mkdirs()) {
-        context.processMessage(new CompilerMessage(ANDROID_RENDERSCRIPT_COMPILER, BuildMessage.Kind.ERROR, AndroidJpsBundle
-          .message("android.jps.cannot.create.directory", rsOutputDirectory.getPath())));
-        success = false;
-        continue;
-      }
+        final File generatedResourcesDir = AndroidJpsUtil.getGeneratedResourcesStorage(buildTarget.getModule(), dataManager);
+        final File rawDir = new File(generatedResourcesDir, "raw");
 
-      final File generatedResourcesDir = AndroidJpsUtil.getGeneratedResourcesStorage(buildTarget.getModule(), dataManager);
-      final File rawDir = new File(generatedResourcesDir, "raw");
+        if (!rawDir.exists() && !rawDir.mkdirs()) {
+          context.processMessage(new CompilerMessage(ANDROID_RENDERSCRIPT_COMPILER, BuildMessage.Kind.ERROR,
+                                                     AndroidJpsBundle.message("android.jps.cannot.create.directory", rawDir.getPath())));
+          success = false;
+          continue;
+        }
 
-      if (!rawDir.exists() && !rawDir.mkdirs()) {
-        context.processMessage(new CompilerMessage(ANDROID_RENDERSCRIPT_COMPILER, BuildMessage.Kind.ERROR,
-                                                   AndroidJpsBundle.message("android.jps.cannot.create.directory", rawDir.getPath())));
-        success = false;
-        continue;
-      }
+        final AndroidPlatform platform = moduleData.getPlatform();
+        final IAndroidTarget target = platform.getTarget();
+        final String sdkLocation = platform.getSdk().getHomePath();
+        final String filePath = file.getPath();
 
-      final AndroidPlatform platform = moduleData.getPlatform();
-      final IAndroidTarget target = platform.getTarget();
-      final String sdkLocation = platform.getSdk().getHomePath();
-      final String filePath = file.getPath();
+        try {
+          // each file is compiled into a directory of its own, the generated files are moved to the output directory in order
+          final File tmpOutputDirectory = FileUtil.createTempDirectory("generated-rs-temp", null);
+          tmpOutputDirectories.add(tmpOutputDirectory);
+          final String depFolderPath = getDependencyFolder(context, file, tmpOutputDirectory);
 
-      File tmpOutputDirectory = null;
+          tasks.add(new MyToolTask(file) {
+            @Override
+            protected Map<AndroidCompilerMessageKind, List<String>> execute() throws IOException {
+              return AndroidRenderscript.execute(sdkLocation, target, filePath, tmpOutputDirectory.getPath(), depFolderPath,
+                                                 rawDir.getPath());
+            }
 
-      try {
-        tmpOutputDirectory = FileUtil.createTempDirectory("generated-rs-temp", null);
-        final String depFolderPath = getDependencyFolder(context, file, tmpOutputDirectory);
+            @Override
+            protected void processOutput() throws IOException {
+              final List<File> newFiles = new ArrayList<File>();
+              AndroidCommonUtils.moveAllFiles(tmpOutputDirectory, rsOutputDirectory, newFiles);
 
-        final Map<AndroidCompilerMessageKind, List<String>> messages =
-          AndroidRenderscript.execute(sdkLocation, target, filePath, tmpOutputDirectory.getPath(), depFolderPath, rawDir.getPath());
+              final File bcFile = new File(rawDir, FileUtil.getNameWithoutExtension(file) + ".bc");
+              if (bcFile.exists()) {
+                newFiles.add(bcFile);
+              }
+              final List<String> newFilePaths = Arrays.asList(AndroidJpsUtil.toPaths(newFiles.toArray(new File[newFiles.size()])));
 
-        addMessages(context, messages, filePath, ANDROID_RENDERSCRIPT_COMPILER);
+              final SourceToOutputMapping sourceToOutputMap = dataManager.getSourceToOutputMap(buildTarget);
+              sourceToOutputMap.setOutputs(filePath, newFilePaths);
 
-        if (messages.get(AndroidCompilerMessageKind.ERROR).size() > 0) {
-          success = false;
+              for (File newFile : newFiles) {
+                FSOperations.markDirty(context, CompilationRound.CURRENT, newFile);
+              }
+            }
+          });
         }
-        else {
-          final List<File> newFiles = new ArrayList<File>();
-          AndroidCommonUtils.moveAllFiles(tmpOutputDirectory, rsOutputDirectory, newFiles);
-
-          final File bcFile = new File(rawDir, FileUtil.getNameWithoutExtension(file) + ".bc");
-          if (bcFile.exists()) {
-            newFiles.add(bcFile);
-          }
-          final List<String> newFilePaths = Arrays.asList(AndroidJpsUtil.toPaths(newFiles.toArray(new File[newFiles.size()])));
-
-          final SourceToOutputMapping sourceToOutputMap = dataManager.getSourceToOutputMap(buildTarget);
-          sourceToOutputMap.setOutputs(filePath, newFilePaths);
-
-          for (File newFile : newFiles) {
-            FSOperations.markDirty(context, CompilationRound.CURRENT, newFile);
-          }
+        catch (IOException e) {
+          AndroidJpsUtil.reportExceptionError(context, filePath, e, ANDROID_RENDERSCRIPT_COMPILER);
+          success = false;
         }
       }
-      catch (IOException e) {
-        AndroidJpsUtil.reportExceptionError(context, filePath, e, ANDROID_RENDERSCRIPT_COMPILER);
-        success = false;
-      }
-      finally {
-        if (tmpOutputDirectory != null) {
-          FileUtil.delete(tmpOutputDirectory);
-        }
+      return runToolTasks(context, tasks, ANDROID_RENDERSCRIPT_COMPILER) && success;
+    }
+    finally {
+      for (File tmpOutputDirectory : tmpOutputDirectories) {
+        FileUtil.delete(tmpOutputDirectory);
       }
     }
-    return success;
+  }
+
+  /**
+   * Runs the tool in parallel for all the files, then reports the messages and processes the output of each file
+   * on the build thread, in the order of the files.
+   */
+  private static boolean runToolTasks(@NotNull final CompileContext context,
+                                      @NotNull List<MyToolTask> tasks,
+                                      @NotNull final String builderName) throws ProjectBuildException, IOException {
+    final Ref<Boolean> success = Ref.create(true);
+
+    AndroidToolExecutor.execute(context.getCancelStatus(), tasks, AndroidToolExecutor.getParallelism(),
+                                new AndroidToolExecutor.ResultProcessor<MyToolTask>() {
+                                  @Override
+                                  public boolean process(MyToolTask task) throws IOException {
+                                    final String filePath = task.getFile().getPath();
+                                    final IOException error = task.getError();
+
+                                    if (error != null) {
+                                      AndroidJpsUtil.reportExceptionError(context, filePath, error, builderName);
+                                      success.set(false);
+                                      return true;
+                                    }
+                                    final Map<AndroidCompilerMessageKind, List<String>> messages = task.getMessages();
+                                    addMessages(context, messages, filePath, builderName);
+
+                                    if (messages.get(AndroidCompilerMessageKind.ERROR).size() > 0) {
+                                      success.set(false);
+                                    }
+                                    else {
+                                      try {
+                                        task.processOutput();
+                                      }
+                                      catch (IOException e) {
+                                        AndroidJpsUtil.reportExceptionError(context, filePath, e, builderName);
+                                        success.set(false);
+                                      }
+                                    }
+                                    return true;
+                                  }
+                                });
+    return success.get();
   }
 
   private static MyExitStatus runAaptCompiler(@NotNull final CompileContext context,
@@ -1527,6 +1584,49 @@ public class AndroidSourceGeneratingBuilder extends ModuleLevelBuilder {
     return result.toString();
   }
 
+  /**
+   * Runs a tool on a source file. {@link #execute()} is called on a pooled thread and must not use the compile context,
+   * {@link #processOutput()} is called on the build thread if the tool succeeded.
+   */
+  private abstract static class MyToolTask implements Callable<MyToolTask> {
+    private final File myFile;
+    private Map<AndroidCompilerMessageKind, List<String>> myMessages;
+    private IOException myError;
+
+    private MyToolTask(@NotNull File file) {
+      myFile = file;
+    }
+
+    protected abstract Map<AndroidCompilerMessageKind, List<String>> execute() throws IOException;
+
+    protected abstract void processOutput() throws IOException;
+
+    @Override
+    public MyToolTask call() {
+      try {
+        myMessages = execute();
+      }
+      catch (IOException e) {
+        myError = e;
+      }
+      return this;
+    }
+
+    @NotNull
+    public File getFile() {
+      return myFile;
+    }
+
+    public Map<AndroidCompilerMessageKind, List<String>> getMessages() {
+      return myMessages;
+    }
+
+    @Nullable
+    public IOException getError() {
+      return myError;
+    }
+  }
+
   private static class MyModuleData {
     private final AndroidPlatform myPlatform;
     private final JpsAndroidModuleExtension myAndroidExtension;
@@ -0,0 +1,175 @@
+package org.jetbrains.jps.android;
+
+import org.jetbrains.android.util.AndroidBuildTestingManager;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.jps.api.CanceledStatus;
+import org.jetbrains.jps.incremental.ProjectBuildException;
+import org.jetbrains.jps.incremental.StopBuildException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs independent invocations of the Android tools (dx, aidl, llvm-rs-cc) on a bounded number of threads.
+ * <p>
+ * The tasks must not report anything to the compile context: their results are passed back to the build
+ * thread in the order of the tasks, so the messages, the output registrations and the storage updates
+ * stay ordered and single-threaded as in a sequential build.
+ */
+public class AndroidToolExecutor {
+  @NonNls private static final String THREAD_COUNT_PROPERTY = "android.jps.tool.threads";
+  private static final int DEFAULT_MAX_THREAD_COUNT = 4;
+  private static final long CANCEL_CHECK_INTERVAL_MS = 100;
+
+  private AndroidToolExecutor() {
+  }
+
+  /**
+   * Returns the number of tool invocations run at the same time. It can be set with the
+   * {@code android.jps.tool.threads} system property of the build process; the tools are run one at a time
+   * in build tests, which check the order of the executed commands.
+   */
+  public static int getParallelism() {
+    if (AndroidBuildTestingManager.getTestingManager() != null) {
+      return 1;
+    }
+    final int defaultCount = Math.min(Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_THREAD_COUNT);
+    return Math.max(1, Integer.getInteger(THREAD_COUNT_PROPERTY, defaultCount));
+  }
+
+  /**
+   * Runs the tasks with at most {@code parallelism} of them at the same time, and passes their results to the
+   * processor on the calling thread, in the order of the tasks.
+   *
+   * @return false if the processor stopped the execution, in which case the remaining tasks are cancelled
+   * @throws StopBuildException if the build was cancelled; the tasks which did not start are not run and the
+   *                            running ones are interrupted, which destroys the tool processes they wait for.
+   *                            The method returns once all of them are finished
+   */
+  public static <T> boolean execute(@NotNull CanceledStatus cancelStatus,
+                                    @NotNull List<? extends Callable<T>> tasks,
+                                    int parallelism,
+                                    @NotNull ResultProcessor<T> processor) throws ProjectBuildException, IOException {
+    if (parallelism <= 1 || tasks.size() <= 1) {
+      for (Callable<T> task : tasks) {
+        checkCanceled(cancelStatus);
+        final T result;
+        try {
+          result = task.call();
+        }
+        catch (Exception e) {
+          throw rethrow(e);
+        }
+        if (!processor.process(result)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    final ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size()), new MyThreadFactory());
+
+    try {
+      final List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+
+      for (Callable<T> task : tasks) {
+        futures.add(executor.submit(task));
+      }
+      for (Future<T> future : futures) {
+        if (!processor.process(waitFor(future, cancelStatus))) {
+          return false;
+        }
+      }
+      return true;
+    }
+    finally {
+      // cancels the remaining tasks if we stopped early, and waits for the interrupted ones, so that no tool
+      // keeps running or writing its output once the build has moved on
+      executor.shutdownNow();
+      awaitTermination(executor);
+    }
+  }
+
+  private static void awaitTermination(@NotNull ExecutorService executor) {
+    boolean interrupted = false;
+
+    while (true) {
+      try {
+        if (executor.awaitTermination(CANCEL_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+          break;
+        }
+      }
+      catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static <T> T waitFor(@NotNull Future<T> future, @NotNull CanceledStatus cancelStatus)
+    throws ProjectBuildException, IOException {
+    while (true) {
+      checkCanceled(cancelStatus);
+      try {
+        return future.get(CANCEL_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+      }
+      catch (TimeoutException ignored) {
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new StopBuildException();
+      }
+      catch (ExecutionException e) {
+        throw rethrow(e.getCause() != null ? e.getCause() : e);
+      }
+    }
+  }
+
+  private static void checkCanceled(@NotNull CanceledStatus cancelStatus) throws StopBuildException {
+    if (cancelStatus.isCanceled()) {
+      throw new StopBuildException();
+    }
+  }
+
+  @NotNull
+  private static ProjectBuildException rethrow(@NotNull Throwable t) throws IOException {
+    if (t instanceof IOException) {
+      throw (IOException)t;
+    }
+    if (t instanceof RuntimeException) {
+      throw (RuntimeException)t;
+    }
+    if (t instanceof Error) {
+      throw (Error)t;
+    }
+    if (t instanceof ProjectBuildException) {
+      return (ProjectBuildException)t;
+    }
+    return new ProjectBuildException(t);
+  }
+
+  public interface ResultProcessor<T> {
+    /**
+     * Called on the build thread for the result of each task, in the order of the tasks.
+     *
+     * @return false to stop the execution
+     */
+    boolean process(T result) throws IOException;
+  }
+
+  private static class MyThreadFactory implements ThreadFactory {
+    private static final AtomicInteger ourThreadNumber = new AtomicInteger();
+
+    @Override
+    public Thread newThread(@NotNull Runnable r) {
+      final Thread thread = new Thread(r, "Android tool executor " + ourThreadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
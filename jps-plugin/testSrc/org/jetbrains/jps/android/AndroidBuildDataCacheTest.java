@@ -0,0 +1,137 @@
+package org.jetbrains.jps.android;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+import org.jetbrains.android.util.ResourceEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class AndroidBuildDataCacheTest extends TestCase {
+  private File myDir;
+  private File myStorageFile;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("android-build-data-cache", null);
+    myStorageFile = new File(myDir, "storage/parsed_value_resources.dat");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testParsedFilesArePersisted() throws Exception {
+    final File strings = createValuesFile("strings.xml", "first", "second");
+
+    AndroidBuildDataCache cache = new AndroidBuildDataCache(myStorageFile, 1000);
+    final List<ResourceEntry> entries = cache.getParsedValueResourceFile(strings);
+    assertEquals(2, entries.size());
+    assertEquals(new ResourceEntry("string", "first", ""), entries.get(0));
+    assertSame(entries, cache.getParsedValueResourceFile(strings));
+    assertEquals(1, cache.getParsedFileCount());
+    cache.save();
+
+    // next build
+    cache = new AndroidBuildDataCache(myStorageFile, 1000);
+    assertEquals(entries, cache.getParsedValueResourceFile(strings));
+    assertEquals(0, cache.getParsedFileCount());
+
+    // the file is parsed again when it changes
+    createValuesFile("strings.xml", "first", "second", "third");
+    assertEquals(3, cache.getParsedValueResourceFile(strings).size());
+    assertEquals(1, cache.getParsedFileCount());
+  }
+
+  public void testLeastRecentlyUsedFilesAreEvicted() throws Exception {
+    final File first = createValuesFile("first.xml", "a");
+    final File second = createValuesFile("second.xml", "b");
+    final File third = createValuesFile("third.xml", "c");
+
+    final AndroidBuildDataCache cache = new AndroidBuildDataCache(myStorageFile, 2);
+    cache.getParsedValueResourceFile(first);
+    cache.getParsedValueResourceFile(second);
+    cache.getParsedValueResourceFile(first);
+    cache.getParsedValueResourceFile(third);
+    assertEquals(3, cache.getParsedFileCount());
+
+    cache.getParsedValueResourceFile(first);
+    cache.getParsedValueResourceFile(third);
+    assertEquals(3, cache.getParsedFileCount());
+    cache.getParsedValueResourceFile(second);
+    assertEquals(4, cache.getParsedFileCount());
+  }
+
+  public void testConcurrentAccess() throws Exception {
+    final List<File> files = new ArrayList<File>();
+
+    for (int i = 0; i < 50; i++) {
+      files.add(createValuesFile("values" + i + ".xml", "a" + i, "b" + i));
+    }
+    final AndroidBuildDataCache cache = new AndroidBuildDataCache(myStorageFile, 1000);
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    try {
+      final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+
+      for (int thread = 0; thread < 8; thread++) {
+        futures.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws Exception {
+            final List<File> shuffled = new ArrayList<File>(files);
+            Collections.shuffle(shuffled);
+
+            for (File file : shuffled) {
+              final List<ResourceEntry> entries = cache.getParsedValueResourceFile(file);
+              final String index = FileUtil.getNameWithoutExtension(file).substring("values".length());
+
+              if (entries.size() != 2 || !entries.get(0).getName().equals("a" + index)) {
+                return false;
+              }
+            }
+            return true;
+          }
+        }));
+      }
+      for (Future<Boolean> future : futures) {
+        assertTrue(future.get());
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+    cache.save();
+    final AndroidBuildDataCache nextCache = new AndroidBuildDataCache(myStorageFile, 1000);
+
+    for (File file : files) {
+      assertEquals(2, nextCache.getParsedValueResourceFile(file).size());
+    }
+    assertEquals(0, nextCache.getParsedFileCount());
+  }
+
+  private File createValuesFile(String name, String... stringNames) throws IOException {
+    final StringBuilder builder = new StringBuilder("<resources>\n");
+
+    for (String stringName : stringNames) {
+      builder.append("  <string name=\"").append(stringName).append("\">").append(stringName).append("</string>\n");
+    }
+    builder.append("</resources>\n");
+    final File file = new File(myDir, "res/values/" + name);
+    FileUtil.writeToFile(file, builder.toString());
+    return file;
+  }
+}
@@ -0,0 +1,71 @@
+package org.jetbrains.jps.android;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class AndroidPreDexCacheTest extends TestCase {
+  private File myDir;
+  private AndroidPreDexCache myCache;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("pre-dex-cache", null);
+    System.setProperty("android.jps.pre.dex.cache.dir", new File(myDir, "cache").getPath());
+    System.setProperty("android.jps.pre.dex.cache.size.mb", "1");
+    myCache = AndroidPreDexCache.getInstance();
+    assertNotNull(myCache);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      System.clearProperty("android.jps.pre.dex.cache.dir");
+      System.clearProperty("android.jps.pre.dex.cache.size.mb");
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testStoreAndRestore() throws Exception {
+    final File output = new File(myDir, "output.jar");
+    assertFalse(myCache.restore("key", output));
+    assertFalse(output.exists());
+
+    myCache.store("key", createJar("pre-dexed.jar", 'a', 10));
+    assertTrue(myCache.restore("key", output));
+    assertEquals(FileUtil.loadFile(new File(myDir, "pre-dexed.jar")), FileUtil.loadFile(output));
+  }
+
+  public void testLeastRecentlyUsedEntriesAreEvicted() throws Exception {
+    // 400 KB each, the cache holds 1 MB
+    myCache.store("first", createJar("first.jar", 'a', 400 * 1024));
+    myCache.store("second", createJar("second.jar", 'b', 400 * 1024));
+
+    // the access times must differ for the file systems with a coarse timestamp precision
+    final File cacheDir = new File(myDir, "cache");
+    assertTrue(new File(cacheDir, "first.jar").setLastModified(System.currentTimeMillis() - 10000));
+    assertTrue(new File(cacheDir, "second.jar").setLastModified(System.currentTimeMillis() - 20000));
+    // restoring "first" makes it the most recently used entry
+    assertTrue(myCache.restore("first", new File(myDir, "output.jar")));
+
+    myCache.store("third", createJar("third.jar", 'c', 400 * 1024));
+    assertTrue(myCache.restore("first", new File(myDir, "output.jar")));
+    assertFalse(myCache.restore("second", new File(myDir, "output.jar")));
+    assertTrue(myCache.restore("third", new File(myDir, "output.jar")));
+  }
+
+  private File createJar(String name, char content, int length) throws IOException {
+    final char[] chars = new char[length];
+    Arrays.fill(chars, content);
+    final File file = new File(myDir, name);
+    FileUtil.writeToFile(file, new String(chars));
+    return file;
+  }
+}
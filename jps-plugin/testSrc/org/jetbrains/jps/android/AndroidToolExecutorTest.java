@@ -0,0 +1,173 @@
+package org.jetbrains.jps.android;
+
+import junit.framework.TestCase;
+import org.jetbrains.jps.api.CanceledStatus;
+import org.jetbrains.jps.incremental.StopBuildException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AndroidToolExecutorTest extends TestCase {
+  public void testResultsAreProcessedInOrder() throws Exception {
+    final List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+
+    for (int i = 0; i < 20; i++) {
+      final int index = i;
+      tasks.add(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          // the first tasks finish last
+          Thread.sleep(20 - index);
+          return index;
+        }
+      });
+    }
+    final List<Integer> results = Collections.synchronizedList(new ArrayList<Integer>());
+    final Thread buildThread = Thread.currentThread();
+
+    assertTrue(AndroidToolExecutor.execute(CanceledStatus.NULL, tasks, 4, new AndroidToolExecutor.ResultProcessor<Integer>() {
+      @Override
+      public boolean process(Integer result) {
+        assertSame(buildThread, Thread.currentThread());
+        results.add(result);
+        return true;
+      }
+    }));
+    assertEquals(20, results.size());
+
+    for (int i = 0; i < results.size(); i++) {
+      assertEquals(i, results.get(i).intValue());
+    }
+  }
+
+  public void testProcessorStopsExecution() throws Exception {
+    final AtomicInteger executed = new AtomicInteger();
+    final List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+
+    for (int i = 0; i < 100; i++) {
+      final int index = i;
+      tasks.add(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          executed.incrementAndGet();
+          Thread.sleep(10);
+          return index;
+        }
+      });
+    }
+    final List<Integer> results = new ArrayList<Integer>();
+
+    assertFalse(AndroidToolExecutor.execute(CanceledStatus.NULL, tasks, 2, new AndroidToolExecutor.ResultProcessor<Integer>() {
+      @Override
+      public boolean process(Integer result) {
+        results.add(result);
+        return result < 1;
+      }
+    }));
+    assertEquals(2, results.size());
+    // the pending tasks were cancelled
+    assertTrue(executed.get() < 100);
+  }
+
+  public void testCancel() throws Exception {
+    final AtomicBoolean canceled = new AtomicBoolean();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch interrupted = new CountDownLatch(1);
+    final List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+
+    for (int i = 0; i < 2; i++) {
+      tasks.add(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          started.countDown();
+          try {
+            Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+          }
+          catch (InterruptedException e) {
+            interrupted.countDown();
+            throw e;
+          }
+          return 0;
+        }
+      });
+    }
+    final Thread cancelingThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          started.await();
+        }
+        catch (InterruptedException ignored) {
+        }
+        canceled.set(true);
+      }
+    });
+    cancelingThread.start();
+
+    try {
+      AndroidToolExecutor.execute(new CanceledStatus() {
+        @Override
+        public boolean isCanceled() {
+          return canceled.get();
+        }
+      }, tasks, 2, new AndroidToolExecutor.ResultProcessor<Integer>() {
+        @Override
+        public boolean process(Integer result) {
+          fail("No task should finish");
+          return true;
+        }
+      });
+      fail("The build should be stopped");
+    }
+    catch (StopBuildException ignored) {
+    }
+    // the running tasks were interrupted
+    assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+    cancelingThread.join();
+  }
+
+  public void testStopWaitsForRunningTasks() throws Exception {
+    final AtomicInteger running = new AtomicInteger();
+    final CountDownLatch started = new CountDownLatch(2);
+    final List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+
+    for (int i = 0; i < 2; i++) {
+      final int index = i;
+      tasks.add(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          running.incrementAndGet();
+          started.countDown();
+          try {
+            started.await();
+
+            if (index > 0) {
+              // a tool which takes some time to stop once interrupted
+              final long end = System.currentTimeMillis() + 200;
+              while (System.currentTimeMillis() < end) {
+                Thread.yield();
+              }
+            }
+            return index;
+          }
+          finally {
+            running.decrementAndGet();
+          }
+        }
+      });
+    }
+    assertFalse(AndroidToolExecutor.execute(CanceledStatus.NULL, tasks, 2, new AndroidToolExecutor.ResultProcessor<Integer>() {
+      @Override
+      public boolean process(Integer result) {
+        return false;
+      }
+    }));
+    assertEquals(0, running.get());
+  }
+}
@@ -21,6 +21,7 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
@@ -44,6 +45,7 @@ public class AndroidDxRunner {
 
   @NonNls private final static String MAIN_RUN = "run";
 
+  private static String myLoadedDxPath;
   private static Method myMethod;
 
   private static Constructor<?> myConstructor;
@@ -63,13 +65,20 @@ public class AndroidDxRunner {
   private static Field myMinimalMainDex;
   private static Field myMainDexList;
 
+  private static PrintStream myOut = System.out;
+  private static PrintStream myErr = System.err;
+
   private AndroidDxRunner() { }
 
   private static void loadDex(String dxPath) {
+    if (myMethod != null && dxPath.equals(myLoadedDxPath)) {
+      // already loaded by a previous in-process run
+      return;
+    }
     try {
       File f = new File(dxPath);
       if (!f.isFile()) {
-        System.err.println("File not found: " + dxPath);
+        myErr.println("File not found: " + dxPath);
         return;
       }
       URL url = f.toURI().toURL();
@@ -99,6 +108,7 @@ public class AndroidDxRunner {
       myMultiDex = getFieldIfPossible(argClass, "multiDex");
       myMainDexList = getFieldIfPossible(argClass, "mainDexListFile");
       myMinimalMainDex = getFieldIfPossible(argClass, "minimalMainDex");
+      myLoadedDxPath = dxPath;
     }
     catch (SecurityException e) {
       reportError("Unable to find API for dex.jar", e);
@@ -135,9 +145,12 @@ public class AndroidDxRunner {
                             boolean coreLibrary, boolean multiDex, String mainDexList, boolean minimalMainDex) {
     loadDex(dxPath);
 
+    if (myMethod == null) {
+      return -1;
+    }
     try {
-      myConsoleErr.set(null, System.err);
-      myConsoleOut.set(null, System.out);
+      myConsoleErr.set(null, myErr);
+      myConsoleOut.set(null, myOut);
 
       Object args = myConstructor.newInstance();
       myOutNameField.set(args, outFilePath);
@@ -205,12 +218,12 @@ public class AndroidDxRunner {
   }
 
   private static void reportError(String message, Throwable t) {
-    System.err.println(message);
-    t.printStackTrace();
+    myErr.println(message);
+    t.printStackTrace(myErr);
   }
 
   private static void reportWarning(String message) {
-    System.err.println("warning: " + message);
+    myErr.println("warning: " + message);
   }
 
   private static void collectFiles(File root, Collection<String> result, Set<String> visited, Set<String> qNames) throws IOException {
@@ -257,16 +270,30 @@ public class AndroidDxRunner {
   }
 
   public static void main(String[] args) {
+    run(args, System.out, System.err);
+  }
+
+  /**
+   * Runs dx with the arguments of {@link #main(String[])}, printing its output to the given streams.
+   * The build process calls it through reflection to dex without launching a JVM. The loaded dx classes are
+   * reused by the next runs, so it must be loaded by a class loader dedicated to one thread at a time.
+   *
+   * @return the exit code of dx, or -1 if it cannot be run
+   */
+  public static int run(String[] args, PrintStream out, PrintStream err) {
+    myOut = out;
+    myErr = err;
+
     if (args.length == 0) {
-      System.err.println("Error: dx path must be passed as first argument");
+      myErr.println("Error: dx path must be passed as first argument");
     }
     String dxPath = args[0];
     if (args.length == 1) {
-      System.err.println("Error: out file path must be passed as second argument");
+      myErr.println("Error: out file path must be passed as second argument");
     }
     String outFilePath = args[1];
     if (args.length == 2) {
-      System.err.println("Error: no files");
+      myErr.println("Error: no files");
     }
 
     Set<String> files = new HashSet<String>();
@@ -333,6 +360,6 @@ public class AndroidDxRunner {
     files.removeAll(Arrays.asList(excludedFiles));
     String[] filesArray = files.toArray(new String[files.size()]);
     //System.out.println("file names: " + concat(filesArray));
-    runDex(dxPath, outFilePath, filesArray, optimize, forceJumbo, coreLibrary, multiDex, mainDexList, minimalMainDex);
+    return runDex(dxPath, outFilePath, filesArray, optimize, forceJumbo, coreLibrary, multiDex, mainDexList, minimalMainDex);
   }
 }
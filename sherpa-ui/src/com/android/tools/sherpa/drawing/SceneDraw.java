@@ -31,6 +31,7 @@ import com.android.tools.sherpa.interaction.SnapCandidate;
 import com.android.tools.sherpa.interaction.WidgetInteractionTargets;
 import com.android.tools.sherpa.interaction.WidgetMotion;
 import com.android.tools.sherpa.interaction.WidgetResize;
+import com.android.tools.sherpa.structure.SolverCache;
 import com.android.tools.sherpa.structure.WidgetCompanion;
 import com.android.tools.sherpa.structure.WidgetsScene;
 import com.android.tools.sherpa.structure.Selection;
@@ -79,6 +80,7 @@ public class SceneDraw {
     private ConstraintAnchor mCurrentUnderneathAnchor;
     private boolean mMoveOnlyMode = false;
     private boolean mApplyConstraints = true;
+    private final SolverCache mSolverCache = new SolverCache();
 
     private Repaintable mRepaintableSurface;
 
@@ -513,7 +515,7 @@ public class SceneDraw {
         mViewWidth = width;
         mViewHeight = height;
         if (mApplyConstraints) {
-            root.layout();
+            mSolverCache.layout(root);
         }
 
         // Adapt the anchor size
@@ -731,6 +733,17 @@ public class SceneDraw {
      */
     public void setApplyConstraints(boolean applyConstraints) {
         this.mApplyConstraints = applyConstraints;
+        mSolverCache.invalidate();
+    }
+
+    /**
+     * Accessor to the solver cache used when applying constraints during painting,
+     * which also keeps the solve time statistics
+     *
+     * @return the solver cache
+     */
+    public SolverCache getSolverCache() {
+        return mSolverCache;
     }
 
     /**
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.sherpa.scout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Grid index over the bounds of the widgets of a layout, used to restrict
+ * the inference tables to the widgets close to each other.
+ * For every widget it returns the closest widgets lying in each direction,
+ * plus the root and all the guidelines (which are always candidates).
+ * The index is immutable once built and can be queried from several threads.
+ */
+class ScoutNeighborIndex {
+    static final int NEIGHBORS_PER_DIRECTION = 10;
+
+    private final ScoutWidget[] mList;
+    private final int[] mGuidelines;
+    private final float mMinX;
+    private final float mMinY;
+    private final float mCellSize;
+    private final int mCols;
+    private final int mRows;
+    private final int[][] mCells; // widget numbers in each cell, row major
+
+    /**
+     * Build the index
+     *
+     * @param list ordered list of widgets root must be list[0]
+     */
+    ScoutNeighborIndex(ScoutWidget[] list) {
+        mList = list;
+        float minX = 0, minY = 0;
+        float maxX = list[0].getWidth(), maxY = list[0].getHeight();
+        int count = 0;
+        int guidelines = 0;
+        for (int i = 1; i < list.length; i++) {
+            ScoutWidget widget = list[i];
+            if (widget.isGuideline()) {
+                guidelines++;
+                continue;
+            }
+            minX = Math.min(minX, widget.getX());
+            minY = Math.min(minY, widget.getY());
+            maxX = Math.max(maxX, widget.getX() + widget.getWidth());
+            maxY = Math.max(maxY, widget.getY() + widget.getHeight());
+            count++;
+        }
+        mGuidelines = new int[guidelines];
+        guidelines = 0;
+        for (int i = 1; i < list.length; i++) {
+            if (list[i].isGuideline()) {
+                mGuidelines[guidelines++] = i;
+            }
+        }
+
+        // roughly one widget per cell
+        int side = Math.max(1, (int) Math.ceil(Math.sqrt(count)));
+        mMinX = minX;
+        mMinY = minY;
+        mCellSize = Math.max(1, Math.max(maxX - minX, maxY - minY) / side);
+        mCols = cell(maxX - minX) + 1;
+        mRows = cell(maxY - minY) + 1;
+
+        int[] sizes = new int[mCols * mRows];
+        for (int i = 1; i < list.length; i++) {
+            if (list[i].isGuideline()) {
+                continue;
+            }
+            int[] range = getCellRange(list[i]);
+            for (int row = range[2]; row <= range[3]; row++) {
+                for (int col = range[0]; col <= range[1]; col++) {
+                    sizes[row * mCols + col]++;
+                }
+            }
+        }
+        mCells = new int[sizes.length][];
+        for (int c = 0; c < sizes.length; c++) {
+            mCells[c] = new int[sizes[c]];
+            sizes[c] = 0;
+        }
+        for (int i = 1; i < list.length; i++) {
+            if (list[i].isGuideline()) {
+                continue;
+            }
+            int[] range = getCellRange(list[i]);
+            for (int row = range[2]; row <= range[3]; row++) {
+                for (int col = range[0]; col <= range[1]; col++) {
+                    int c = row * mCols + col;
+                    mCells[c][sizes[c]++] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the cells covered by a widget
+     *
+     * @return first column, last column, first row and last row
+     */
+    private int[] getCellRange(ScoutWidget widget) {
+        return new int[] {
+                Math.min(mCols - 1, cell(widget.getX() - mMinX)),
+                Math.min(mCols - 1, cell(widget.getX() + widget.getWidth() - mMinX)),
+                Math.min(mRows - 1, cell(widget.getY() - mMinY)),
+                Math.min(mRows - 1, cell(widget.getY() + widget.getHeight() - mMinY))
+        };
+    }
+
+    private int cell(float offset) {
+        return Math.max(0, (int) (offset / mCellSize));
+    }
+
+    /**
+     * Get the candidate widgets for connections from a widget.
+     * This is the root, the guidelines and the widgets closest to the widget in each direction.
+     *
+     * @param widgetNumber index of the widget in the list
+     * @return sorted widget numbers
+     */
+    @SuppressWarnings("unchecked")
+    int[] getCandidates(int widgetNumber) {
+        ScoutWidget from = mList[widgetNumber];
+        if (from.isGuideline()) {
+            return new int[] { 0 };
+        }
+        int[] range = getCellRange(from);
+        int col1 = range[0];
+        int col2 = range[1];
+        int row1 = range[2];
+        int row2 = range[3];
+        int maxRing = Math.max(Math.max(col1, mCols - 1 - col2), Math.max(row1, mRows - 1 - row2));
+
+        Direction[] directions = { Direction.NORTH, Direction.SOUTH, Direction.WEST, Direction.EAST };
+        ArrayList<Neighbor>[] found = new ArrayList[directions.length];
+        for (int d = 0; d < directions.length; d++) {
+            found[d] = new ArrayList<>();
+        }
+        boolean[] seen = new boolean[mList.length];
+        seen[0] = true;
+        seen[widgetNumber] = true;
+
+        // Visit the cells ring by ring around the widget. Once every direction has enough
+        // neighbors, one more ring is visited to pick up closer widgets in the corners.
+        int stopRing = -1;
+        for (int ring = 0; ring <= maxRing && (stopRing < 0 || ring <= stopRing); ring++) {
+            for (int row = row1 - ring; row <= row2 + ring; row++) {
+                if (row < 0 || row >= mRows) {
+                    continue;
+                }
+                // only the first and last columns of the inner rows belong to the ring
+                boolean edgeRow = ring == 0 || row == row1 - ring || row == row2 + ring;
+                int step = edgeRow ? 1 : col2 - col1 + 2 * ring;
+                for (int col = col1 - ring; col <= col2 + ring; col += step) {
+                    if (col < 0 || col >= mCols) {
+                        continue;
+                    }
+                    for (int candidate : mCells[row * mCols + col]) {
+                        if (seen[candidate]) {
+                            continue;
+                        }
+                        seen[candidate] = true;
+                        ScoutWidget to = mList[candidate];
+                        Neighbor neighbor = null;
+                        for (int d = 0; d < directions.length; d++) {
+                            if (isInDirection(from, to, directions[d])) {
+                                if (neighbor == null) {
+                                    neighbor = new Neighbor(candidate, ScoutWidget.distance(from, to));
+                                }
+                                found[d].add(neighbor);
+                            }
+                        }
+                    }
+                }
+            }
+            if (stopRing < 0) {
+                boolean enough = true;
+                for (ArrayList<Neighbor> neighbors : found) {
+                    enough &= neighbors.size() >= NEIGHBORS_PER_DIRECTION;
+                }
+                if (enough) {
+                    stopRing = ring + 1;
+                }
+            }
+        }
+
+        boolean[] selected = new boolean[mList.length];
+        selected[0] = true;
+        for (int guideline : mGuidelines) {
+            selected[guideline] = true;
+        }
+        for (ArrayList<Neighbor> neighbors : found) {
+            neighbors.sort((n1, n2) -> Float.compare(n1.mDistance, n2.mDistance));
+            for (int i = 0; i < neighbors.size() && i < NEIGHBORS_PER_DIRECTION; i++) {
+                selected[neighbors.get(i).mWidgetNumber] = true;
+            }
+        }
+        int[] candidates = new int[mList.length];
+        int count = 0;
+        for (int i = 0; i < selected.length; i++) {
+            if (selected[i]) {
+                candidates[count++] = i;
+            }
+        }
+        return Arrays.copyOf(candidates, count);
+    }
+
+    /**
+     * Is the widget "to" (at least partially) on the given side of "from"
+     */
+    private static boolean isInDirection(ScoutWidget from, ScoutWidget to, Direction direction) {
+        switch (direction) {
+            case NORTH:
+                return to.getY() < from.getY();
+            case SOUTH:
+                return to.getY() + to.getHeight() > from.getY() + from.getHeight();
+            case WEST:
+                return to.getX() < from.getX();
+            case EAST:
+                return to.getX() + to.getWidth() > from.getX() + from.getWidth();
+            default:
+                return false;
+        }
+    }
+
+    private static class Neighbor {
+        final int mWidgetNumber;
+        final float mDistance;
+
+        Neighbor(int widgetNumber, float distance) {
+            mWidgetNumber = widgetNumber;
+            mDistance = distance;
+        }
+    }
+}
@@ -20,6 +20,7 @@ import java.awt.*;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.stream.IntStream;
 
 /**
  * Inference Probability tables
@@ -44,8 +45,17 @@ public class ScoutProbabilities {
     private static final int MAX_ROOT_OVERHANG = 10;
     private static final boolean SKIP_SPARSE_COLUMNS = true;
 
-    float[][][] mProbability; // probability of a connection
+    private static final int PARALLEL_THRESHOLD = 64;
+    private static final Direction[][] CENTER_SIDES =
+            { { Direction.NORTH, Direction.SOUTH }, { Direction.WEST, Direction.EAST } };
+
+    // The tables are sparse: for each widget only the connections to nearby widgets
+    // (see ScoutNeighborIndex) are evaluated. A candidate connection is encoded as
+    // widgetNumber * connectTypes + side, candidates are sorted in increasing order.
+    int[][][] mCandidates; // candidate connections for each widget and direction
+    float[][][] mProbability; // probability of a connection, parallel to mCandidates
     float[][][] mMargin; // margin needed for that connection
+    int[][][][] mBinaryCandidates; // candidates (widgetNumber * 2 + side) for both ends of a centered connection
     float[][][][] mBinaryBias; // Ratio needed for binary connections (should be .5 for now)
     float[][][][] mBinaryProbability; // probability of a left_right/up_down
     int len;
@@ -65,76 +75,154 @@ public class ScoutProbabilities {
 
         len = list.length;
 
+        mCandidates = new int[len][][];
         mProbability = new float[len][][];
         mMargin = new float[len][][];
+        mBinaryCandidates = new int[len][][][];
+        mBinaryProbability = new float[len][][][];
+        mBinaryBias = new float[len][][][];
+
+        // each widget only fills its own rows of the tables so they can be computed in parallel
+        ScoutNeighborIndex index = new ScoutNeighborIndex(list);
+        IntStream widgets = IntStream.range(1, len);
+        if (len > PARALLEL_THRESHOLD) {
+            widgets = widgets.parallel();
+        }
+        widgets.forEach(i -> computeWidgetTables(list, i, index.getCandidates(i)));
+
+        if (DEBUG) {
+            printTable(list);
+        }
+    }
 
+    /**
+     * Calculate the probability tables of one widget
+     *
+     * @param list      widgets (0 is root)
+     * @param i         the widget to compute the tables for
+     * @param neighbors the sorted widget numbers it can connect to
+     */
+    private void computeWidgetTables(ScoutWidget[] list, int i, int[] neighbors) {
         // calculate probability for normal connections
         float[] result = new float[2]; // estimation function return 2 values probability & margin
 
-        for (int i = 1; i < len; i++) { // for all non root widgets
+        if (!list[i].isGuideline()) {
             Direction[] all = Direction.getAllDirections();
-            if (list[i].isGuideline()) {
-                continue;
-            }
+            mCandidates[i] = new int[all.length][];
             mProbability[i] = new float[all.length][];
             mMargin[i] = new float[all.length][];
             for (int dir = 0; dir < all.length; dir++) { // for all possible connections
                 Direction direction = Direction.get(dir);
                 int connectTypes = direction.connectTypes();
 
-                // create the multidimensional array on the fly
+                // create the arrays on the fly
                 // to account for the variying size of the probability space
-                mProbability[i][dir] = new float[len * connectTypes];
-                mMargin[i][dir] = new float[len * connectTypes];
+                int[] candidates = new int[neighbors.length * connectTypes];
+                for (int n = 0; n < neighbors.length; n++) {
+                    for (int opposite = 0; opposite < connectTypes; opposite++) {
+                        candidates[n * connectTypes + opposite] = neighbors[n] * connectTypes + opposite;
+                    }
+                }
+                mCandidates[i][dir] = candidates;
+                mProbability[i][dir] = new float[candidates.length];
+                mMargin[i][dir] = new float[candidates.length];
 
                 // fill in all candidate connections
-                for (int candidate = 0; candidate < mMargin[i][dir].length; candidate++) {
-                    int widgetNumber = candidate / connectTypes;
-                    int opposite = candidate % connectTypes;
+                for (int c = 0; c < candidates.length; c++) {
+                    int widgetNumber = candidates[c] / connectTypes;
+                    int opposite = candidates[c] % connectTypes;
                     Direction connectTo = (opposite == 0) ? direction : direction.getOpposite();
 
                     estimateProbability(list[i], direction, list[widgetNumber],
                             connectTo, list, result);
-                    mProbability[i][dir][candidate] = result[RESULT_PROBABILITY];
-                    mMargin[i][dir][candidate] = result[RESULT_MARGIN];
+                    mProbability[i][dir][c] = result[RESULT_PROBABILITY];
+                    mMargin[i][dir][c] = result[RESULT_MARGIN];
                 }
             }
         }
 
         // calculate probability for "centered" connections
-        mBinaryProbability = new float[len][2][len * 2][len * 2];
-        mBinaryBias = new float[len][2][len * 2][len * 2];
-        Direction[][] directions =
-                { { Direction.NORTH, Direction.SOUTH }, { Direction.WEST, Direction.EAST } };
-        for (int i = 1; i < len; i++) {
-            for (int horizontal = 0; horizontal < 2; horizontal++) { // vert=0 or horizantal=1
-                Direction[] sides = directions[horizontal];
-                for (int candidate1 = 0; candidate1 < len * 2; candidate1++) {
-                    for (int candidate2 = 0; candidate2 < len * 2; candidate2++) {
-
-                        // candidates are 2 per widget (left/right or above/below)
-                        int widget1Number = candidate1 / 2;
-                        int widget2Number = candidate2 / 2;
-
-                        // pick the sides to connect
-                        Direction widget1Side = sides[candidate1 & 0x1];
-                        Direction widget2Side = sides[candidate2 & 0x1];
-
-                        estimateBinaryProbability(list[i], horizontal,
-                                list[widget1Number], widget1Side,
-                                list[widget2Number], widget2Side,
-                                list, result);
-                        mBinaryProbability[i][horizontal][candidate1][candidate2] =
-                                result[RESULT_PROBABILITY];
-                        mBinaryBias[i][horizontal][candidate1][candidate2] =
-                                result[RESULT_MARGIN];
-                    }
+        mBinaryCandidates[i] = new int[2][][];
+        mBinaryProbability[i] = new float[2][][];
+        mBinaryBias[i] = new float[2][][];
+        for (int horizontal = 0; horizontal < 2; horizontal++) { // vert=0 or horizantal=1
+            Direction[] sides = CENTER_SIDES[horizontal];
+            int[] candidates1 = getCenterCandidates(list, list[i], neighbors, sides, true);
+            int[] candidates2 = getCenterCandidates(list, list[i], neighbors, sides, false);
+            float[][] probability = new float[candidates1.length][candidates2.length];
+            float[][] bias = new float[candidates1.length][candidates2.length];
+            for (int c1 = 0; c1 < candidates1.length; c1++) {
+                for (int c2 = 0; c2 < candidates2.length; c2++) {
+
+                    // candidates are 2 per widget (left/right or above/below)
+                    int widget1Number = candidates1[c1] / 2;
+                    int widget2Number = candidates2[c2] / 2;
+
+                    // pick the sides to connect
+                    Direction widget1Side = sides[candidates1[c1] & 0x1];
+                    Direction widget2Side = sides[candidates2[c2] & 0x1];
+
+                    estimateBinaryProbability(list[i], horizontal,
+                            list[widget1Number], widget1Side,
+                            list[widget2Number], widget2Side,
+                            list, result);
+                    probability[c1][c2] = result[RESULT_PROBABILITY];
+                    bias[c1][c2] = result[RESULT_MARGIN];
                 }
             }
+            mBinaryCandidates[i][horizontal] = new int[][] { candidates1, candidates2 };
+            mBinaryProbability[i][horizontal] = probability;
+            mBinaryBias[i][horizontal] = bias;
         }
-        if (DEBUG) {
-            printTable(list);
+    }
+
+    /**
+     * Get the candidates for one end of a centered connection.
+     * Sides lying on the wrong side of the widget can never be centered on
+     * (except for the root which is allowed a small overhang) and are skipped.
+     *
+     * @param from      the widget to center
+     * @param neighbors the widget numbers it can connect to
+     * @param sides     the two sides in the orientation of the connection
+     * @param leading   true for the top/left end of the connection
+     * @return the candidates as widgetNumber * 2 + side
+     */
+    private static int[] getCenterCandidates(ScoutWidget[] list, ScoutWidget from, int[] neighbors,
+            Direction[] sides, boolean leading) {
+        float location = from.getLocation(sides[leading ? 0 : 1]);
+        int[] candidates = new int[neighbors.length * 2];
+        int count = 0;
+        for (int neighbor : neighbors) {
+            ScoutWidget to = list[neighbor];
+            for (int side = 0; side < 2; side++) {
+                float gap = leading ? location - to.getLocation(sides[side])
+                        : to.getLocation(sides[side]) - location;
+                if (gap >= 0 || to.isRoot()) {
+                    candidates[count++] = neighbor * 2 + side;
+                }
+            }
+        }
+        return Arrays.copyOf(candidates, count);
+    }
+
+    /**
+     * Get the number of entries in the probability tables
+     *
+     * @return the number of connections evaluated by computeConstraints
+     */
+    public long getTableSize() {
+        long size = 0;
+        for (int i = 1; i < len; i++) {
+            if (mCandidates[i] != null) {
+                for (int[] candidates : mCandidates[i]) {
+                    size += candidates.length;
+                }
+            }
+            for (int[][] candidates : mBinaryCandidates[i]) {
+                size += (long) candidates[0].length * candidates[1].length;
+            }
         }
+        return size;
     }
 
     /**
@@ -281,14 +369,21 @@ public class ScoutProbabilities {
                 }
             }
             // zero out probabilities of connecting to each other we are going to take care of it here
+            boolean[] inGroup = new boolean[list.length];
             for (int i = 0; i < widgets.length; i++) {
-                for (int j = 0; j < widgets.length; j++) {
-                    int l = map[j] * 2;
-                    for (int k = 2; k < 2 * list.length; k++) {
-                        mBinaryProbability[map[i]][1][l][k] = -1;
-                        mBinaryProbability[map[i]][1][k][l] = -1;
-                        mBinaryProbability[map[i]][1][l + 1][k] = -1;
-                        mBinaryProbability[map[i]][1][k][l + 1] = -1;
+                inGroup[map[i]] = true;
+            }
+            for (int i = 0; i < widgets.length; i++) {
+                int[][] candidates = mBinaryCandidates[map[i]][1];
+                float[][] probability = mBinaryProbability[map[i]][1];
+                for (int c1 = 0; c1 < candidates[0].length; c1++) {
+                    for (int c2 = 0; c2 < candidates[1].length; c2++) {
+                        int widget1Number = candidates[0][c1] / 2;
+                        int widget2Number = candidates[1][c2] / 2;
+                        if ((inGroup[widget1Number] && widget2Number != 0)
+                                || (inGroup[widget2Number] && widget1Number != 0)) {
+                            probability[c1][c2] = -1;
+                        }
                     }
                 }
             }
@@ -322,10 +417,13 @@ public class ScoutProbabilities {
 
             if (bestToConnect >= 0) {
                 Utils.max(mBinaryProbability[map[bestToConnect]][1], dualIndex);
-                ScoutWidget w1 = list[dualIndex[0] / 2];
-                ScoutWidget w2 = list[dualIndex[1] / 2];
-                Direction dir1 = ((dualIndex[0] & 0x1) == 0) ? Direction.WEST : Direction.EAST;
-                Direction dir2 = ((dualIndex[1] & 0x1) == 0) ? Direction.WEST : Direction.EAST;
+                int[][] candidates = mBinaryCandidates[map[bestToConnect]][1];
+                int candidate1 = candidates[0][dualIndex[0]];
+                int candidate2 = candidates[1][dualIndex[1]];
+                ScoutWidget w1 = list[candidate1 / 2];
+                ScoutWidget w2 = list[candidate2 / 2];
+                Direction dir1 = ((candidate1 & 0x1) == 0) ? Direction.WEST : Direction.EAST;
+                Direction dir2 = ((candidate2 & 0x1) == 0) ? Direction.WEST : Direction.EAST;
                 widgets[bestToConnect].setCentered(0, w1, w2, dir1, dir2, 0);
 
                 for (int i = bestToConnect + 1; i < widgets.length; i++) {
@@ -388,6 +486,7 @@ public class ScoutProbabilities {
             float maxSouth = widgetProbability[south][Utils.max(widgetProbability[south])];
 
             int maxIndex = Utils.max(widgetProbability[baseline]);
+            int maxWidget = mCandidates[i][baseline][maxIndex]; // one baseline connection per widget
             float maxBaseline = widgetProbability[baseline][maxIndex];
             if (maxBaseline < maxNorth || maxBaseline < maxSouth) {
                 continue;
@@ -396,12 +495,12 @@ public class ScoutProbabilities {
             String s;
             if (DEBUG) {
                 System.out.println(" b check " + list[i] + " " + widgetProbability[4][maxIndex]);
-                s = list[i] + "(" + Direction.toString(baseline) + ") -> " + list[maxIndex] + " " +
+                s = list[i] + "(" + Direction.toString(baseline) + ") -> " + list[maxWidget] + " " +
                         Direction.toString(baseline);
                 System.out.println("try " + s);
             }
 
-            if (list[i].setConstraint(baseline, list[maxIndex], baseline, 0)) {
+            if (list[i].setConstraint(baseline, list[maxWidget], baseline, 0)) {
                 Utils.zero(mBinaryProbability[i][Direction.ORIENTATION_VERTICAL]);
                 Arrays.fill(widgetProbability[baseline], 0.0f);
                 widgetProbability[north] = null;
@@ -427,6 +526,7 @@ public class ScoutProbabilities {
         for (int i = 1; i < len; i++) {
             float[][][] widgetBinaryProbability = mBinaryProbability[i];
             float[][][] widgetBinaryBias = mBinaryBias[i];
+            int[][][] widgetBinaryCandidates = mBinaryCandidates[i];
 
             for (int horizontal = 0; horizontal < widgetBinaryProbability.length;
                     horizontal++) { // vert=0 or horizontals=1
@@ -440,10 +540,12 @@ public class ScoutProbabilities {
                     Utils.max(pmatrix, dualIndex);
                     int max1 = dualIndex[0];
                     int max2 = dualIndex[1];
-                    int wNo1 = max1 / 2;
-                    int wNo2 = max2 / 2;
-                    Direction widget1Side = side[horizontal][max1 & 0x1];
-                    Direction widget2Side = side[horizontal][max2 & 0x1];
+                    int candidate1 = widgetBinaryCandidates[horizontal][0][max1];
+                    int candidate2 = widgetBinaryCandidates[horizontal][1][max2];
+                    int wNo1 = candidate1 / 2;
+                    int wNo2 = candidate2 / 2;
+                    Direction widget1Side = side[horizontal][candidate1 & 0x1];
+                    Direction widget2Side = side[horizontal][candidate2 & 0x1];
 
                     // pick the sides to connect
                     float centerProbability = pmatrix[max1][max2];
@@ -521,13 +623,14 @@ public class ScoutProbabilities {
                         continue;
                     }
                     int m, cDir;
+                    int candidate = mCandidates[i][maxDirection][maxIndex];
                     if (maxDirection == baseline) { // baseline connection
-                        m = maxIndex;
+                        m = candidate;
                         cDir = baseline; // always baseline
                     } else {
-                        m = maxIndex / 2;
+                        m = candidate / 2;
                         cDir = maxDirection;
-                        if (maxIndex % 2 == 1) {
+                        if (candidate % 2 == 1) {
                             cDir = cDir ^ 1;
                         }
                     }
@@ -870,26 +973,39 @@ public class ScoutProbabilities {
             System.out.print(dbg + ((i == len - 1) ? "\n" : ""));
         }
 
-        String str = "[";
-        for (int con = 0; con < len * 2; con++) {
-            int opposite = con & 0x1;
-            str += (con / 2 + ((opposite == 0) ? "->" : "<-") + "           ").substring(0, 10);
-        }
-
-        System.out.println("  " + str);
-
         for (int i = 1; i < len; i++) {
             for (int dir = 0; dir < mBinaryProbability[i].length;
-                    dir++) { // above, below, left, right
-                String tab = "";
+                    dir++) { // vertical, horizontal
+                if (mBinaryProbability[i][dir] == null) {
+                    continue;
+                }
+                String tab = candidatesToString(mBinaryCandidates[i][dir][1], 2) + "\n  ";
                 for (int k = 0; k < mBinaryProbability[i][dir].length; k++) {
-                    tab += Utils.toS(mBinaryProbability[i][dir][k]) + "\n  ";
+                    tab += candidatesToString(new int[] { mBinaryCandidates[i][dir][0][k] }, 2)
+                            + Utils.toS(mBinaryProbability[i][dir][k]) + "\n  ";
                 }
-                System.out.println(Direction.toString(dir) + " " + tab);
+                System.out.println(i + " " + dir + " " + tab);
             }
         }
     }
 
+    /**
+     * Get a printable header for a row of candidates
+     *
+     * @param candidates   the candidate connections
+     * @param connectTypes the number of connection types per widget
+     * @return the candidates as fixed length strings
+     */
+    private static String candidatesToString(int[] candidates, int connectTypes) {
+        String str = "[";
+        for (int candidate : candidates) {
+            int opposite = candidate % connectTypes;
+            str += (candidate / connectTypes + ((opposite == 0) ? "->" : "<-") + "           ")
+                    .substring(0, 10);
+        }
+        return str + "]";
+    }
+
     /**
      * Prints the tables involved in the normal widget asociations.
      *
@@ -913,22 +1029,20 @@ public class ScoutProbabilities {
             System.out.print(dbg + ((i == len - 1) ? "\n" : ""));
         }
 
-        String str = "[";
-        for (int con = 0; con < len * 2; con++) {
-            int opposite = con & 0x1;
-            str += (con / 2 + ((opposite == 0) ? "->" : "<-") + "           ").substring(0, 10);
-        }
-
         String header = ("Connection " + padd).substring(0, SIZE);
 
-        System.out.println(header + " " + str);
+        System.out.println(header);
 
         for (int i = 1; i < len; i++) {
             if (mProbability[i] == null) {
                 continue;
             }
             for (int dir = 0; dir < mProbability[i].length; dir++) { // above, below, left, right
-
+                if (mProbability[i][dir] == null) {
+                    continue;
+                }
+                System.out.println(padd + " " + candidatesToString(mCandidates[i][dir],
+                        Direction.get(dir).connectTypes()));
                 System.out.println(
                         Utils.leftTrim(padd + i + " " + Direction.toString(dir), SIZE) + " " +
                                 Utils.toS(mProbability[i][dir]));
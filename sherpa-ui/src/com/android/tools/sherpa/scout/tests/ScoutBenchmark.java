@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.sherpa.scout.tests;
+
+import android.support.constraint.solver.widgets.ConstraintWidget;
+import android.support.constraint.solver.widgets.ConstraintWidgetContainer;
+import com.android.tools.sherpa.scout.ScoutProbabilities;
+import com.android.tools.sherpa.scout.ScoutWidget;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Benchmark for the Scout inference tables
+ * Runs the constraint inference on synthetic layouts of 10 to 1000 widgets
+ * and reports the time taken and the size of the probability tables.
+ */
+public class ScoutBenchmark {
+    private static final int[] SIZES = { 10, 50, 150, 500, 1000 };
+    private static final int WARMUP = 3;
+    private static final int ITERATIONS = 5;
+
+    interface LayoutGenerator {
+        ConstraintWidget[] create(int count, Random random);
+    }
+
+    /**
+     * Rows of buttons
+     */
+    static ConstraintWidget[] createGrid(int count, Random random) {
+        int cols = Math.max(1, (int) Math.sqrt(count));
+        ArrayList<ConstraintWidget> widgets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int x = 16 + (i % cols) * 116;
+            int y = 16 + (i / cols) * 56;
+            widgets.add(createWidget("button" + i, x, y, 100, 40, 28));
+        }
+        return createLayout(widgets);
+    }
+
+    /**
+     * Label and text field pairs in a single column
+     */
+    static ConstraintWidget[] createForm(int count, Random random) {
+        ArrayList<ConstraintWidget> widgets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int row = i / 2;
+            if (i % 2 == 0) {
+                widgets.add(createWidget("label" + i, 16, 16 + row * 48, 80 + random.nextInt(40), 20, 16));
+            } else {
+                widgets.add(createWidget("field" + i, 140, 10 + row * 48, 200, 32, 22));
+            }
+        }
+        return createLayout(widgets);
+    }
+
+    /**
+     * Widgets of random size at random positions
+     */
+    static ConstraintWidget[] createRandom(int count, Random random) {
+        int size = (int) (Math.sqrt(count) * 120);
+        ArrayList<ConstraintWidget> widgets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int width = 20 + random.nextInt(120);
+            int height = 20 + random.nextInt(60);
+            widgets.add(createWidget("widget" + i, random.nextInt(size), random.nextInt(size), width, height,
+                    random.nextBoolean() ? height * 3 / 4 : 0));
+        }
+        return createLayout(widgets);
+    }
+
+    private static ConstraintWidget createWidget(String name, int x, int y, int width, int height, int baseline) {
+        ConstraintWidget widget = new ConstraintWidget(x, y, width, height);
+        widget.setDebugName(name);
+        widget.setBaselineDistance(baseline);
+        return widget;
+    }
+
+    private static ConstraintWidget[] createLayout(ArrayList<ConstraintWidget> widgets) {
+        ConstraintWidgetContainer root = new ConstraintWidgetContainer();
+        root.setDebugName("root");
+        int width = 0;
+        int height = 0;
+        for (ConstraintWidget widget : widgets) {
+            width = Math.max(width, widget.getX() + widget.getWidth() + 16);
+            height = Math.max(height, widget.getY() + widget.getHeight() + 16);
+            root.add(widget);
+        }
+        root.setWidth(width);
+        root.setHeight(height);
+        widgets.add(0, root);
+        return widgets.toArray(new ConstraintWidget[widgets.size()]);
+    }
+
+    /**
+     * Number of entries the tables had when every pair of widgets was evaluated
+     */
+    private static long denseTableSize(int len) {
+        return (len - 1) * (4L * 2 * len + len) + (len - 1) * 2L * (2L * len) * (2L * len);
+    }
+
+    private static void run(String name, LayoutGenerator generator) {
+        for (int size : SIZES) {
+            long computeTime = 0;
+            long applyTime = 0;
+            long tableSize = 0;
+            for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+                ConstraintWidget[] widgets = generator.create(size, new Random(size));
+                ScoutWidget[] list = ScoutWidget.create(widgets);
+                ScoutProbabilities table = new ScoutProbabilities();
+
+                long start = System.nanoTime();
+                table.computeConstraints(list);
+                long computed = System.nanoTime();
+                table.applyConstraints(list);
+                long applied = System.nanoTime();
+
+                if (i >= WARMUP) {
+                    computeTime += computed - start;
+                    applyTime += applied - computed;
+                    tableSize = table.getTableSize();
+                }
+            }
+            System.out.println(String.format("%-8s %5d widgets: compute %8.2fms apply %8.2fms table %9d entries (dense %d)",
+                    name, size, computeTime * 1E-6 / ITERATIONS, applyTime * 1E-6 / ITERATIONS, tableSize,
+                    denseTableSize(size + 1)));
+        }
+    }
+
+    public static void main(String[] args) {
+        run("grid", ScoutBenchmark::createGrid);
+        run("form", ScoutBenchmark::createForm);
+        run("random", ScoutBenchmark::createRandom);
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.sherpa.structure;
+
+import android.support.constraint.solver.widgets.ConstraintAnchor;
+import android.support.constraint.solver.widgets.ConstraintWidget;
+import android.support.constraint.solver.widgets.Guideline;
+import android.support.constraint.solver.widgets.WidgetContainer;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Keeps the signature of the last solved system, so that painting the same
+ * widgets again (e.g. a repaint while the mouse moves without changing anything)
+ * does not solve the whole system again.
+ *
+ * The signature covers everything the solver reads (positions, dimensions,
+ * constraints, biases, chains, guidelines and the hierarchy itself) and is computed
+ * after each solve, once the widgets hold the solved positions. Any change since then
+ * gives a different signature and a full solve.
+ *
+ * Also records the time spent solving, as a histogram.
+ */
+public class SolverCache {
+
+    /**
+     * Upper bounds (exclusive, in ms) of the solve time histogram buckets;
+     * the last bucket counts the solves taking longer than the last bound.
+     */
+    private static final int[] BUCKET_LIMITS_MS = { 1, 2, 4, 8, 16, 32, 64 };
+
+    private WidgetContainer mLastRoot;
+    private long mLastSignature;
+    private boolean mValid;
+
+    private final long[] mSolveTimes = new long[BUCKET_LIMITS_MS.length + 1];
+    private long mSolveCount;
+    private long mSkipCount;
+    private long mTotalSolveNanos;
+
+    /**
+     * Solve the system of the given root, unless nothing changed since the last solve
+     *
+     * @param root the root of the system
+     * @return true if the system was solved, false if the cached result was still valid
+     */
+    public boolean layout(WidgetContainer root) {
+        if (mValid && root == mLastRoot && computeSignature(root) == mLastSignature) {
+            mSkipCount++;
+            return false;
+        }
+        long start = System.nanoTime();
+        root.layout();
+        record(System.nanoTime() - start);
+        mLastRoot = root;
+        mLastSignature = computeSignature(root);
+        mValid = true;
+        return true;
+    }
+
+    /**
+     * Force the next call to {@link #layout(WidgetContainer)} to solve the system
+     */
+    public void invalidate() {
+        mValid = false;
+    }
+
+    private void record(long nanos) {
+        mSolveCount++;
+        mTotalSolveNanos += nanos;
+        long ms = nanos / 1000000;
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS_MS.length && ms >= BUCKET_LIMITS_MS[bucket]) {
+            bucket++;
+        }
+        mSolveTimes[bucket]++;
+    }
+
+    /**
+     * Accessor to the upper bounds of the histogram buckets
+     *
+     * @return the bounds in ms
+     */
+    public static int[] getHistogramLimits() {
+        return Arrays.copyOf(BUCKET_LIMITS_MS, BUCKET_LIMITS_MS.length);
+    }
+
+    /**
+     * Accessor to the solve time histogram. The bucket i counts the solves
+     * shorter than getHistogramLimits()[i] ms, the last bucket counts the longer ones.
+     *
+     * @return the number of solves per bucket
+     */
+    public long[] getSolveTimeHistogram() {
+        return Arrays.copyOf(mSolveTimes, mSolveTimes.length);
+    }
+
+    public long getSolveCount() {
+        return mSolveCount;
+    }
+
+    public long getSkipCount() {
+        return mSkipCount;
+    }
+
+    public double getAverageSolveTimeMs() {
+        return mSolveCount == 0 ? 0 : mTotalSolveNanos / 1e6 / mSolveCount;
+    }
+
+    public void resetStatistics() {
+        Arrays.fill(mSolveTimes, 0);
+        mSolveCount = 0;
+        mSkipCount = 0;
+        mTotalSolveNanos = 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("SolverCache{solves=").append(mSolveCount)
+                .append(", skipped=").append(mSkipCount)
+                .append(String.format(", avg=%.2fms", getAverageSolveTimeMs()))
+                .append(", histogram=[");
+        for (int i = 0; i < mSolveTimes.length; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            if (i < BUCKET_LIMITS_MS.length) {
+                builder.append('<').append(BUCKET_LIMITS_MS[i]);
+            } else {
+                builder.append(">=").append(BUCKET_LIMITS_MS[BUCKET_LIMITS_MS.length - 1]);
+            }
+            builder.append("ms: ").append(mSolveTimes[i]);
+        }
+        return builder.append("]}").toString();
+    }
+
+    /*-----------------------------------------------------------------------*/
+    // Signature
+    /*-----------------------------------------------------------------------*/
+
+    private static long computeSignature(ConstraintWidget widget) {
+        long signature = 17;
+        signature = 31 * signature + System.identityHashCode(widget);
+        signature = 31 * signature + widget.getX();
+        signature = 31 * signature + widget.getY();
+        signature = 31 * signature + widget.getWidth();
+        signature = 31 * signature + widget.getHeight();
+        signature = 31 * signature + widget.getMinWidth();
+        signature = 31 * signature + widget.getMinHeight();
+        signature = 31 * signature + widget.getWrapWidth();
+        signature = 31 * signature + widget.getWrapHeight();
+        signature = 31 * signature + widget.getVisibility();
+        signature = 31 * signature + widget.getHorizontalDimensionBehaviour().ordinal();
+        signature = 31 * signature + widget.getVerticalDimensionBehaviour().ordinal();
+        signature = 31 * signature + Float.floatToIntBits(widget.getHorizontalBiasPercent());
+        signature = 31 * signature + Float.floatToIntBits(widget.getVerticalBiasPercent());
+        signature = 31 * signature + widget.getHorizontalChainStyle();
+        signature = 31 * signature + widget.getVerticalChainStyle();
+        // While an animation is running the solved and drawn positions differ, keep solving
+        // until they match so the animation progresses
+        if (widget.getDrawX() != widget.getX() || widget.getDrawY() != widget.getY()
+                || widget.getDrawWidth() != widget.getWidth()
+                || widget.getDrawHeight() != widget.getHeight()) {
+            signature = 31 * signature + System.nanoTime();
+        }
+        Object companion = widget.getCompanionWidget();
+        if (companion instanceof WidgetCompanion) {
+            String ratio = ((WidgetCompanion) companion).getWidgetProperties().getDimensionRatio();
+            signature = 31 * signature + Objects.hashCode(ratio);
+        }
+        if (widget instanceof Guideline) {
+            Guideline guideline = (Guideline) widget;
+            signature = 31 * signature + guideline.getRelativeBehaviour();
+            signature = 31 * signature + guideline.getRelativeBegin();
+            signature = 31 * signature + guideline.getRelativeEnd();
+            signature = 31 * signature + Float.floatToIntBits(guideline.getRelativePercent());
+        }
+        for (ConstraintAnchor anchor : widget.getAnchors()) {
+            ConstraintAnchor target = anchor.getTarget();
+            if (target == null) {
+                continue;
+            }
+            signature = 31 * signature + anchor.getType().ordinal();
+            signature = 31 * signature + System.identityHashCode(target.getOwner());
+            signature = 31 * signature + target.getType().ordinal();
+            signature = 31 * signature + anchor.getMargin();
+            signature = 31 * signature + anchor.getStrength().ordinal();
+        }
+        if (widget instanceof WidgetContainer) {
+            WidgetContainer container = (WidgetContainer) widget;
+            signature = 31 * signature + container.getChildren().size();
+            for (ConstraintWidget child : container.getChildren()) {
+                signature = 31 * signature + computeSignature(child);
+            }
+        }
+        return signature;
+    }
+}
@@ -449,6 +449,9 @@ public class WidgetsScene {
             if (!decorator.isVisible()) {
                 continue;
             }
+            if (isOutOfAnchorRange(widget, x, y, candidate, viewTransform)) {
+                continue;
+            }
             WidgetInteractionTargets widgetInteraction = companion.getWidgetInteractionTargets();
             widgetInteraction.updatePosition(viewTransform);
             widgetInteraction.findClosestConnection(viewTransform, x, y, candidate, mousePress);
@@ -456,6 +459,35 @@ public class WidgetsScene {
         return candidate.anchorTarget;
     }
 
+    /**
+     * Check if all the anchors of a widget are further away from (x, y) than the
+     * current candidate, using the bounds of the widget. This lets findAnchor() skip
+     * the widgets far from the mouse without updating their interaction targets.
+     * Containers and guidelines are never skipped, as their anchors can be picked
+     * from anywhere along their sides.
+     *
+     * @param widget        the widget to check
+     * @param x             x coordinate
+     * @param y             y coordinate
+     * @param candidate     the current candidate
+     * @param viewTransform the view transform
+     * @return true if none of the anchors of the widget can be closer than the candidate
+     */
+    private static boolean isOutOfAnchorRange(ConstraintWidget widget, float x, float y,
+            ConnectionCandidate candidate, ViewTransform viewTransform) {
+        if (widget instanceof ConstraintWidgetContainer || widget instanceof Guideline) {
+            return false;
+        }
+        // anchors are on the sides, the center or the baseline of the widget
+        int l = widget.getDrawX();
+        int t = widget.getDrawY();
+        int r = l + widget.getDrawWidth();
+        int b = t + Math.max(widget.getDrawHeight(), widget.getBaselineDistance());
+        float dx = x < l ? l - x : (x > r ? x - r : 0);
+        float dy = y < t ? t - y : (y > b ? y - b : 0);
+        return viewTransform.getSwingDimensionF(dx * dx + dy * dy) > candidate.distance;
+    }
+
     /*-----------------------------------------------------------------------*/
     // Private functions
     /*-----------------------------------------------------------------------*/